@@ -0,0 +1,252 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Finds classes annotated with ODataMapping or with one of the XML node
+ * element mappings and generates a registry class that lists them. Node
+ * classes are listed with a constructor reference as their factory. The
+ * registry is declared as a service so the library can find the classes
+ * at run time without scanning the class path.
+ * 
+ * The registry class is named ODataGeneratedRegistry and goes in the 
+ * package that all the annotated classes have in common. The option 
+ * jesharepoint.registry can be used to choose the fully qualified name 
+ * instead. Classes that aren't public can't be listed and are left to be
+ * found by scanning.
+ * 
+ * @author maber01
+ */
+public class ODataMappingProcessor extends AbstractProcessor
+{
+  static final String ODATA_MAPPING = "uk.ac.leedsbeckett.jesharepoint.odata.annotation.ODataMapping";
+  static final String NODE_ANNOTATION_PACKAGE = "uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.annotation";
+  static final Set<String> NODE_MAPPINGS = Set.of( 
+          NODE_ANNOTATION_PACKAGE + ".AtomElementMapping", 
+          NODE_ANNOTATION_PACKAGE + ".ODataMElementMapping",
+          NODE_ANNOTATION_PACKAGE + ".ODataElementMapping" );
+  static final String REGISTRY_INTERFACE = "uk.ac.leedsbeckett.jesharepoint.odata.annotation.ODataRegistry";
+  static final String NODE_FACTORY = "uk.ac.leedsbeckett.jesharepoint.odata.sax.XmlNodeFactory";
+  static final String REGISTRY_SIMPLE_NAME = "ODataGeneratedRegistry";
+  
+  /**
+   * The processor option that sets the name of the generated class.
+   */
+  public static final String OPTION_REGISTRY = "jesharepoint.registry";
+  
+  private final TreeSet<String> mappedClasses = new TreeSet<>();
+  private final TreeSet<String> nodeClasses = new TreeSet<>();
+  private final TreeSet<String> packages = new TreeSet<>();
+  private final List<Element> originatingElements = new ArrayList<>();
+  private boolean written = false;
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes()
+  {
+    TreeSet<String> types = new TreeSet<>( NODE_MAPPINGS );
+    types.add( ODATA_MAPPING );
+    return types;
+  }
+
+  @Override
+  public Set<String> getSupportedOptions()
+  {
+    return Set.of( OPTION_REGISTRY );
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion()
+  {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv )
+  {
+    boolean found = false;
+    for ( TypeElement annotation : annotations )
+    {
+      String annotationName = annotation.getQualifiedName().toString();
+      for ( Element e : roundEnv.getElementsAnnotatedWith( annotation ) )
+      {
+        if ( e.getKind() != ElementKind.CLASS )
+          continue;
+        TypeElement type = (TypeElement)e;
+        if ( !isAccessible( type ) )
+        {
+          processingEnv.getMessager().printMessage( Diagnostic.Kind.NOTE, 
+                  "Not public so can only be found by scanning the class path.", e );
+          continue;
+        }
+        String name = type.getQualifiedName().toString();
+        if ( ODATA_MAPPING.equals( annotationName ) )
+          mappedClasses.add( name );
+        else if ( type.getModifiers().contains( Modifier.ABSTRACT ) )
+        {
+          processingEnv.getMessager().printMessage( Diagnostic.Kind.WARNING, 
+                  "Abstract node classes can't be instantiated.", e );
+          continue;
+        }
+        else
+          nodeClasses.add( name );
+        packages.add( processingEnv.getElementUtils().getPackageOf( type ).getQualifiedName().toString() );
+        originatingElements.add( e );
+        found = true;
+      }
+    }
+    
+    // Classes are normally all found in the first round so the registry is
+    // written then, which means it is compiled in the same compilation.
+    if ( found )
+    {
+      if ( written )
+        processingEnv.getMessager().printMessage( Diagnostic.Kind.WARNING, 
+                "Annotated classes generated by other processors are not in the registry." );
+      else
+        write();
+    }
+    return false;
+  }
+  
+  /**
+   * A class literal can only be used if the class and any classes it is 
+   * nested in are public.
+   */
+  private static boolean isAccessible( TypeElement type )
+  {
+    Element e = type;
+    while ( e != null && !(e instanceof PackageElement) )
+    {
+      if ( !e.getModifiers().contains( Modifier.PUBLIC ) )
+        return false;
+      e = e.getEnclosingElement();
+    }
+    return true;
+  }
+  
+  private String registryName()
+  {
+    String name = processingEnv.getOptions().get( OPTION_REGISTRY );
+    if ( name != null && !name.isBlank() )
+      return name.trim();
+    String common = null;
+    for ( String p : packages )
+      common = ( common == null ) ? p : commonPackage( common, p );
+    if ( common == null || common.isEmpty() )
+      return REGISTRY_SIMPLE_NAME;
+    return common + "." + REGISTRY_SIMPLE_NAME;
+  }
+  
+  private static String commonPackage( String a, String b )
+  {
+    String[] as = a.split( "\\." );
+    String[] bs = b.split( "\\." );
+    StringBuilder sb = new StringBuilder();
+    for ( int i=0; i<as.length && i<bs.length && as[i].equals( bs[i] ); i++ )
+    {
+      if ( i > 0 ) sb.append( '.' );
+      sb.append( as[i] );
+    }
+    return sb.toString();
+  }
+  
+  private void write()
+  {
+    written = true;
+    String name = registryName();
+    int dot = name.lastIndexOf( '.' );
+    String packageName = dot < 0 ? null : name.substring( 0, dot );
+    String simpleName = name.substring( dot + 1 );
+    Element[] originating = originatingElements.toArray( new Element[0] );
+    
+    try
+    {
+      try ( Writer w = processingEnv.getFiler().createSourceFile( name, originating ).openWriter() )
+      {
+        if ( packageName != null )
+          w.write( "package " + packageName + ";\n\n" );
+        w.write( "import java.util.HashMap;\n" );
+        w.write( "import java.util.List;\n" );
+        w.write( "import java.util.Map;\n" );
+        w.write( "import " + NODE_FACTORY + ";\n\n" );
+        w.write( "/**\n" );
+        w.write( " * Lists the classes with OData mapping annotations in this compilation.\n" );
+        w.write( " * Generated by " + ODataMappingProcessor.class.getName() + ".\n" );
+        w.write( " */\n" );
+        w.write( "@javax.annotation.processing.Generated( \"" + ODataMappingProcessor.class.getName() + "\" )\n" );
+        w.write( "public final class " + simpleName + " implements " + REGISTRY_INTERFACE + "\n{\n" );
+        writeList( w, "getMappedClasses", mappedClasses );
+        w.write( "\n" );
+        writeFactories( w, nodeClasses );
+        w.write( "}\n" );
+      }
+      
+      FileObject services = processingEnv.getFiler().createResource( 
+              StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + REGISTRY_INTERFACE, originating );
+      try ( Writer w = services.openWriter() )
+      {
+        w.write( name + "\n" );
+      }
+    }
+    catch ( IOException ex )
+    {
+      processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "Unable to write OData registry: " + ex.getMessage() );
+    }
+  }
+
+  private static void writeFactories( Writer w, TreeSet<String> classes ) throws IOException
+  {
+    w.write( "  @Override\n" );
+    w.write( "  public Map<Class<?>,XmlNodeFactory> getNodeFactories()\n  {\n" );
+    w.write( "    HashMap<Class<?>,XmlNodeFactory> map = new HashMap<>();\n" );
+    for ( String c : classes )
+      w.write( "    map.put( " + c + ".class, " + c + "::new );\n" );
+    w.write( "    return map;\n  }\n" );
+  }
+
+  private static void writeList( Writer w, String method, TreeSet<String> classes ) throws IOException
+  {
+    w.write( "  @Override\n" );
+    w.write( "  public List<Class<?>> " + method + "()\n  {\n" );
+    w.write( "    return List.of(" );
+    boolean first = true;
+    for ( String c : classes )
+    {
+      w.write( first ? "\n" : ",\n" );
+      w.write( "            " + c + ".class" );
+      first = false;
+    }
+    w.write( " );\n  }\n" );
+  }
+}
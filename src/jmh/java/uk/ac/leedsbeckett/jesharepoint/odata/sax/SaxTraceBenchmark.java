@@ -0,0 +1,119 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.sax;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+import uk.ac.leedsbeckett.jesharepoint.odata.TypeMap;
+
+/**
+ * Parses a 10,000 entry Atom feed of users with the SAX handler's trace
+ * switched on, which is how the handler behaved before the trace was made
+ * opt-in, and switched off.
+ * 
+ * @author maber01
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class SaxTraceBenchmark
+{
+  private static final String BASE = "https://example.sharepoint.com/sites/x/_api/";
+  private static final String NAMESPACES = 
+          " xmlns=\"http://www.w3.org/2005/Atom\"" +
+          " xmlns:d=\"http://schemas.microsoft.com/ado/2007/08/dataservices\"" +
+          " xmlns:m=\"http://schemas.microsoft.com/ado/2007/08/dataservices/metadata\"";
+  
+  @Param( { "10000" } )
+  int entries;
+  
+  @Param( { "true", "false" } )
+  boolean trace;
+  
+  private byte[] feed;
+  private SAXParser parser;
+  private TypeMap typeMap;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    feed = feed( entries ).getBytes( StandardCharsets.UTF_8 );
+    SAXParserFactory spf = SAXParserFactory.newInstance();
+    spf.setNamespaceAware( true );
+    parser = spf.newSAXParser();
+    typeMap = new TypeMap( "uk.ac.leedsbeckett.jesharepoint.sptypes" );
+  }
+  
+  @Benchmark
+  public int parse() throws Exception
+  {
+    ODataSaxHandler handler = new ODataSaxHandler( "application/atom+xml;type=feed;charset=utf-8", typeMap );
+    handler.setTraceEnabled( trace );
+    parser.reset();
+    parser.getXMLReader().setContentHandler( handler );
+    parser.getXMLReader().parse( new InputSource( new ByteArrayInputStream( feed ) ) );
+    return handler.getXmlDocument().getODataValues().size();
+  }
+  
+  private static String feed( int count )
+  {
+    StringBuilder sb = new StringBuilder( 256 + count * 1024 );
+    sb.append( "<?xml version=\"1.0\" encoding=\"utf-8\"?><feed xml:base=\"" ).append( BASE ).append( "\"" );
+    sb.append( NAMESPACES ).append( "><id>u</id><title /><updated>2024-01-01T00:00:00Z</updated>" );
+    for ( int i = 0; i < count; i++ )
+    {
+      String uri = BASE + "Web/GetUserById(" + i + ")";
+      sb.append( "<entry m:etag=\"&quot;1&quot;\"><id>" ).append( uri ).append( "</id>" );
+      sb.append( "<category term=\"SP.User\" scheme=\"http://schemas.microsoft.com/ado/2007/08/dataservices/scheme\" />" );
+      sb.append( "<link rel=\"edit\" href=\"" ).append( uri ).append( "\" />" );
+      sb.append( "<link rel=\"http://schemas.microsoft.com/ado/2007/08/dataservices/related/Groups\"" );
+      sb.append( " type=\"application/atom+xml;type=feed\" title=\"Groups\" href=\"Web/GetUserById(" ).append( i ).append( ")/Groups\" />" );
+      sb.append( "<title /><updated>2024-01-01T00:00:00Z</updated><author><name /></author>" );
+      sb.append( "<content type=\"application/xml\"><m:properties>" );
+      sb.append( "<d:Id m:type=\"Edm.Int32\">" ).append( i ).append( "</d:Id>" );
+      sb.append( "<d:IsHiddenInUI m:type=\"Edm.Boolean\">false</d:IsHiddenInUI>" );
+      sb.append( "<d:LoginName>i:0#.f|membership|user" ).append( i ).append( "@x.ac.uk</d:LoginName>" );
+      sb.append( "<d:Title>User &amp; " ).append( i ).append( "</d:Title>" );
+      sb.append( "<d:PrincipalType m:type=\"Edm.Int32\">1</d:PrincipalType>" );
+      sb.append( "<d:Email>user" ).append( i ).append( "@x.ac.uk</d:Email>" );
+      sb.append( "<d:IsSiteAdmin m:type=\"Edm.Boolean\">false</d:IsSiteAdmin>" );
+      sb.append( "<d:UserId m:type=\"SP.UserIdInfo\"><d:NameId>10032000" ).append( i ).append( "</d:NameId>" );
+      sb.append( "<d:NameIdIssuer>urn:federation:microsoftonline</d:NameIdIssuer></d:UserId>" );
+      sb.append( "<d:UserPrincipalName>user" ).append( i ).append( "@x.ac.uk</d:UserPrincipalName>" );
+      sb.append( "</m:properties></content></entry>" );
+    }
+    sb.append( "</feed>" );
+    return sb.toString();
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataResponse;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataService;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpContextWebInformation;
+
+/**
+ * Keeps the request digest that Sharepoint requires on every write. The
+ * digest is fetched from the context information endpoint and is valid for
+ * the number of seconds given with it, timed from when it was requested.
+ * 
+ * When a digest is used during its last minute it is still returned but a
+ * replacement is fetched in the background, so busy applications never wait
+ * for one. Only once it is about to expire do callers wait, and blocking 
+ * callers fetch it with the blocking HTTP client. Concurrent refreshes are
+ * coalesced into a single request. Instances are thread safe.
+ * 
+ * @author maber01
+ */
+class FormDigestManager
+{
+  private static final Logger logger = Logger.getLogger( FormDigestManager.class.getName() );
+  
+  // Fetch a replacement in the background when this close to expiry
+  private static final long REFRESH_AHEAD_NANOS = 60_000_000_000L;
+  // Don't use a digest this close to expiry in case it expires in flight
+  private static final long EXPIRY_MARGIN_NANOS = 10_000_000_000L;
+  
+  private final ODataService service;
+  private final String contextInfoUri;
+  private final Object lock = new Object();
+  private volatile Digest digest = null;
+  // The refresh in progress, guarded by lock
+  private CompletableFuture<Digest> refreshing = null;
+
+  /**
+   * Instantiate.
+   * 
+   * @param service The service used to fetch the context information.
+   * @param contextInfoUri The URI of the context information endpoint.
+   */
+  FormDigestManager( ODataService service, String contextInfoUri )
+  {
+    this.service = service;
+    this.contextInfoUri = contextInfoUri;
+  }
+  
+  /**
+   * Get the current digest without fetching one.
+   * 
+   * @return The digest value or null if there isn't one.
+   */
+  String getCurrentValue()
+  {
+    Digest d = digest;
+    return d == null ? null : d.value;
+  }
+  
+  /**
+   * Get a digest that is valid, waiting for one to be fetched if necessary.
+   * 
+   * @return The digest value.
+   * @throws IOException If the digest couldn't be fetched.
+   */
+  String getDigest() throws IOException
+  {
+    Digest d = digest;
+    long now = System.nanoTime();
+    if ( d != null && d.expiresAt - now > EXPIRY_MARGIN_NANOS )
+    {
+      if ( d.expiresAt - now < REFRESH_AHEAD_NANOS )
+        refresh( d );
+      return d.value;
+    }
+    
+    CompletableFuture<Digest> f;
+    boolean mine = false;
+    synchronized ( lock )
+    {
+      f = refreshing;
+      if ( f == null )
+      {
+        // Another thread may have finished a refresh since we looked
+        Digest current = digest;
+        if ( current != d && isFresh( current ) )
+          return current.value;
+        f = new CompletableFuture<>();
+        refreshing = f;
+        clearWhenDone( f );
+        mine = true;
+      }
+    }
+    
+    if ( mine )
+    {
+      // Time the digest from before it is requested to be on the safe side
+      long requestedAt = System.nanoTime();
+      try
+      {
+        f.complete( store( service.post( SpContextWebInformation.class, contextInfoUri, null, (String)null ), requestedAt ) );
+      }
+      catch ( IOException | RuntimeException ex )
+      {
+        f.completeExceptionally( ex );
+      }
+    }
+    
+    try
+    {
+      return f.get().value;
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while fetching the request digest." );
+    }
+    catch ( ExecutionException ex )
+    {
+      if ( ex.getCause() instanceof IOException )
+        throw (IOException)ex.getCause();
+      throw new IOException( "Unable to fetch the request digest.", ex.getCause() );
+    }
+  }
+  
+  /**
+   * Non-blocking version of getDigest.
+   * 
+   * @return A future that completes with the digest value.
+   */
+  CompletableFuture<String> getDigestAsync()
+  {
+    Digest d = digest;
+    long now = System.nanoTime();
+    if ( d != null && d.expiresAt - now > EXPIRY_MARGIN_NANOS )
+    {
+      if ( d.expiresAt - now < REFRESH_AHEAD_NANOS )
+        refresh( d );
+      return CompletableFuture.completedFuture( d.value );
+    }
+    return refresh( d ).thenApply( r -> r.value );
+  }
+  
+  /**
+   * Forget a digest that the server has rejected. Does nothing if the
+   * digest has already been replaced.
+   * 
+   * @param value The rejected digest value.
+   */
+  void invalidate( String value )
+  {
+    synchronized ( lock )
+    {
+      Digest d = digest;
+      if ( d != null && d.value != null && d.value.equals( value ) )
+        digest = null;
+    }
+  }
+  
+  /**
+   * Start fetching a replacement digest unless one is already being fetched.
+   * 
+   * @param stale The digest that is being replaced or null.
+   * @return A future that completes with the new digest.
+   */
+  private CompletableFuture<Digest> refresh( Digest stale )
+  {
+    synchronized ( lock )
+    {
+      if ( refreshing != null )
+        return refreshing;
+      // Another thread may have finished a refresh since the caller looked
+      Digest d = digest;
+      if ( d != stale && isFresh( d ) )
+        return CompletableFuture.completedFuture( d );
+      
+      // Time the digest from before it is requested to be on the safe side
+      final long requestedAt = System.nanoTime();
+      CompletableFuture<Digest> f = service.postAsync( SpContextWebInformation.class, contextInfoUri, null, null )
+              .thenApply( res -> 
+              {
+                try
+                {
+                  return store( res, requestedAt );
+                }
+                catch ( IOException ex )
+                {
+                  throw new CompletionException( ex );
+                }
+              } );
+      refreshing = f;
+      clearWhenDone( f );
+      return f;
+    }
+  }
+  
+  /**
+   * Whether a digest has long enough left that it needn't be replaced.
+   */
+  private static boolean isFresh( Digest d )
+  {
+    return d != null && d.expiresAt - System.nanoTime() > REFRESH_AHEAD_NANOS;
+  }
+  
+  /**
+   * Keep the digest from the context information.
+   * 
+   * @param res The response from the context information endpoint.
+   * @param requestedAt When it was requested.
+   * @return The new digest.
+   * @throws IOException If the response has no digest.
+   */
+  private Digest store( ODataResponse<SpContextWebInformation> res, long requestedAt ) throws IOException
+  {
+    if ( res == null || res.getD() == null || res.getD().FormDigestValue == null )
+      throw new IOException( "No request digest in the context information." );
+    SpContextWebInformation info = res.getD();
+    Digest fresh = new Digest( info.FormDigestValue, 
+            requestedAt + info.FormDigestTimeoutSeconds * 1_000_000_000L );
+    digest = fresh;
+    return fresh;
+  }
+  
+  /**
+   * Stop coalescing callers onto a refresh once it has finished.
+   * 
+   * @param f The refresh.
+   */
+  private void clearWhenDone( CompletableFuture<Digest> f )
+  {
+    f.whenComplete( ( r, t ) -> 
+    {
+      synchronized ( lock )
+      {
+        if ( refreshing == f )
+          refreshing = null;
+      }
+      if ( t != null )
+        logger.log( Level.WARNING, "Unable to fetch the request digest.", t );
+    } );
+  }
+  
+  /**
+   * A digest value and when it expires.
+   */
+  private static class Digest
+  {
+    final String value;
+    final long expiresAt;
+
+    Digest( String value, long expiresAt )
+    {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
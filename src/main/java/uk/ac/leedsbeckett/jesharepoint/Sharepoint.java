@@ -15,24 +15,40 @@
  */
 package uk.ac.leedsbeckett.jesharepoint;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.pool.PoolStats;
 import uk.ac.leedsbeckett.jesharepoint.sptypes.SpFolder;
 import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
 import uk.ac.leedsbeckett.jesharepoint.sptypes.SpRoleDefinition;
 import uk.ac.leedsbeckett.jesharepoint.sptypes.SpUser;
+import uk.ac.leedsbeckett.jesharepoint.odata.CacheStats;
 import uk.ac.leedsbeckett.jesharepoint.odata.HttpRequestPrepper;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataBatch;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataHttpException;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataQuery;
 import uk.ac.leedsbeckett.jesharepoint.odata.ODataResponse;
 import uk.ac.leedsbeckett.jesharepoint.odata.ODataService;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataTemplate;
+import uk.ac.leedsbeckett.jesharepoint.odata.ResponseCache;
 import uk.ac.leedsbeckett.jesharepoint.odata.Value;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.EntityCollection;
 import uk.ac.leedsbeckett.jesharepoint.odata.properties.BooleanProperty;
 import uk.ac.leedsbeckett.jesharepoint.odata.properties.StringProperty;
-import uk.ac.leedsbeckett.jesharepoint.sptypes.SpContextWebInformation;
 
 /**
  * This class is the entry point for applications. All supported Sharepoint
@@ -42,23 +58,71 @@ import uk.ac.leedsbeckett.jesharepoint.sptypes.SpContextWebInformation;
  * One instance of this class is required for each Sharepoint site that
  * must be accessed by a given security principal.
  * 
+ * Instances are thread safe and a single instance should be shared by all
+ * threads that work with the site. The request digest and the standard 
+ * role definitions are cached by the instance and are safely published
+ * to all threads, so sharing an instance saves requests to the server.
+ * Writes that Sharepoint rejects with status 403, which is what happens 
+ * when the request digest has gone stale, are retried once with a fresh
+ * digest.
+ * 
  * @author maber01
  */
-public class Sharepoint implements HttpRequestPrepper
+public class Sharepoint implements HttpRequestPrepper, Closeable
 {
   private static final Logger logger = Logger.getLogger( Sharepoint.class.getName() );
   
+  private static final ODataTemplate ROLE_DEFINITION_PATH = ODataTemplate.compilePath( "roledefinitions/getbyname({0})" );
+  private static final ODataTemplate GROUP_PATH = ODataTemplate.compilePath( "sitegroups/getbyname({0})" );
+  private static final ODataTemplate FOLDER_PATH = ODataTemplate.compilePath( "getfolderbyserverrelativeurl({0})" );
+  private static final String EXPAND_USERS = new ODataQuery().expand( "Users" ).build();
+  // The error Sharepoint gives when the request digest is invalid or has expired
+  private static final String SECURITY_VALIDATION_ERROR_CODE = "-2130575251";
+  
   private final SharepointSettings settings;
-  private ODataService oDataService;
-  private SpContextWebInformation webInformation=null;
+  private final ODataService oDataService;
+  private final FormDigestManager digestManager;
 
-  SpRoleDefinition roleDefRead=null, roleDefEdit=null;
+  volatile SpRoleDefinition roleDefRead=null, roleDefEdit=null;
   
   public Sharepoint( SharepointSettings settings )
   {
     this.settings = settings;
     oDataService = new ODataService( settings );
     oDataService.setHttpRequestPrepper( this );
+    digestManager = new FormDigestManager( oDataService, settings.getContextInfoUri() );
+  }
+
+  /**
+   * Releases the pooled HTTP connections used to access the site.
+   * 
+   * @throws IOException Issue closing the HTTP client.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    oDataService.close();
+  }
+
+  /**
+   * Get statistics on the HTTP connection pool.
+   * 
+   * @return The statistics.
+   */
+  public PoolStats getConnectionPoolStats()
+  {
+    return oDataService.getConnectionPoolStats();
+  }
+
+  /**
+   * Get statistics on the response cache.
+   * 
+   * @return The statistics or null if caching is off.
+   */
+  public CacheStats getResponseCacheStats()
+  {
+    ResponseCache cache = oDataService.getResponseCache();
+    return cache == null ? null : cache.getStats();
   }
 
   /**
@@ -78,15 +142,210 @@ public class Sharepoint implements HttpRequestPrepper
   private <T extends Value> ODataResponse<T> post( Class<T> expectedValueClass, String target, String query, String payload )
           throws UnsupportedEncodingException, IOException
   {
-    if ( webInformation == null || (webInformation.FormDigestTimeoutSeconds - System.currentTimeMillis()) < 60000L )
+    return withDigest( () -> oDataService.post( expectedValueClass, target, query, payload ) );
+  }
+
+  /**
+   * Sharepoint specific wrapper on posting an entity. 
+   * 
+   * @param <T> A type which extends Value
+   * @param expectedValueClass Tells the OData API what type of data is expected in the return Value.
+   * @param target The URI of the endpoint
+   * @param query An optional query string or null.
+   * @param entity The entity to send.
+   * @param propertyNames The properties of the entity to send.
+   * @return The return value.
+   * @throws UnsupportedEncodingException
+   * @throws IOException 
+   */
+  private <T extends Value> ODataResponse<T> post( Class<T> expectedValueClass, String target, String query, Entity entity, String... propertyNames )
+          throws UnsupportedEncodingException, IOException
+  {
+    return withDigest( () -> oDataService.post( expectedValueClass, target, query, entity, propertyNames ) );
+  }
+
+  /**
+   * Makes a write request with a valid request digest. If Sharepoint 
+   * rejects the digest the request is made once more with a fresh one.
+   * Other failures, including other 403 responses, are not retried.
+   * 
+   * @param <R> The type of result.
+   * @param request Makes the request.
+   * @return The result of the request.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  private <R> R withDigest( DigestedRequest<R> request ) throws IOException
+  {
+    String digest = digestManager.getDigest();
+    try
     {
-      ODataResponse<SpContextWebInformation> res = 
-              oDataService.post( SpContextWebInformation.class, settings.getContextInfoUri(), null, null );
-      if ( res != null && res.d != null )
-        webInformation = res.getD();
+      return request.send();
+    }
+    catch ( ODataHttpException ex )
+    {
+      if ( !isDigestRejected( ex ) )
+        throw ex;
+      logger.info( "Request rejected, retrying with a fresh request digest." );
+      digestManager.invalidate( sentDigest( ex, digest ) );
+      digestManager.getDigest();
+      return request.send();
     }
-    
-    return oDataService.post( expectedValueClass, target, query, payload );
+  }
+  
+  /**
+   * Non-blocking version of withDigest.
+   * 
+   * @param <R> The type of result.
+   * @param request Starts the request.
+   * @return A future that completes with the result of the request.
+   */
+  private <R> CompletableFuture<R> withDigestAsync( Supplier<CompletableFuture<R>> request )
+  {
+    return digestManager.getDigestAsync().thenCompose( digest -> 
+      request.get().handle( ( r, t ) -> 
+      {
+        if ( t == null )
+          return CompletableFuture.completedFuture( r );
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if ( !( cause instanceof ODataHttpException ) || !isDigestRejected( (ODataHttpException)cause ) )
+          return CompletableFuture.<R>failedFuture( cause );
+        logger.info( "Request rejected, retrying with a fresh request digest." );
+        digestManager.invalidate( sentDigest( (ODataHttpException)cause, digest ) );
+        return digestManager.getDigestAsync().thenCompose( d -> request.get() );
+      } ).thenCompose( f -> f ) );
+  }
+  
+  /**
+   * Finds the digest that a rejected request carried. That is put in by
+   * prepRequest when the request is sent so it can differ from the one the
+   * caller was given if the digest was replaced in between.
+   * 
+   * @param ex The failure.
+   * @param fallback The digest to use if the request isn't known.
+   * @return The digest value.
+   */
+  private static String sentDigest( ODataHttpException ex, String fallback )
+  {
+    Header h = ex.getRequest() == null ? null : ex.getRequest().getFirstHeader( "X-RequestDigest" );
+    return h == null ? fallback : h.getValue();
+  }
+  
+  /**
+   * Did Sharepoint reject the request because of the request digest? It 
+   * then responds 403 with error code -2130575251 and a message about 
+   * security validation, as opposed to a 403 for lack of permission.
+   * 
+   * @param ex The failure.
+   * @return True if a fresh digest might help.
+   */
+  private static boolean isDigestRejected( ODataHttpException ex )
+  {
+    if ( ex.getStatusCode() != 403 || ex.getErrorBody() == null )
+      return false;
+    String body = ex.getErrorBody();
+    return body.contains( SECURITY_VALIDATION_ERROR_CODE ) || 
+           body.toLowerCase( Locale.ROOT ).contains( "security validation" );
+  }
+  
+  /**
+   * A write request that may need to be repeated.
+   * 
+   * @param <R> The type of result.
+   */
+  private interface DigestedRequest<R>
+  {
+    R send() throws IOException;
+  }
+
+  /**
+   * Creates an empty batch. Operations queued in the batch are sent to
+   * Sharepoint in a single HTTP request when it is passed to executeBatch.
+   * 
+   * @return A new batch.
+   */
+  public ODataBatch createBatch()
+  {
+    return oDataService.createBatch();
+  }
+  
+  /**
+   * Executes a batch. This is a Sharepoint specific wrapper because the 
+   * batch request needs an up to date request digest. If Sharepoint 
+   * rejects the digest it has refused the $batch request before running
+   * any operation, so the operations are still queued and are sent once
+   * more with a fresh digest.
+   * 
+   * @param batch The batch to execute.
+   * @throws IOException Issue with the HTTP request/response or one of the operations.
+   */
+  public void executeBatch( ODataBatch batch ) throws IOException
+  {
+    if ( batch.size() == 0 )
+      return;
+    withDigest( () -> 
+    {
+      batch.execute();
+      return null;
+    } );
+  }
+  
+  /**
+   * Sends the changed properties of an entity that was fetched from 
+   * Sharepoint. This is a Sharepoint specific wrapper because the update
+   * needs an up to date request digest.
+   * 
+   * @param entity The entity to update.
+   * @param propertyNames The properties to send if changed, or none for any changed property.
+   * @return True if an update was sent, false if nothing had changed.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  public boolean update( Entity entity, String... propertyNames ) throws IOException
+  {
+    return withDigest( () -> oDataService.update( entity, propertyNames ) );
+  }
+  
+  /**
+   * Non-blocking version of update.
+   * 
+   * @param entity The entity to update.
+   * @param propertyNames The properties to send if changed, or none for any changed property.
+   * @return A future that completes with true if an update was sent.
+   */
+  public CompletableFuture<Boolean> updateAsync( Entity entity, String... propertyNames )
+  {
+    return withDigestAsync( () -> oDataService.updateAsync( entity, propertyNames ) );
+  }
+
+  /**
+   * Non-blocking version of the Sharepoint specific post wrapper.
+   * 
+   * @param <T> A type which extends Value
+   * @param expectedValueClass Tells the OData API what type of data is expected in the return Value.
+   * @param target The URI of the endpoint
+   * @param query An optional query string or null.
+   * @param payload Data to be posted in the request entity in XML or Atom XML format.
+   * @return A future that completes with the return value.
+   */
+  private <T extends Value> CompletableFuture<ODataResponse<T>> postAsync( Class<T> expectedValueClass, String target, String query, String payload )
+  {
+    return withDigestAsync( () -> oDataService.postAsync( expectedValueClass, target, query, payload ) );
+  }
+  
+  /**
+   * Non-blocking version of the Sharepoint specific wrapper on posting an
+   * entity.
+   * 
+   * @param <T> A type which extends Value
+   * @param expectedValueClass Tells the OData API what type of data is expected in the return Value.
+   * @param target The URI of the endpoint
+   * @param query An optional query string or null.
+   * @param entity The entity to send.
+   * @param propertyNames The properties of the entity to send.
+   * @return A future that completes with the return value.
+   */
+  private <T extends Value> CompletableFuture<ODataResponse<T>> postAsync( Class<T> expectedValueClass, String target, String query, Entity entity, String... propertyNames )
+  {
+    return withDigestAsync( () -> oDataService.postAsync( expectedValueClass, target, query, entity, propertyNames ) );
   }
   
   /**
@@ -99,15 +358,29 @@ public class Sharepoint implements HttpRequestPrepper
    */
   public SpRoleDefinition getRoleDefinition( String name ) throws IOException, URISyntaxException
   {
-    String url = 
-            settings.getServiceUri() +
-            "roledefinitions/getbyname('" + name + "')";
-    ODataResponse<SpRoleDefinition> response = oDataService.get( SpRoleDefinition.class, url, null );
+    ODataResponse<SpRoleDefinition> response = oDataService.get( SpRoleDefinition.class, roleDefinitionUrl( name ), null );
     if ( response != null && response.d != null )
       return response.getD();
     return null;
   }
 
+  /**
+   * Non-blocking version of getRoleDefinition.
+   * 
+   * @param name The requested name.
+   * @return A future that completes with the role definition or null if not found.
+   */
+  public CompletableFuture<SpRoleDefinition> getRoleDefinitionAsync( String name )
+  {
+    return oDataService.getAsync( SpRoleDefinition.class, roleDefinitionUrl( name ), null )
+            .thenApply( response -> response == null ? null : response.getD() );
+  }
+  
+  private String roleDefinitionUrl( String name )
+  {
+    return settings.getServiceUri() + ROLE_DEFINITION_PATH.format( name );
+  }
+
   /**
    * Gets a group with a given name.
    * 
@@ -118,17 +391,29 @@ public class Sharepoint implements HttpRequestPrepper
    */
   public SpGroup getGroup( String groupName ) throws IOException, URISyntaxException
   {
-    String url = 
-            settings.getServiceUri() +
-            "sitegroups/getbyname('" +
-            groupName + 
-            "')";
-    ODataResponse<SpGroup> response = oDataService.get( SpGroup.class, url, null );
+    ODataResponse<SpGroup> response = oDataService.get( SpGroup.class, groupUrl( groupName ), null );
     if ( response != null && response.d != null )
       return response.getD();
     return null;
   }
 
+  /**
+   * Non-blocking version of getGroup.
+   * 
+   * @param groupName The name of the group in the sharepoint site
+   * @return A future that completes with the group or null if not found.
+   */
+  public CompletableFuture<SpGroup> getGroupAsync( String groupName )
+  {
+    return oDataService.getAsync( SpGroup.class, groupUrl( groupName ), null )
+            .thenApply( response -> response == null ? null : response.getD() );
+  }
+  
+  private String groupUrl( String groupName )
+  {
+    return settings.getServiceUri() + GROUP_PATH.format( groupName );
+  }
+
   /**
    * Get the group expanded to include not just a link to the contained
    * users but the user data itself. Makes use of the $expand Odata query
@@ -141,12 +426,7 @@ public class Sharepoint implements HttpRequestPrepper
    */
   public SpGroup getGroupWithUsers( String groupName ) throws IOException, URISyntaxException
   {
-    String url = 
-            settings.getServiceUri() +
-            "sitegroups/getbyname('" +
-            groupName + 
-            "')?$expand=Users";
-    ODataResponse<SpGroup> response = oDataService.get( SpGroup.class, url, null );
+    ODataResponse<SpGroup> response = oDataService.get( SpGroup.class, groupUrl( groupName ), EXPAND_USERS );
     if ( response.d != null )
       return response.getD();
     return null;
@@ -167,13 +447,7 @@ public class Sharepoint implements HttpRequestPrepper
     String url = settings.getServiceUri() + "sitegroups";
     g = new SpGroup();
     g.Title = groupName;
-    String[] pnames = {"Title"};
-    String payload = oDataService.entityToPayload( g, pnames );
-    ODataResponse<SpGroup> response = post(
-                SpGroup.class,
-                url, 
-                null,
-                payload );
+    ODataResponse<SpGroup> response = post( SpGroup.class, url, null, g, "Title" );
     if ( response != null && response.d != null )
       return response.getD();
     return null;
@@ -213,9 +487,7 @@ public class Sharepoint implements HttpRequestPrepper
     String url = settings.getServiceUri() + "sitegroups/getbyid(" + group.Id + ")/users";
     SpUser user = new SpUser();
     user.LoginName = loginName;
-    String[] pnames = {"LoginName"};
-    String payload = oDataService.entityToPayload( user, pnames );
-    ODataResponse<SpUser> response = post( SpUser.class, url, null, payload );
+    ODataResponse<SpUser> response = post( SpUser.class, url, null, user, "LoginName" );
     return response.d;
   }
   
@@ -232,29 +504,46 @@ public class Sharepoint implements HttpRequestPrepper
    */
   public SpFolder getOrCreateFolder( String serverRelativeUrl ) throws IOException, URISyntaxException
   {
-    String url = 
-            settings.getServiceUri() +
-            "getfolderbyserverrelativeurl('" +
-            serverRelativeUrl + 
-            "')";
-    ODataResponse<SpFolder> getresponse = oDataService.get( SpFolder.class, url, null );
+    ODataResponse<SpFolder> getresponse = oDataService.get( SpFolder.class, folderUrl( serverRelativeUrl ), null );
     if ( getresponse != null && getresponse.getD() != null )
       return getresponse.getD();
     
     int n = serverRelativeUrl.lastIndexOf( "/" );
-    String name = serverRelativeUrl.substring( n+1 );
-    String parent = serverRelativeUrl.substring( 0, n );
-    String posturl = 
-            settings.getServiceUri() +
-            "getfolderbyserverrelativeurl('" +
-            parent + 
-            "')/Folders";
+    String posturl = folderUrl( serverRelativeUrl.substring( 0, n ) ) + "/Folders";
+    ODataResponse<SpFolder> postresponse = post( SpFolder.class, posturl, null, newFolder( serverRelativeUrl.substring( n+1 ) ), "ServerRelativeUrl" );
+    return postresponse.getD();
+  }
+
+  /**
+   * Non-blocking version of getOrCreateFolder.
+   * 
+   * @param serverRelativeUrl The relative URL
+   * @return A future that completes with the folder that was found or created.
+   */
+  public CompletableFuture<SpFolder> getOrCreateFolderAsync( String serverRelativeUrl )
+  {
+    return oDataService.getAsync( SpFolder.class, folderUrl( serverRelativeUrl ), null )
+            .thenCompose( getresponse ->
+            {
+              if ( getresponse != null && getresponse.getD() != null )
+                return CompletableFuture.completedFuture( getresponse.getD() );
+              int n = serverRelativeUrl.lastIndexOf( "/" );
+              String posturl = folderUrl( serverRelativeUrl.substring( 0, n ) ) + "/Folders";
+              return postAsync( SpFolder.class, posturl, null, newFolder( serverRelativeUrl.substring( n+1 ) ), "ServerRelativeUrl" )
+                      .thenApply( ODataResponse::getD );
+            } );
+  }
+  
+  private String folderUrl( String serverRelativeUrl )
+  {
+    return settings.getServiceUri() + FOLDER_PATH.format( serverRelativeUrl );
+  }
+  
+  private SpFolder newFolder( String name )
+  {
     SpFolder folder = new SpFolder();
     folder.ServerRelativeUrl = name;
-    String[] pnames = {"ServerRelativeUrl"};
-    String payload = oDataService.entityToPayload( folder, pnames );    
-    ODataResponse<SpFolder> postresponse = post( SpFolder.class, posturl, null, payload );
-    return postresponse.getD();
+    return folder;
   }
 
   /** 
@@ -270,7 +559,8 @@ public class Sharepoint implements HttpRequestPrepper
   public Boolean getFolderItemBooleanProperty( String propertyName, SpFolder folder ) throws IOException, URISyntaxException
   {
     String url = folder.__metadata.id + "/listitemallfields/" + propertyName;
-    ODataResponse<BooleanProperty> getresponse = oDataService.get( BooleanProperty.class, url, null );
+    // Always fresh because role inheritance changes aren't made to this URL
+    ODataResponse<BooleanProperty> getresponse = oDataService.get( BooleanProperty.class, url, null, false );
     return getresponse.getD().getValue();
   }
 
@@ -303,7 +593,7 @@ public class Sharepoint implements HttpRequestPrepper
    * @throws IOException Issue with the HTTP request/response.
    * @throws URISyntaxException Issue with the endpoint URI.
    */
-  private void getRoleDefinitions() throws IOException, URISyntaxException
+  private synchronized void getRoleDefinitions() throws IOException, URISyntaxException
   {
     if ( roleDefRead == null )
       roleDefRead = getRoleDefinition( "Read" );    
@@ -311,6 +601,20 @@ public class Sharepoint implements HttpRequestPrepper
       roleDefEdit = getRoleDefinition( "Edit" );    
   }
 
+  /**
+   * Non-blocking version of getRoleDefinitions.
+   * 
+   * @return A future that completes when both role definitions are loaded.
+   */
+  private CompletableFuture<Void> getRoleDefinitionsAsync()
+  {
+    CompletableFuture<Void> read = roleDefRead != null ? CompletableFuture.completedFuture( null ) :
+            getRoleDefinitionAsync( "Read" ).thenAccept( r -> roleDefRead = r );
+    CompletableFuture<Void> edit = roleDefEdit != null ? CompletableFuture.completedFuture( null ) :
+            getRoleDefinitionAsync( "Edit" ).thenAccept( r -> roleDefEdit = r );
+    return CompletableFuture.allOf( read, edit );
+  }
+
   /**
    * Adds/removes the standard VIEW/EDIT role assignments to a folder for a
    * specific principal (user or group).
@@ -326,67 +630,140 @@ public class Sharepoint implements HttpRequestPrepper
   {
     logger.info( "Set role on " + folder.ServerRelativeUrl + " to " + principalId + " " + access.name() );
     getRoleDefinitions();
+    ODataResponse<EntityCollection<SpRoleDefinition>> response = 
+            oDataService.getEC( SpRoleDefinition.class, roleBindingsUrl( folder, principalId ), null );
+    List<String> changes = roleAssignmentChanges( folder, principalId, access, response );
+    if ( changes.size() == 1 )
+    {
+      post( StringProperty.class, changes.get( 0 ), null, null );
+    }
+    else if ( changes.size() > 1 )
+    {
+      // Removing one role and adding another can be done in one round trip
+      ODataBatch batch = createBatch();
+      for ( String posturl : changes )
+        batch.post( StringProperty.class, posturl, null, null );
+      executeBatch( batch );
+    }
+  }
+
+  /**
+   * Non-blocking version of setFolderRoleAssignments. The changes that are
+   * needed are posted concurrently.
+   * 
+   * @param folder The specific folder.
+   * @param principalId The specific principal.
+   * @param access Either view or edit as required.
+   * @return A future that completes when all changes have been made.
+   */
+  public CompletableFuture<Void> setFolderRoleAssignmentsAsync( SpFolder folder, int principalId, AccessRoleEnum access )
+  {
+    logger.info( "Set role on " + folder.ServerRelativeUrl + " to " + principalId + " " + access.name() );
+    return getRoleDefinitionsAsync()
+            .thenCompose( v -> oDataService.getECAsync( SpRoleDefinition.class, roleBindingsUrl( folder, principalId ), null ) )
+            .thenCompose( response ->
+            {
+              List<String> changes;
+              try
+              {
+                changes = roleAssignmentChanges( folder, principalId, access, response );
+              }
+              catch ( IOException ex )
+              {
+                return CompletableFuture.failedFuture( ex );
+              }
+              List<CompletableFuture<ODataResponse<StringProperty>>> posts = new ArrayList<>();
+              for ( String posturl : changes )
+                posts.add( postAsync( StringProperty.class, posturl, null, null ) );
+              return CompletableFuture.allOf( posts.toArray( new CompletableFuture<?>[0] ) );
+            } );
+  }
+  
+  private String roleBindingsUrl( SpFolder folder, int principalId )
+  {
+    return folder.__metadata.id + 
+           "/listitemallfields/roleassignments/getbyprincipalid(" + 
+           principalId + 
+           ")/roledefinitionbindings";
+  }
+  
+  /**
+   * Works out which role assignments need to be removed and added to 
+   * get from the current bindings to the wanted access.
+   * 
+   * @param folder The specific folder.
+   * @param principalId The specific principal.
+   * @param access Either view or edit as required.
+   * @param response The current role definition bindings.
+   * @return A list of URLs that need to be posted to.
+   * @throws IOException If a standard role definition wasn't found.
+   */
+  private List<String> roleAssignmentChanges( SpFolder folder, int principalId, AccessRoleEnum access,
+                                              ODataResponse<EntityCollection<SpRoleDefinition>> response )
+          throws IOException
+  {
+    SpRoleDefinition read = roleDefRead;
+    SpRoleDefinition edit = roleDefEdit;
+    if ( read == null )
+      throw new IOException( "The Read role definition was not found." );
+    if ( edit == null )
+      throw new IOException( "The Edit role definition was not found." );
     
     SpRoleDefinition wanted;
     switch ( access )
     {
       case VIEW:
-        wanted = roleDefRead;
+        wanted = read;
         break;
       case EDIT:
-        wanted = roleDefEdit;
+        wanted = edit;
         break;
       default:
         wanted = null;
     }
             
-    String url = folder.__metadata.id + 
-                 "/listitemallfields/roleassignments/getbyprincipalid(" + 
-                 principalId + 
-                 ")/roledefinitionbindings";
-    ODataResponse<EntityCollection<SpRoleDefinition>> response = oDataService.getEC( SpRoleDefinition.class, url, null );
+    ArrayList<String> changes = new ArrayList<>();
     boolean foundWanted=false;
-    if ( response.getD() != null )
+    if ( response != null && response.getD() != null )
     {
       for ( SpRoleDefinition found : response.getD().getEntities() )
       {
-        if ( found.Id != roleDefRead.Id && found.Id != roleDefEdit.Id )
+        if ( found.Id != read.Id && found.Id != edit.Id )
           continue;
         if ( wanted == null || found.Id != wanted.Id )
         {
-          String removeurl = folder.__metadata.id + 
+          changes.add( folder.__metadata.id + 
                  "/listitemallfields/roleassignments/removeroleassignment(principalid=" + 
                  principalId + 
-                 ",roledefid=" + found.Id + ")";
-          post( StringProperty.class, removeurl, null, null );
+                 ",roledefid=" + found.Id + ")" );
         }
         if ( wanted != null && found.Id == wanted.Id )
           foundWanted = true;
       }
     }
-    if ( !foundWanted )
+    if ( wanted != null && !foundWanted )
     {
-      String addurl = folder.__metadata.id + 
+      changes.add( folder.__metadata.id + 
              "/listitemallfields/roleassignments/addroleassignment(principalid=" + 
              principalId + 
-             ",roledefid=" + wanted.Id + ")";
-      post( StringProperty.class, addurl, null, null );
+             ",roledefid=" + wanted.Id + ")" );
     }
+    return changes;
   }
 
   /**
    * A method that allows this class to inject request headers before the
    * OData implementation submits the request to the server. Used to add the
-   * Sharepoint specific X-RequestDigest header to POST method requests.
+   * Sharepoint specific X-RequestDigest header to POST and PATCH requests.
    * 
    * @param request The Apache HTTP client request to prep.
    */
   @Override
   public void prepRequest( HttpRequestBase request )
   {
-    if ( request instanceof HttpPost && 
-         webInformation != null && 
-         webInformation.FormDigestValue != null )
-      request.addHeader( "X-RequestDigest", webInformation.FormDigestValue );
+    String digest = digestManager.getCurrentValue();
+    if ( ( request instanceof HttpPost || request instanceof HttpPatch ) && 
+         digest != null )
+      request.addHeader( "X-RequestDigest", digest );
   }
 }
@@ -26,7 +26,10 @@ import javax.xml.namespace.NamespaceContext;
 import org.apache.http.client.CookieStore;
 import uk.ac.leedsbeckett.jesharepoint.odata.http.FilteredCookieStore;
 import uk.ac.leedsbeckett.jesharepoint.odata.ODataSettings;
+import uk.ac.leedsbeckett.jesharepoint.odata.ParserEngine;
+import uk.ac.leedsbeckett.jesharepoint.odata.ResponseFormat;
 import uk.ac.leedsbeckett.jesharepoint.odata.TypeMap;
+import uk.ac.leedsbeckett.jesharepoint.odata.UpdateMethod;
 
 
 /**
@@ -162,4 +165,379 @@ public class SharepointSettings extends Properties implements ODataSettings
   {
     return typeMap;
   }
+
+  /**
+   * Maximum number of pooled connections to the Sharepoint host.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getMaxConnectionsPerRoute()
+  {
+    return getIntProperty( "MaxConnectionsPerRoute", 20 );
+  }
+
+  /**
+   * Maximum number of pooled connections in total.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getMaxConnectionsTotal()
+  {
+    return getIntProperty( "MaxConnectionsTotal", 40 );
+  }
+
+  /**
+   * Maximum time to keep an idle connection alive.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public long getConnectionKeepAliveMillis()
+  {
+    return getLongProperty( "ConnectionKeepAliveMillis", 60000L );
+  }
+
+  /**
+   * Idle time after which pooled connections are evicted.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public long getIdleConnectionTimeoutMillis()
+  {
+    return getLongProperty( "IdleConnectionTimeoutMillis", 30000L );
+  }
+  
+  /**
+   * URI of the OData $batch endpoint. If not set it is worked out from the 
+   * service URI, e.g. https://host/sites/x/_api/web/ gives 
+   * https://host/sites/x/_api/$batch
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public String getBatchUri()
+  {
+    String uri = this.getProperty( "BatchUri" );
+    if ( uri != null && !uri.isBlank() )
+      return uri;
+    return ODataSettings.super.getBatchUri();
+  }
+
+  /**
+   * Maximum operations per $batch request. Sharepoint Online rejects
+   * batches of more than 100 operations.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getMaxBatchOperations()
+  {
+    return getIntProperty( "MaxBatchOperations", 100 );
+  }
+  
+  /**
+   * Maximum number of retries of a failed request.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getMaxRetries()
+  {
+    return getIntProperty( "MaxRetries", 5 );
+  }
+
+  /**
+   * Delay before first retry if Sharepoint doesn't give one.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public long getRetryBaseDelayMillis()
+  {
+    return getLongProperty( "RetryBaseDelayMillis", 500L );
+  }
+
+  /**
+   * Maximum delay between retries if Sharepoint doesn't give one.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public long getRetryMaxDelayMillis()
+  {
+    return getLongProperty( "RetryMaxDelayMillis", 60000L );
+  }
+
+  /**
+   * Maximum requests in flight at once.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getMaxConcurrentRequests()
+  {
+    return getIntProperty( "MaxConcurrentRequests", getMaxConnectionsPerRoute() );
+  }
+
+  /**
+   * Minimum limit on requests in flight when Sharepoint is throttling.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getMinConcurrentRequests()
+  {
+    return getIntProperty( "MinConcurrentRequests", 1 );
+  }
+  
+  /**
+   * Which parser engine to use, SAX or STAX. Defaults to SAX.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public ParserEngine getParserEngine()
+  {
+    String s = getProperty( "ParserEngine" );
+    if ( s == null || s.isBlank() )
+      return ParserEngine.SAX;
+    try
+    {
+      return ParserEngine.valueOf( s.trim().toUpperCase() );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      logger.log( Level.WARNING, "Invalid value for setting ParserEngine - using default.", ex );
+      return ParserEngine.SAX;
+    }
+  }
+  
+  /**
+   * Which response format to request, ATOM, JSON_VERBOSE or JSON_NOMETADATA.
+   * Defaults to ATOM.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public ResponseFormat getResponseFormat()
+  {
+    String s = getProperty( "ResponseFormat" );
+    if ( s == null || s.isBlank() )
+      return ResponseFormat.ATOM;
+    try
+    {
+      return ResponseFormat.valueOf( s.trim().toUpperCase() );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      logger.log( Level.WARNING, "Invalid value for setting ResponseFormat - using default.", ex );
+      return ResponseFormat.ATOM;
+    }
+  }
+  
+  /**
+   * Number of entities per page requested from Sharepoint. Defaults to 0
+   * which leaves it to Sharepoint.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getPageSize()
+  {
+    return getIntProperty( "PageSize", 0 );
+  }
+
+  /**
+   * Maximum pages fetched when reading a collection. Defaults to 0 
+   * meaning no limit.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getMaxPages()
+  {
+    return getIntProperty( "MaxPages", 0 );
+  }
+
+  /**
+   * Whether to fetch the next page in the background when streaming. 
+   * Defaults to false.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public boolean isPrefetchNextPage()
+  {
+    String s = getProperty( "PrefetchNextPage" );
+    if ( s == null || s.isBlank() )
+      return false;
+    return Boolean.parseBoolean( s.trim() );
+  }
+
+  /**
+   * Whether to add $select automatically to requests. Defaults to false.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public boolean isAutoSelect()
+  {
+    String s = getProperty( "AutoSelect" );
+    if ( s == null || s.isBlank() )
+      return false;
+    return Boolean.parseBoolean( s.trim() );
+  }
+
+  /**
+   * Whether to bind the entries of large feeds in parallel. Defaults to false.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public boolean isParallelBinding()
+  {
+    String s = getProperty( "ParallelBinding" );
+    if ( s == null || s.isBlank() )
+      return false;
+    return Boolean.parseBoolean( s.trim() );
+  }
+
+  /**
+   * How updates are sent, MERGE or PATCH. Defaults to MERGE.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public UpdateMethod getUpdateMethod()
+  {
+    String s = getProperty( "UpdateMethod" );
+    if ( s == null || s.isBlank() )
+      return UpdateMethod.MERGE;
+    try
+    {
+      return UpdateMethod.valueOf( s.trim().toUpperCase() );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      logger.log( Level.WARNING, "Invalid value for setting UpdateMethod - using default.", ex );
+      return UpdateMethod.MERGE;
+    }
+  }
+
+  /**
+   * Whether to track changes to entities that are read. Defaults to false.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public boolean isTrackChanges()
+  {
+    String s = getProperty( "TrackChanges" );
+    if ( s == null || s.isBlank() )
+      return false;
+    return Boolean.parseBoolean( s.trim() );
+  }
+
+  /**
+   * Whether identical concurrent GET requests share one HTTP exchange. 
+   * Defaults to true.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public boolean isCoalesceRequests()
+  {
+    String s = getProperty( "CoalesceRequests" );
+    if ( s == null || s.isBlank() )
+      return true;
+    return Boolean.parseBoolean( s.trim() );
+  }
+
+  /**
+   * Maximum responses in the cache. Defaults to 0 which turns caching off.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public int getCacheMaxEntries()
+  {
+    return getIntProperty( "CacheMaxEntries", 0 );
+  }
+
+  /**
+   * Maximum bytes of responses in the cache. Defaults to 16MB.
+   * 
+   * @return  The required property.
+   */
+  @Override
+  public long getCacheMaxBytes()
+  {
+    return getLongProperty( "CacheMaxBytes", 16L*1024L*1024L );
+  }
+
+  /**
+   * Time to live of cached responses. The setting CacheTtlMillis.type, for
+   * example CacheTtlMillis.SP.Group, applies to one type and otherwise
+   * CacheTtlMillis applies, which defaults to 60000.
+   * 
+   * @param type The OData type name or null.
+   * @return  The required property.
+   */
+  @Override
+  public long getCacheTtlMillis( String type )
+  {
+    long ttl = getLongProperty( "CacheTtlMillis", 60000L );
+    if ( type == null )
+      return ttl;
+    return getLongProperty( "CacheTtlMillis." + type, ttl );
+  }
+
+  /**
+   * Get a property as an int with a default if it is missing or invalid.
+   * 
+   * @param name The property name.
+   * @param defaultValue The value to use if missing or invalid.
+   * @return The value.
+   */
+  private int getIntProperty( String name, int defaultValue )
+  {
+    String s = getProperty( name );
+    if ( s == null || s.isBlank() )
+      return defaultValue;
+    try
+    {
+      return Integer.parseInt( s.trim() );
+    }
+    catch ( NumberFormatException ex )
+    {
+      logger.log( Level.WARNING, "Invalid value for setting " + name + " - using default.", ex );
+      return defaultValue;
+    }
+  }
+  
+  /**
+   * Get a property as a long with a default if it is missing or invalid.
+   * 
+   * @param name The property name.
+   * @param defaultValue The value to use if missing or invalid.
+   * @return The value.
+   */
+  private long getLongProperty( String name, long defaultValue )
+  {
+    String s = getProperty( name );
+    if ( s == null || s.isBlank() )
+      return defaultValue;
+    try
+    {
+      return Long.parseLong( s.trim() );
+    }
+    catch ( NumberFormatException ex )
+    {
+      logger.log( Level.WARNING, "Invalid value for setting " + name + " - using default.", ex );
+      return defaultValue;
+    }
+  }
 }
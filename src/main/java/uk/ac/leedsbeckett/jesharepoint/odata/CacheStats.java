@@ -0,0 +1,99 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+/**
+ * Statistics on the use of a response cache at one moment.
+ * 
+ * @author maber01
+ */
+public class CacheStats
+{
+  private final long hits;
+  private final long misses;
+  private final long evictions;
+  private final long invalidations;
+  private final int entries;
+  private final long bytes;
+
+  /**
+   * Instantiate with the figures.
+   * 
+   * @param hits Lookups that found a response.
+   * @param misses Lookups that didn't.
+   * @param evictions Responses removed to make room.
+   * @param invalidations Responses removed because a resource changed.
+   * @param entries The number of responses held.
+   * @param bytes The total size of the responses held.
+   */
+  public CacheStats( long hits, long misses, long evictions, long invalidations, int entries, long bytes )
+  {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.invalidations = invalidations;
+    this.entries = entries;
+    this.bytes = bytes;
+  }
+
+  public long getHits()
+  {
+    return hits;
+  }
+
+  public long getMisses()
+  {
+    return misses;
+  }
+
+  public long getEvictions()
+  {
+    return evictions;
+  }
+
+  public long getInvalidations()
+  {
+    return invalidations;
+  }
+
+  public int getEntries()
+  {
+    return entries;
+  }
+
+  public long getBytes()
+  {
+    return bytes;
+  }
+  
+  /**
+   * The proportion of lookups that found a response.
+   * 
+   * @return The rate from 0 to 1, or 0 if there have been no lookups.
+   */
+  public double getHitRate()
+  {
+    long total = hits + misses;
+    return total == 0 ? 0.0 : (double)hits / total;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[hits: " + hits + "; misses: " + misses + "; evictions: " + evictions + 
+           "; invalidations: " + invalidations + "; entries: " + entries + "; bytes: " + bytes + "]";
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.NavigationProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.BooleanProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.EdmFormat;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.Int32Property;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.StringProperty;
+
+/**
+ * Everything needed to instantiate and populate one mapped class, looked
+ * up once so that parsing doesn't use reflection for every entity. 
+ * Instances are immutable and shared between threads via TypeMap.
+ * 
+ * @author maber01
+ */
+class ClassBinder
+{
+  private static final Logger logger = Logger.getLogger( ClassBinder.class.getName() );
+  private static final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+  private static final MethodType SETTER_TYPE = MethodType.methodType( void.class, Object.class, Object.class );
+  private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+  // Non primitive field types that can be parsed directly from text
+  private static final Set<Class<?>> DIRECT_TYPES = Set.of( 
+          String.class, Instant.class, OffsetDateTime.class, UUID.class, BigDecimal.class, 
+          Duration.class, byte[].class, Integer.class, Long.class, Boolean.class, Double.class );
+  
+  final Class<?> boundClass;
+  private final MethodHandle constructor;
+  private final HashMap<String,FieldBinder> fields = new HashMap<>();
+  private final String select;
+
+  ClassBinder( Class<?> boundClass )
+  {
+    this.boundClass = boundClass;
+    MethodHandle con = null;
+    try
+    {
+      con = lookup.findConstructor( boundClass, MethodType.methodType( void.class ) )
+              .asType( MethodType.methodType( Object.class ) );
+    }
+    catch ( NoSuchMethodException | IllegalAccessException ex )
+    {
+      // Not every class is instantiated, e.g. abstract parents
+    }
+    constructor = con;
+    
+    for ( Field f : boundClass.getFields() )
+    {
+      if ( Modifier.isStatic( f.getModifiers() ) || Modifier.isFinal( f.getModifiers() ) )
+        continue;
+      try
+      {
+        fields.put( f.getName(), new FieldBinder( f ) );
+      }
+      catch ( NoSuchMethodException | IllegalAccessException ex )
+      {
+        logger.log( Level.WARNING, "Unable to bind field " + f.getName() + " of " + boundClass.getName(), ex );
+      }
+    }
+    
+    // Fields like __metadata are not OData properties
+    String s = fields.keySet().stream()
+            .filter( name -> !name.startsWith( "__" ) )
+            .sorted()
+            .collect( Collectors.joining( "," ) );
+    select = s.isEmpty() ? null : s;
+  }
+  
+  /**
+   * Create a new instance of the class.
+   * 
+   * @return The new instance.
+   * @throws ReflectiveOperationException If there is no public no-args constructor.
+   */
+  Object newInstance() throws ReflectiveOperationException
+  {
+    if ( constructor == null )
+      throw new InstantiationException( "No public constructor for " + boundClass.getName() );
+    try
+    {
+      return constructor.invokeExact();
+    }
+    catch ( RuntimeException | Error ex )
+    {
+      throw ex;
+    }
+    catch ( Throwable ex )
+    {
+      throw new ReflectiveOperationException( ex );
+    }
+  }
+  
+  /**
+   * Find the binder for a public field.
+   * 
+   * @param name The field name.
+   * @return The binder or null if there is no such field.
+   */
+  FieldBinder getField( String name )
+  {
+    return fields.get( name );
+  }
+  
+  /**
+   * All the fields that can be bound.
+   * 
+   * @return The binders keyed by field name.
+   */
+  Map<String,FieldBinder> getFields()
+  {
+    return Collections.unmodifiableMap( fields );
+  }
+  
+  /**
+   * The names of the properties that are bound, in the form used by the
+   * $select query option.
+   * 
+   * @return A comma separated list or null if no properties are bound.
+   */
+  String getSelect()
+  {
+    return select;
+  }
+  
+  /**
+   * Knows how to set one field.
+   */
+  static class FieldBinder
+  {
+    final String name;
+    final Class<?> type;
+    private final MethodHandle setter;
+    private final MethodHandle getter;
+    // Typed setter for primitive Java fields so values aren't boxed
+    private final MethodHandle primitiveSetter;
+    // only for navigation properties
+    private final MethodHandle navigationConstructor;
+    final Class<?> navigationEntityClass;
+
+    FieldBinder( Field f ) throws NoSuchMethodException, IllegalAccessException
+    {
+      name = f.getName();
+      type = f.getType();
+      getter = lookup.unreflectGetter( f ).asType( GETTER_TYPE );
+      MethodHandle raw = lookup.unreflectSetter( f );
+      setter = raw.asType( SETTER_TYPE );
+      if ( type.isPrimitive() )
+        primitiveSetter = raw.asType( MethodType.methodType( void.class, Object.class, type ) );
+      else
+        primitiveSetter = null;
+      if ( NavigationProperty.class.isAssignableFrom( type ) )
+        navigationConstructor = lookup.findConstructor( type, MethodType.methodType( void.class, String.class ) )
+                .asType( MethodType.methodType( Object.class, String.class ) );
+      else
+        navigationConstructor = null;
+      navigationEntityClass = navigationConstructor == null ? null : typeArgument( f );
+    }
+    
+    /**
+     * Finds the class of entities in a navigation property field declared 
+     * with a type argument, such as NavigationProperty&lt;SpUser&gt;.
+     */
+    private static Class<?> typeArgument( Field f )
+    {
+      Type t = f.getGenericType();
+      if ( t instanceof ParameterizedType )
+      {
+        Type[] args = ((ParameterizedType)t).getActualTypeArguments();
+        if ( args.length == 1 && args[0] instanceof Class )
+          return (Class<?>)args[0];
+      }
+      return null;
+    }
+    
+    /**
+     * Gets the value of the field, boxed if it is a primitive.
+     * 
+     * @param target The object that has the field.
+     * @return The value.
+     */
+    Object get( Object target )
+    {
+      try
+      {
+        return getter.invokeExact( target );
+      }
+      catch ( RuntimeException | Error ex )
+      {
+        throw ex;
+      }
+      catch ( Throwable ex )
+      {
+        throw new IllegalStateException( ex );
+      }
+    }
+    
+    /**
+     * A byte field can hold Edm.Byte or Edm.SByte so the range depends on
+     * the type. Without a type either range is allowed.
+     */
+    private static byte parseByte( String edmtype, String text )
+    {
+      if ( "Edm.Byte".equals( edmtype ) )
+        return EdmFormat.parseByte( text );
+      if ( "Edm.SByte".equals( edmtype ) || text.startsWith( "-" ) )
+        return EdmFormat.parseSByte( text );
+      return EdmFormat.parseByte( text );
+    }
+    
+    boolean isNavigation()
+    {
+      return navigationConstructor != null;
+    }
+    
+    /**
+     * Whether the field can be set straight from text.
+     * 
+     * @return False if the field needs a Property object or isn't a primitive.
+     */
+    boolean isDirect()
+    {
+      return type.isPrimitive() || DIRECT_TYPES.contains( type );
+    }
+    
+    /**
+     * Parses text according to the field's type and sets the field. A null 
+     * text sets reference fields to null and leaves primitive fields alone.
+     * 
+     * @param target The object that has the field.
+     * @param edmtype The Edm type of the text or null if it isn't known.
+     * @param text The text from the response.
+     * @throws IllegalArgumentException If the text can't be parsed.
+     */
+    void setText( Object target, String edmtype, String text )
+    {
+      try
+      {
+        if ( text == null )
+        {
+          if ( !type.isPrimitive() )
+            setter.invokeExact( target, (Object)null );
+        }
+        else if ( type == String.class )
+          setter.invokeExact( target, (Object)text );
+        else if ( type == int.class )
+          primitiveSetter.invokeExact( target, Integer.parseInt( text ) );
+        else if ( type == long.class )
+          primitiveSetter.invokeExact( target, Long.parseLong( text ) );
+        else if ( type == boolean.class )
+          primitiveSetter.invokeExact( target, EdmFormat.parseBoolean( text ) );
+        else if ( type == double.class )
+          primitiveSetter.invokeExact( target, EdmFormat.parseDouble( text ) );
+        else if ( type == float.class )
+          primitiveSetter.invokeExact( target, EdmFormat.parseSingle( text ) );
+        else if ( type == short.class )
+          primitiveSetter.invokeExact( target, Short.parseShort( text ) );
+        else if ( type == byte.class )
+          primitiveSetter.invokeExact( target, parseByte( edmtype, text ) );
+        else if ( type == Instant.class )
+          setter.invokeExact( target, (Object)EdmFormat.parseDateTime( text ) );
+        else if ( type == OffsetDateTime.class )
+          setter.invokeExact( target, (Object)EdmFormat.parseDateTimeOffset( text ) );
+        else if ( type == UUID.class )
+          setter.invokeExact( target, (Object)EdmFormat.parseGuid( text ) );
+        else if ( type == BigDecimal.class )
+          setter.invokeExact( target, (Object)EdmFormat.parseDecimal( text ) );
+        else if ( type == Duration.class )
+          setter.invokeExact( target, (Object)EdmFormat.parseTime( text ) );
+        else if ( type == byte[].class )
+          setter.invokeExact( target, (Object)EdmFormat.parseBinary( text ) );
+        else if ( type == Integer.class )
+          setter.invokeExact( target, (Object)Integer.valueOf( text ) );
+        else if ( type == Long.class )
+          setter.invokeExact( target, (Object)Long.valueOf( text ) );
+        else if ( type == Boolean.class )
+          setter.invokeExact( target, (Object)EdmFormat.parseBoolean( text ) );
+        else if ( type == Double.class )
+          setter.invokeExact( target, (Object)EdmFormat.parseDouble( text ) );
+        else
+          throw new IllegalArgumentException( "Incompatible property type." );
+      }
+      catch ( DateTimeException | IllegalArgumentException ex )
+      {
+        throw new IllegalArgumentException( "Incompatible property type.", ex );
+      }
+      catch ( RuntimeException | Error ex )
+      {
+        throw ex;
+      }
+      catch ( Throwable ex )
+      {
+        throw new IllegalStateException( ex );
+      }
+    }
+    
+    /**
+     * Sets the field from a parsed value, converting primitive properties
+     * to plain Java fields where necessary.
+     * 
+     * @param target The object that has the field.
+     * @param value The value.
+     * @throws IllegalArgumentException If the value type is incompatible with the field.
+     */
+    void set( Object target, Value value )
+    {
+      if ( type.isInstance( value ) )
+        invokeSetter( target, value );
+      else if ( String.class == type )
+      {
+        if ( !(value instanceof StringProperty) )
+          throw new IllegalArgumentException( "Incompatible property type." );
+        invokeSetter( target, ((StringProperty)value).getValue() );
+      }
+      else if ( int.class == type )
+      {
+        if ( !(value instanceof Int32Property) )
+          throw new IllegalArgumentException( "Incompatible property type." );
+        invokeSetter( target, ((Int32Property)value).getValue() );
+      }
+      else if ( boolean.class == type )
+      {
+        if ( !(value instanceof BooleanProperty) )
+          throw new IllegalArgumentException( "Incompatible property type." );
+        invokeSetter( target, ((BooleanProperty)value).getValue() );
+      }
+      else
+        throw new IllegalArgumentException( "Incompatible property type." );
+    }
+    
+    /**
+     * Creates a navigation property and puts it in the field.
+     * 
+     * @param target The entity.
+     * @param href The URI of the linked data.
+     * @return The new navigation property.
+     */
+    NavigationProperty<?> setNavigation( Object target, String href )
+    {
+      try
+      {
+        Object p = navigationConstructor.invokeExact( href );
+        invokeSetter( target, p );
+        return (NavigationProperty<?>)p;
+      }
+      catch ( RuntimeException | Error ex )
+      {
+        throw ex;
+      }
+      catch ( Throwable ex )
+      {
+        throw new IllegalStateException( ex );
+      }
+    }
+    
+    void invokeSetter( Object target, Object value )
+    {
+      try
+      {
+        setter.invokeExact( target, value );
+      }
+      catch ( RuntimeException | Error ex )
+      {
+        throw ex;
+      }
+      catch ( Throwable ex )
+      {
+        throw new IllegalStateException( ex );
+      }
+    }
+  }
+}
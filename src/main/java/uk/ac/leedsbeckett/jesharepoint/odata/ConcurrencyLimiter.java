@@ -0,0 +1,197 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Limits the number of requests that an ODataService has in flight using
+ * an additive increase, multiplicative decrease (AIMD) policy. The limit
+ * grows by about one for every 'limit' successful requests and is halved
+ * when the server throttles, but at most once per back off interval so 
+ * that a burst of throttled responses to requests that were already in
+ * flight only counts once. Callers wait in first come first served order.
+ * 
+ * Both blocking and non-blocking callers are supported and all methods
+ * are thread safe.
+ * 
+ * @author maber01
+ */
+public class ConcurrencyLimiter
+{
+  private final int minLimit;
+  private final int maxLimit;
+  private final long backoffIntervalMillis;
+  
+  private double limit;
+  private int inFlight = 0;
+  private long lastBackoff = 0L;
+  private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+  /**
+   * Instantiate with limits. The limit starts at the maximum.
+   * 
+   * @param minLimit The lowest the limit will go.
+   * @param maxLimit The highest the limit will go.
+   * @param backoffIntervalMillis Minimum time between reductions of the limit.
+   */
+  public ConcurrencyLimiter( int minLimit, int maxLimit, long backoffIntervalMillis )
+  {
+    this.minLimit = Math.max( 1, minLimit );
+    this.maxLimit = Math.max( this.minLimit, maxLimit );
+    this.backoffIntervalMillis = backoffIntervalMillis;
+    this.limit = this.maxLimit;
+  }
+  
+  /**
+   * Wait for a permit to send a request. Every successful call must be 
+   * followed by a call to release.
+   * 
+   * @throws InterruptedIOException If the thread is interrupted while waiting.
+   */
+  public void acquire() throws InterruptedIOException
+  {
+    CompletableFuture<Void> permit = acquireAsync();
+    try
+    {
+      permit.get();
+    }
+    catch ( InterruptedException ex )
+    {
+      // If the permit was granted in the meantime give it back
+      if ( !permit.cancel( false ) )
+        release();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting to send request." );
+    }
+    catch ( ExecutionException ex )
+    {
+      throw new IllegalStateException( ex );
+    }
+  }
+  
+  /**
+   * Request a permit without blocking.
+   * 
+   * @return A future that completes when the permit is granted.
+   */
+  public synchronized CompletableFuture<Void> acquireAsync()
+  {
+    if ( waiting.isEmpty() && inFlight < currentLimit() )
+    {
+      inFlight++;
+      return CompletableFuture.completedFuture( null );
+    }
+    CompletableFuture<Void> permit = new CompletableFuture<>();
+    waiting.add( permit );
+    return permit;
+  }
+  
+  /**
+   * Give back a permit.
+   */
+  public void release()
+  {
+    CompletableFuture<Void> next;
+    synchronized ( this )
+    {
+      inFlight--;
+      next = grantNext();
+    }
+    // Complete outside the lock because completion may run the waiter's code
+    while ( next != null )
+    {
+      if ( next.complete( null ) )
+        return;
+      // The waiter gave up so pass the permit on
+      synchronized ( this )
+      {
+        inFlight--;
+        next = grantNext();
+      }
+    }
+  }
+  
+  /**
+   * Take the next waiter, if there is room for it, and count it as in flight.
+   * Must be called with the lock held.
+   * 
+   * @return The waiter or null.
+   */
+  private CompletableFuture<Void> grantNext()
+  {
+    if ( waiting.isEmpty() || inFlight >= currentLimit() )
+      return null;
+    inFlight++;
+    return waiting.poll();
+  }
+  
+  /**
+   * Record a request that completed without being throttled.
+   */
+  public synchronized void onSuccess()
+  {
+    if ( limit < maxLimit )
+      limit = Math.min( maxLimit, limit + 1.0 / limit );
+  }
+  
+  /**
+   * Record a request that was throttled by the server.
+   */
+  public synchronized void onThrottled()
+  {
+    long now = System.currentTimeMillis();
+    if ( now - lastBackoff < backoffIntervalMillis )
+      return;
+    lastBackoff = now;
+    limit = Math.max( minLimit, limit / 2.0 );
+  }
+  
+  private int currentLimit()
+  {
+    return (int)limit;
+  }
+
+  /**
+   * Get the current limit.
+   * @return The number of requests that may be in flight at once.
+   */
+  public synchronized int getLimit()
+  {
+    return currentLimit();
+  }
+  
+  /**
+   * Get the number of requests in flight.
+   * @return The number.
+   */
+  public synchronized int getInFlight()
+  {
+    return inFlight;
+  }
+  
+  /**
+   * Get the number of callers waiting for a permit.
+   * @return The number.
+   */
+  public synchronized int getWaiting()
+  {
+    return waiting.size();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+
+/**
+ * The body of a request that sends an entity. The entity is serialized 
+ * straight into the connection's output stream when the request is sent,
+ * so the payload is never built as a String. It is serialized again if the
+ * request is retried, so changes made to the entity in the meantime would
+ * be sent.
+ * 
+ * @author maber01
+ */
+final class EntityPayload extends AbstractHttpEntity
+{
+  static final String ATOM_CONTENT_TYPE = "application/atom+xml;charset=utf-8";
+  static final String JSON_CONTENT_TYPE = "application/json;odata=verbose;charset=utf-8";
+  
+  private final EntitySerializer serializer;
+  private final Entity entity;
+  private final String[] propertyNames;
+  private final boolean json;
+
+  EntityPayload( EntitySerializer serializer, Entity entity, String[] propertyNames, boolean json )
+  {
+    this.serializer = serializer;
+    this.entity = entity;
+    this.propertyNames = propertyNames.clone();
+    this.json = json;
+    setContentType( json ? JSON_CONTENT_TYPE : ATOM_CONTENT_TYPE );
+  }
+
+  @Override
+  public boolean isRepeatable()
+  {
+    return true;
+  }
+
+  @Override
+  public long getContentLength()
+  {
+    return -1;
+  }
+
+  /**
+   * Only used by clients that can't write to a stream, such as the 
+   * non-blocking client, which read the serialized bytes instead.
+   * 
+   * @return The payload.
+   * @throws IOException If the entity can't be serialized.
+   */
+  @Override
+  public InputStream getContent() throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream( 1024 );
+    writeTo( out );
+    return new ByteArrayInputStream( out.toByteArray() );
+  }
+
+  @Override
+  public void writeTo( OutputStream out ) throws IOException
+  {
+    PayloadWriter writer = PayloadWriter.open( out );
+    try
+    {
+      if ( json )
+        serializer.writeJson( entity, propertyNames, writer );
+      else
+        serializer.writeAtom( entity, propertyNames, writer );
+    }
+    finally
+    {
+      writer.close();
+    }
+  }
+
+  @Override
+  public boolean isStreaming()
+  {
+    return false;
+  }
+}
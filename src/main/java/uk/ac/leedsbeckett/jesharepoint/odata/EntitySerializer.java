@@ -0,0 +1,420 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Complex;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Property;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.EdmFormat;
+
+/**
+ * Writes the properties of one mapped class as an Atom entry or a JSON 
+ * verbose object. Everything that doesn't depend on the values, such as 
+ * the element names, type attributes and how each field is formatted, is
+ * worked out once when the serializer is made and kept as encoded bytes.
+ * Instances are immutable and shared between threads via TypeMap.
+ * 
+ * @author maber01
+ */
+final class EntitySerializer
+{
+  private static final byte[] ATOM_ENTRY_START = bytes( 
+          "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+          "<entry xmlns:d=\"http://schemas.microsoft.com/ado/2007/08/dataservices\"\n" +
+          "       xmlns:m=\"http://schemas.microsoft.com/ado/2007/08/dataservices/metadata\"\n" + 
+          "       xmlns=\"http://www.w3.org/2005/Atom\">\n" +
+          "  <category term=\"" );
+  private static final byte[] ATOM_CATEGORY_END = bytes( 
+          "\" scheme=\"http://schemas.microsoft.com/ado/2007/08/dataservices/scheme\"/>\n" +
+          "  <content type=\"application/xml\">\n" +
+          "    <m:properties>\n" );
+  private static final byte[] ATOM_ENTRY_END = bytes( 
+          "    </m:properties>\n" +
+          "  </content>\n" +
+          "</entry>" );
+  private static final byte[] ATOM_INDENT = bytes( "      " );
+  private static final byte[] NEWLINE = bytes( "\n" );
+  private static final byte[] JSON_METADATA_START = bytes( "{\"__metadata\":{\"type\":" );
+  private static final byte[] JSON_METADATA_END = bytes( "}" );
+  private static final byte[] JSON_COMMA = bytes( "," );
+  private static final byte[] JSON_END = bytes( "}" );
+  private static final byte[] JSON_NULL = bytes( "null" );
+  
+  // Edm types of fields that hold plain Java values
+  private static final Map<Class<?>,String> JAVA_TYPES = Map.ofEntries( 
+          Map.entry( String.class,         "Edm.String" ),
+          Map.entry( boolean.class,        "Edm.Boolean" ),
+          Map.entry( Boolean.class,        "Edm.Boolean" ),
+          Map.entry( int.class,            "Edm.Int32" ),
+          Map.entry( Integer.class,        "Edm.Int32" ),
+          Map.entry( long.class,           "Edm.Int64" ),
+          Map.entry( Long.class,           "Edm.Int64" ),
+          Map.entry( short.class,          "Edm.Int16" ),
+          Map.entry( byte.class,           "Edm.SByte" ),
+          Map.entry( double.class,         "Edm.Double" ),
+          Map.entry( Double.class,         "Edm.Double" ),
+          Map.entry( float.class,          "Edm.Single" ),
+          Map.entry( BigDecimal.class,     "Edm.Decimal" ),
+          Map.entry( Instant.class,        "Edm.DateTime" ),
+          Map.entry( OffsetDateTime.class, "Edm.DateTimeOffset" ),
+          Map.entry( Duration.class,       "Edm.Time" ),
+          Map.entry( UUID.class,           "Edm.Guid" ),
+          Map.entry( byte[].class,         "Edm.Binary" ) );
+  // Written as JSON literals rather than strings
+  private static final Set<String> JSON_NUMBERS = Set.of( 
+          "Edm.Boolean", "Edm.Byte", "Edm.SByte", "Edm.Int16", "Edm.Int32", "Edm.Double", "Edm.Single" );
+  
+  private final TypeMap typeMap;
+  private final String type;
+  private final byte[] atomType;
+  private final byte[] jsonType;
+  private final HashMap<String,PropertyWriter> properties = new HashMap<>();
+  private final PropertyWriter[] allProperties;
+
+  EntitySerializer( TypeMap typeMap, Class<?> c )
+  {
+    this.typeMap = typeMap;
+    type = typeMap.getType( c );
+    atomType = type == null ? null : xmlAttribute( type );
+    jsonType = type == null ? null : jsonString( type );
+    for ( ClassBinder.FieldBinder field : typeMap.getBinder( c ).getFields().values() )
+    {
+      if ( field.name.startsWith( "__" ) )
+        continue;
+      String edmType = JAVA_TYPES.get( field.type );
+      if ( edmType == null )
+        edmType = typeMap.getPrimitiveType( field.type );
+      if ( edmType == null )
+        edmType = typeMap.getType( field.type );
+      // Navigation properties, collections and unmapped classes can't be sent
+      if ( edmType != null || Property.class.isAssignableFrom( field.type ) || Complex.class.isAssignableFrom( field.type ) )
+        properties.put( field.name, new PropertyWriter( field, edmType ) );
+    }
+    allProperties = properties.values().stream()
+            .sorted( ( a, b ) -> a.field.name.compareTo( b.field.name ) )
+            .toArray( PropertyWriter[]::new );
+    for ( int i = 0; i < allProperties.length; i++ )
+      allProperties[i].index = i;
+  }
+
+  /**
+   * The OData type name of the class.
+   * 
+   * @return The name or null if the class isn't mapped.
+   */
+  String getType()
+  {
+    return type;
+  }
+  
+  /**
+   * Write an Atom entry that contains the named properties.
+   * 
+   * @param entity The entity.
+   * @param propertyNames The properties to include. Names that aren't properties of the class are ignored.
+   * @param out Where to write.
+   * @throws IOException If the stream fails.
+   */
+  void writeAtom( Object entity, String[] propertyNames, PayloadWriter out ) throws IOException
+  {
+    out.write( ATOM_ENTRY_START );
+    out.write( atomType );
+    out.write( ATOM_CATEGORY_END );
+    for ( String name : propertyNames )
+    {
+      PropertyWriter p = properties.get( name );
+      if ( p != null )
+      {
+        out.write( ATOM_INDENT );
+        p.writeAtom( entity, out );
+        out.write( NEWLINE );
+      }
+    }
+    out.write( ATOM_ENTRY_END );
+  }
+  
+  /**
+   * Write a JSON verbose object that contains the type and the named
+   * properties.
+   * 
+   * @param entity The entity.
+   * @param propertyNames The properties to include. Names that aren't properties of the class are ignored.
+   * @param out Where to write.
+   * @throws IOException If the stream fails.
+   */
+  void writeJson( Object entity, String[] propertyNames, PayloadWriter out ) throws IOException
+  {
+    out.write( JSON_METADATA_START );
+    out.write( jsonType );
+    out.write( JSON_METADATA_END );
+    for ( String name : propertyNames )
+    {
+      PropertyWriter p = properties.get( name );
+      if ( p != null )
+      {
+        out.write( JSON_COMMA );
+        p.writeJson( entity, out );
+      }
+    }
+    out.write( JSON_END );
+  }
+  
+  /**
+   * Record the current values of all the properties so that changes can be
+   * found later. Mutable values such as byte arrays, Property objects and
+   * complex values are copied or reduced to an immutable form.
+   * 
+   * @param value An entity or complex value of this serializer's class.
+   * @return The values.
+   */
+  Object[] snapshot( Object value )
+  {
+    Object[] values = new Object[ allProperties.length ];
+    for ( int i = 0; i < allProperties.length; i++ )
+      values[i] = snapshotValue( allProperties[i].field.get( value ) );
+    return values;
+  }
+  
+  private Object snapshotValue( Object v )
+  {
+    if ( v instanceof byte[] )
+      return ((byte[])v).clone();
+    if ( v instanceof Property )
+      return ((Property)v).getXmlRepresentation();
+    if ( v instanceof Complex )
+      return Arrays.asList( typeMap.getSerializer( v.getClass() ).snapshot( v ) );
+    return v;
+  }
+  
+  /**
+   * Find which properties have changed since a snapshot was taken.
+   * 
+   * @param value An entity of this serializer's class.
+   * @param original The snapshot or null to treat every property as changed.
+   * @param propertyNames The properties to consider or null for all of them.
+   * @return The names of the properties that have changed, in the order given.
+   */
+  String[] getChanges( Object value, Object[] original, String[] propertyNames )
+  {
+    ArrayList<String> changed = new ArrayList<>();
+    if ( propertyNames == null )
+    {
+      for ( PropertyWriter p : allProperties )
+        if ( isChanged( p, value, original ) )
+          changed.add( p.field.name );
+    }
+    else
+    {
+      for ( String name : propertyNames )
+      {
+        PropertyWriter p = properties.get( name );
+        if ( p != null && isChanged( p, value, original ) )
+          changed.add( name );
+      }
+    }
+    return changed.toArray( new String[0] );
+  }
+  
+  private boolean isChanged( PropertyWriter p, Object value, Object[] original )
+  {
+    if ( original == null || original.length != allProperties.length )
+      return true;
+    return !Objects.deepEquals( snapshotValue( p.field.get( value ) ), original[ p.index ] );
+  }
+  
+  /**
+   * Write the non-null properties of a complex value as the content of its
+   * Atom property element.
+   */
+  private void writeAtomComplex( Object value, PayloadWriter out ) throws IOException
+  {
+    for ( PropertyWriter p : allProperties )
+      if ( p.field.get( value ) != null )
+        p.writeAtom( value, out );
+  }
+
+  /**
+   * Write the non-null properties of a complex value as a JSON object.
+   */
+  private void writeJsonComplex( Object value, PayloadWriter out ) throws IOException
+  {
+    out.write( JSON_METADATA_START );
+    out.write( jsonType );
+    out.write( JSON_METADATA_END );
+    for ( PropertyWriter p : allProperties )
+    {
+      if ( p.field.get( value ) != null )
+      {
+        out.write( JSON_COMMA );
+        p.writeJson( value, out );
+      }
+    }
+    out.write( JSON_END );
+  }
+  
+  /**
+   * Formats a plain Java value or a primitive property in the form OData 
+   * uses in payloads.
+   * 
+   * @param value The value.
+   * @return The text.
+   */
+  static String format( Object value )
+  {
+    if ( value instanceof String )
+      return (String)value;
+    if ( value instanceof Property )
+      return ((Property)value).getXmlRepresentation();
+    if ( value instanceof Double )
+      return EdmFormat.formatDouble( (Double)value );
+    if ( value instanceof Float )
+      return EdmFormat.formatSingle( (Float)value );
+    if ( value instanceof BigDecimal )
+      return ((BigDecimal)value).toPlainString();
+    if ( value instanceof Instant )
+      return EdmFormat.formatDateTime( (Instant)value );
+    if ( value instanceof OffsetDateTime )
+      return EdmFormat.formatDateTimeOffset( (OffsetDateTime)value );
+    if ( value instanceof byte[] )
+      return EdmFormat.formatBinary( (byte[])value );
+    // Numbers, booleans, UUID and Duration
+    return value.toString();
+  }
+  
+  private static byte[] bytes( String s )
+  {
+    return s.getBytes( StandardCharsets.UTF_8 );
+  }
+  
+  private static byte[] xmlAttribute( String s )
+  {
+    return bytes( s.replace( "&", "&amp;" ).replace( "\"", "&quot;" ).replace( "<", "&lt;" ) );
+  }
+  
+  private static byte[] jsonString( String s )
+  {
+    return bytes( "\"" + s.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ) + "\"" );
+  }
+
+  /**
+   * Knows how to write one field.
+   */
+  private final class PropertyWriter
+  {
+    final ClassBinder.FieldBinder field;
+    final String edmType;
+    // Position in the snapshot
+    int index;
+    final boolean complex;
+    final byte[] atomStart;
+    final byte[] atomEnd;
+    final byte[] atomNull;
+    final byte[] jsonName;
+    
+    PropertyWriter( ClassBinder.FieldBinder field, String edmType )
+    {
+      this.field = field;
+      this.edmType = edmType;
+      complex = Complex.class.isAssignableFrom( field.type );
+      atomStart = edmType == null ? null : atomStart( edmType );
+      atomEnd = bytes( "</d:" + field.name + ">" );
+      atomNull = bytes( "<d:" + field.name + " m:null=\"true\" />" );
+      jsonName = bytes( "\"" + field.name + "\":" );
+    }
+    
+    private byte[] atomStart( String t )
+    {
+      if ( "Edm.String".equals( t ) )
+        return bytes( "<d:" + field.name + ">" );
+      return bytes( "<d:" + field.name + " m:type=\"" + new String( xmlAttribute( t ), StandardCharsets.UTF_8 ) + "\">" );
+    }
+    
+    /**
+     * The Edm type of a value whose type wasn't known from the declaration,
+     * such as a field declared as Property.
+     */
+    private String runtimeType( Object value )
+    {
+      String t = typeMap.getPrimitiveType( value.getClass() );
+      if ( t == null )
+        t = typeMap.getType( value.getClass() );
+      if ( t == null )
+        throw new IllegalArgumentException( "Unable to serialize property " + field.name );
+      return t;
+    }
+    
+    void writeAtom( Object target, PayloadWriter out ) throws IOException
+    {
+      Object value = field.get( target );
+      String text = value == null || complex ? null : format( value );
+      if ( value == null || ( !complex && text == null ) )
+      {
+        out.write( atomNull );
+        return;
+      }
+      boolean declared = value.getClass() == field.type || field.type.isPrimitive();
+      out.write( declared && atomStart != null ? atomStart : atomStart( runtimeType( value ) ) );
+      if ( complex )
+        typeMap.getSerializer( value.getClass() ).writeAtomComplex( value, out );
+      else
+        out.writeXmlText( text );
+      out.write( atomEnd );
+    }
+    
+    void writeJson( Object target, PayloadWriter out ) throws IOException
+    {
+      out.write( jsonName );
+      Object value = field.get( target );
+      String text = value == null || complex ? null : format( value );
+      if ( value == null || ( !complex && text == null ) )
+      {
+        out.write( JSON_NULL );
+        return;
+      }
+      if ( complex )
+      {
+        typeMap.getSerializer( value.getClass() ).writeJsonComplex( value, out );
+        return;
+      }
+      boolean declared = value.getClass() == field.type || field.type.isPrimitive();
+      String t = declared && edmType != null ? edmType : runtimeType( value );
+      if ( JSON_NUMBERS.contains( t ) && isJsonNumber( text ) )
+        out.writeRaw( text );
+      else
+        out.writeJsonString( text );
+    }
+  }
+  
+  /**
+   * INF, -INF and NaN are valid OData doubles but not JSON numbers.
+   */
+  private static boolean isJsonNumber( String text )
+  {
+    return !text.isEmpty() && text.charAt( text.length() - 1 ) != 'F' && !"NaN".equals( text );
+  }
+}
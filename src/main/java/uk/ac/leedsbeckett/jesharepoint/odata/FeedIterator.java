@@ -0,0 +1,229 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.client.methods.HttpGet;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+
+/**
+ * Iterates over the entities of a feed while the response is still being
+ * received, following links to further pages. Backs the streams returned 
+ * by ODataService. 
+ * 
+ * Without prefetch each page is streamed. With prefetch, pages after the
+ * first are read in full in the background while the previous page is 
+ * being consumed, so at most two pages are held in memory.
+ * 
+ * @author maber01
+ * @param <T> The expected type of the entities.
+ */
+class FeedIterator<T extends Entity> implements Iterator<T>, Closeable
+{
+  private final ODataService service;
+  private final Class<T> entityClass;
+  private final int maxPages;
+  private final boolean prefetch;
+  private final Executor executor;
+  private final AtomicBoolean closed = new AtomicBoolean( false );
+  
+  private int pages = 1;
+  private T next = null;
+  private boolean finished = false;
+  
+  // The current page is either streamed or buffered
+  private volatile FeedPage page;
+  private Iterator<Entity> buffered = null;
+  private String bufferedNextLink = null;
+  
+  // A page being fetched in the background
+  private volatile HttpGet prefetchRequest = null;
+  private volatile CompletableFuture<Loaded> prefetched = null;
+
+  FeedIterator( ODataService service, Class<T> entityClass, FeedPage first, 
+          int maxPages, boolean prefetch, Executor executor )
+  {
+    this.service = service;
+    this.entityClass = entityClass;
+    this.page = first;
+    this.maxPages = maxPages;
+    this.prefetch = prefetch;
+    this.executor = executor;
+  }
+
+  @Override
+  public boolean hasNext()
+  {
+    if ( next != null )
+      return true;
+    try
+    {
+      while ( !finished )
+      {
+        Entity e = page != null ? page.next() : ( buffered.hasNext() ? buffered.next() : null );
+        if ( e != null )
+        {
+          if ( !entityClass.isInstance( e ) )
+            throw new IOException( "Wrong data type in response." );
+          next = entityClass.cast( e );
+          if ( service.isTrackChanges() )
+            service.track( next );
+          return true;
+        }
+        nextPage();
+      }
+      return false;
+    }
+    catch ( IOException ex )
+    {
+      close();
+      throw new UncheckedIOException( ex );
+    }
+  }
+
+  @Override
+  public T next()
+  {
+    if ( !hasNext() )
+      throw new NoSuchElementException();
+    T t = next;
+    next = null;
+    return t;
+  }
+  
+  /**
+   * Moves on from a page that has been used up.
+   */
+  private void nextPage() throws IOException
+  {
+    String link;
+    if ( page != null )
+    {
+      link = page.getNextLink();
+      page.close();
+      page = null;
+    }
+    else
+      link = bufferedNextLink;
+    
+    if ( link == null || closed.get() || ( maxPages > 0 && pages >= maxPages ) )
+    {
+      finished = true;
+      close();
+      return;
+    }
+    pages++;
+    
+    if ( !prefetch )
+    {
+      page = service.openPage( service.collectionRequest( link ), entityClass );
+      if ( page == null )
+      {
+        finished = true;
+        close();
+      }
+      return;
+    }
+    
+    Loaded loaded = ( prefetched != null ) ? await( prefetched ) : load( service.collectionRequest( link ) );
+    prefetched = null;
+    buffered = loaded.entities.iterator();
+    bufferedNextLink = loaded.nextLink;
+    if ( bufferedNextLink != null && ( maxPages <= 0 || pages < maxPages ) )
+    {
+      HttpGet request = service.collectionRequest( bufferedNextLink );
+      prefetchRequest = request;
+      prefetched = CompletableFuture.supplyAsync( () -> 
+      {
+        try
+        {
+          return load( request );
+        }
+        catch ( IOException ex )
+        {
+          throw new CompletionException( ex );
+        }
+      }, executor );
+    }
+  }
+  
+  /**
+   * Fetches and reads a whole page.
+   */
+  private Loaded load( HttpGet request ) throws IOException
+  {
+    FeedPage p = service.openPage( request, entityClass );
+    if ( p == null )
+      return new Loaded( List.of(), null );
+    List<Entity> entities = p.readAll();
+    return new Loaded( entities, p.getNextLink() );
+  }
+  
+  private static Loaded await( CompletableFuture<Loaded> future ) throws IOException
+  {
+    try
+    {
+      return future.join();
+    }
+    catch ( CompletionException ex )
+    {
+      if ( ex.getCause() instanceof IOException )
+        throw (IOException)ex.getCause();
+      throw ex;
+    }
+  }
+
+  /**
+   * Releases the current page and abandons any page being fetched in the
+   * background. Safe to call more than once and from another thread.
+   */
+  @Override
+  public void close()
+  {
+    if ( !closed.compareAndSet( false, true ) )
+      return;
+    FeedPage p = page;
+    if ( p != null )
+      p.close();
+    HttpGet r = prefetchRequest;
+    if ( r != null && prefetched != null && !prefetched.isDone() )
+      r.abort();
+  }
+  
+  /**
+   * A page that has been read in full.
+   */
+  private static class Loaded
+  {
+    final List<Entity> entities;
+    final String nextLink;
+
+    Loaded( List<Entity> entities, String nextLink )
+    {
+      this.entities = entities;
+      this.nextLink = nextLink;
+    }
+  }
+}
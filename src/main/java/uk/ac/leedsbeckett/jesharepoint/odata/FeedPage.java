@@ -0,0 +1,123 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+
+/**
+ * One page of a feed that is read from an open HTTP response. Owns the 
+ * response, and so a pooled connection, until it is closed.
+ * 
+ * @author maber01
+ */
+class FeedPage implements Closeable
+{
+  private final HttpRequestBase request;
+  private final CloseableHttpResponse response;
+  private final ODataReader reader;
+  private final AtomicBoolean closed = new AtomicBoolean( false );
+  private volatile boolean finished = false;
+
+  FeedPage( HttpRequestBase request, CloseableHttpResponse response, ODataReader reader ) 
+          throws IOException
+  {
+    this.request = request;
+    this.response = response;
+    this.reader = reader;
+    if ( !reader.isCollection() )
+    {
+      close();
+      throw new IOException( "Expected entity collection but didn't get one." );
+    }
+  }
+  
+  /**
+   * Reads the next entity.
+   * 
+   * @return The entity or null at the end of the page.
+   * @throws IOException If the response can't be read or parsed.
+   */
+  Entity next() throws IOException
+  {
+    if ( finished )
+      return null;
+    Entity e = reader.nextEntity();
+    if ( e == null )
+      finished = true;
+    return e;
+  }
+  
+  /**
+   * Reads all the remaining entities and closes the page.
+   * 
+   * @return The entities.
+   * @throws IOException If the response can't be read or parsed.
+   */
+  List<Entity> readAll() throws IOException
+  {
+    try
+    {
+      List<Entity> list = new ArrayList<>();
+      for ( Entity e = next(); e != null; e = next() )
+        list.add( e );
+      return list;
+    }
+    finally
+    {
+      close();
+    }
+  }
+  
+  /**
+   * The absolute URL of the next page. Only known at the end of this page.
+   * 
+   * @return The URL or null if there are no more pages.
+   */
+  String getNextLink()
+  {
+    return ODataService.resolveLink( request, reader.getNextLink() );
+  }
+
+  /**
+   * Releases the connection. If the end of the page hasn't been
+   * reached the exchange is aborted rather than reading the rest of the
+   * response. Safe to call more than once and from another thread.
+   */
+  @Override
+  public void close()
+  {
+    if ( !closed.compareAndSet( false, true ) )
+      return;
+    try
+    {
+      if ( finished )
+        EntityUtils.consumeQuietly( response.getEntity() );
+      else
+        request.abort();
+      reader.close();
+      response.close();
+    }
+    catch ( IOException ex ) {}
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+/**
+ * A response cache that holds a bounded number of entries and bytes and
+ * evicts the least recently used entry to make room. Each entry expires 
+ * after its own time to live. All methods are thread safe.
+ * 
+ * @author maber01
+ */
+public class LruResponseCache implements ResponseCache
+{
+  private final int maxEntries;
+  private final long maxBytes;
+  // In access order so the eldest entry is the least recently used
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+  private long bytes = 0L;
+  private long hits = 0L;
+  private long misses = 0L;
+  private long evictions = 0L;
+  private long invalidations = 0L;
+
+  /**
+   * Instantiate with bounds.
+   * 
+   * @param maxEntries The most responses that will be held.
+   * @param maxBytes The most bytes of response bodies that will be held.
+   */
+  public LruResponseCache( int maxEntries, long maxBytes )
+  {
+    this.maxEntries = Math.max( 1, maxEntries );
+    this.maxBytes = Math.max( 0L, maxBytes );
+  }
+
+  @Override
+  public synchronized HttpResponse get( String key )
+  {
+    Entry e = entries.get( key );
+    if ( e != null && e.expiresAt - System.nanoTime() <= 0L )
+    {
+      remove( key );
+      e = null;
+    }
+    if ( e == null )
+    {
+      misses++;
+      return null;
+    }
+    hits++;
+    return e.response;
+  }
+
+  @Override
+  public synchronized void put( String key, HttpResponse response, Collection<String> uris, long ttlMillis )
+  {
+    if ( ttlMillis <= 0L )
+      return;
+    HttpEntity entity = response.getEntity();
+    long size = entity == null ? 0L : Math.max( 0L, entity.getContentLength() );
+    if ( size > maxBytes )
+      return;
+    remove( key );
+    List<String> normalized = new ArrayList<>( uris.size() );
+    for ( String uri : uris )
+      if ( uri != null )
+        normalized.add( normalize( uri ) );
+    entries.put( key, new Entry( response, normalized, size, System.nanoTime() + ttlMillis * 1_000_000L ) );
+    bytes += size;
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while ( ( entries.size() > maxEntries || bytes > maxBytes ) && it.hasNext() )
+    {
+      Entry eldest = it.next().getValue();
+      it.remove();
+      bytes -= eldest.size;
+      evictions++;
+    }
+  }
+
+  @Override
+  public synchronized void invalidate( String uri )
+  {
+    String changed = normalize( uri );
+    Iterator<Entry> it = entries.values().iterator();
+    while ( it.hasNext() )
+    {
+      Entry e = it.next();
+      for ( String u : e.uris )
+      {
+        if ( isRelated( u, changed ) )
+        {
+          it.remove();
+          bytes -= e.size;
+          invalidations++;
+          break;
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized void clear()
+  {
+    entries.clear();
+    bytes = 0L;
+  }
+
+  @Override
+  public synchronized CacheStats getStats()
+  {
+    return new CacheStats( hits, misses, evictions, invalidations, entries.size(), bytes );
+  }
+  
+  private void remove( String key )
+  {
+    Entry e = entries.remove( key );
+    if ( e != null )
+      bytes -= e.size;
+  }
+  
+  /**
+   * Puts a URI in the form used to compare it with others. Sharepoint 
+   * treats paths case insensitively and the query doesn't identify the 
+   * resource.
+   * 
+   * @param uri The URI.
+   * @return The normalized URI.
+   */
+  static String normalize( String uri )
+  {
+    int n = uri.indexOf( '?' );
+    String s = n < 0 ? uri : uri.substring( 0, n );
+    while ( s.endsWith( "/" ) )
+      s = s.substring( 0, s.length()-1 );
+    return s.toLowerCase( Locale.ROOT );
+  }
+  
+  /**
+   * Is one resource the same as, or below, the other?
+   * 
+   * @param a A normalized URI.
+   * @param b Another normalized URI.
+   * @return True if they are related.
+   */
+  static boolean isRelated( String a, String b )
+  {
+    String shorter = a.length() <= b.length() ? a : b;
+    String longer = shorter == a ? b : a;
+    if ( !longer.startsWith( shorter ) )
+      return false;
+    return longer.length() == shorter.length() || longer.charAt( shorter.length() ) == '/';
+  }
+  
+  /**
+   * A cached response.
+   */
+  private static class Entry
+  {
+    final HttpResponse response;
+    final List<String> uris;
+    final long size;
+    final long expiresAt;
+
+    Entry( HttpResponse response, List<String> uris, long size, long expiresAt )
+    {
+      this.response = response;
+      this.uris = uris;
+      this.size = size;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.EntityCollection;
+
+/**
+ * Collects OData operations so they can be sent to the service's $batch
+ * endpoint in one HTTP request. Each queued operation returns an empty
+ * ODataResponse straight away and it is filled in when the batch is 
+ * executed. If there are more operations than the configured maximum per
+ * batch they are split across several HTTP requests.
+ * 
+ * GET operations are sent as individual batch parts and each POST is sent
+ * in its own change set. Operations are executed by the service in the
+ * order they were queued.
+ * 
+ * An instance is not thread safe and should be used by one thread.
+ * 
+ * @author maber01
+ */
+public class ODataBatch
+{
+  final ODataService service;
+  final ArrayList<Operation> operations = new ArrayList<>();
+  
+  /**
+   * Created by ODataService.
+   * 
+   * @param service The service that will execute the batch.
+   */
+  ODataBatch( ODataService service )
+  {
+    this.service = service;
+  }
+
+  /**
+   * Queue an HTTP GET for an OData entity.
+   * 
+   * @param <T> A type that is a subclass of Value.
+   * @param expectedValueClass The expected return type
+   * @param target The URI
+   * @param query Optional query string
+   * @return A response that will contain the value after execution if it was found.
+   * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
+   */
+  public <T extends Value> ODataResponse<T> get( Class<T> expectedValueClass, String target, String query )
+          throws UnsupportedEncodingException
+  {
+    ODataResponse<T> response = new ODataResponse<>( expectedValueClass, null );
+    operations.add( new Operation( "GET", service.toFullUrl( target, query ), null, response ) );
+    return response;
+  }
+
+  /**
+   * Queue an HTTP GET for an OData collection of entities.
+   * 
+   * @param <T> A type that is a subclass of Entity.
+   * @param expectedValueClass The expected type of the entities
+   * @param target The URI
+   * @param query Optional query string
+   * @return A response that will contain the collection after execution if it was found.
+   * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
+   */
+  public <T extends Entity> ODataResponse<EntityCollection<T>> getEC( Class<T> expectedValueClass, String target, String query )
+          throws UnsupportedEncodingException
+  {
+    ODataResponse<EntityCollection<T>> response = new ODataResponse<>( EntityCollection.class, expectedValueClass );
+    operations.add( new Operation( "GET", service.toFullUrl( target, query ), null, response ) );
+    return response;
+  }
+
+  /**
+   * Queue an HTTP POST.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param expectedValueClass The expected value class.
+   * @param target The endpoint
+   * @param query A query string or null
+   * @param payload Optional payload in XML format
+   * @return A response that will contain the value after execution.
+   * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
+   */
+  public <T extends Value> ODataResponse<T> post( Class<T> expectedValueClass, String target, String query, String payload )
+          throws UnsupportedEncodingException
+  {
+    ODataResponse<T> response = new ODataResponse<>( expectedValueClass, null );
+    operations.add( new Operation( "POST", service.toFullUrl( target, query ), payload, response ) );
+    return response;
+  }
+  
+  /**
+   * Queue an HTTP POST that sends an entity. Batches are always sent as 
+   * Atom.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param expectedValueClass The expected value class.
+   * @param target The endpoint
+   * @param query A query string or null
+   * @param entity The entity to send.
+   * @param propertyNames Which properties of the entity to send.
+   * @return A response that will contain the value after execution.
+   * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
+   * @throws IllegalArgumentException If the entity's class isn't mapped.
+   */
+  public <T extends Value> ODataResponse<T> post( Class<T> expectedValueClass, String target, String query, Entity entity, String... propertyNames )
+          throws UnsupportedEncodingException
+  {
+    return post( expectedValueClass, target, query, service.entityToPayload( entity, propertyNames ) );
+  }
+  
+  /**
+   * The number of operations queued and not yet executed.
+   * 
+   * @return The number of operations.
+   */
+  public int size()
+  {
+    return operations.size();
+  }
+  
+  /**
+   * Are any of the queued operations POSTs?
+   * 
+   * @return True if at least one operation will modify data.
+   */
+  public boolean hasChanges()
+  {
+    for ( Operation op : operations )
+      if ( !"GET".equals( op.method ) )
+        return true;
+    return false;
+  }
+  
+  /**
+   * Send all queued operations to the service and fill in their responses.
+   * The queue is empty afterwards so the batch can be reused. If any 
+   * operation fails the rest are still processed and then an exception 
+   * is thrown. 
+   * 
+   * If the server refuses a $batch request with an error status none of 
+   * its operations have run. They and any later operations stay queued, 
+   * the exception is thrown straight away and the batch can be executed 
+   * again.
+   * 
+   * @throws IOException Issue with the HTTP request/response or with one of the operations.
+   */
+  public void execute() throws IOException
+  {
+    int max = Math.max( 1, service.settings.getMaxBatchOperations() );
+    IOException failure = null;
+    while ( !operations.isEmpty() )
+    {
+      List<Operation> sent = operations.subList( 0, Math.min( operations.size(), max ) );
+      IOException opFailure;
+      try
+      {
+        opFailure = service.executeBatch( sent );
+      }
+      catch ( ODataHttpException ex )
+      {
+        if ( failure != null )
+          ex.addSuppressed( failure );
+        throw ex;
+      }
+      catch ( IOException ex )
+      {
+        opFailure = ex;
+      }
+      sent.clear();
+      if ( failure == null )
+        failure = opFailure;
+    }
+    if ( failure != null )
+      throw failure;
+  }
+  
+  /**
+   * One queued operation.
+   */
+  static class Operation
+  {
+    final String method;
+    final String url;
+    final String payload;
+    final ODataResponse<?> response;
+
+    Operation( String method, String url, String payload, ODataResponse<?> response )
+    {
+      this.method = method;
+      this.url = url;
+      this.payload = payload;
+      this.response = response;
+    }
+  }
+}
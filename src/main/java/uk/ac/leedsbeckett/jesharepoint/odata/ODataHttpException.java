@@ -0,0 +1,117 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.IOException;
+import org.apache.http.HttpRequest;
+
+/**
+ * Thrown when the OData service responds with an HTTP status that 
+ * indicates failure. It records the status and any Retry-After period the
+ * server asked for so callers and the retry policy can act on them.
+ * 
+ * @author maber01
+ */
+public class ODataHttpException extends IOException
+{
+  private final int statusCode;
+  private final long retryAfterMillis;
+  private final String errorBody;
+  private transient HttpRequest request;
+
+  /**
+   * Instantiate with details from the HTTP response.
+   * 
+   * @param message A description of the failure.
+   * @param statusCode The HTTP status code.
+   * @param retryAfterMillis The time the server asked us to wait or -1 if it didn't say.
+   */
+  public ODataHttpException( String message, int statusCode, long retryAfterMillis )
+  {
+    this( message, statusCode, retryAfterMillis, null );
+  }
+
+  /**
+   * Instantiate with details from the HTTP response including the error 
+   * the server sent.
+   * 
+   * @param message A description of the failure.
+   * @param statusCode The HTTP status code.
+   * @param retryAfterMillis The time the server asked us to wait or -1 if it didn't say.
+   * @param errorBody The body of the response or null.
+   */
+  public ODataHttpException( String message, int statusCode, long retryAfterMillis, String errorBody )
+  {
+    super( message );
+    this.statusCode = statusCode;
+    this.retryAfterMillis = retryAfterMillis;
+    this.errorBody = errorBody;
+  }
+
+  /**
+   * Get the HTTP status code.
+   * @return The status code.
+   */
+  public int getStatusCode()
+  {
+    return statusCode;
+  }
+
+  /**
+   * Get the period the server asked the client to wait before trying again.
+   * @return The period in milliseconds or -1 if the server didn't specify.
+   */
+  public long getRetryAfterMillis()
+  {
+    return retryAfterMillis;
+  }
+
+  /**
+   * Get the body of the response, which usually holds an OData error with
+   * a code and message from the server.
+   * @return The body or null if there wasn't one.
+   */
+  public String getErrorBody()
+  {
+    return errorBody;
+  }
+
+  /**
+   * Get the request that failed, as it was last sent, so that callers can
+   * see the headers it carried.
+   * @return The request or null if it isn't known.
+   */
+  public HttpRequest getRequest()
+  {
+    return request;
+  }
+
+  void setRequest( HttpRequest request )
+  {
+    this.request = request;
+  }
+  
+  /**
+   * Did the server reject the request because the client is sending too
+   * many requests? (429 Too Many Requests or 503 Service Unavailable.)
+   * 
+   * @return True if the client is being throttled.
+   */
+  public boolean isThrottled()
+  {
+    return statusCode == 429 || statusCode == 503;
+  }
+}
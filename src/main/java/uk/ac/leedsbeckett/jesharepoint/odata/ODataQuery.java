@@ -0,0 +1,399 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.EdmFormat;
+
+/**
+ * Builds the query string of an OData v3 request. Values are percent 
+ * encoded and literals are formatted and quoted according to their Java
+ * type, so callers never concatenate user data into URLs by hand.
+ * 
+ * <pre>
+ * String query = new ODataQuery()
+ *         .select( typeMap, SpUser.class )
+ *         .filter( "Title eq {0}", title )
+ *         .top( 100 )
+ *         .build();
+ * </pre>
+ * 
+ * A query that is used repeatedly with different values can be compiled 
+ * once into an ODataTemplate with placeholders such as {0} left in.
+ * 
+ * An instance is not thread safe. Compiled templates are.
+ * 
+ * @author maber01
+ */
+public class ODataQuery
+{
+  private static final Pattern ENCODED_PLACEHOLDER = Pattern.compile( "%7B(\\d+)%7D" );
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  
+  private final LinkedHashSet<String> select = new LinkedHashSet<>();
+  private final LinkedHashSet<String> expand = new LinkedHashSet<>();
+  private final List<String> filters = new ArrayList<>();
+  private final List<String> orderBy = new ArrayList<>();
+  private int top = -1;
+  private int skip = -1;
+  private String skipToken = null;
+  private final LinkedHashMap<String,String> options = new LinkedHashMap<>();
+
+  /**
+   * Add properties to $select.
+   * 
+   * @param properties Property names, which may be paths into expanded properties such as Users/Title.
+   * @return This query.
+   */
+  public ODataQuery select( String... properties )
+  {
+    for ( String p : properties )
+      select.add( p );
+    return this;
+  }
+  
+  /**
+   * Add all the properties that a mapped class has fields for to $select.
+   * 
+   * @param typeMap The type map that the class is bound with.
+   * @param c An entity or complex class.
+   * @return This query.
+   */
+  public ODataQuery select( TypeMap typeMap, Class<?> c )
+  {
+    String s = typeMap.getSelect( c );
+    if ( s != null )
+      select( s.split( "," ) );
+    return this;
+  }
+
+  /**
+   * Add all the properties that a mapped class has fields for to $select as
+   * paths into an expanded navigation property, and expand the property.
+   * 
+   * @param navigationProperty The name of the navigation property.
+   * @param typeMap The type map that the class is bound with.
+   * @param c The entity class in the navigation property.
+   * @return This query.
+   */
+  public ODataQuery selectExpanded( String navigationProperty, TypeMap typeMap, Class<?> c )
+  {
+    expand( navigationProperty );
+    String s = typeMap.getSelect( c );
+    if ( s != null )
+      for ( String p : s.split( "," ) )
+        select.add( navigationProperty + "/" + p );
+    return this;
+  }
+  
+  /**
+   * Add navigation properties to $expand.
+   * 
+   * @param navigationProperties The names of the navigation properties.
+   * @return This query.
+   */
+  public ODataQuery expand( String... navigationProperties )
+  {
+    for ( String p : navigationProperties )
+      expand.add( p );
+    return this;
+  }
+  
+  /**
+   * Add a filter expression. If there is more than one they are combined
+   * with 'and'. Placeholders {0}, {1} etc. are replaced by the arguments 
+   * formatted as OData literals.
+   * 
+   * @param expression The expression, for example "Title eq {0}".
+   * @param args The values for the placeholders.
+   * @return This query.
+   */
+  public ODataQuery filter( String expression, Object... args )
+  {
+    filters.add( args.length == 0 ? expression : ODataTemplate.compile( expression ).format( args ) );
+    return this;
+  }
+
+  /**
+   * Add a filter expression from a template compiled in advance.
+   * 
+   * @param expression The compiled expression.
+   * @param args The values for the placeholders.
+   * @return This query.
+   */
+  public ODataQuery filter( ODataTemplate expression, Object... args )
+  {
+    filters.add( expression.format( args ) );
+    return this;
+  }
+
+  /**
+   * Add a property to sort by in ascending order.
+   * 
+   * @param property The property name.
+   * @return This query.
+   */
+  public ODataQuery orderBy( String property )
+  {
+    orderBy.add( property );
+    return this;
+  }
+  
+  /**
+   * Add a property to sort by in descending order.
+   * 
+   * @param property The property name.
+   * @return This query.
+   */
+  public ODataQuery orderByDescending( String property )
+  {
+    orderBy.add( property + " desc" );
+    return this;
+  }
+  
+  /**
+   * Set $top, the maximum number of entities returned.
+   * 
+   * @param n The number.
+   * @return This query.
+   */
+  public ODataQuery top( int n )
+  {
+    top = n;
+    return this;
+  }
+  
+  /**
+   * Set $skip, the number of entities to skip.
+   * 
+   * @param n The number.
+   * @return This query.
+   */
+  public ODataQuery skip( int n )
+  {
+    skip = n;
+    return this;
+  }
+  
+  /**
+   * Set $skiptoken, the server's marker for where the next page starts.
+   * 
+   * @param token The token exactly as the server gave it.
+   * @return This query.
+   */
+  public ODataQuery skipToken( String token )
+  {
+    skipToken = token;
+    return this;
+  }
+  
+  /**
+   * Set any other query option, such as a parameter alias.
+   * 
+   * @param name The name of the option.
+   * @param value The value which will be encoded.
+   * @return This query.
+   */
+  public ODataQuery option( String name, String value )
+  {
+    options.put( name, value );
+    return this;
+  }
+  
+  /**
+   * Builds the encoded query string, without a leading '?'.
+   * 
+   * @return The query string or null if no options were set.
+   */
+  public String build()
+  {
+    StringBuilder sb = new StringBuilder();
+    if ( !select.isEmpty() )
+      append( sb, "$select", String.join( ",", select ) );
+    if ( !expand.isEmpty() )
+      append( sb, "$expand", String.join( ",", expand ) );
+    if ( filters.size() == 1 )
+      append( sb, "$filter", filters.get( 0 ) );
+    else if ( filters.size() > 1 )
+      append( sb, "$filter", "(" + String.join( ") and (", filters ) + ")" );
+    if ( !orderBy.isEmpty() )
+      append( sb, "$orderby", String.join( ",", orderBy ) );
+    if ( top >= 0 )
+      append( sb, "$top", Integer.toString( top ) );
+    if ( skip >= 0 )
+      append( sb, "$skip", Integer.toString( skip ) );
+    if ( skipToken != null )
+      append( sb, "$skiptoken", skipToken );
+    for ( Map.Entry<String,String> e : options.entrySet() )
+      append( sb, e.getKey(), e.getValue() );
+    return sb.length() == 0 ? null : sb.toString();
+  }
+  
+  /**
+   * Compiles the query into a template. Placeholders such as {0} that were
+   * left in values, for example filter( "Title eq {0}" ) with no arguments,
+   * are filled in each time the template is formatted.
+   * 
+   * @return The template.
+   */
+  public ODataTemplate compile()
+  {
+    String s = build();
+    if ( s == null )
+      s = "";
+    return ODataTemplate.compileEncodedQuery( ENCODED_PLACEHOLDER.matcher( s ).replaceAll( "{$1}" ) );
+  }
+  
+  @Override
+  public String toString()
+  {
+    return build();
+  }
+  
+  private static void append( StringBuilder sb, String name, String value )
+  {
+    if ( sb.length() > 0 )
+      sb.append( '&' );
+    sb.append( encodeQueryValue( name ) ).append( '=' ).append( encodeQueryValue( value ) );
+  }
+  
+  /**
+   * Formats a value as an OData v3 literal, for use in filter expressions
+   * and function parameters. Strings are quoted with embedded quotes doubled.
+   * 
+   * @param value A String, number, Boolean, UUID, Instant, OffsetDateTime, Duration, byte array, enum or null.
+   * @return The literal.
+   * @throws IllegalArgumentException If the type has no OData literal form.
+   */
+  public static String literal( Object value )
+  {
+    if ( value == null )
+      return "null";
+    if ( value instanceof String || value instanceof Character )
+      return "'" + value.toString().replace( "'", "''" ) + "'";
+    if ( value instanceof Boolean || value instanceof Integer || value instanceof Short || value instanceof Byte )
+      return value.toString();
+    if ( value instanceof Long )
+      return value + "L";
+    if ( value instanceof Double )
+      return EdmFormat.formatDouble( (Double)value ) + "d";
+    if ( value instanceof Float )
+      return EdmFormat.formatSingle( (Float)value ) + "f";
+    if ( value instanceof BigDecimal )
+      return ((BigDecimal)value).toPlainString() + "M";
+    if ( value instanceof UUID )
+      return "guid'" + value + "'";
+    if ( value instanceof Instant )
+      return "datetime'" + EdmFormat.formatDateTime( (Instant)value ) + "'";
+    if ( value instanceof OffsetDateTime )
+      return "datetimeoffset'" + EdmFormat.formatDateTimeOffset( (OffsetDateTime)value ) + "'";
+    if ( value instanceof Duration )
+      return "time'" + value + "'";
+    if ( value instanceof byte[] )
+    {
+      byte[] b = (byte[])value;
+      StringBuilder sb = new StringBuilder( b.length * 2 + 3 ).append( "X'" );
+      for ( byte x : b )
+        sb.append( HEX[ (x >> 4) & 0xf ] ).append( HEX[ x & 0xf ] );
+      return sb.append( '\'' ).toString();
+    }
+    if ( value instanceof Enum )
+      return literal( ((Enum<?>)value).name() );
+    throw new IllegalArgumentException( "No OData literal for " + value.getClass().getName() );
+  }
+
+  /**
+   * Percent encodes a query option name or value. Characters that OData 
+   * uses in expressions, such as quotes, brackets and commas, are left as
+   * they are but those that separate options are encoded.
+   * 
+   * @param s The raw text.
+   * @return The encoded text.
+   */
+  static String encodeQueryValue( String s )
+  {
+    return encode( s, false );
+  }
+  
+  /**
+   * Percent encodes part of a resource path. Slashes are left alone so a 
+   * whole path can be encoded.
+   * 
+   * @param s The raw text.
+   * @return The encoded text.
+   */
+  static String encodePath( String s )
+  {
+    return encode( s, true );
+  }
+  
+  private static String encode( String s, boolean path )
+  {
+    int i = 0;
+    while ( i < s.length() && isSafe( s.charAt( i ), path ) )
+      i++;
+    if ( i == s.length() )
+      return s;
+    
+    StringBuilder sb = new StringBuilder( s.length() + 16 );
+    sb.append( s, 0, i );
+    while ( i < s.length() )
+    {
+      char c = s.charAt( i );
+      if ( isSafe( c, path ) )
+      {
+        sb.append( c );
+        i++;
+        continue;
+      }
+      int n = Character.charCount( s.codePointAt( i ) );
+      for ( byte b : s.substring( i, i + n ).getBytes( StandardCharsets.UTF_8 ) )
+        sb.append( '%' ).append( HEX[ (b >> 4) & 0xf ] ).append( HEX[ b & 0xf ] );
+      i += n;
+    }
+    return sb.toString();
+  }
+  
+  private static boolean isSafe( char c, boolean path )
+  {
+    if ( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) )
+      return true;
+    switch ( c )
+    {
+      case '-': case '.': case '_': case '~':
+      case '!': case '$': case '\'': case '(': case ')': case '*':
+      case ',': case ';': case ':': case '@': case '/':
+        return true;
+      case '&': case '=': case '+':
+        return path;
+      case '?':
+        return !path;
+      default:
+        return false;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+
+/**
+ * A pull style reader that binds a response body to OData values one
+ * entity at a time. Unlike the SAX engine, which builds a tree of the whole
+ * document before binding, an implementation only holds the entity that it
+ * is currently reading. Instances are not thread safe and are used for a
+ * single response.
+ * 
+ * @author maber01
+ */
+public interface ODataReader extends Closeable
+{
+  /**
+   * Reads up to the root of the document if that hasn't been done yet.
+   * 
+   * @return True if the document is a collection of entities.
+   * @throws IOException If the document cannot be parsed.
+   */
+  public boolean isCollection() throws IOException;
+  
+  /**
+   * Reads a document that is a single entity or property.
+   * 
+   * @return The value or null if the root of the document could not be mapped.
+   * @throws IOException If the document cannot be parsed.
+   */
+  public Value readValue() throws IOException;
+  
+  /**
+   * Reads the next entity from a document that is a collection.
+   * 
+   * @return The entity or null if there are no more.
+   * @throws IOException If the document cannot be parsed.
+   */
+  public Entity nextEntity() throws IOException;
+  
+  /**
+   * The link to the next page of a collection, if the server provided
+   * one. Only reliable after nextEntity has returned null.
+   * 
+   * @return The URL or null.
+   */
+  public String getNextLink();
+}
@@ -26,6 +26,9 @@ package uk.ac.leedsbeckett.jesharepoint.odata;
 public class ODataResponse<T extends Value>
 {
   public T d = null;
+  
+  private int statusCode;
+  private String etag;
 
   public final Class<?> valueClass;
   public final Class<?> subClass;
@@ -69,4 +72,35 @@ public class ODataResponse<T extends Value>
   {
     this.d = d;
   }
+
+  /**
+   * Get the HTTP status code of the response.
+   * 
+   * @return The status code or zero if unknown.
+   */
+  public int getStatusCode()
+  {
+    return statusCode;
+  }
+
+  void setStatusCode( int statusCode )
+  {
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * Get the ETag header of the response, which after an update is the new
+   * version of the entity.
+   * 
+   * @return The ETag or null if there was none.
+   */
+  public String getEtag()
+  {
+    return etag;
+  }
+
+  void setEtag( String etag )
+  {
+    this.etag = etag;
+  }
 }
@@ -15,19 +15,40 @@
  */
 package uk.ac.leedsbeckett.jesharepoint.odata;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
-import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
@@ -36,19 +57,49 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.CookieStore;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustAllStrategy;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.util.EntityUtils;
 import org.xml.sax.InputSource;
@@ -56,9 +107,12 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.EntityCollection;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Metadata;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Property;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.ValueWithProperties;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.ODataSaxHandler;
+import uk.ac.leedsbeckett.jesharepoint.odata.json.ODataJsonReader;
+import uk.ac.leedsbeckett.jesharepoint.odata.stax.ODataStaxReader;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.XmlDocument;
 
 /**
@@ -66,9 +120,28 @@ import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.XmlDocument;
  * principal's session with one Odata service provider 
  * (e.g. one Sharepoint site.)
  * 
+ * A single long lived HTTP client with a pool of persistent connections is
+ * used for all requests so the cost of TCP and TLS handshakes is paid once
+ * per pooled connection rather than once per request. The instance should
+ * be closed when it is no longer needed to release the connections.
+ * 
+ * Responses are requested in the format chosen in the settings, Atom or 
+ * one of the JSON formats, and are parsed according to the Content-Type 
+ * that comes back.
+ * 
+ * Instances are thread safe. One instance can be shared by any number of
+ * threads and this is preferable to one instance per thread because the
+ * connection pool, cookie store and type map are shared. Response values
+ * are never shared between calls so they can be modified by the caller.
+ * Identical GET requests made at the same time may share one HTTP exchange,
+ * and if a response cache is configured a recent response may be reused, 
+ * but each caller gets its own value bound from the shared response. A
+ * cached response may be as old as the cache's time to live unless it is
+ * invalidated by a write made through the same instance.
+ * 
  * @author maber01
  */
-public class ODataService implements HostnameVerifier
+public class ODataService implements HostnameVerifier, Closeable
 {
   private static final Logger logger = Logger.getLogger(ODataService.class.getName() );
   
@@ -76,11 +149,34 @@ public class ODataService implements HostnameVerifier
   TypeMap typeMap;
   protected HttpRoutePlanner routePlanner = null;
   protected HttpClientBuilder clientBuilder;
+  protected PoolingHttpClientConnectionManager connectionManager;
+  protected CloseableHttpClient client;
+  protected SSLContext sslContext = null;
+  protected ConnectionKeepAliveStrategy keepAliveStrategy;
+  private CloseableHttpAsyncClient asyncClient = null;
+  private PoolingNHttpClientConnectionManager asyncConnectionManager = null;
+  private ScheduledExecutorService asyncConnectionEvictor = null;
+  private final Object asyncClientLock = new Object();
+  private volatile Executor asyncExecutor = ForkJoinPool.commonPool();
+  private volatile RetryPolicy retryPolicy;
+  private final ConcurrencyLimiter limiter;
   CookieStore cookieStore;
 
   SAXParserFactory spf;
-  SAXParser saxParser;
-  HttpRequestPrepper prep = null;
+  // SAXParser is not thread safe so each thread gets its own
+  final ThreadLocal<SAXParser> saxParsers = ThreadLocal.withInitial( this::createSaxParser );
+  volatile HttpRequestPrepper prep = null;
+  private volatile ParserEngine parserEngine;
+  private volatile ResponseFormat responseFormat;
+  private volatile ForkJoinPool bindingPool;
+  private volatile UpdateMethod updateMethod;
+  private volatile boolean trackChanges;
+  private volatile boolean coalesceRequests;
+  // Shared GET exchanges in progress, by method, URL and Accept header
+  private final ConcurrentHashMap<String, CompletableFuture<HttpResponse>> inFlight = new ConcurrentHashMap<>();
+  private volatile ResponseCache responseCache;
+  // Counts writes so a GET that overlaps one doesn't cache what it read
+  private final AtomicLong invalidations = new AtomicLong();
   
   /**
    * Instantiates ODataService with given settings. The settings provides
@@ -94,17 +190,50 @@ public class ODataService implements HostnameVerifier
     cookieStore = settings.getCookieStore();
     typeMap = settings.getTypeMap();
     recreateClientBuilder();
+    client = clientBuilder.build();
+    retryPolicy = new RetryPolicy( 
+            settings.getMaxRetries(), 
+            settings.getRetryBaseDelayMillis(), 
+            settings.getRetryMaxDelayMillis() );
+    limiter = new ConcurrencyLimiter( 
+            settings.getMinConcurrentRequests(), 
+            settings.getMaxConcurrentRequests(), 
+            1000L );
+
+    parserEngine = settings.getParserEngine() == null ? ParserEngine.SAX : settings.getParserEngine();
+    responseFormat = settings.getResponseFormat() == null ? ResponseFormat.ATOM : settings.getResponseFormat();
+    bindingPool = settings.isParallelBinding() ? ForkJoinPool.commonPool() : null;
+    updateMethod = settings.getUpdateMethod() == null ? UpdateMethod.MERGE : settings.getUpdateMethod();
+    trackChanges = settings.isTrackChanges();
+    coalesceRequests = settings.isCoalesceRequests();
+    responseCache = settings.getCacheMaxEntries() > 0 
+            ? new LruResponseCache( settings.getCacheMaxEntries(), settings.getCacheMaxBytes() ) 
+            : null;
 
     spf = SAXParserFactory.newInstance();
     spf.setNamespaceAware(true);
-    try    
-    {
-      saxParser = spf.newSAXParser();
-    }
-    catch ( ParserConfigurationException | SAXException ex )
+  }
+
+  /**
+   * Creates a SAX parser for the calling thread.
+   * 
+   * @return A new parser or null if the factory is misconfigured.
+   */
+  private SAXParser createSaxParser()
+  {
+    // The factory itself is not guaranteed to be thread safe
+    synchronized ( spf )
     {
-      Logger.getLogger(ODataService.class.getName() ).log( Level.SEVERE, null, ex );
+      try    
+      {
+        return spf.newSAXParser();
+      }
+      catch ( ParserConfigurationException | SAXException ex )
+      {
+        Logger.getLogger(ODataService.class.getName() ).log( Level.SEVERE, null, ex );
+      }
     }
+    return null;
   }
 
   /**
@@ -118,12 +247,229 @@ public class ODataService implements HostnameVerifier
     this.prep = prep;
   }
 
+  /**
+   * Sets the executor that is used to parse the responses to asynchronous
+   * requests. The default is the common fork join pool. The non-blocking 
+   * HTTP client's own I/O threads are never used for parsing.
+   * 
+   * @param asyncExecutor The executor to use.
+   */
+  public void setAsyncExecutor( Executor asyncExecutor )
+  {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  /**
+   * Sets the pool that binds the entries of Atom feeds to entities while
+   * the SAX engine carries on reading the response, overriding the 
+   * settings. Null, the default, binds each entry on the reading thread.
+   * The StAX engine and the JSON formats always bind as they read.
+   * 
+   * @param bindingPool The pool to use or null.
+   */
+  public void setBindingPool( ForkJoinPool bindingPool )
+  {
+    this.bindingPool = bindingPool;
+  }
+
+  /**
+   * Choose the HTTP method used to send updates, overriding the settings.
+   * 
+   * @param updateMethod The method.
+   */
+  public void setUpdateMethod( UpdateMethod updateMethod )
+  {
+    this.updateMethod = updateMethod;
+  }
+  
+  /**
+   * Choose whether entities that are read keep a copy of their property 
+   * values so that updates only send the properties that have changed. 
+   * Overrides the settings.
+   * 
+   * @param trackChanges True to track changes.
+   */
+  public void setTrackChanges( boolean trackChanges )
+  {
+    this.trackChanges = trackChanges;
+  }
+  
+  /**
+   * Choose whether identical concurrent GET requests share one HTTP 
+   * exchange, overriding the settings.
+   * 
+   * @param coalesceRequests True to share exchanges.
+   */
+  public void setCoalesceRequests( boolean coalesceRequests )
+  {
+    this.coalesceRequests = coalesceRequests;
+  }
+  
+  /**
+   * Plug in a cache of responses to GET requests for entities and 
+   * properties, overriding the settings.
+   * 
+   * @param responseCache The cache or null for none.
+   */
+  public void setResponseCache( ResponseCache responseCache )
+  {
+    this.responseCache = responseCache;
+  }
+  
+  /**
+   * Get the cache of responses, for example to read its statistics.
+   * 
+   * @return The cache or null if there isn't one.
+   */
+  public ResponseCache getResponseCache()
+  {
+    return responseCache;
+  }
+  
+  /**
+   * Choose the engine that parses responses, overriding the settings.
+   * 
+   * @param parserEngine The engine to use.
+   */
+  public void setParserEngine( ParserEngine parserEngine )
+  {
+    this.parserEngine = parserEngine;
+  }
+
+  /**
+   * Choose the format that responses are requested in, overriding the 
+   * settings. Batches always use Atom.
+   * 
+   * @param responseFormat The format to request.
+   */
+  public void setResponseFormat( ResponseFormat responseFormat )
+  {
+    this.responseFormat = responseFormat;
+  }
+
+  /**
+   * Replace the retry policy that was created from the settings.
+   * 
+   * @param retryPolicy The new policy.
+   */
+  public void setRetryPolicy( RetryPolicy retryPolicy )
+  {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Get the limiter that is shared by all requests made by this service.
+   * Useful for monitoring how hard the server is throttling.
+   * 
+   * @return The limiter.
+   */
+  public ConcurrencyLimiter getConcurrencyLimiter()
+  {
+    return limiter;
+  }
+
+  /**
+   * Get a snapshot of the state of the HTTP connection pool. Useful for
+   * monitoring and for tuning the pool size settings.
+   * 
+   * @return Statistics for all routes in the pool.
+   */
+  public PoolStats getConnectionPoolStats()
+  {
+    return connectionManager.getTotalStats();
+  }
+
+  /**
+   * Closes the HTTP clients, the idle connection eviction thread and all
+   * pooled connections.
+   * 
+   * @throws IOException Issue closing the client.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    client.close();
+    synchronized ( asyncClientLock )
+    {
+      if ( asyncConnectionEvictor != null )
+        asyncConnectionEvictor.shutdownNow();
+      asyncConnectionEvictor = null;
+      if ( asyncClient != null )
+        asyncClient.close();
+      asyncClient = null;
+      asyncConnectionManager = null;
+    }
+  }
+
+  /**
+   * Gets the non-blocking HTTP client, creating and starting it the first
+   * time it is needed. It is configured in the same way as the blocking 
+   * client and shares the same cookie store. Its pool has the same limits
+   * and, like the blocking pool, expired and idle connections are closed
+   * by a background thread.
+   * 
+   * @return The started client.
+   * @throws IllegalStateException If the I/O reactor can't be created.
+   */
+  private CloseableHttpAsyncClient getAsyncClient()
+  {
+    synchronized ( asyncClientLock )
+    {
+      if ( asyncClient == null )
+      {
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom();
+        if ( routePlanner != null )
+          builder.setRoutePlanner( routePlanner );
+        
+        // As with the blocking client SSL set up belongs to the connection manager
+        Registry<SchemeIOSessionStrategy> registry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register( "http", NoopIOSessionStrategy.INSTANCE )
+                .register( "https", sslContext == null 
+                        ? SSLIOSessionStrategy.getDefaultStrategy() 
+                        : new SSLIOSessionStrategy( sslContext, this ) )
+                .build();
+        try
+        {
+          asyncConnectionManager = new PoolingNHttpClientConnectionManager( 
+                  new DefaultConnectingIOReactor( IOReactorConfig.DEFAULT ), registry );
+        }
+        catch ( IOReactorException ex )
+        {
+          throw new IllegalStateException( "Unable to create the non-blocking HTTP client.", ex );
+        }
+        asyncConnectionManager.setMaxTotal( settings.getMaxConnectionsTotal() );
+        asyncConnectionManager.setDefaultMaxPerRoute( settings.getMaxConnectionsPerRoute() );
+        builder.setConnectionManager( asyncConnectionManager );
+        builder.setKeepAliveStrategy( keepAliveStrategy );
+        builder.setDefaultCookieStore( cookieStore );
+        asyncClient = builder.build();
+        asyncClient.start();
+        
+        final PoolingNHttpClientConnectionManager manager = asyncConnectionManager;
+        final long idleTimeout = Math.max( 1L, settings.getIdleConnectionTimeoutMillis() );
+        asyncConnectionEvictor = Executors.newSingleThreadScheduledExecutor( r -> 
+        {
+          Thread t = new Thread( r, "odata-async-connection-evictor" );
+          t.setDaemon( true );
+          return t;
+        } );
+        asyncConnectionEvictor.scheduleWithFixedDelay( () -> 
+        {
+          manager.closeExpiredConnections();
+          manager.closeIdleConnections( idleTimeout, TimeUnit.MILLISECONDS );
+        }, idleTimeout, idleTimeout, TimeUnit.MILLISECONDS );
+      }
+      return asyncClient;
+    }
+  }
+
   /**
    * Creates an Apache HTTP client builder with properly configured
-   * cookie store and proxy server.
+   * cookie store, proxy server and pooling connection manager.
    */
   private void recreateClientBuilder()
   {
+    SSLConnectionSocketFactory sslSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
     clientBuilder = HttpClients.custom();
     String httpsproxyurl = settings.getHttpProxyUrl();
     if ( StringUtils.isBlank( httpsproxyurl ) )
@@ -141,16 +487,38 @@ public class ODataService implements HostnameVerifier
       logger.log( Level.SEVERE, "Setting up to accept any SSL certificate on sharepoint connection. Development only." );
       try
       {
-        SSLContext sslc = new SSLContextBuilder().loadTrustMaterial( 
+        sslContext = new SSLContextBuilder().loadTrustMaterial( 
                 KeyStore.getInstance( "JKS" ), TrustAllStrategy.INSTANCE ).build();
-        clientBuilder.setSSLContext( sslc );
-        clientBuilder.setSSLHostnameVerifier( this );
+        sslSocketFactory = new SSLConnectionSocketFactory( sslContext, this );
       }
       catch ( NoSuchAlgorithmException | KeyStoreException | KeyManagementException ex )
       {
         logger.log( Level.SEVERE, null, ex );
       }
     }
+    
+    // The connection manager owns the socket factories so SSL set up
+    // has to be done here, not on the client builder.
+    Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register( "http", PlainConnectionSocketFactory.getSocketFactory() )
+            .register( "https", sslSocketFactory )
+            .build();
+    connectionManager = new PoolingHttpClientConnectionManager( registry );
+    connectionManager.setMaxTotal( settings.getMaxConnectionsTotal() );
+    connectionManager.setDefaultMaxPerRoute( settings.getMaxConnectionsPerRoute() );
+    connectionManager.setValidateAfterInactivity( 2000 );
+    clientBuilder.setConnectionManager( connectionManager );
+    
+    final long maxKeepAlive = settings.getConnectionKeepAliveMillis();
+    keepAliveStrategy = ( response, context ) ->
+    {
+      // Honour the server's Keep-Alive header but never exceed the configured maximum
+      long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration( response, context );
+      return ( duration < 0 || duration > maxKeepAlive ) ? maxKeepAlive : duration;
+    };
+    clientBuilder.setKeepAliveStrategy( keepAliveStrategy );
+    clientBuilder.evictExpiredConnections();
+    clientBuilder.evictIdleConnections( settings.getIdleConnectionTimeoutMillis(), TimeUnit.MILLISECONDS );
     clientBuilder.setDefaultCookieStore( cookieStore );
   }
 
@@ -163,7 +531,7 @@ public class ODataService implements HostnameVerifier
    * @return The full URL.
    * @throws UnsupportedEncodingException If the inputs are invalid.
    */
-  private String toFullUrl( String target, String query ) throws UnsupportedEncodingException
+  String toFullUrl( String target, String query ) throws UnsupportedEncodingException
   {
     StringBuilder sb = new StringBuilder();
     sb.append( encodeODataUrl( target ) );
@@ -189,247 +557,1771 @@ public class ODataService implements HostnameVerifier
   public <T extends Value> ODataResponse<T> get( Class<T> expectedValueClass, String target, String query )
           throws UnsupportedEncodingException, IOException
   {
-    final HttpGet request = new HttpGet( toFullUrl( target, query ) );
-    request.addHeader( "Accept", "application/atom+xml" );
-    return executexml( expectedValueClass, request );
+    final HttpGet request = new HttpGet( toFullUrl( target, selectQuery( expectedValueClass, target, query ) ) );
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    return executeGet( expectedValueClass, request, coalesceRequests, true );
   }
 
   /**
-   * Use the HTTP GET method to fetch an OData collection of entities from an endpoint.
+   * Use the HTTP GET method to fetch an OData entity from an endpoint, 
+   * choosing whether the response can be shared with identical requests
+   * that are already in flight or taken from the response cache. The value
+   * is never shared. Pass false when the response must reflect changes 
+   * made before this call. A fresh response is still put in the cache.
    * 
    * @param <T> A type that is a subclass of Value.
-   * @param expectedValueClass The expected type of the entities
+   * @param expectedValueClass The expected return type
    * @param target The URI
    * @param query Optional query string
-   * @return An ODataResponse containing the collection if it was found.
+   * @param shared True to allow the response to be shared.
+   * @return An ODataResponse containing the value if it was found.
    * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
    * @throws IOException Issue with the HTTP request/response.
    */
-  public <T extends Entity> ODataResponse<EntityCollection<T>> getEC( Class<T> expectedValueClass, String target, String query )
+  public <T extends Value> ODataResponse<T> get( Class<T> expectedValueClass, String target, String query, boolean shared )
           throws UnsupportedEncodingException, IOException
   {
-    final HttpGet request = new HttpGet( toFullUrl( target, query ) );
-    request.addHeader( "Accept", "application/atom+xml" );
-    return executeEC( expectedValueClass, request );
+    final HttpGet request = new HttpGet( toFullUrl( target, selectQuery( expectedValueClass, target, query ) ) );
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    return executeGet( expectedValueClass, request, shared, shared );
   }
-
-  private static final String ATOM_TEMPLATE_MAIN = 
-            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
-            "<entry xmlns:d=\"http://schemas.microsoft.com/ado/2007/08/dataservices\"\n" +
-            "       xmlns:m=\"http://schemas.microsoft.com/ado/2007/08/dataservices/metadata\"\n" + 
-            "       xmlns=\"http://www.w3.org/2005/Atom\">\n" +
-            "  <category term=\"{0}\" scheme=\"http://schemas.microsoft.com/ado/2007/08/dataservices/scheme\"/>\n" +
-            "  <content type=\"application/xml\">\n" +
-            "{1}" +
-            "  </content>\n" +
-            "</entry>";
-  private static final String ATOM_TEMPLATE_PROP = "    <m:properties><d:{0}>{1}</d:{0}></m:properties>\n";
-
+  
   /**
-   * Converts an entity to an XML string ready to be posted in an HTTP request.
+   * Sends a GET request for a single value, sharing the response with 
+   * other calls as allowed.
    * 
-   * @param entity The entity to represent.
-   * @param propertyNames Which properties to include.
-   * @return XML representation of the entity.
+   * @param <T> A type that is a subclass of Value.
+   * @param expectedValueClass The expected return type
+   * @param request The request.
+   * @param coalesce True to share an identical exchange already in flight.
+   * @param useCache True to take a response from the cache.
+   * @return An ODataResponse containing the value if it was found.
+   * @throws IOException Issue with the HTTP request/response.
    */
-  public String entityToPayload( Entity entity, String[] propertyNames )
+  private <T extends Value> ODataResponse<T> executeGet( Class<T> expectedValueClass, HttpGet request, 
+                                                         boolean coalesce, boolean useCache )
+          throws IOException
   {
-    Class eclass = entity.getClass();
-    String type = typeMap.getType( eclass );
-    // ToDo throw exception here
-    if ( type == null ) return null;
-    StringBuilder sb = new StringBuilder();
-    for ( String pname : propertyNames )
-    {
-      try
-      {
-        Field field = eclass.getField( pname );
-        Object obj = field.get( entity );
-        // ToDo generalise this to work with other types of fields
-        // This will only work with String, int, boolean properties
-        if ( obj != null )
-          sb.append( MessageFormat.format( ATOM_TEMPLATE_PROP, pname, obj.toString() ) );
-      }
-      catch ( NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException ex )
-      {
-      }
-    }
-    return MessageFormat.format( ATOM_TEMPLATE_MAIN, type, sb.toString() );
+    ResponseCache cache = responseCache;
+    if ( !coalesce && cache == null )
+      return executexml( expectedValueClass, request );
+    String key = requestKey( request );
+    long epoch = invalidations.get();
+    HttpResponse response = useCache && cache != null ? cache.get( key ) : null;
+    boolean hit = response != null;
+    if ( !hit )
+      response = coalesce ? executeShared( request, key ) : executeBuffered( request );
+    ODataResponse<T> odataresponse = new ODataResponse<>( expectedValueClass, null );
+    processResponse( odataresponse, response );
+    if ( !hit )
+      cacheResponse( cache, key, request, response, odataresponse, epoch );
+    return odataresponse;
   }
-  
+
   /**
-   * Posts data to an OData endpoint and fetches the result.
+   * Use the HTTP GET method to fetch an OData collection of entities from an endpoint.
    * 
-   * @param <T> A type that subclasses Value
-   * @param expectedValueClass The expected value class.
-   * @param target The endpoint
-   * @param query A query string or null
-   * @param payload Optional payload in XML format
-   * @return A response that contains the value or is empty
+   * @param <T> A type that is a subclass of Value.
+   * @param expectedValueClass The expected type of the entities
+   * @param target The URI
+   * @param query Optional query string
+   * @return An ODataResponse containing the collection if it was found.
    * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
    * @throws IOException Issue with the HTTP request/response.
    */
-  public <T extends Value> ODataResponse<T> post( Class<T> expectedValueClass, String target, String query, String payload )
+  public <T extends Entity> ODataResponse<EntityCollection<T>> getEC( Class<T> expectedValueClass, String target, String query )
           throws UnsupportedEncodingException, IOException
   {
-    final HttpPost request = new HttpPost( toFullUrl( target, query ) );
-    request.addHeader( "Accept", "application/atom+xml" );
-    //request.addHeader( "Content-Type", "application/json; odata=verbose" );
-    request.addHeader( "Content-Type", "application/atom+xml" );
-    request.setEntity( new StringEntity( payload==null?"":payload ) );
-    return executexml( expectedValueClass, request );
+    HttpGet request = collectionRequest( toFullUrl( target, selectQuery( expectedValueClass, target, pagedQuery( query ) ) ) );
+    ODataResponse<EntityCollection<T>> response = executeEC( expectedValueClass, request );
+    EntityCollection<T> ec = response.getD();
+    // Follow the server's links to further pages
+    for ( int pages = 1; ec != null && hasMorePages( ec, pages ); pages++ )
+    {
+      request = collectionRequest( resolveLink( request, ec.getNextLink() ) );
+      appendPage( ec, executeEC( expectedValueClass, request ).getD() );
+    }
+    return response;
   }
 
   /**
-   * Used to access an endpoint when an entity collection is expected.
+   * Adds the query option that sets the page size if it is configured and
+   * the query doesn't already set $top.
    * 
-   * @param <T> Type that is subclass of Entity.
-   * @param expectedValueClass The expected return class
-   * @param request The Apache HTTP client request
-   * @return A response that contains the collection if found.
-   * @throws IOException Issue with the HTTP request/response.
+   * @param query The query from the caller.
+   * @return The query to use.
    */
-  public <T extends Entity> ODataResponse<EntityCollection<T>> executeEC( Class<T> expectedValueClass, HttpRequestBase request ) 
-          throws IOException
+  private String pagedQuery( String query )
   {
-    ODataResponse<EntityCollection<T>> response = new ODataResponse<>( EntityCollection.class, expectedValueClass );
-    executexml( response, request );
-    return response;
+    int pageSize = settings.getPageSize();
+    if ( pageSize <= 0 || ( query != null && query.contains( "$top=" ) ) )
+      return query;
+    if ( query == null || query.isEmpty() )
+      return "$top=" + pageSize;
+    return query + "&$top=" + pageSize;
   }
   
   /**
-   * Used to access an endpoint when an entity collection is NOT expected.
+   * Adds a $select query option for the properties that the expected class
+   * binds if that is enabled in the settings. Properties that aren't 
+   * selected are not sent by the server at all. Nothing is added if the 
+   * caller has already chosen what to select or has put a query in the 
+   * target.
    * 
-   * @param <T> Type that is subclass of Value.
-   * @param expectedValueClass The expected return class
-   * @param request The Apache HTTP client request
-   * @return A response that contains the value if found.
-   * @throws IOException Issue with the HTTP request/response.
+   * @param expectedClass The expected class of value or entity.
+   * @param target The URI from the caller.
+   * @param query The query from the caller.
+   * @return The query to use.
    */
-  private <T extends Value> ODataResponse<T> executexml( Class<T> expectedValueClass, HttpRequestBase request ) 
-          throws IOException
+  private String selectQuery( Class<?> expectedClass, String target, String query )
   {
-    ODataResponse<T> response = new ODataResponse<>( expectedValueClass, null );
-    executexml( response, request );
-    return response;
+    if ( !settings.isAutoSelect() || target.indexOf( '?' ) >= 0 || ( query != null && query.contains( "$select=" ) ) )
+      return query;
+    String select = typeMap.getSelect( expectedClass );
+    if ( select == null )
+      return query;
+    if ( query == null || query.isEmpty() )
+      return "$select=" + select;
+    return query + "&$select=" + select;
   }
   
   /**
-   * The method that does all the work. Used for all methods - GET, POST etc.
-   * and for all expected types of response - entities, entity collections, 
-   * properties etc.
+   * Decides whether another page should be fetched.
    * 
-   * @param <T> A type that subclasses Value
-   * @param odataresponse The expected class of the return value.
-   * @param request An Apache HTTP client request.
-   * @throws IOException Issue with the HTTP request/response.
+   * @param ec The collection so far.
+   * @param pages The number of pages fetched so far.
+   * @return True if the server has more and the limit isn't reached.
    */
-  private <T extends Value> void executexml( ODataResponse<T> odataresponse, HttpRequestBase request ) 
-          throws IOException
+  private boolean hasMorePages( EntityCollection<?> ec, int pages )
   {
-    if ( prep != null )
-      prep.prepRequest( request );
-    
-    try (
-            CloseableHttpClient client = clientBuilder.build();
-            CloseableHttpResponse response = (CloseableHttpResponse) client.execute(request)
-        )
-    {
-      int status = response.getStatusLine().getStatusCode();      
-      if ( (status/100) != 2 && status !=404 )
-      {
-        String error = EntityUtils.toString( response.getEntity() );
-        logger.severe( error );
-        throw new IOException( "Problem fetching data. status = " + status );
-      }
-      if ( (status/100) == 2 )
-      {
-        try
-        {
-          InputSource inputSource = new InputSource( response.getEntity().getContent() );
-          XMLReader xmlReader = saxParser.getXMLReader();
-          Header h = response.getFirstHeader( "Content-Type" );
-          ODataSaxHandler handler = new ODataSaxHandler( h==null?null:h.getValue(), typeMap );
-          xmlReader.setContentHandler( handler );
-          xmlReader.parse( inputSource );
-          //logger.info( handler.getLog() );
-          XmlDocument doc = handler.getXmlDocument();
-          if ( EntityCollection.class.isAssignableFrom( odataresponse.valueClass ) )
-          {
-            if ( !doc.isCollection() )
-              throw new IOException( "Expected entity collection but didn't get one." );
-            try
-            {
-              Constructor collectioncon = odataresponse.valueClass.getConstructor();
-              EntityCollection ec = (EntityCollection) collectioncon.newInstance();
-              typeSafeSetDCollection( odataresponse, ec, doc );
-            }
-            catch ( NoSuchMethodException | SecurityException | InstantiationException | 
-                    IllegalAccessException | IllegalArgumentException | InvocationTargetException ex ) 
-            {
-              Logger.getLogger(ODataService.class.getName() ).log( Level.SEVERE, null, ex );
-            }
-          }
-          else if ( ValueWithProperties.class.isAssignableFrom( odataresponse.valueClass ) || 
-                               Property.class.isAssignableFrom( odataresponse.valueClass )    )
-          {
-            if ( doc.isCollection() )
-              throw new IOException( "Didn't expect entity collection but got one." );
-            Value v = doc.getODataValue();
-            if ( !odataresponse.valueClass.isAssignableFrom( v.getClass() ) )
-              throw new IOException( "Wrong data type in response." );
-            typeSafeSetDValue( odataresponse, doc );
-          }
-          else
-          {
-            throw new IOException( "Expected data type unknown." );
-          }
-        }
-        catch ( SAXException ex )
-        {
-          logger.log( Level.SEVERE, null, ex );
-          throw new IOException( "Unable to parse XML response.", ex );
-        }
-      }
-    }
+    int maxPages = settings.getMaxPages();
+    return ec.getNextLink() != null && ( maxPages <= 0 || pages < maxPages );
   }
   
-  @SuppressWarnings( "unchecked" )
-  private <T extends Value> void typeSafeSetDValue( ODataResponse<T> odataresponse, XmlDocument doc )
+  /**
+   * Moves the entities from a page into the collection being built. 
+   * 
+   * @param ec The collection so far.
+   * @param page The new page which is null if it wasn't found.
+   */
+  private static <T extends Entity> void appendPage( EntityCollection<T> ec, EntityCollection<T> page )
   {
-    Value v = doc.getODataValue();
-    if ( odataresponse.valueClass.isInstance( v ) )
-      odataresponse.setD( (T)v );
+    if ( page == null )
+    {
+      ec.setNextLink( null );
+      return;
+    }
+    for ( T e : page.getEntities() )
+      ec.add( e );
+    ec.setNextLink( page.getNextLink() );
   }
   
-  @SuppressWarnings( "unchecked" )
-  private <T extends Value> void typeSafeSetDCollection( ODataResponse<T> odataresponse, EntityCollection ec, XmlDocument doc )
+  /**
+   * Resolves a link from a response, which may be relative, against the
+   * URI of the request.
+   * 
+   * @param request The request.
+   * @param link The link or null.
+   * @return An absolute URL or null if link was null.
+   */
+  static String resolveLink( HttpRequestBase request, String link )
   {
-    List<Entity> v = doc.getODataValues();
-    for ( Entity e : v )
-        ec.add( e );
-    odataresponse.setD( (T)ec );
+    if ( link == null )
+      return null;
+    try
+    {
+      return request.getURI().resolve( link ).toString();
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      return link;
+    }
   }
   
   /**
-   * Encodes parts of URL that need encoding which avoiding encoding stuff
-   * that shouldn't be encoded.
+   * Creates a GET request for a collection.
    * 
-   * @param s The input URL
-   * @return The encoded version.
-   * @throws UnsupportedEncodingException 
+   * @param url The full URL.
+   * @return The request.
    */
-  private static String encodeODataUrl( String s ) throws UnsupportedEncodingException
+  HttpGet collectionRequest( String url )
   {
-    StringBuilder sb = new StringBuilder( s.length() * 3 / 2 );
-    for ( int i=0; i<s.length(); i++ )
-    {
-      if ( s.charAt( i ) == ' ' )
-        sb.append( "%20" );
-      else
-        sb.append( s.charAt( i) );
-    }
-    return sb.toString();
+    HttpGet request = new HttpGet( url );
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    return request;
+  }
+
+  /**
+   * Use the HTTP GET method to fetch an OData collection of entities as a 
+   * stream. Entities are parsed and handed over as each entry arrives, so 
+   * processing can start before the whole response has been received and
+   * memory use doesn't depend on the size of the collection. A pull reader 
+   * is always used whatever the parser engine setting.
+   * 
+   * Links to further pages are followed, up to the maximum number of pages
+   * in the settings. If prefetch is enabled in the settings each page after
+   * the first is fetched in the background while the previous one is being
+   * consumed.
+   * 
+   * The stream holds an HTTP connection open and must be closed, ideally
+   * with try-with-resources. Closing it before the end, for example after
+   * findFirst or limit, aborts the rest of the response.
+   * 
+   * @param <T> A type that is a subclass of Entity.
+   * @param expectedValueClass The expected type of the entities
+   * @param target The URI
+   * @param query Optional query string
+   * @return A stream of entities which is empty if the collection wasn't found.
+   * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
+   * @throws IOException Issue with the HTTP request or start of the response.
+   */
+  public <T extends Entity> Stream<T> stream( Class<T> expectedValueClass, String target, String query )
+          throws UnsupportedEncodingException, IOException
+  {
+    final HttpGet request = collectionRequest( toFullUrl( target, selectQuery( expectedValueClass, target, pagedQuery( query ) ) ) );
+    FeedPage first = openPage( request, expectedValueClass );
+    if ( first == null )
+      return Stream.empty();
+    FeedIterator<T> iterator = new FeedIterator<>( this, expectedValueClass, first, 
+            settings.getMaxPages(), settings.isPrefetchNextPage(), asyncExecutor );
+    return StreamSupport.stream( 
+            Spliterators.spliteratorUnknownSize( iterator, Spliterator.ORDERED | Spliterator.NONNULL ), 
+            false ).onClose( iterator::close );
+  }
+
+  /**
+   * Opens one page of a collection for streaming. 
+   * 
+   * @param request The request for the page.
+   * @param entityClass The class of entity expected.
+   * @return The open page or null if the collection wasn't found.
+   * @throws IOException Issue with the HTTP request or start of the response.
+   */
+  FeedPage openPage( HttpGet request, Class<? extends Entity> entityClass ) throws IOException
+  {
+    CloseableHttpResponse response = open( request );
+    if ( response.getStatusLine().getStatusCode() == 404 )
+    {
+      EntityUtils.consumeQuietly( response.getEntity() );
+      response.close();
+      return null;
+    }
+    ODataReader reader;
+    try
+    {
+      reader = newReader( response, entityClass );
+    }
+    catch ( IOException | RuntimeException ex )
+    {
+      request.abort();
+      response.close();
+      throw ex;
+    }
+    return new FeedPage( request, response, reader );
+  }
+
+  /**
+   * Non-blocking version of get. The request is sent by a non-blocking
+   * HTTP client so no thread waits for the response.
+   * 
+   * @param <T> A type that is a subclass of Value.
+   * @param expectedValueClass The expected return type
+   * @param target The URI
+   * @param query Optional query string
+   * @return A future that completes with the response or with an IOException.
+   */
+  public <T extends Value> CompletableFuture<ODataResponse<T>> getAsync( Class<T> expectedValueClass, String target, String query )
+  {
+    final HttpGet request;
+    try
+    {
+      request = new HttpGet( toFullUrl( target, selectQuery( expectedValueClass, target, query ) ) );
+    }
+    catch ( UnsupportedEncodingException ex )
+    {
+      return CompletableFuture.failedFuture( ex );
+    }
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    return executeGetAsync( expectedValueClass, request, coalesceRequests, true );
+  }
+
+  /**
+   * Non-blocking version of get with the choice of sharing the response.
+   * Cancelling the future doesn't abandon a shared exchange.
+   * 
+   * @param <T> A type that is a subclass of Value.
+   * @param expectedValueClass The expected return type
+   * @param target The URI
+   * @param query Optional query string
+   * @param shared True to allow the response to be shared.
+   * @return A future that completes with the response or with an IOException.
+   */
+  public <T extends Value> CompletableFuture<ODataResponse<T>> getAsync( Class<T> expectedValueClass, String target, String query, boolean shared )
+  {
+    final HttpGet request;
+    try
+    {
+      request = new HttpGet( toFullUrl( target, selectQuery( expectedValueClass, target, query ) ) );
+    }
+    catch ( UnsupportedEncodingException ex )
+    {
+      return CompletableFuture.failedFuture( ex );
+    }
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    return executeGetAsync( expectedValueClass, request, shared, shared );
+  }
+  
+  /**
+   * Non-blocking version of executeGet.
+   * 
+   * @param <T> A type that is a subclass of Value.
+   * @param expectedValueClass The expected return type
+   * @param request The request.
+   * @param coalesce True to share an identical exchange already in flight.
+   * @param useCache True to take a response from the cache.
+   * @return A future that completes with the response or with an IOException.
+   */
+  private <T extends Value> CompletableFuture<ODataResponse<T>> executeGetAsync( Class<T> expectedValueClass, HttpGet request, 
+                                                                                boolean coalesce, boolean useCache )
+  {
+    final ResponseCache cache = responseCache;
+    if ( !coalesce && cache == null )
+      return executeAsync( new ODataResponse<>( expectedValueClass, null ), request );
+    final String key = requestKey( request );
+    final long epoch = invalidations.get();
+    final HttpResponse hit = useCache && cache != null ? cache.get( key ) : null;
+    CompletableFuture<HttpResponse> future;
+    if ( hit != null )
+      future = CompletableFuture.completedFuture( hit );
+    else if ( coalesce )
+      future = executeSharedAsync( request, key );
+    else
+      future = executeAsync( request, ODataService::bufferResponse );
+    final ODataResponse<T> odataresponse = new ODataResponse<>( expectedValueClass, null );
+    return future.thenApplyAsync( response -> 
+    {
+      try
+      {
+        processResponse( odataresponse, response );
+        if ( hit == null )
+          cacheResponse( cache, key, request, response, odataresponse, epoch );
+      }
+      catch ( IOException ex )
+      {
+        throw new CompletionException( ex );
+      }
+      return odataresponse;
+    }, asyncExecutor );
+  }
+
+  /**
+   * Non-blocking version of getEC.
+   * 
+   * @param <T> A type that is a subclass of Value.
+   * @param expectedValueClass The expected type of the entities
+   * @param target The URI
+   * @param query Optional query string
+   * @return A future that completes with the response or with an IOException.
+   */
+  public <T extends Entity> CompletableFuture<ODataResponse<EntityCollection<T>>> getECAsync( Class<T> expectedValueClass, String target, String query )
+  {
+    final HttpGet request;
+    try
+    {
+      request = collectionRequest( toFullUrl( target, selectQuery( expectedValueClass, target, pagedQuery( query ) ) ) );
+    }
+    catch ( UnsupportedEncodingException ex )
+    {
+      return CompletableFuture.failedFuture( ex );
+    }
+    CompletableFuture<ODataResponse<EntityCollection<T>>> future = 
+            executeAsync( new ODataResponse<>( EntityCollection.class, expectedValueClass ), request );
+    return future.thenCompose( response -> nextPagesAsync( expectedValueClass, response, request, 1 ) );
+  }
+  
+  /**
+   * Follows links to further pages without blocking.
+   * 
+   * @param <T> The type of entity.
+   * @param expectedValueClass The type of entity.
+   * @param response The response being built.
+   * @param previous The request for the previous page.
+   * @param pages How many pages have been fetched.
+   * @return A future that completes when all pages have been fetched.
+   */
+  private <T extends Entity> CompletableFuture<ODataResponse<EntityCollection<T>>> nextPagesAsync( 
+          Class<T> expectedValueClass, ODataResponse<EntityCollection<T>> response, HttpGet previous, int pages )
+  {
+    EntityCollection<T> ec = response.getD();
+    if ( ec == null || !hasMorePages( ec, pages ) )
+      return CompletableFuture.completedFuture( response );
+    HttpGet request = collectionRequest( resolveLink( previous, ec.getNextLink() ) );
+    CompletableFuture<ODataResponse<EntityCollection<T>>> future = 
+            executeAsync( new ODataResponse<>( EntityCollection.class, expectedValueClass ), request );
+    return future.thenCompose( page -> 
+    {
+      appendPage( ec, page.getD() );
+      return nextPagesAsync( expectedValueClass, response, request, pages + 1 );
+    } );
+  }
+
+  /**
+   * Converts an entity to an XML string ready to be posted in an HTTP request.
+   * Values are escaped and formatted according to their Edm type. Posting 
+   * the entity itself with post( Class, String, String, Entity, String... )
+   * avoids building the string.
+   * 
+   * @param entity The entity to represent.
+   * @param propertyNames Which properties to include.
+   * @return XML representation of the entity.
+   * @throws IllegalArgumentException If the entity's class isn't mapped.
+   */
+  public String entityToPayload( Entity entity, String[] propertyNames )
+  {
+    EntitySerializer serializer = typeMap.getSerializer( entity.getClass() );
+    if ( serializer.getType() == null )
+      throw new IllegalArgumentException( "Class is not mapped to an OData type " + entity.getClass().getName() );
+    ByteArrayOutputStream out = new ByteArrayOutputStream( 1024 );
+    try
+    {
+      PayloadWriter writer = PayloadWriter.open( out );
+      try
+      {
+        serializer.writeAtom( entity, propertyNames, writer );
+      }
+      finally
+      {
+        writer.close();
+      }
+    }
+    catch ( IOException ex )
+    {
+      // Can't happen with a byte array
+      throw new IllegalStateException( ex );
+    }
+    return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+  }
+  
+  /**
+   * Makes a request body that serializes an entity as it is sent. It is in
+   * JSON if the service is set to receive JSON responses, otherwise Atom.
+   * 
+   * @param entity The entity to send.
+   * @param propertyNames Which properties to include.
+   * @return The request body, which also sets the Content-Type.
+   * @throws IllegalArgumentException If the entity's class isn't mapped.
+   */
+  public HttpEntity entityToHttpEntity( Entity entity, String[] propertyNames )
+  {
+    EntitySerializer serializer = typeMap.getSerializer( entity.getClass() );
+    if ( serializer.getType() == null )
+      throw new IllegalArgumentException( "Class is not mapped to an OData type " + entity.getClass().getName() );
+    return new EntityPayload( serializer, entity, propertyNames, responseFormat != ResponseFormat.ATOM );
+  }
+  
+  /**
+   * Posts data to an OData endpoint and fetches the result.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param expectedValueClass The expected value class.
+   * @param target The endpoint
+   * @param query A query string or null
+   * @param payload Optional payload in XML format
+   * @return A response that contains the value or is empty
+   * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  public <T extends Value> ODataResponse<T> post( Class<T> expectedValueClass, String target, String query, String payload )
+          throws UnsupportedEncodingException, IOException
+  {
+    final HttpPost request = new HttpPost( toFullUrl( target, query ) );
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    //request.addHeader( "Content-Type", "application/json; odata=verbose" );
+    request.addHeader( "Content-Type", "application/atom+xml" );
+    request.setEntity( new StringEntity( payload==null?"":payload, StandardCharsets.UTF_8 ) );
+    return executexml( expectedValueClass, request );
+  }
+
+  /**
+   * Posts an entity to an OData endpoint and fetches the result. The entity
+   * is serialized straight into the request as it is sent.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param expectedValueClass The expected value class.
+   * @param target The endpoint
+   * @param query A query string or null
+   * @param entity The entity to send.
+   * @param propertyNames Which properties of the entity to send.
+   * @return A response that contains the value or is empty
+   * @throws UnsupportedEncodingException Issue with the URI to the endpoint.
+   * @throws IOException Issue with the HTTP request/response.
+   * @throws IllegalArgumentException If the entity's class isn't mapped.
+   */
+  public <T extends Value> ODataResponse<T> post( Class<T> expectedValueClass, String target, String query, Entity entity, String... propertyNames )
+          throws UnsupportedEncodingException, IOException
+  {
+    final HttpPost request = new HttpPost( toFullUrl( target, query ) );
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    request.setEntity( entityToHttpEntity( entity, propertyNames ) );
+    return executexml( expectedValueClass, request );
+  }
+
+  /**
+   * Non-blocking version of post.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param expectedValueClass The expected value class.
+   * @param target The endpoint
+   * @param query A query string or null
+   * @param payload Optional payload in XML format
+   * @return A future that completes with the response or with an IOException.
+   */
+  public <T extends Value> CompletableFuture<ODataResponse<T>> postAsync( Class<T> expectedValueClass, String target, String query, String payload )
+  {
+    final HttpPost request;
+    try
+    {
+      request = new HttpPost( toFullUrl( target, query ) );
+      request.setEntity( new StringEntity( payload==null?"":payload, StandardCharsets.UTF_8 ) );
+    }
+    catch ( UnsupportedEncodingException ex )
+    {
+      return CompletableFuture.failedFuture( ex );
+    }
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    request.addHeader( "Content-Type", "application/atom+xml" );
+    return executeAsync( new ODataResponse<>( expectedValueClass, null ), request );
+  }
+
+  /**
+   * Non-blocking version of posting an entity.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param expectedValueClass The expected value class.
+   * @param target The endpoint
+   * @param query A query string or null
+   * @param entity The entity to send.
+   * @param propertyNames Which properties of the entity to send.
+   * @return A future that completes with the response or with an IOException.
+   */
+  public <T extends Value> CompletableFuture<ODataResponse<T>> postAsync( Class<T> expectedValueClass, String target, String query, Entity entity, String... propertyNames )
+  {
+    final HttpPost request;
+    try
+    {
+      request = new HttpPost( toFullUrl( target, query ) );
+      request.setEntity( entityToHttpEntity( entity, propertyNames ) );
+    }
+    catch ( UnsupportedEncodingException | IllegalArgumentException ex )
+    {
+      return CompletableFuture.failedFuture( ex );
+    }
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    return executeAsync( new ODataResponse<>( expectedValueClass, null ), request );
+  }
+
+  /**
+   * Sends the properties of an entity that have changed to the entity's URI
+   * using MERGE or PATCH as set up. The request carries If-Match with the 
+   * entity's ETag, so it fails with status 412 if someone else has changed 
+   * the entity since it was read, or "*" if the ETag isn't known. If no 
+   * property has changed no request is sent at all. When it succeeds the 
+   * entity's ETag and its original values are brought up to date.
+   * 
+   * Changes are found by comparing the properties with the values recorded
+   * when the entity was read, which only happens with change tracking on.
+   * Without a record every named property is sent.
+   * 
+   * @param entity The entity, which must have been read from the service.
+   * @param propertyNames Which properties to send if they've changed, or none for any property.
+   * @return True if an update was sent, false if nothing had changed.
+   * @throws IllegalArgumentException If the entity has no URI or its class isn't mapped.
+   * @throws IllegalStateException If no names are given and the entity's changes aren't tracked.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  public boolean update( Entity entity, String... propertyNames ) throws IOException
+  {
+    HttpRequestBase request = updateRequest( entity, propertyNames );
+    if ( request == null )
+      return false;
+    ODataResponse<Entity> odataresponse = new ODataResponse<>( entity.getClass(), null );
+    executexml( odataresponse, request );
+    updated( entity, odataresponse );
+    return true;
+  }
+  
+  /**
+   * Non-blocking version of update.
+   * 
+   * @param entity The entity, which must have been read from the service.
+   * @param propertyNames Which properties to send if they've changed, or none for any property.
+   * @return A future that completes with true if an update was sent or false if nothing had changed.
+   */
+  public CompletableFuture<Boolean> updateAsync( Entity entity, String... propertyNames )
+  {
+    final HttpRequestBase request;
+    try
+    {
+      request = updateRequest( entity, propertyNames );
+    }
+    catch ( UnsupportedEncodingException | IllegalArgumentException | IllegalStateException ex )
+    {
+      return CompletableFuture.failedFuture( ex );
+    }
+    if ( request == null )
+      return CompletableFuture.completedFuture( false );
+    ODataResponse<Entity> odataresponse = new ODataResponse<>( entity.getClass(), null );
+    return executeAsync( odataresponse, request ).thenApply( r -> 
+    {
+      try
+      {
+        updated( entity, r );
+      }
+      catch ( ODataHttpException ex )
+      {
+        throw new CompletionException( ex );
+      }
+      return true;
+    } );
+  }
+  
+  /**
+   * Builds the request for an update.
+   * 
+   * @param entity The entity to update.
+   * @param propertyNames The properties to consider.
+   * @return The request or null if there is nothing to send.
+   */
+  private HttpRequestBase updateRequest( Entity entity, String[] propertyNames ) 
+          throws UnsupportedEncodingException
+  {
+    EntitySerializer serializer = typeMap.getSerializer( entity.getClass() );
+    if ( serializer.getType() == null )
+      throw new IllegalArgumentException( "Class is not mapped to an OData type " + entity.getClass().getName() );
+    String uri = entity.__metadata == null ? null : entity.__metadata.uri;
+    if ( uri == null && entity.__metadata != null )
+      uri = entity.__metadata.id;
+    if ( uri == null )
+      throw new IllegalArgumentException( "Entity has no URI so can't be updated." );
+    boolean all = propertyNames == null || propertyNames.length == 0;
+    Object[] original = entity.getOriginalValues();
+    if ( original == null && all )
+      throw new IllegalStateException( "Entity changes aren't tracked so the properties to update must be named." );
+    String[] changed = serializer.getChanges( entity, original, all ? null : propertyNames );
+    if ( changed.length == 0 )
+      return null;
+    
+    HttpEntityEnclosingRequestBase request;
+    if ( updateMethod == UpdateMethod.PATCH )
+    {
+      request = new HttpPatch( toFullUrl( uri, null ) );
+    }
+    else
+    {
+      request = new HttpPost( toFullUrl( uri, null ) );
+      request.addHeader( "X-HTTP-Method", "MERGE" );
+    }
+    request.addHeader( "Accept", responseFormat.getAcceptHeader() );
+    String etag = entity.__metadata.etag;
+    request.addHeader( "If-Match", etag == null ? "*" : etag );
+    request.setEntity( new EntityPayload( serializer, entity, changed, responseFormat != ResponseFormat.ATOM ) );
+    return request;
+  }
+  
+  /**
+   * Brings an entity up to date after it has been updated.
+   * 
+   * @param entity The entity that was sent.
+   * @param odataresponse The response to the update.
+   * @throws ODataHttpException If the entity wasn't found.
+   */
+  private void updated( Entity entity, ODataResponse<?> odataresponse ) throws ODataHttpException
+  {
+    if ( odataresponse.getStatusCode() == 404 )
+      throw new ODataHttpException( "Entity to update was not found. status = 404", 404, -1L );
+    entity.__metadata.etag = odataresponse.getEtag();
+    if ( trackChanges || entity.getOriginalValues() != null )
+      track( entity );
+  }
+  
+  /**
+   * Records the property values of an entity so that changes can be found
+   * when it is updated.
+   * 
+   * @param entity The entity.
+   */
+  void track( Entity entity )
+  {
+    EntitySerializer serializer = typeMap.getSerializer( entity.getClass() );
+    if ( serializer.getType() != null )
+      entity.setOriginalValues( serializer.snapshot( entity ) );
+  }
+  
+  /**
+   * Is change tracking on?
+   * 
+   * @return True if entities that are read should be tracked.
+   */
+  boolean isTrackChanges()
+  {
+    return trackChanges;
+  }
+  
+  /**
+   * Create an empty batch. Operations queued in the batch are sent to the
+   * service's $batch endpoint when it is executed.
+   * 
+   * @return A new batch.
+   */
+  public ODataBatch createBatch()
+  {
+    return new ODataBatch( this );
+  }
+  
+  /**
+   * Sends a list of operations to the $batch endpoint as a multipart/mixed
+   * request and processes each part of the response into the matching 
+   * operation's response object. Sharepoint stops a batch at the first
+   * operation that fails so later operations may have no part. They are
+   * left empty and reported as failed.
+   * 
+   * @param operations The operations to send.
+   * @return The first failure of an operation or null if they all succeeded.
+   * @throws IOException If the $batch request as a whole failed.
+   */
+  IOException executeBatch( List<ODataBatch.Operation> operations ) throws IOException
+  {
+    String boundary = "batch_" + UUID.randomUUID();
+    final HttpPost request = new HttpPost( settings.getBatchUri() );
+    request.addHeader( "Accept", "multipart/mixed" );
+    request.addHeader( "Content-Type", "multipart/mixed; boundary=" + boundary );
+    request.setEntity( new ByteArrayEntity( encodeBatch( operations, boundary ).getBytes( StandardCharsets.UTF_8 ) ) );
+    if ( prep != null )
+      prep.prepRequest( request );
+    
+    List<HttpResponse> parts;
+    try
+    {
+      parts = execute( request, response ->
+      {
+        int status = response.getStatusLine().getStatusCode();
+        if ( (status/100) != 2 )
+          throw statusException( "Problem executing batch. status = " + status, response, Level.FINE );
+        byte[] body = response.getEntity() == null ? new byte[0] : EntityUtils.toByteArray( response.getEntity() );
+        Header h = response.getFirstHeader( "Content-Type" );
+        String responseBoundary = h == null ? null : ContentType.parse( h.getValue() ).getParameter( "boundary" );
+        if ( responseBoundary == null )
+          throw new IOException( "Batch response is not multipart." );
+        // ISO-8859-1 maps bytes to chars one to one so part bodies can be turned back into the original bytes
+        return parseMultipart( new String( body, StandardCharsets.ISO_8859_1 ), responseBoundary );
+      } );
+    }
+    finally
+    {
+      // Writes before a failing operation have been made whatever the response says
+      for ( ODataBatch.Operation op : operations )
+        invalidate( op.method, op.url );
+    }
+    
+    IOException failure = null;
+    for ( int i=0; i<operations.size(); i++ )
+    {
+      try
+      {
+        if ( i >= parts.size() )
+          throw new IOException( "No response to batch operation " + (i+1) + " of " + operations.size() + 
+                  ", the batch was stopped by an earlier failure." );
+        processResponse( operations.get( i ).response, parts.get( i ) );
+      }
+      catch ( IOException ex )
+      {
+        if ( failure == null )
+          failure = ex;
+      }
+    }
+    if ( failure == null && parts.size() > operations.size() )
+      failure = new IOException( "Batch response has " + parts.size() + " parts but " + operations.size() + " operations were sent." );
+    return failure;
+  }
+  
+  private static final String CRLF = "\r\n";
+  
+  /**
+   * Encodes operations as the multipart/mixed body of a $batch request.
+   * Each POST is wrapped in its own change set.
+   * 
+   * @param operations The operations.
+   * @param boundary The boundary for the batch.
+   * @return The encoded body.
+   */
+  private static String encodeBatch( List<ODataBatch.Operation> operations, String boundary )
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( ODataBatch.Operation op : operations )
+    {
+      sb.append( "--" ).append( boundary ).append( CRLF );
+      if ( "GET".equals( op.method ) )
+      {
+        encodeBatchRequest( sb, op );
+      }
+      else
+      {
+        String changeset = "changeset_" + UUID.randomUUID();
+        sb.append( "Content-Type: multipart/mixed; boundary=" ).append( changeset ).append( CRLF );
+        sb.append( CRLF );
+        sb.append( "--" ).append( changeset ).append( CRLF );
+        encodeBatchRequest( sb, op );
+        sb.append( "--" ).append( changeset ).append( "--" ).append( CRLF );
+      }
+    }
+    sb.append( "--" ).append( boundary ).append( "--" ).append( CRLF );
+    return sb.toString();
+  }
+  
+  /**
+   * Encodes one operation as an application/http part.
+   * 
+   * @param sb Where to put the encoded operation.
+   * @param op The operation.
+   */
+  private static void encodeBatchRequest( StringBuilder sb, ODataBatch.Operation op )
+  {
+    sb.append( "Content-Type: application/http" ).append( CRLF );
+    sb.append( "Content-Transfer-Encoding: binary" ).append( CRLF );
+    sb.append( CRLF );
+    sb.append( op.method ).append( ' ' ).append( op.url ).append( " HTTP/1.1" ).append( CRLF );
+    sb.append( "Accept: application/atom+xml" ).append( CRLF );
+    if ( op.payload != null )
+      sb.append( "Content-Type: application/atom+xml" ).append( CRLF );
+    sb.append( CRLF );
+    if ( op.payload != null )
+      sb.append( op.payload ).append( CRLF );
+  }
+  
+  /**
+   * Splits a multipart/mixed body into the HTTP responses that it contains,
+   * descending into nested change set responses.
+   * 
+   * @param body The multipart body.
+   * @param boundary The boundary.
+   * @return The responses in the order they appear.
+   * @throws IOException If the body is badly formed.
+   */
+  private static List<HttpResponse> parseMultipart( String body, String boundary ) throws IOException
+  {
+    ArrayList<HttpResponse> responses = new ArrayList<>();
+    String delimiter = "--" + boundary;
+    int pos = body.indexOf( delimiter );
+    while ( pos >= 0 )
+    {
+      int start = pos + delimiter.length();
+      if ( body.startsWith( "--", start ) )
+        break;
+      int eol = body.indexOf( '\n', start );
+      if ( eol < 0 )
+        break;
+      start = eol + 1;
+      int next = body.indexOf( delimiter, start );
+      if ( next < 0 )
+        throw new IOException( "Unterminated part in batch response." );
+      // The line break before a delimiter belongs to the delimiter
+      int end = next;
+      if ( end > start && body.charAt( end-1 ) == '\n' ) end--;
+      if ( end > start && body.charAt( end-1 ) == '\r' ) end--;
+      
+      MessageReader part = new MessageReader( body.substring( start, end ) );
+      String contentType = null;
+      for ( String line = part.readLine(); line != null && !line.isEmpty(); line = part.readLine() )
+        if ( line.regionMatches( true, 0, "Content-Type:", 0, 13 ) )
+          contentType = line.substring( 13 ).trim();
+      if ( contentType != null && contentType.toLowerCase().startsWith( "multipart/mixed" ) )
+        responses.addAll( parseMultipart( part.rest(), ContentType.parse( contentType ).getParameter( "boundary" ) ) );
+      else
+        responses.add( parseHttpMessage( part ) );
+      pos = next;
+    }
+    return responses;
+  }
+  
+  /**
+   * Turns the application/http content of a batch part into an HTTP response.
+   * 
+   * @param message Positioned at the start of the status line.
+   * @return The response.
+   * @throws IOException If the message is badly formed.
+   */
+  private static HttpResponse parseHttpMessage( MessageReader message ) throws IOException
+  {
+    String statusLine = message.readLine();
+    String[] bits = statusLine == null ? new String[0] : statusLine.split( " ", 3 );
+    if ( bits.length < 2 )
+      throw new IOException( "Invalid status line in batch response." );
+    BasicHttpResponse response;
+    try
+    {
+      response = new BasicHttpResponse( HttpVersion.HTTP_1_1, Integer.parseInt( bits[1] ), bits.length > 2 ? bits[2] : "" );
+    }
+    catch ( NumberFormatException ex )
+    {
+      throw new IOException( "Invalid status line in batch response.", ex );
+    }
+    for ( String line = message.readLine(); line != null && !line.isEmpty(); line = message.readLine() )
+    {
+      int n = line.indexOf( ':' );
+      if ( n > 0 )
+        response.addHeader( line.substring( 0, n ).trim(), line.substring( n+1 ).trim() );
+    }
+    response.setEntity( new ByteArrayEntity( message.rest().getBytes( StandardCharsets.ISO_8859_1 ) ) );
+    return response;
+  }
+  
+  /**
+   * Reads lines from the text of a MIME part or HTTP message.
+   */
+  private static class MessageReader
+  {
+    final String text;
+    int pos = 0;
+
+    MessageReader( String text )
+    {
+      this.text = text;
+    }
+    
+    /**
+     * Read a line without its line break.
+     * @return The line or null at the end of the text.
+     */
+    String readLine()
+    {
+      if ( pos >= text.length() )
+        return null;
+      int eol = text.indexOf( '\n', pos );
+      if ( eol < 0 )
+        eol = text.length();
+      int end = ( eol > pos && text.charAt( eol-1 ) == '\r' ) ? eol-1 : eol;
+      String line = text.substring( pos, end );
+      pos = eol + 1;
+      return line;
+    }
+    
+    /**
+     * Everything that has not been read yet.
+     * @return The remaining text.
+     */
+    String rest()
+    {
+      return pos >= text.length() ? "" : text.substring( pos );
+    }
+  }
+
+  /**
+   * Used to access an endpoint when an entity collection is expected.
+   * 
+   * @param <T> Type that is subclass of Entity.
+   * @param expectedValueClass The expected return class
+   * @param request The Apache HTTP client request
+   * @return A response that contains the collection if found.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  public <T extends Entity> ODataResponse<EntityCollection<T>> executeEC( Class<T> expectedValueClass, HttpRequestBase request ) 
+          throws IOException
+  {
+    ODataResponse<EntityCollection<T>> response = new ODataResponse<>( EntityCollection.class, expectedValueClass );
+    executexml( response, request );
+    return response;
+  }
+  
+  /**
+   * Used to access an endpoint when an entity collection is NOT expected.
+   * 
+   * @param <T> Type that is subclass of Value.
+   * @param expectedValueClass The expected return class
+   * @param request The Apache HTTP client request
+   * @return A response that contains the value if found.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  private <T extends Value> ODataResponse<T> executexml( Class<T> expectedValueClass, HttpRequestBase request ) 
+          throws IOException
+  {
+    ODataResponse<T> response = new ODataResponse<>( expectedValueClass, null );
+    executexml( response, request );
+    return response;
+  }
+  
+  /**
+   * The method that does all the work. Used for all methods - GET, POST etc.
+   * and for all expected types of response - entities, entity collections, 
+   * properties etc.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param odataresponse The expected class of the return value.
+   * @param request An Apache HTTP client request.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  private <T extends Value> void executexml( ODataResponse<T> odataresponse, HttpRequestBase request ) 
+          throws IOException
+  {
+    if ( prep != null )
+      prep.prepRequest( request );
+    
+    try
+    {
+      execute( request, response ->
+      {
+        processResponse( odataresponse, response );
+        return null;
+      } );
+    }
+    finally
+    {
+      // Even a failed request may have changed something
+      invalidate( request.getMethod(), request.getURI().toString() );
+    }
+  }
+  
+  /**
+   * Sends a GET request or, if an identical request is already in flight,
+   * waits for that one instead. The response is buffered so that every 
+   * caller can bind its own value from it.
+   * 
+   * @param request The request.
+   * @param key Identifies the request.
+   * @return The buffered response, which may have status 404.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  private HttpResponse executeShared( HttpRequestBase request, String key ) throws IOException
+  {
+    CompletableFuture<HttpResponse> mine = new CompletableFuture<>();
+    CompletableFuture<HttpResponse> shared = inFlight.putIfAbsent( key, mine );
+    if ( shared == null )
+    {
+      shared = mine;
+      try
+      {
+        if ( prep != null )
+          prep.prepRequest( request );
+        mine.complete( execute( request, ODataService::bufferResponse ) );
+      }
+      catch ( IOException | RuntimeException ex )
+      {
+        mine.completeExceptionally( ex );
+      }
+      finally
+      {
+        inFlight.remove( key, mine );
+      }
+    }
+    
+    try
+    {
+      return shared.get();
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting for a shared request." );
+    }
+    catch ( ExecutionException ex )
+    {
+      if ( ex.getCause() instanceof IOException )
+        throw (IOException)ex.getCause();
+      if ( ex.getCause() instanceof RuntimeException )
+        throw (RuntimeException)ex.getCause();
+      throw new IOException( ex.getCause() );
+    }
+  }
+  
+  /**
+   * Non-blocking version of executeShared.
+   * 
+   * @param request The request.
+   * @param key Identifies the request.
+   * @return A future that completes with the buffered response.
+   */
+  private CompletableFuture<HttpResponse> executeSharedAsync( HttpRequestBase request, String key )
+  {
+    CompletableFuture<HttpResponse> mine = new CompletableFuture<>();
+    CompletableFuture<HttpResponse> shared = inFlight.putIfAbsent( key, mine );
+    if ( shared != null )
+      return shared;
+    executeAsync( request, ODataService::bufferResponse ).whenComplete( ( r, t ) -> 
+    {
+      inFlight.remove( key, mine );
+      if ( t == null )
+        mine.complete( r );
+      else
+        mine.completeExceptionally( t );
+    } );
+    return mine;
+  }
+  
+  /**
+   * Sends a request and buffers the response.
+   * 
+   * @param request The request.
+   * @return The buffered response, which may have status 404.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  private HttpResponse executeBuffered( HttpRequestBase request ) throws IOException
+  {
+    if ( prep != null )
+      prep.prepRequest( request );
+    return execute( request, ODataService::bufferResponse );
+  }
+  
+  /**
+   * Puts a successful response in the cache for as long as the settings 
+   * allow for the type of value. It can then be found by the request URL 
+   * and invalidated by changes to that URL or to the entity's own URI.
+   * Nothing is cached if a write was made after the request was sent 
+   * because the response may have been read before the write.
+   * 
+   * @param cache The cache or null if there isn't one.
+   * @param key Identifies the request.
+   * @param request The request.
+   * @param response The buffered response.
+   * @param odataresponse The value bound from the response.
+   * @param epoch The count of invalidations before the request was sent.
+   */
+  private void cacheResponse( ResponseCache cache, String key, HttpRequestBase request, 
+                              HttpResponse response, ODataResponse<?> odataresponse, long epoch )
+  {
+    if ( cache == null || invalidations.get() != epoch || response.getStatusLine().getStatusCode() != 200 || odataresponse.getD() == null )
+      return;
+    Class<?> c = odataresponse.getD().getClass();
+    long ttl = settings.getCacheTtlMillis( typeMap.getType( c ) );
+    if ( ttl <= 0L )
+      return;
+    List<String> uris = new ArrayList<>( 3 );
+    uris.add( request.getURI().toString() );
+    if ( odataresponse.getD() instanceof Entity )
+    {
+      Metadata m = ((Entity)odataresponse.getD()).__metadata;
+      if ( m != null )
+      {
+        uris.add( m.uri );
+        uris.add( m.id );
+      }
+    }
+    cache.put( key, response, uris, ttl );
+    // A write that finished while putting may have invalidated too early
+    if ( invalidations.get() != epoch )
+      for ( String uri : uris )
+        cache.invalidate( uri );
+  }
+  
+  /**
+   * Removes cached responses that a request which may change data on the
+   * server makes out of date, and stops later GET requests from sharing 
+   * exchanges that are already in flight. Which entity an in-flight GET 
+   * will return isn't known until it arrives so none of them are shared 
+   * after a write. Fetching the context information is a POST that 
+   * changes nothing so it is left out.
+   * 
+   * @param method The HTTP method.
+   * @param uri The URI the request was sent to.
+   */
+  private void invalidate( String method, String uri )
+  {
+    if ( "GET".equals( method ) || uri == null || uri.equalsIgnoreCase( settings.getContextInfoUri() ) )
+      return;
+    // Order matters: a GET reads the count before looking for a shared exchange
+    inFlight.clear();
+    invalidations.incrementAndGet();
+    ResponseCache cache = responseCache;
+    if ( cache != null )
+      cache.invalidate( uri );
+  }
+  
+  /**
+   * Identifies requests that would get the same response.
+   * 
+   * @param request The request.
+   * @return The key.
+   */
+  private static String requestKey( HttpRequestBase request )
+  {
+    Header accept = request.getFirstHeader( "Accept" );
+    return request.getMethod() + " " + request.getURI() + " " + ( accept == null ? "" : accept.getValue() );
+  }
+  
+  /**
+   * Reads a whole response into memory so that it can be processed any
+   * number of times by any thread.
+   * 
+   * @param response The response.
+   * @return A copy of the response.
+   * @throws IOException If the status is an error or the body can't be read.
+   */
+  private static HttpResponse bufferResponse( HttpResponse response ) throws IOException
+  {
+    checkStatus( response );
+    BasicHttpResponse copy = new BasicHttpResponse( response.getStatusLine() );
+    copy.setHeaders( response.getAllHeaders() );
+    if ( response.getEntity() != null )
+      copy.setEntity( new ByteArrayEntity( EntityUtils.toByteArray( response.getEntity() ) ) );
+    return copy;
+  }
+  
+  /**
+   * Sends a request using the blocking client and handles the response. 
+   * A permit from the concurrency limiter is held while the request is in
+   * flight. Failed requests are retried as the retry policy allows and 
+   * the limiter is told about throttling.
+   * 
+   * @param <R> The type of result of handling the response.
+   * @param request The request, which must already be prepped.
+   * @param handler Processes the response. It must throw an ODataHttpException for error statuses.
+   * @return The result from the handler.
+   * @throws IOException Issue with the HTTP request/response when retries are exhausted.
+   */
+  private <R> R execute( HttpRequestBase request, ResponseHandler<R> handler ) throws IOException
+  {
+    for ( int attempt=0; ; attempt++ )
+    {
+      IOException failure;
+      limiter.acquire();
+      try ( CloseableHttpResponse response = client.execute( request ) )
+      {
+        try
+        {
+          R result = handler.handleResponse( response );
+          limiter.onSuccess();
+          return result;
+        }
+        finally
+        {
+          // Fully read the entity so the connection can go back to the pool
+          EntityUtils.consumeQuietly( response.getEntity() );
+        }
+      }
+      catch ( IOException ex )
+      {
+        failure = ex;
+      }
+      finally
+      {
+        limiter.release();
+      }
+      
+      awaitRetry( request, attempt, failure );
+    }
+  }
+
+  /**
+   * Sends a request, with retries, and returns the response without reading
+   * the entity so that it can be streamed. The concurrency permit is given
+   * back as soon as the headers arrive so that a stream the caller reads 
+   * slowly, or makes other requests while reading, can't starve those 
+   * requests of permits. The caller must close the response.
+   * 
+   * @param request The request.
+   * @return The open response which may have status 404.
+   * @throws IOException If the request failed and won't be retried.
+   */
+  private CloseableHttpResponse open( HttpRequestBase request ) throws IOException
+  {
+    if ( prep != null )
+      prep.prepRequest( request );
+    for ( int attempt=0; ; attempt++ )
+    {
+      IOException failure;
+      limiter.acquire();
+      CloseableHttpResponse response = null;
+      try
+      {
+        response = client.execute( request );
+        checkStatus( response );
+        limiter.onSuccess();
+        return response;
+      }
+      catch ( IOException | RuntimeException ex )
+      {
+        if ( response != null )
+        {
+          EntityUtils.consumeQuietly( response.getEntity() );
+          try { response.close(); } catch ( IOException ignore ) {}
+        }
+        if ( ex instanceof RuntimeException )
+          throw (RuntimeException)ex;
+        failure = (IOException)ex;
+      }
+      finally
+      {
+        limiter.release();
+      }
+      awaitRetry( request, attempt, failure );
+    }
+  }
+  
+  /**
+   * Decides whether a failed request will be retried and waits if it will.
+   * 
+   * @param request The request that failed.
+   * @param attempt Zero for the first attempt.
+   * @param failure Why it failed.
+   * @throws IOException The failure if it won't be retried.
+   */
+  private void awaitRetry( HttpRequestBase request, int attempt, IOException failure ) throws IOException
+  {
+    RetryPolicy policy = retryPolicy;
+    if ( isThrottled( failure ) )
+      limiter.onThrottled();
+    if ( !policy.shouldRetry( request.getMethod(), attempt, failure ) )
+      throw failed( request, failure );
+    long delay = policy.getDelayMillis( attempt, failure );
+    logger.log( Level.WARNING, "Retrying {0} {1} in {2}ms after: {3}", 
+            new Object[] { request.getMethod(), request.getURI(), delay, failure.getMessage() } );
+    try
+    {
+      Thread.sleep( delay );
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting to retry request." );
+    }
+    request.reset();
+  }
+  
+  /**
+   * Records the request in a failure that won't be retried.
+   * 
+   * @param request The request that failed.
+   * @param failure Why it failed.
+   * @return The failure.
+   */
+  private static IOException failed( HttpRequestBase request, IOException failure )
+  {
+    if ( failure instanceof ODataHttpException && ((ODataHttpException)failure).getRequest() == null )
+      ((ODataHttpException)failure).setRequest( request );
+    return failure;
+  }
+  
+  private static boolean isThrottled( Throwable t )
+  {
+    return t instanceof ODataHttpException && ((ODataHttpException)t).isThrottled();
+  }
+  
+  /**
+   * The asynchronous equivalent of executexml. The request is sent using 
+   * the non-blocking client, which buffers the response entity, and the
+   * response is then parsed using the async executor.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param odataresponse The response object that will be completed.
+   * @param request An Apache HTTP client request.
+   * @return A future that completes when the response has been parsed.
+   */
+  private <T extends Value> CompletableFuture<ODataResponse<T>> executeAsync( ODataResponse<T> odataresponse, HttpRequestBase request )
+  {
+    CompletableFuture<ODataResponse<T>> future = executeAsync( request, response -> 
+    {
+      processResponse( odataresponse, response );
+      return odataresponse;
+    } );
+    // The caller's future completes only after invalidation so its own reads see the change
+    return future.whenComplete( ( r, t ) -> invalidate( request.getMethod(), request.getURI().toString() ) );
+  }
+  
+  /**
+   * Sends a request using the non-blocking client and handles the response
+   * using the async executor.
+   * 
+   * @param <R> The type of result of handling the response.
+   * @param request An Apache HTTP client request.
+   * @param handler Processes the response. It must throw an ODataHttpException for error statuses.
+   * @return A future that completes with the result from the handler.
+   */
+  private <R> CompletableFuture<R> executeAsync( HttpRequestBase request, ResponseHandler<R> handler )
+  {
+    if ( prep != null )
+      prep.prepRequest( request );
+    
+    final CompletableFuture<R> future = new CompletableFuture<>();
+    attemptAsync( request, handler, 0, future );
+    // If the caller gives up the HTTP exchange is abandoned too
+    future.whenComplete( ( r, t ) -> { if ( future.isCancelled() ) request.abort(); } );
+    return future;
+  }
+  
+  /**
+   * Make one attempt at an asynchronous request. Waits for a permit from
+   * the concurrency limiter without blocking, which is released as soon
+   * as the response arrives.
+   * 
+   * @param <R> The type of result of handling the response.
+   * @param request An Apache HTTP client request.
+   * @param handler Processes the response.
+   * @param attempt The number of retries already made.
+   * @param future The future to complete.
+   */
+  private <R> void attemptAsync( HttpRequestBase request, ResponseHandler<R> handler, 
+                                 int attempt, CompletableFuture<R> future )
+  {
+    limiter.acquireAsync().thenRun( () ->
+    {
+      if ( future.isDone() )
+      {
+        limiter.release();
+        return;
+      }
+      final Executor executor = asyncExecutor;
+      try
+      {
+        getAsyncClient().execute( request, new FutureCallback<HttpResponse>()
+        {
+          @Override
+          public void completed( HttpResponse response )
+          {
+            limiter.release();
+            try
+            {
+              executor.execute( () ->
+              {
+                try
+                {
+                  R result = handler.handleResponse( response );
+                  limiter.onSuccess();
+                  future.complete( result );
+                }
+                catch ( IOException ex )
+                {
+                  retryOrFailAsync( request, handler, attempt, future, ex );
+                }
+                catch ( RuntimeException ex )
+                {
+                  future.completeExceptionally( ex );
+                }
+              } );
+            }
+            catch ( RejectedExecutionException ex )
+            {
+              // The permit has already gone back so only the caller needs telling
+              future.completeExceptionally( ex );
+            }
+          }
+
+          @Override
+          public void failed( Exception ex )
+          {
+            limiter.release();
+            if ( ex instanceof IOException )
+              retryOrFailAsync( request, handler, attempt, future, (IOException)ex );
+            else
+              future.completeExceptionally( ex );
+          }
+
+          @Override
+          public void cancelled()
+          {
+            limiter.release();
+            future.cancel( false );
+          }
+        } );
+      }
+      catch ( RuntimeException ex )
+      {
+        // The client never took the request so no callback will release the permit
+        limiter.release();
+        future.completeExceptionally( ex );
+      }
+    } );
+  }
+  
+  /**
+   * Schedules another attempt at an asynchronous request if the retry
+   * policy allows it, otherwise fails the future.
+   * 
+   * @param <R> The type of result of handling the response.
+   * @param request An Apache HTTP client request.
+   * @param handler Processes the response.
+   * @param attempt The number of retries already made.
+   * @param future The future to complete.
+   * @param failure What went wrong with this attempt.
+   */
+  private <R> void retryOrFailAsync( HttpRequestBase request, ResponseHandler<R> handler, 
+                                     int attempt, CompletableFuture<R> future, IOException failure )
+  {
+    RetryPolicy policy = retryPolicy;
+    if ( isThrottled( failure ) )
+      limiter.onThrottled();
+    if ( !policy.shouldRetry( request.getMethod(), attempt, failure ) )
+    {
+      future.completeExceptionally( failed( request, failure ) );
+      return;
+    }
+    long delay = policy.getDelayMillis( attempt, failure );
+    logger.log( Level.WARNING, "Retrying {0} {1} in {2}ms after: {3}", 
+            new Object[] { request.getMethod(), request.getURI(), delay, failure.getMessage() } );
+    CompletableFuture.delayedExecutor( delay, TimeUnit.MILLISECONDS ).execute( () ->
+    {
+      request.reset();
+      attemptAsync( request, handler, attempt+1, future );
+    } );
+  }
+  
+  /**
+   * Checks the status of an HTTP response and parses the content into
+   * the OData response.
+   * 
+   * @param <T> A type that subclasses Value
+   * @param odataresponse The expected class of the return value.
+   * @param response An Apache HTTP client response.
+   * @throws IOException Issue with the HTTP request/response.
+   */
+  private <T extends Value> void processResponse( ODataResponse<T> odataresponse, HttpResponse response ) 
+          throws IOException
+  {
+    checkStatus( response );
+    int status = response.getStatusLine().getStatusCode();      
+    odataresponse.setStatusCode( status );
+    Header etag = response.getFirstHeader( "ETag" );
+    odataresponse.setEtag( etag == null ? null : etag.getValue() );
+    if ( status == 204 || response.getEntity() == null )
+      return;
+    if ( (status/100) == 2 )
+    {
+      if ( parserEngine == ParserEngine.STAX || isJson( response ) )
+      {
+        Class<?> expected = odataresponse.subClass != null ? odataresponse.subClass : odataresponse.valueClass;
+        try ( ODataReader reader = newReader( response, expected ) )
+        {
+          readResponse( odataresponse, reader );
+        }
+        return;
+      }
+      
+      try
+      {
+        InputSource inputSource = new InputSource( response.getEntity().getContent() );
+        SAXParser saxParser = saxParsers.get();
+        saxParser.reset();
+        XMLReader xmlReader = saxParser.getXMLReader();
+        Header h = response.getFirstHeader( "Content-Type" );
+        ODataSaxHandler handler = new ODataSaxHandler( h==null?null:h.getValue(), typeMap );
+        handler.setBindingPool( bindingPool );
+        xmlReader.setContentHandler( handler );
+        xmlReader.parse( inputSource );
+        XmlDocument doc = handler.getXmlDocument();
+        if ( EntityCollection.class.isAssignableFrom( odataresponse.valueClass ) )
+        {
+          if ( !doc.isCollection() )
+            throw new IOException( "Expected entity collection but didn't get one." );
+          EntityCollection ec = newCollection( odataresponse );
+          if ( ec != null )
+          {
+            ec.setNextLink( doc.getNextLink() );
+            typeSafeSetDCollection( odataresponse, ec, doc.getODataValues() );
+          }
+        }
+        else if ( ValueWithProperties.class.isAssignableFrom( odataresponse.valueClass ) || 
+                             Property.class.isAssignableFrom( odataresponse.valueClass )    )
+        {
+          if ( doc.isCollection() )
+            throw new IOException( "Didn't expect entity collection but got one." );
+          typeSafeSetDValue( odataresponse, doc.getODataValue() );
+        }
+        else
+        {
+          throw new IOException( "Expected data type unknown." );
+        }
+      }
+      catch ( SAXException ex )
+      {
+        logger.log( Level.SEVERE, null, ex );
+        throw new IOException( "Unable to parse XML response.", ex );
+      }
+    }
+  }
+
+  /**
+   * Creates a pull reader that suits the Content-Type of a response.
+   * 
+   * @param response The response.
+   * @param expectedClass The class of value expected or, for a collection, the class of entity.
+   * @return The reader.
+   * @throws IOException If the body can't be read.
+   */
+  private ODataReader newReader( HttpResponse response, Class<?> expectedClass ) throws IOException
+  {
+    InputStream in = response.getEntity().getContent();
+    if ( isJson( response ) )
+      return new ODataJsonReader( in, typeMap, expectedClass );
+    return new ODataStaxReader( in, typeMap );
+  }
+  
+  private static boolean isJson( HttpResponse response )
+  {
+    Header h = response.getFirstHeader( "Content-Type" );
+    return h != null && h.getValue() != null && h.getValue().toLowerCase().contains( "json" );
+  }
+  
+  /**
+   * Binds a response using a pull reader.
+   * 
+   * @param <T> The expected type of the data.
+   * @param odataresponse Where to put the data.
+   * @param reader The reader positioned at the start of the response body.
+   * @throws IOException If the response doesn't match the expected type.
+   */
+  private <T extends Value> void readResponse( ODataResponse<T> odataresponse, ODataReader reader ) 
+          throws IOException
+  {
+    if ( EntityCollection.class.isAssignableFrom( odataresponse.valueClass ) )
+    {
+      if ( !reader.isCollection() )
+        throw new IOException( "Expected entity collection but didn't get one." );
+      EntityCollection ec = newCollection( odataresponse );
+      if ( ec == null )
+        return;
+      List<Entity> entities = new ArrayList<>();
+      for ( Entity e = reader.nextEntity(); e != null; e = reader.nextEntity() )
+        entities.add( e );
+      ec.setNextLink( reader.getNextLink() );
+      typeSafeSetDCollection( odataresponse, ec, entities );
+    }
+    else if ( ValueWithProperties.class.isAssignableFrom( odataresponse.valueClass ) || 
+                         Property.class.isAssignableFrom( odataresponse.valueClass )    )
+    {
+      if ( reader.isCollection() )
+        throw new IOException( "Didn't expect entity collection but got one." );
+      typeSafeSetDValue( odataresponse, reader.readValue() );
+    }
+    else
+    {
+      throw new IOException( "Expected data type unknown." );
+    }
+  }
+  
+  /**
+   * Instantiates the collection class that a response expects.
+   * 
+   * @param odataresponse The response.
+   * @return The new collection or null if it couldn't be instantiated.
+   */
+  private EntityCollection newCollection( ODataResponse<?> odataresponse )
+  {
+    try
+    {
+      Constructor collectioncon = odataresponse.valueClass.getConstructor();
+      return (EntityCollection) collectioncon.newInstance();
+    }
+    catch ( NoSuchMethodException | SecurityException | InstantiationException | 
+            IllegalAccessException | IllegalArgumentException | InvocationTargetException ex ) 
+    {
+      Logger.getLogger(ODataService.class.getName() ).log( Level.SEVERE, null, ex );
+    }
+    return null;
+  }
+  
+  /**
+   * Throws an exception if the response status is an error. 404 is not 
+   * treated as an error because it means the requested item doesn't exist.
+   * 
+   * @param response The HTTP response.
+   * @throws IOException If the status is an error.
+   */
+  private static void checkStatus( HttpResponse response ) throws IOException
+  {
+    int status = response.getStatusLine().getStatusCode();      
+    if ( (status/100) != 2 && status !=404 )
+      throw statusException( "Problem fetching data. status = " + status, response, Level.SEVERE );
+  }
+  
+  /**
+   * Creates the exception for an error response. It carries the body of 
+   * the response, which usually holds the server's error code and message.
+   * 
+   * @param message A description of the failure.
+   * @param response The HTTP response.
+   * @param level The level at which the body is logged.
+   * @return The exception.
+   * @throws IOException If the body can't be read.
+   */
+  private static ODataHttpException statusException( String message, HttpResponse response, Level level ) throws IOException
+  {
+    String error = response.getEntity() == null ? "" : EntityUtils.toString( response.getEntity() );
+    if ( !error.isBlank() )
+      logger.log( level, error );
+    return new ODataHttpException( message, response.getStatusLine().getStatusCode(), retryAfterMillis( response ), 
+            error.isBlank() ? null : error );
+  }
+  
+  private static long retryAfterMillis( HttpResponse response )
+  {
+    Header h = response.getFirstHeader( "Retry-After" );
+    if ( h == null || h.getValue() == null )
+      return -1L;
+    String value = h.getValue().trim();
+    try
+    {
+      return Math.max( 0L, Long.parseLong( value ) * 1000L );
+    }
+    catch ( NumberFormatException ex )
+    {
+      Date date = DateUtils.parseDate( value );
+      if ( date == null )
+        return -1L;
+      return Math.max( 0L, date.getTime() - System.currentTimeMillis() );
+    }
+  }
+  
+  @SuppressWarnings( "unchecked" )
+  private <T extends Value> void typeSafeSetDValue( ODataResponse<T> odataresponse, Value v ) throws IOException
+  {
+    if ( v == null || !odataresponse.valueClass.isInstance( v ) )
+      throw new IOException( "Wrong data type in response." );
+    if ( trackChanges && v instanceof Entity )
+      track( (Entity)v );
+    odataresponse.setD( (T)v );
+  }
+  
+  @SuppressWarnings( "unchecked" )
+  private <T extends Value> void typeSafeSetDCollection( ODataResponse<T> odataresponse, EntityCollection ec, List<Entity> v )
+  {
+    for ( Entity e : v )
+    {
+      if ( trackChanges )
+        track( e );
+      ec.add( e );
+    }
+    odataresponse.setD( (T)ec );
+  }
+  
+  /**
+   * Encodes parts of URL that need encoding which avoiding encoding stuff
+   * that shouldn't be encoded. Targets and queries built with ODataTemplate
+   * or ODataQuery are already encoded and pass through unchanged because
+   * '%' is left alone. Otherwise spaces, control characters, characters
+   * that are never legal in a URL and non-ASCII characters are encoded.
+   * 
+   * @param s The input URL
+   * @return The encoded version.
+   * @throws UnsupportedEncodingException 
+   */
+  private static String encodeODataUrl( String s ) throws UnsupportedEncodingException
+  {
+    StringBuilder sb = null;
+    for ( int i=0; i<s.length(); i++ )
+    {
+      char c = s.charAt( i );
+      boolean legal = c > ' ' && c < 0x7f && "\"#<>\\^`{|}".indexOf( c ) < 0;
+      if ( legal )
+      {
+        if ( sb != null )
+          sb.append( c );
+        continue;
+      }
+      if ( sb == null )
+        sb = new StringBuilder( s.length() * 3 / 2 ).append( s, 0, i );
+      int n = Character.charCount( s.codePointAt( i ) );
+      for ( byte b : s.substring( i, i + n ).getBytes( StandardCharsets.UTF_8 ) )
+        sb.append( String.format( "%%%02X", b & 0xff ) );
+      i += n - 1;
+    }
+    return sb == null ? s : sb.toString();
   }  
 
   @Override
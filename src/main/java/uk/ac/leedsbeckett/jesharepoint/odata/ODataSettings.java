@@ -19,7 +19,9 @@ import org.apache.http.client.CookieStore;
 
 /**
  * This interface tells the Sharepoint code what information the OData
- * implementation needs to be given to get started.
+ * implementation needs to be given to get started. Settings that have a 
+ * default method are optional and implementations only need to override
+ * them to change the documented default.
  * 
  * @author maber01
  */
@@ -70,4 +72,269 @@ public interface ODataSettings
    * @return The required property. 
    */
   public TypeMap getTypeMap();
+  
+  /**
+   * The maximum number of pooled HTTP connections to any one host.
+   * 
+   * @return The required property. Defaults to 20.
+   */
+  public default int getMaxConnectionsPerRoute()
+  {
+    return 20;
+  }
+  
+  /**
+   * The maximum number of pooled HTTP connections in total.
+   * 
+   * @return The required property. Defaults to 40.
+   */
+  public default int getMaxConnectionsTotal()
+  {
+    return 40;
+  }
+  
+  /**
+   * The longest time that an idle pooled connection will be kept alive
+   * if the server doesn't specify a shorter time.
+   * 
+   * @return The required property in milliseconds. Defaults to 60000.
+   */
+  public default long getConnectionKeepAliveMillis()
+  {
+    return 60000L;
+  }
+  
+  /**
+   * Pooled connections that have been idle for longer than this will be
+   * closed by a background thread.
+   * 
+   * @return The required property in milliseconds. Defaults to 30000.
+   */
+  public default long getIdleConnectionTimeoutMillis()
+  {
+    return 30000L;
+  }
+  
+  /**
+   * The URI of the service's $batch endpoint.
+   * 
+   * @return The required property. Defaults to the $batch endpoint beside the service URI.
+   */
+  public default String getBatchUri()
+  {
+    String service = getServiceUri();
+    if ( service == null )
+      return null;
+    int n = service.indexOf( "/_api/" );
+    if ( n < 0 )
+      return null;
+    return service.substring( 0, n ) + "/_api/$batch";
+  }
+  
+  /**
+   * The maximum number of operations to send in one $batch request.
+   * Larger batches are split.
+   * 
+   * @return The required property. Defaults to 100.
+   */
+  public default int getMaxBatchOperations()
+  {
+    return 100;
+  }
+  
+  /**
+   * The maximum number of times a failed request will be retried.
+   * 
+   * @return The required property. Defaults to 5.
+   */
+  public default int getMaxRetries()
+  {
+    return 5;
+  }
+  
+  /**
+   * The delay before the first retry when the server doesn't specify one.
+   * Later retries wait exponentially longer.
+   * 
+   * @return The required property in milliseconds. Defaults to 500.
+   */
+  public default long getRetryBaseDelayMillis()
+  {
+    return 500L;
+  }
+  
+  /**
+   * The maximum delay between retries when the server doesn't specify one.
+   * 
+   * @return The required property in milliseconds. Defaults to 60000.
+   */
+  public default long getRetryMaxDelayMillis()
+  {
+    return 60000L;
+  }
+  
+  /**
+   * The maximum number of requests that may be in flight at once. The
+   * actual limit adapts to throttling by the server.
+   * 
+   * @return The required property. Defaults to the maximum connections per route.
+   */
+  public default int getMaxConcurrentRequests()
+  {
+    return getMaxConnectionsPerRoute();
+  }
+  
+  /**
+   * The lowest the adaptive limit on requests in flight will go.
+   * 
+   * @return The required property. Defaults to 1.
+   */
+  public default int getMinConcurrentRequests()
+  {
+    return 1;
+  }
+  
+  /**
+   * Which engine is used to parse Atom responses.
+   * 
+   * @return The required property. Defaults to SAX.
+   */
+  public default ParserEngine getParserEngine()
+  {
+    return ParserEngine.SAX;
+  }
+  
+  /**
+   * Which format responses are requested in.
+   * 
+   * @return The required property. Defaults to ATOM.
+   */
+  public default ResponseFormat getResponseFormat()
+  {
+    return ResponseFormat.ATOM;
+  }
+  
+  /**
+   * The number of entities to ask for per page of a collection using $top.
+   * Zero leaves the page size up to the server. Only use this with 
+   * endpoints that page with $top, such as list items, because other
+   * endpoints treat $top as a limit on the whole collection.
+   * 
+   * @return The required property. Defaults to 0.
+   */
+  public default int getPageSize()
+  {
+    return 0;
+  }
+  
+  /**
+   * The maximum number of pages that will be fetched when reading a 
+   * collection that the server splits into pages. Zero means no limit.
+   * 
+   * @return The required property. Defaults to 0.
+   */
+  public default int getMaxPages()
+  {
+    return 0;
+  }
+  
+  /**
+   * Whether streams fetch the next page of a collection in the background
+   * while the current page is being processed. 
+   * 
+   * @return The required property. Defaults to false.
+   */
+  public default boolean isPrefetchNextPage()
+  {
+    return false;
+  }
+  
+  /**
+   * Whether GET requests for entities and complex values add a $select 
+   * query option listing only the properties that the expected class has 
+   * fields for. Not applied when the query already has $select.
+   * 
+   * @return The required property. Defaults to false.
+   */
+  public default boolean isAutoSelect()
+  {
+    return false;
+  }
+  
+  /**
+   * Whether the entries of Atom feeds parsed with the SAX engine are bound
+   * to entities in parallel on the common fork join pool while the reading
+   * thread carries on parsing. The order of the feed is kept.
+   * 
+   * @return The required property. Defaults to false.
+   */
+  public default boolean isParallelBinding()
+  {
+    return false;
+  }
+  
+  /**
+   * Which HTTP method is used to send partial updates of entities.
+   * 
+   * @return The required property. Defaults to MERGE.
+   */
+  public default UpdateMethod getUpdateMethod()
+  {
+    return UpdateMethod.MERGE;
+  }
+  
+  /**
+   * Whether entities that are read keep a copy of their property values so
+   * that updates only send the properties that have changed.
+   * 
+   * @return The required property. Defaults to false.
+   */
+  public default boolean isTrackChanges()
+  {
+    return false;
+  }
+  
+  /**
+   * Whether identical GET requests for entities and properties that are in
+   * flight at the same time share one HTTP exchange.
+   * 
+   * @return The required property. Defaults to true.
+   */
+  public default boolean isCoalesceRequests()
+  {
+    return true;
+  }
+  
+  /**
+   * The maximum number of responses held in the response cache. Zero means
+   * there is no cache.
+   * 
+   * @return The required property. Defaults to 0.
+   */
+  public default int getCacheMaxEntries()
+  {
+    return 0;
+  }
+  
+  /**
+   * The maximum total size of the response bodies held in the cache.
+   * 
+   * @return The required property in bytes. Defaults to 16MB.
+   */
+  public default long getCacheMaxBytes()
+  {
+    return 16L*1024L*1024L;
+  }
+  
+  /**
+   * How long a response containing a value of the given type may be taken
+   * from the cache. Zero means it isn't cached.
+   * 
+   * @param type The OData type name, such as SP.Group, or null if the value's class isn't mapped.
+   * @return The required property in milliseconds. Defaults to 60000.
+   */
+  public default long getCacheTtlMillis( String type )
+  {
+    return 60000L;
+  }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A piece of OData text with numbered placeholders, {0}, {1} and so on, 
+ * that is parsed once and then formatted many times. Arguments are 
+ * formatted as OData literals, so strings are quoted, and encoded to suit
+ * where the text goes. Instances are immutable and thread safe so they can
+ * be kept in static fields.
+ * 
+ * <pre>
+ * static final ODataTemplate GROUP = ODataTemplate.compilePath( "sitegroups/getbyname({0})" );
+ * ...
+ * String url = serviceUri + GROUP.format( groupName );
+ * </pre>
+ * 
+ * @author maber01
+ */
+public final class ODataTemplate
+{
+  private enum Encoding { NONE, PATH, QUERY }
+  
+  private final String[] constants;
+  private final int[] indexes;
+  private final int argumentCount;
+  private final Encoding encoding;
+  private final int length;
+
+  private ODataTemplate( List<String> constants, List<Integer> indexes, Encoding encoding )
+  {
+    this.constants = constants.toArray( new String[0] );
+    this.indexes = indexes.stream().mapToInt( Integer::intValue ).toArray();
+    this.encoding = encoding;
+    int max = -1, n = 0;
+    for ( int i : this.indexes )
+      max = Math.max( max, i );
+    for ( String c : this.constants )
+      n += c.length();
+    argumentCount = max + 1;
+    length = n;
+  }
+  
+  /**
+   * Compiles text that is not encoded when it is formatted, such as a 
+   * filter expression that is passed to ODataQuery.
+   * 
+   * @param pattern The text with placeholders.
+   * @return The template.
+   */
+  public static ODataTemplate compile( String pattern )
+  {
+    return parse( pattern, Encoding.NONE, Encoding.NONE );
+  }
+  
+  /**
+   * Compiles a resource path, for example "getfolderbyserverrelativeurl({0})".
+   * The result of formatting is percent encoded and can be appended to the
+   * service URI.
+   * 
+   * @param pattern The path with placeholders.
+   * @return The template.
+   */
+  public static ODataTemplate compilePath( String pattern )
+  {
+    return parse( pattern, Encoding.PATH, Encoding.PATH );
+  }
+  
+  /**
+   * Compiles a query string that is already encoded apart from placeholders.
+   * 
+   * @param pattern The encoded query string.
+   * @return The template.
+   */
+  static ODataTemplate compileEncodedQuery( String pattern )
+  {
+    return parse( pattern, Encoding.NONE, Encoding.QUERY );
+  }
+  
+  private static ODataTemplate parse( String pattern, Encoding constantEncoding, Encoding argumentEncoding )
+  {
+    List<String> constants = new ArrayList<>();
+    List<Integer> indexes = new ArrayList<>();
+    int start = 0;
+    int i = 0;
+    while ( i < pattern.length() )
+    {
+      int end = placeholderEnd( pattern, i );
+      if ( end < 0 )
+      {
+        i++;
+        continue;
+      }
+      constants.add( encode( pattern.substring( start, i ), constantEncoding ) );
+      indexes.add( Integer.parseInt( pattern.substring( i + 1, end ) ) );
+      i = start = end + 1;
+    }
+    constants.add( encode( pattern.substring( start ), constantEncoding ) );
+    return new ODataTemplate( constants, indexes, argumentEncoding );
+  }
+  
+  /**
+   * Finds the closing brace of a placeholder.
+   * 
+   * @return The index of the brace or -1 if there isn't a placeholder at i.
+   */
+  private static int placeholderEnd( String pattern, int i )
+  {
+    if ( pattern.charAt( i ) != '{' )
+      return -1;
+    int j = i + 1;
+    while ( j < pattern.length() && Character.isDigit( pattern.charAt( j ) ) )
+      j++;
+    if ( j == i + 1 || j >= pattern.length() || pattern.charAt( j ) != '}' )
+      return -1;
+    return j;
+  }
+  
+  private static String encode( String s, Encoding encoding )
+  {
+    switch ( encoding )
+    {
+      case PATH:
+        return ODataQuery.encodePath( s );
+      case QUERY:
+        return ODataQuery.encodeQueryValue( s );
+      default:
+        return s;
+    }
+  }
+  
+  /**
+   * The number of arguments that format needs.
+   * 
+   * @return One more than the highest placeholder number.
+   */
+  public int getArgumentCount()
+  {
+    return argumentCount;
+  }
+  
+  /**
+   * Fills in the placeholders.
+   * 
+   * @param args The values, which are formatted with ODataQuery.literal.
+   * @return The text.
+   * @throws IllegalArgumentException If there are too few arguments or one has no OData literal form.
+   */
+  public String format( Object... args )
+  {
+    if ( args.length < argumentCount )
+      throw new IllegalArgumentException( "Template needs " + argumentCount + " arguments." );
+    StringBuilder sb = new StringBuilder( length + 16 * indexes.length );
+    for ( int i = 0; i < indexes.length; i++ )
+    {
+      sb.append( constants[i] );
+      sb.append( encode( ODataQuery.literal( args[ indexes[i] ] ), encoding ) );
+    }
+    sb.append( constants[ constants.length - 1 ] );
+    return sb.toString();
+  }
+  
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < indexes.length; i++ )
+      sb.append( constants[i] ).append( '{' ).append( indexes[i] ).append( '}' );
+    return sb.append( constants[ constants.length - 1 ] ).toString();
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+/**
+ * The choice of engine used to parse Atom responses.
+ * 
+ * @author maber01
+ */
+public enum ParserEngine
+{
+  /**
+   * Builds a tree of nodes for the whole document with SAX and then binds
+   * the tree to OData values.
+   */
+  SAX,
+  
+  /**
+   * Binds OData values directly while pulling events with StAX. Only one
+   * entry is held in memory at a time so large feeds use much less memory.
+   */
+  STAX
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes request payloads as UTF-8 straight into an output stream, escaping
+ * text for XML or JSON on the way. Each thread reuses one buffer so that
+ * serializing many entities doesn't allocate buffers, strings or encoders.
+ * Not thread safe; get one with open() and give it back with close().
+ * 
+ * @author maber01
+ */
+final class PayloadWriter
+{
+  private static final ThreadLocal<PayloadWriter> writers = ThreadLocal.withInitial( PayloadWriter::new );
+  private static final byte[] HEX = "0123456789abcdef".getBytes( StandardCharsets.US_ASCII );
+  
+  private final byte[] buffer = new byte[8192];
+  private int position = 0;
+  private OutputStream out = null;
+
+  /**
+   * Get the calling thread's writer, ready to write to a stream.
+   * 
+   * @param out Where the bytes go. It is not closed by the writer.
+   * @return A writer.
+   */
+  static PayloadWriter open( OutputStream out )
+  {
+    PayloadWriter w = writers.get();
+    // A payload being written to a stream that writes another payload
+    if ( w.out != null )
+      w = new PayloadWriter();
+    w.out = out;
+    w.position = 0;
+    return w;
+  }
+  
+  /**
+   * Write out anything still buffered and let the writer be reused. 
+   * 
+   * @throws IOException If the stream fails.
+   */
+  void close() throws IOException
+  {
+    try
+    {
+      flush();
+    }
+    finally
+    {
+      out = null;
+    }
+  }
+  
+  private void flush() throws IOException
+  {
+    if ( position > 0 )
+      out.write( buffer, 0, position );
+    position = 0;
+  }
+  
+  /**
+   * Write bytes that were encoded and escaped in advance.
+   * 
+   * @param b The bytes.
+   * @throws IOException If the stream fails.
+   */
+  void write( byte[] b ) throws IOException
+  {
+    if ( b.length > buffer.length - position )
+    {
+      flush();
+      if ( b.length > buffer.length )
+      {
+        out.write( b );
+        return;
+      }
+    }
+    System.arraycopy( b, 0, buffer, position, b.length );
+    position += b.length;
+  }
+  
+  /**
+   * Write text that needs no escaping, such as a formatted number.
+   * 
+   * @param s The text.
+   * @throws IOException If the stream fails.
+   */
+  void writeRaw( String s ) throws IOException
+  {
+    for ( int i = 0; i < s.length(); i++ )
+      writeChar( s, i, s.charAt( i ) );
+  }
+  
+  /**
+   * Write the content of an XML element, escaping &amp;, &lt;, &gt; and 
+   * carriage returns. Characters that XML 1.0 doesn't allow are replaced.
+   * 
+   * @param s The text.
+   * @throws IOException If the stream fails.
+   */
+  void writeXmlText( String s ) throws IOException
+  {
+    writeXml( s, false );
+  }
+  
+  /**
+   * Write the value of an XML attribute that is in double quotes.
+   * 
+   * @param s The text.
+   * @throws IOException If the stream fails.
+   */
+  void writeXmlAttribute( String s ) throws IOException
+  {
+    writeXml( s, true );
+  }
+  
+  private void writeXml( String s, boolean attribute ) throws IOException
+  {
+    for ( int i = 0; i < s.length(); i++ )
+    {
+      char c = s.charAt( i );
+      switch ( c )
+      {
+        case '&':  writeAscii( "&amp;" ); break;
+        case '<':  writeAscii( "&lt;" );  break;
+        case '>':  writeAscii( "&gt;" );  break;
+        case '\r': writeAscii( "&#13;" ); break;
+        case '"':
+          if ( attribute ) writeAscii( "&quot;" ); else writeByte( c );
+          break;
+        case '\n':
+        case '\t':
+          if ( attribute ) writeAscii( c == '\n' ? "&#10;" : "&#9;" ); else writeByte( c );
+          break;
+        default:
+          if ( c < 0x20 || c == 0xfffe || c == 0xffff )
+            writeChar( s, i, '\uFFFD' );
+          else
+            i = writeChar( s, i, c );
+      }
+    }
+  }
+  
+  /**
+   * Write a JSON string, including the quotes.
+   * 
+   * @param s The text.
+   * @throws IOException If the stream fails.
+   */
+  void writeJsonString( String s ) throws IOException
+  {
+    writeByte( '"' );
+    for ( int i = 0; i < s.length(); i++ )
+    {
+      char c = s.charAt( i );
+      switch ( c )
+      {
+        case '"':  writeAscii( "\\\"" ); break;
+        case '\\': writeAscii( "\\\\" ); break;
+        case '\n': writeAscii( "\\n" );  break;
+        case '\r': writeAscii( "\\r" );  break;
+        case '\t': writeAscii( "\\t" );  break;
+        default:
+          if ( c < 0x20 )
+          {
+            writeAscii( "\\u00" );
+            writeByte( HEX[ c >> 4 ] );
+            writeByte( HEX[ c & 0xf ] );
+          }
+          else
+            i = writeChar( s, i, c );
+      }
+    }
+    writeByte( '"' );
+  }
+  
+  private void writeAscii( String s ) throws IOException
+  {
+    for ( int i = 0; i < s.length(); i++ )
+      writeByte( s.charAt( i ) );
+  }
+  
+  private void writeByte( int b ) throws IOException
+  {
+    if ( position == buffer.length )
+      flush();
+    buffer[position++] = (byte)b;
+  }
+  
+  /**
+   * Encode one character, or a surrogate pair, as UTF-8.
+   * 
+   * @return The index of the last char used.
+   */
+  private int writeChar( String s, int i, char c ) throws IOException
+  {
+    if ( c < 0x80 )
+      writeByte( c );
+    else if ( c < 0x800 )
+    {
+      writeByte( 0xc0 | ( c >> 6 ) );
+      writeByte( 0x80 | ( c & 0x3f ) );
+    }
+    else if ( Character.isHighSurrogate( c ) && i + 1 < s.length() && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+    {
+      int cp = Character.toCodePoint( c, s.charAt( i + 1 ) );
+      writeByte( 0xf0 | ( cp >> 18 ) );
+      writeByte( 0x80 | ( ( cp >> 12 ) & 0x3f ) );
+      writeByte( 0x80 | ( ( cp >> 6 ) & 0x3f ) );
+      writeByte( 0x80 | ( cp & 0x3f ) );
+      return i + 1;
+    }
+    else
+    {
+      // A lone surrogate can't be encoded
+      if ( Character.isSurrogate( c ) )
+        c = '\uFFFD';
+      writeByte( 0xe0 | ( c >> 12 ) );
+      writeByte( 0x80 | ( ( c >> 6 ) & 0x3f ) );
+      writeByte( 0x80 | ( c & 0x3f ) );
+    }
+    return i;
+  }
+}
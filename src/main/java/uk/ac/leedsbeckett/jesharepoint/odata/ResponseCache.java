@@ -0,0 +1,69 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.util.Collection;
+import org.apache.http.HttpResponse;
+
+/**
+ * A cache of buffered responses to GET requests that ODataService consults
+ * before sending a request. Responses are cached rather than values so that
+ * every caller still binds a value of its own. Implementations must be 
+ * thread safe.
+ * 
+ * @author maber01
+ */
+public interface ResponseCache
+{
+  /**
+   * Look up a response that hasn't expired.
+   * 
+   * @param key Identifies the request.
+   * @return The response or null if there isn't one.
+   */
+  public HttpResponse get( String key );
+  
+  /**
+   * Store a response.
+   * 
+   * @param key Identifies the request.
+   * @param response A buffered response that can be read any number of times.
+   * @param uris The URIs of the resources in the response, used to match invalidations.
+   * @param ttlMillis How long the response may be used for.
+   */
+  public void put( String key, HttpResponse response, Collection<String> uris, long ttlMillis );
+  
+  /**
+   * Remove responses affected by a change to a resource. That is those for
+   * the resource itself, for anything below it and for anything it is 
+   * below, such as the entity that a property or navigation belongs to.
+   * 
+   * @param uri The URI of the resource that changed.
+   */
+  public void invalidate( String uri );
+  
+  /**
+   * Remove all responses.
+   */
+  public void clear();
+  
+  /**
+   * Get statistics on the use of the cache.
+   * 
+   * @return The statistics at this moment.
+   */
+  public CacheStats getStats();
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+/**
+ * The format that responses are requested in. Responses are parsed 
+ * according to the Content-Type that the server actually sends so a 
+ * server that ignores the request still works.
+ * 
+ * @author maber01
+ */
+public enum ResponseFormat
+{
+  /**
+   * Atom XML, parsed by the configured parser engine.
+   */
+  ATOM( "application/atom+xml" ),
+  
+  /**
+   * JSON that includes metadata, such as types and links to deferred
+   * navigation properties.
+   */
+  JSON_VERBOSE( "application/json;odata=verbose" ),
+  
+  /**
+   * JSON without any metadata. This is the smallest and quickest format but
+   * entity types are taken from the classes that the caller expects, 
+   * entities have no id and navigation properties are only filled in when 
+   * they are expanded. Not suitable for code that relies on the id of 
+   * entities, such as the folder methods of the Sharepoint class.
+   */
+  JSON_NOMETADATA( "application/json;odata=nometadata" );
+  
+  private final String accept;
+
+  private ResponseFormat( String accept )
+  {
+    this.accept = accept;
+  }
+
+  /**
+   * The value for the Accept header of requests.
+   * 
+   * @return The media type.
+   */
+  public String getAcceptHeader()
+  {
+    return accept;
+  }
+}
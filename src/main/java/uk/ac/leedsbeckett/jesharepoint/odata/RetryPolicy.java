@@ -0,0 +1,133 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Decides whether a failed request should be tried again and how long to
+ * wait first. Throttling responses (429 and 503) are retried for any HTTP
+ * method because the server has not processed the request. Other server
+ * errors and network failures are only retried for idempotent methods
+ * because a non-idempotent request might have taken effect. The server's
+ * Retry-After period is honoured if it gave one, otherwise the delay grows
+ * exponentially with random jitter so that many clients don't retry in 
+ * step.
+ * 
+ * @author maber01
+ */
+public class RetryPolicy
+{
+  private final int maxRetries;
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+
+  /**
+   * Instantiate with the given limits.
+   * 
+   * @param maxRetries The maximum number of retries after the first attempt.
+   * @param baseDelayMillis The delay before the first retry, doubled for each later retry.
+   * @param maxDelayMillis The maximum delay when the server didn't specify one.
+   */
+  public RetryPolicy( int maxRetries, long baseDelayMillis, long maxDelayMillis )
+  {
+    this.maxRetries = maxRetries;
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Get the maximum number of retries.
+   * @return The number.
+   */
+  public int getMaxRetries()
+  {
+    return maxRetries;
+  }
+  
+  /**
+   * Are requests with this method safe to repeat?
+   * 
+   * @param method The HTTP method.
+   * @return True if the method is idempotent.
+   */
+  public boolean isIdempotent( String method )
+  {
+    return "GET".equals( method ) || "HEAD".equals( method ) || "OPTIONS".equals( method ) ||
+           "PUT".equals( method ) || "DELETE".equals( method );
+  }
+  
+  /**
+   * Should the request be tried again?
+   * 
+   * @param method The HTTP method of the request.
+   * @param attempt The number of retries already made.
+   * @param ex The failure.
+   * @return True if it should be retried.
+   */
+  public boolean shouldRetry( String method, int attempt, IOException ex )
+  {
+    if ( attempt >= maxRetries )
+      return false;
+    if ( ex instanceof ODataHttpException )
+    {
+      ODataHttpException hex = (ODataHttpException)ex;
+      if ( hex.isThrottled() )
+        return true;
+      int status = hex.getStatusCode();
+      return isIdempotent( method ) && ( status == 500 || status == 502 || status == 504 );
+    }
+    return isIdempotent( method ) && isTransient( ex );
+  }
+  
+  /**
+   * Is this a network failure that might not happen next time?
+   * 
+   * @param ex The failure.
+   * @return True if it is worth trying again.
+   */
+  protected boolean isTransient( IOException ex )
+  {
+    return ex instanceof NoHttpResponseException ||
+           ex instanceof SocketException ||
+           ex instanceof SocketTimeoutException ||
+           ex instanceof ConnectTimeoutException;
+  }
+  
+  /**
+   * How long to wait before the next attempt.
+   * 
+   * @param attempt The number of retries already made.
+   * @param ex The failure.
+   * @return The delay in milliseconds.
+   */
+  public long getDelayMillis( int attempt, IOException ex )
+  {
+    if ( ex instanceof ODataHttpException && ((ODataHttpException)ex).getRetryAfterMillis() >= 0 )
+      return ((ODataHttpException)ex).getRetryAfterMillis();
+    long delay = baseDelayMillis << Math.min( attempt, 30 );
+    if ( delay <= 0 || delay > maxDelayMillis )
+      delay = maxDelayMillis;
+    // Half fixed, half random
+    long half = delay / 2;
+    return half + ThreadLocalRandom.current().nextLong( half + 1 );
+  }
+}
@@ -17,19 +17,34 @@ package uk.ac.leedsbeckett.jesharepoint.odata;
 
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.UnknownEntity;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
-import java.util.Set;
-import org.reflections.Reflections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import uk.ac.leedsbeckett.jesharepoint.odata.annotation.ODataMapping;
+import uk.ac.leedsbeckett.jesharepoint.odata.annotation.ODataRegistries;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Complex;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Metadata;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.NavigationProperty;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Property;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.UnknownComplex;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.ValueWithProperties;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.BinaryProperty;
 import uk.ac.leedsbeckett.jesharepoint.odata.properties.BooleanProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.ByteProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.DateTimeOffsetProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.DateTimeProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.DecimalProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.DoubleProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.GuidProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.Int16Property;
 import uk.ac.leedsbeckett.jesharepoint.odata.properties.Int32Property;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.Int64Property;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.SByteProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.SingleProperty;
 import uk.ac.leedsbeckett.jesharepoint.odata.properties.StringProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.TimeProperty;
 
 /**
  * The TypeMap is instantiated and configured by the Sharepoint client as
@@ -44,11 +59,45 @@ public class TypeMap
 {
   final HashMap<String,Class<? extends ValueWithProperties>> map = new HashMap<>();
   final HashMap<Class<?>,String> reversemap = new HashMap<>();
+  final ConcurrentHashMap<Class<?>,ClassBinder> binders = new ConcurrentHashMap<>();
+  final ConcurrentHashMap<Class<?>,EntitySerializer> serializers = new ConcurrentHashMap<>();
   final String packagePrefix;
   
+  // All the OData v3 primitive types
+  private static final Map<String,Supplier<Property>> primitiveFactories = Map.ofEntries( 
+          Map.entry( "Edm.Binary",         BinaryProperty::new ),
+          Map.entry( "Edm.Boolean",        BooleanProperty::new ),
+          Map.entry( "Edm.Byte",           ByteProperty::new ),
+          Map.entry( "Edm.DateTime",       DateTimeProperty::new ),
+          Map.entry( "Edm.DateTimeOffset", DateTimeOffsetProperty::new ),
+          Map.entry( "Edm.Decimal",        DecimalProperty::new ),
+          Map.entry( "Edm.Double",         DoubleProperty::new ),
+          Map.entry( "Edm.Guid",           GuidProperty::new ),
+          Map.entry( "Edm.Int16",          Int16Property::new ),
+          Map.entry( "Edm.Int32",          Int32Property::new ),
+          Map.entry( "Edm.Int64",          Int64Property::new ),
+          Map.entry( "Edm.SByte",          SByteProperty::new ),
+          Map.entry( "Edm.Single",         SingleProperty::new ),
+          Map.entry( "Edm.String",         StringProperty::new ),
+          Map.entry( "Edm.Time",           TimeProperty::new ) );
+  private static final Map<String,Class<? extends Property>> primitiveClasses = new HashMap<>();
+  private static final Map<Class<?>,String> primitiveTypes = new HashMap<>();
+  static
+  {
+    for ( Map.Entry<String,Supplier<Property>> e : primitiveFactories.entrySet() )
+    {
+      Class<? extends Property> c = e.getValue().get().getClass();
+      primitiveClasses.put( e.getKey(), c );
+      primitiveTypes.put( c, e.getKey() );
+    }
+  }
+  
   /**
-   * Instantiates a TypeMap which will immediately scan the package for
-   * annotated classes.
+   * Instantiates a TypeMap which will immediately find the annotated 
+   * classes in the package. They are taken from the registry generated at
+   * compile time. Only if no registry covers the package is the class path
+   * scanned, which needs org.reflections. Classes that the registry misses
+   * can be added with addMappedClass.
    * 
    * @param packagePrefix The package prefix defines the package(s) that will be searched.
    */
@@ -65,13 +114,37 @@ public class TypeMap
   
   private void scan()
   {
-    // Search only specified package
-    Reflections reflections = new Reflections( packagePrefix );
-    Set<Class<?>> types = reflections.getTypesAnnotatedWith(ODataMapping.class);
-    for ( Class<?> c : types )
+    // Use only classes in the specified package
+    boolean registered = false;
+    for ( Class<?> c : ODataRegistries.getMappedClasses() )
+    {
+      if ( c.getName().startsWith( packagePrefix ) )
+      {
+        addClass( c );
+        registered = true;
+      }
+    }
+    
+    // Scanning is slow so it is only a fallback for packages that no
+    // registry covers. Other classes can be added with addMappedClass.
+    if ( registered )
+      return;
+    for ( Class<?> c : ODataRegistries.scan( packagePrefix, ODataMapping.class ) )
       addClass( c );
   }
   
+  /**
+   * Adds a class that wasn't found automatically, for example one that
+   * isn't in the registry or was created at run time. Must be called
+   * before the TypeMap is used for parsing.
+   * 
+   * @param c A class annotated with ODataMapping.
+   */
+  public void addMappedClass( Class<? extends ValueWithProperties> c )
+  {
+    addClass( c );
+  }
+  
   private void addClass( Class<?> c )
   {
     if ( ValueWithProperties.class.isAssignableFrom( c ))
@@ -87,34 +160,38 @@ public class TypeMap
   
   public boolean isSupportedPrimitive( String type )
   {
-    return "Edm.String".equals( type ) || "Edm.Boolean".equals( type ) || "Edm.Int32".equals( type );
+    return type != null && primitiveFactories.containsKey( type );
   }
 
   public Class<? extends Property> getPrimitivePropertyClass( String type )
   {
-    if ( "Edm.Boolean".equals( type ) ) return BooleanProperty.class;
-    if ( "Edm.Int32".equals( type ) ) return Int32Property.class;
-    if ( "Edm.String".equals( type ) ) return StringProperty.class;
-    return null;
+    if ( type == null ) return null;
+    return primitiveClasses.get( type );
+  }
+  
+  /**
+   * Finds the Edm type name of a primitive property class.
+   * 
+   * @param c A property class such as Int32Property.
+   * @return The type name such as Edm.Int32 or null if c isn't one of the primitive property classes.
+   */
+  public String getPrimitiveType( Class<?> c )
+  {
+    if ( c == null ) return null;
+    return primitiveTypes.get( c );
   }
   
   public Property getPrimitiveProperty( String type, String name, String xmlvalue )
   {
-    try
-    {
-      Class<?> c = getPrimitivePropertyClass( type );
-      if ( c == null ) return null;
-      Constructor con = c.getConstructor();
-      if ( con == null ) return null;
-      Property p = (Property) con.newInstance();
-      p.setName( name );
+    if ( type == null ) return null;
+    Supplier<Property> factory = primitiveFactories.get( type );
+    if ( factory == null ) return null;
+    Property p = factory.get();
+    p.setName( name );
+    // A null value (m:null="true") leaves the property at its default
+    if ( xmlvalue != null )
       p.setFromXmlRepresentation( xmlvalue );
-      return p;
-    }
-    catch ( NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex )
-    {
-    }
-    return null;
+    return p;
   }
   
   public String getType( Class c )
@@ -154,4 +231,219 @@ public class TypeMap
   {
     return UnknownComplex.class;
   }
+
+  /**
+   * Get the binder for a class, building it the first time it is needed.
+   * 
+   * @param c The class.
+   * @return The binder.
+   */
+  ClassBinder getBinder( Class<?> c )
+  {
+    return binders.computeIfAbsent( c, ClassBinder::new );
+  }
+  
+  /**
+   * Get the serializer for a class, building it the first time it is needed.
+   * 
+   * @param c The class.
+   * @return The serializer.
+   */
+  EntitySerializer getSerializer( Class<?> c )
+  {
+    EntitySerializer s = serializers.get( c );
+    if ( s == null )
+    {
+      // Not computeIfAbsent because building one can look up others
+      s = new EntitySerializer( this, c );
+      EntitySerializer existing = serializers.putIfAbsent( c, s );
+      if ( existing != null )
+        s = existing;
+    }
+    return s;
+  }
+  
+  /**
+   * The declared type of the field that a property binds to. Used by 
+   * formats that don't say what type a property is.
+   * 
+   * @param c The class of entity or complex value.
+   * @param name The property name.
+   * @return The field type or null if there is no public field with the name.
+   */
+  public Class<?> getPropertyClass( Class<?> c, String name )
+  {
+    ClassBinder.FieldBinder f = getBinder( c ).getField( name );
+    return f == null ? null : f.type;
+  }
+  
+  /**
+   * Whether a property binds to a field. Parsers use this to skip 
+   * properties that would be ignored without reading their content.
+   * 
+   * @param c The class of entity or complex value.
+   * @param name The property name.
+   * @return True if there is a public field with the name.
+   */
+  public boolean hasProperty( Class<?> c, String name )
+  {
+    return getBinder( c ).getField( name ) != null;
+  }
+  
+  /**
+   * The value of a $select query option that asks for just the properties
+   * that a class binds.
+   * 
+   * @param c The class of entity or complex value.
+   * @return A comma separated list of property names or null if the class binds none.
+   */
+  public String getSelect( Class<?> c )
+  {
+    if ( c == null || !ValueWithProperties.class.isAssignableFrom( c ) )
+      return null;
+    return getBinder( c ).getSelect();
+  }
+  
+  /**
+   * Whether a property binds to a navigation property field.
+   * 
+   * @param c The class of entity.
+   * @param name The property name.
+   * @return True if there is a public navigation property field with the name.
+   */
+  public boolean isNavigationProperty( Class<?> c, String name )
+  {
+    ClassBinder.FieldBinder f = getBinder( c ).getField( name );
+    return f != null && f.isNavigation();
+  }
+  
+  /**
+   * The class of entity in a navigation property field, taken from the type
+   * argument in the field's declaration.
+   * 
+   * @param c The class of entity.
+   * @param name The property name.
+   * @return The entity class or null if it isn't known.
+   */
+  public Class<? extends Entity> getNavigationEntityClass( Class<?> c, String name )
+  {
+    ClassBinder.FieldBinder f = getBinder( c ).getField( name );
+    if ( f == null || f.navigationEntityClass == null || !Entity.class.isAssignableFrom( f.navigationEntityClass ) )
+      return null;
+    return f.navigationEntityClass.asSubclass( Entity.class );
+  }
+  
+  /**
+   * Instantiates the entity class that is mapped to a type name.
+   * 
+   * @param type The OData type name from the response.
+   * @return A new entity which is an UnknownEntity if the type is not mapped.
+   * @throws ReflectiveOperationException If the class cannot be instantiated.
+   */
+  public Entity newEntity( String type ) throws ReflectiveOperationException
+  {
+    Class<? extends Entity> entityClass = getEntityClass( type );
+    if ( entityClass == null )
+      entityClass = getUnknownEntityClass();
+    Entity entity = (Entity) getBinder( entityClass ).newInstance();
+    entity.__metadata = new Metadata();
+    return entity;
+  }
+  
+  /**
+   * Instantiates the complex class that is mapped to a type name.
+   * 
+   * @param type The OData type name from the response.
+   * @return A new complex value or null if the type is not mapped.
+   * @throws ReflectiveOperationException If the class cannot be instantiated.
+   */
+  public Complex newComplex( String type ) throws ReflectiveOperationException
+  {
+    Class<? extends Complex> complexClass = getComplexClass( type );
+    if ( complexClass == null )
+      return null;
+    return (Complex) getBinder( complexClass ).newInstance();
+  }
+  
+  /**
+   * Sets a field of an entity or complex value from a parsed property. 
+   * Properties that have no matching public field are ignored.
+   * 
+   * @param value The entity or complex value.
+   * @param name The property name.
+   * @param odatavalue The parsed property value.
+   * @throws IllegalArgumentException If the property type is incompatible with the field.
+   */
+  public void setProperty( ValueWithProperties value, String name, Value odatavalue )
+  {
+    if ( odatavalue == null )
+      return;
+    ClassBinder.FieldBinder f = getBinder( value.getClass() ).getField( name );
+    if ( f == null )
+      return;
+    if ( f.isDirect() && odatavalue instanceof Property && !f.type.isInstance( odatavalue ) )
+      f.setText( value, getPrimitiveType( odatavalue.getClass() ), ((Property)odatavalue).getXmlRepresentation() );
+    else
+      f.set( value, odatavalue );
+  }
+  
+  /**
+   * Sets a field of an entity or complex value directly from the text of a
+   * primitive property. Fields of primitive Java types and types such as 
+   * Instant and UUID are parsed straight from the text so no Property 
+   * object is created. Fields declared as a Property subclass get one of
+   * that class, otherwise one that suits the given type. Properties that 
+   * have no matching public field are ignored.
+   * 
+   * @param value The entity or complex value.
+   * @param name The property name.
+   * @param type The Edm type of the property or the nearest guess if the response doesn't say.
+   * @param text The text or null if the property is null.
+   * @throws IllegalArgumentException If the text can't be converted to the field's type.
+   */
+  public void setPrimitive( ValueWithProperties value, String name, String type, String text )
+  {
+    ClassBinder.FieldBinder f = getBinder( value.getClass() ).getField( name );
+    if ( f == null )
+      return;
+    if ( f.isDirect() )
+    {
+      f.setText( value, type, text );
+      return;
+    }
+    String fieldtype = getPrimitiveType( f.type );
+    // A null for a field that can't hold a primitive, such as a navigation property
+    if ( text == null && fieldtype == null && !f.type.isAssignableFrom( Property.class ) )
+      return;
+    Property p = getPrimitiveProperty( fieldtype == null ? type : fieldtype, name, text );
+    if ( p != null )
+      f.set( value, p );
+  }
+  
+  /**
+   * Sets a navigation property field of an entity from a link. Links that
+   * have no matching public field are ignored.
+   * 
+   * @param entity The entity.
+   * @param title The link title which is the property name.
+   * @param href Where the linked data can be fetched.
+   * @param inline The entities that were expanded inline or null if the link is deferred.
+   * @throws IllegalArgumentException If the field is not a navigation property.
+   */
+  @SuppressWarnings( "unchecked" )
+  public void setNavigationProperty( Entity entity, String title, String href, List<Entity> inline ) 
+  {
+    ClassBinder.FieldBinder f = getBinder( entity.getClass() ).getField( title );
+    if ( f == null )
+      return;
+    if ( !f.isNavigation() )
+      throw new IllegalArgumentException( "Incompatible with navigation property type." );
+    NavigationProperty<Object> p = (NavigationProperty<Object>) f.setNavigation( entity, href );
+    if ( inline != null )
+    {
+      p.setDeferred( false );
+      for ( Entity e : inline )
+        p.addEntity( e );
+    }
+  }
 }
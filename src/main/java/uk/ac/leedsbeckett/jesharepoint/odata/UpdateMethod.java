@@ -0,0 +1,35 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+/**
+ * How partial updates of entities are sent.
+ * 
+ * @author maber01
+ */
+public enum UpdateMethod
+{
+  /**
+   * A POST with the header X-HTTP-Method: MERGE, which is what Sharepoint
+   * documents and which passes through proxies that block other methods.
+   */
+  MERGE,
+  
+  /**
+   * An HTTP PATCH request.
+   */
+  PATCH
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.annotation;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.reflections.Reflections;
+import uk.ac.leedsbeckett.jesharepoint.odata.sax.XmlNodeFactory;
+
+/**
+ * Loads the generated registries of annotated classes once and offers a 
+ * fallback which scans the class path with org.reflections for code that 
+ * was compiled without the annotation processor. org.reflections is an 
+ * optional dependency and the fallback finds nothing if it is missing.
+ * 
+ * @author maber01
+ */
+public class ODataRegistries
+{
+  private static final Logger logger = Logger.getLogger( ODataRegistries.class.getName() );
+  
+  private static List<Class<?>> mappedClasses = null;
+  private static Map<Class<?>,XmlNodeFactory> nodeFactories = null;
+  
+  private ODataRegistries()
+  {
+  }
+  
+  /**
+   * Loads the registries found by the thread context class loader, which
+   * sees the application's classes in a container, and by the loader of
+   * this library.
+   */
+  private static synchronized void load()
+  {
+    if ( mappedClasses != null )
+      return;
+    ArrayList<Class<?>> mapped = new ArrayList<>();
+    HashMap<Class<?>,XmlNodeFactory> nodes = new HashMap<>();
+    HashSet<Class<?>> loaded = new HashSet<>();
+    ClassLoader context = Thread.currentThread().getContextClassLoader();
+    ClassLoader own = ODataRegistries.class.getClassLoader();
+    for ( ClassLoader loader : context == null || context == own ? List.of( own ) : List.of( context, own ) )
+    {
+      try
+      {
+        for ( ODataRegistry registry : ServiceLoader.load( ODataRegistry.class, loader ) )
+        {
+          if ( !loaded.add( registry.getClass() ) )
+            continue;
+          mapped.addAll( registry.getMappedClasses() );
+          nodes.putAll( registry.getNodeFactories() );
+        }
+      }
+      catch ( ServiceConfigurationError | LinkageError ex )
+      {
+        logger.log( Level.WARNING, "Unable to load OData registry.", ex );
+      }
+    }
+    mappedClasses = Collections.unmodifiableList( mapped );
+    nodeFactories = Collections.unmodifiableMap( nodes );
+  }
+  
+  /**
+   * Get all the classes annotated with ODataMapping in all registries.
+   * 
+   * @return The classes.
+   */
+  public static List<Class<?>> getMappedClasses()
+  {
+    load();
+    return mappedClasses;
+  }
+  
+  /**
+   * Get all the annotated XML node classes in all registries.
+   * 
+   * @return The classes and their factories.
+   */
+  public static Map<Class<?>,XmlNodeFactory> getNodeFactories()
+  {
+    load();
+    return nodeFactories;
+  }
+  
+  /**
+   * Check whether the optional org.reflections library is present.
+   * 
+   * @return True if class path scanning is possible.
+   */
+  public static boolean isScanningAvailable()
+  {
+    try
+    {
+      Class.forName( "org.reflections.Reflections", false, ODataRegistries.class.getClassLoader() );
+      return true;
+    }
+    catch ( ClassNotFoundException | LinkageError ex )
+    {
+      return false;
+    }
+  }
+  
+  /**
+   * Scan the class path for annotated classes. Slow, so only used for 
+   * classes that aren't in a generated registry.
+   * 
+   * @param packagePrefix Only look in packages starting with this.
+   * @param annotations Find classes with any of these annotations.
+   * @return The classes which will be empty if org.reflections is missing.
+   */
+  @SafeVarargs
+  public static Set<Class<?>> scan( String packagePrefix, Class<? extends Annotation>... annotations )
+  {
+    if ( !isScanningAvailable() )
+    {
+      logger.log( Level.WARNING, "No OData registry covers {0} and org.reflections is not available to scan for annotated classes.", packagePrefix );
+      return Set.of();
+    }
+    logger.log( Level.FINE, "Scanning class path for annotated classes in {0}", packagePrefix );
+    return Scanner.scan( packagePrefix, annotations );
+  }
+  
+  /**
+   * Kept separate so org.reflections is only loaded if scanning happens.
+   */
+  private static class Scanner
+  {
+    static Set<Class<?>> scan( String packagePrefix, Class<? extends Annotation>[] annotations )
+    {
+      Reflections reflections = new Reflections( packagePrefix );
+      HashSet<Class<?>> types = new HashSet<>();
+      for ( Class<? extends Annotation> a : annotations )
+        types.addAll( reflections.getTypesAnnotatedWith( a ) );
+      return types;
+    }
+  }
+}
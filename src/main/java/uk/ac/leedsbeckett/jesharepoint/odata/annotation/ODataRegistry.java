@@ -0,0 +1,46 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.annotation;
+
+import java.util.List;
+import java.util.Map;
+import uk.ac.leedsbeckett.jesharepoint.odata.sax.XmlNodeFactory;
+
+/**
+ * A list of annotated classes that is generated at compile time by the 
+ * jesharepoint annotation processor and found at run time with 
+ * ServiceLoader. This avoids scanning the class path when TypeMap and the
+ * SAX handler start up.
+ * 
+ * @author maber01
+ */
+public interface ODataRegistry
+{
+  /**
+   * Get classes annotated with ODataMapping.
+   * 
+   * @return The classes.
+   */
+  public List<Class<?>> getMappedClasses();
+  
+  /**
+   * Get XML node classes annotated with an element mapping, each with a
+   * factory that calls its constructor.
+   * 
+   * @return The node classes and their factories.
+   */
+  public Map<Class<?>,XmlNodeFactory> getNodeFactories();
+}
@@ -24,4 +24,30 @@ package uk.ac.leedsbeckett.jesharepoint.odata.containers;
 public abstract class Entity extends ValueWithProperties
 {
   public Metadata __metadata;
+  // Property values as read, only kept when changes are being tracked
+  private Object[] originalValues;
+
+  /**
+   * The values of the properties as they were read or last updated, in a 
+   * form only meaningful to ODataService, which uses them to send only the
+   * properties that have changed.
+   * 
+   * @return The values or null if changes to this entity aren't tracked.
+   */
+  public Object[] getOriginalValues()
+  {
+    return originalValues;
+  }
+
+  /**
+   * Set by ODataService when an entity is read or updated with change 
+   * tracking on. Setting null makes the next update send every property 
+   * that is named.
+   * 
+   * @param originalValues The values.
+   */
+  public void setOriginalValues( Object[] originalValues )
+  {
+    this.originalValues = originalValues;
+  }
 }
@@ -29,6 +29,7 @@ import uk.ac.leedsbeckett.jesharepoint.odata.Value;
 public class EntityCollection<T extends Entity> extends Value
 {
   final ArrayList<T> entityList = new ArrayList<>();
+  String nextLink = null;
   
   /**
    * Add an entity to the collection.
@@ -47,4 +48,26 @@ public class EntityCollection<T extends Entity> extends Value
   {
     return entityList;
   }
+
+  /**
+   * Get the link to the rest of the collection. This is only set if
+   * the server split the collection into pages and not all pages were
+   * fetched, for example because the maximum number of pages was reached.
+   * 
+   * @return The URL of the next page or null if the collection is complete.
+   */
+  public String getNextLink()
+  {
+    return nextLink;
+  }
+
+  /**
+   * Set the link to the next page of the collection.
+   * 
+   * @param nextLink The URL or null.
+   */
+  public void setNextLink( String nextLink )
+  {
+    this.nextLink = nextLink;
+  }
 }
@@ -16,9 +16,8 @@
 package uk.ac.leedsbeckett.jesharepoint.odata.containers;
 
 /**
- * The metadata relating to an entity. This class was created when experimenting
- * with transferring data as JSON. Now XML is used and it might be an idea
- * to rethink this.
+ * The metadata relating to an entity. Filled in from Atom entries and from
+ * the __metadata of verbose JSON.
  * 
  * @author maber01
  */
@@ -27,4 +26,6 @@ public class Metadata
   public String id;
   public String uri;
   public String type;
+  // Version of the entity, sent in If-Match when it is updated
+  public String etag;
 }
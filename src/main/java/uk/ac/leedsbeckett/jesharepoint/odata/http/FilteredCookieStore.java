@@ -60,8 +60,9 @@ public class FilteredCookieStore extends BasicCookieStore
 //      if ( allowedCookieNames.contains( c.getName() ) &&
 //           domain.equals( c.getDomain() )   )
       {
+        if ( isNew( c ) )
+          changed = true;
         super.addCookie( c );
-        changed = true;
       }
     if ( changed )
       save();
@@ -73,13 +74,30 @@ public class FilteredCookieStore extends BasicCookieStore
 //    if ( allowedCookieNames.contains( cookie.getName() ) &&
 //         domain.equals( cookie.getDomain() )   )
     {
+      if ( isNew( cookie ) )
+        changed = true;
       super.addCookie( cookie );
-      changed = true;
     }
     if ( changed )
       save();
   }
 
+  /**
+   * Checks whether a cookie would change the content of the store. Used to 
+   * avoid rewriting the file when many threads receive the same cookies.
+   * 
+   * @param cookie The incoming cookie.
+   * @return True if no stored cookie has the same name and value.
+   */
+  private boolean isNew( Cookie cookie )
+  {
+    for ( Cookie c : super.getCookies() )
+      if ( c.getName().equals( cookie.getName() ) && 
+           c.getValue() != null && c.getValue().equals( cookie.getValue() ) )
+        return false;
+    return true;
+  }
+
   @Override
   public List<Cookie> getCookies()
   {
@@ -120,7 +138,7 @@ public class FilteredCookieStore extends BasicCookieStore
       logger.info( "Cookie loaded " + c.getName() );
   }
   
-  public void save()
+  public synchronized void save()
   {
     changed = false;
     if ( storeLocation == null )
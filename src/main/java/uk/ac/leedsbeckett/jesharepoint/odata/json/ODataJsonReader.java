@@ -0,0 +1,556 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataReader;
+import uk.ac.leedsbeckett.jesharepoint.odata.TypeMap;
+import uk.ac.leedsbeckett.jesharepoint.odata.Value;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Complex;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Metadata;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Property;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.ValueWithProperties;
+
+/**
+ * Reads a JSON response with a streaming parser and binds entities as the
+ * tokens are pulled. Both the verbose format, where values are wrapped in 
+ * "d" and carry "__metadata", and the nometadata format, where collections
+ * are in "value", are understood. 
+ * 
+ * JSON doesn't give the types of primitive properties so they are parsed
+ * according to the type of the field they bind to. When there is no 
+ * metadata the types of entities and complex values are taken from the 
+ * class that the caller expects and from the declared field types.
+ * 
+ * @author maber01
+ */
+public class ODataJsonReader implements ODataReader
+{
+  private static final Logger logger = Logger.getLogger( ODataJsonReader.class.getName() );
+  
+  private static final JsonFactory factory = JsonFactory.builder()
+          .disable( StreamReadFeature.AUTO_CLOSE_SOURCE )
+          .build();
+  
+  private final JsonParser json;
+  private final TypeMap typeMap;
+  private final Class<?> expectedClass;
+  private boolean started = false;
+  private boolean verbose = false;
+  private boolean collection = false;
+  private boolean rootValue = false;
+  private boolean finished = false;
+  private String nextLink = null;
+
+  /**
+   * Creates a reader for a response body. The input stream is not closed
+   * by this reader.
+   * 
+   * @param in The response body.
+   * @param typeMap Maps OData types to Java classes.
+   * @param expectedClass The class of value expected or, for a collection, the class of entity.
+   * @throws IOException If the parser cannot be created.
+   */
+  public ODataJsonReader( InputStream in, TypeMap typeMap, Class<?> expectedClass ) throws IOException
+  {
+    this.typeMap = typeMap;
+    this.expectedClass = expectedClass;
+    json = factory.createParser( in );
+  }
+
+  @Override
+  public boolean isCollection() throws IOException
+  {
+    start();
+    return collection;
+  }
+
+  @Override
+  public Value readValue() throws IOException
+  {
+    start();
+    if ( collection )
+      throw new IOException( "Didn't expect entity collection but got one." );
+    try
+    {
+      if ( rootValue )
+        return readRootProperty( "value" );
+      
+      // Otherwise positioned on the first field of the object that holds the value
+      if ( expectedClass != null && Property.class.isAssignableFrom( expectedClass ) )
+      {
+        if ( json.currentToken() != JsonToken.FIELD_NAME )
+          return null;
+        String name = json.currentName();
+        json.nextToken();
+        return readRootProperty( name );
+      }
+      
+      if ( expectedClass != null && Complex.class.isAssignableFrom( expectedClass ) )
+      {
+        // The verbose format wraps a complex value in the property name
+        if ( verbose && json.currentToken() == JsonToken.FIELD_NAME && !"__metadata".equals( json.currentName() ) )
+        {
+          if ( json.nextToken() != JsonToken.START_OBJECT )
+            return null;
+          json.nextToken();
+        }
+        return readComplex( expectedClass );
+      }
+      
+      return readEntity( expectedClass );
+    }
+    catch ( JsonProcessingException ex )
+    {
+      throw new IOException( "Unable to parse JSON response.", ex );
+    }
+    catch ( ReflectiveOperationException | SecurityException ex )
+    {
+      logger.log( Level.SEVERE, null, ex );
+      throw new IOException( "Problem parsing JSON to OData." );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      throw new IOException( ex.getMessage() );
+    }
+  }
+
+  @Override
+  public Entity nextEntity() throws IOException
+  {
+    start();
+    if ( !collection )
+      throw new IOException( "Expected entity collection but didn't get one." );
+    if ( finished )
+      return null;
+    try
+    {
+      for ( JsonToken t = json.nextToken(); t != null && t != JsonToken.END_ARRAY; t = json.nextToken() )
+      {
+        if ( t == JsonToken.START_OBJECT )
+        {
+          json.nextToken();
+          return readEntity( expectedClass );
+        }
+        json.skipChildren();
+      }
+      finished = true;
+      readTrailer();
+      return null;
+    }
+    catch ( JsonProcessingException ex )
+    {
+      throw new IOException( "Unable to parse JSON response.", ex );
+    }
+    catch ( ReflectiveOperationException | SecurityException ex )
+    {
+      logger.log( Level.SEVERE, null, ex );
+      throw new IOException( "Problem parsing JSON to OData." );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      throw new IOException( ex.getMessage() );
+    }
+  }
+
+  @Override
+  public String getNextLink()
+  {
+    return nextLink;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    json.close();
+  }
+  
+  /**
+   * Moves into the root object and works out what the response holds. 
+   * Collections are left positioned on the start of the array and 
+   * single values on the first field of the object that holds them.
+   */
+  private void start() throws IOException
+  {
+    if ( started )
+      return;
+    started = true;
+    try
+    {
+      if ( json.nextToken() != JsonToken.START_OBJECT )
+        throw new IOException( "Response contained no JSON object." );
+      for ( JsonToken t = json.nextToken(); t == JsonToken.FIELD_NAME; t = json.nextToken() )
+      {
+        String name = json.currentName();
+        if ( "d".equals( name ) )
+        {
+          startVerbose();
+          return;
+        }
+        if ( "value".equals( name ) )
+        {
+          if ( json.nextToken() == JsonToken.START_ARRAY )
+            collection = true;
+          else
+            rootValue = true;
+          return;
+        }
+        if ( isNextLink( name ) )
+        {
+          json.nextToken();
+          nextLink = json.getValueAsString();
+          continue;
+        }
+        if ( !name.startsWith( "odata." ) )
+          return;   // An entity or complex value without metadata
+        json.nextToken();
+        json.skipChildren();
+      }
+    }
+    catch ( JsonProcessingException ex )
+    {
+      throw new IOException( "Unable to parse JSON response.", ex );
+    }
+  }
+  
+  /**
+   * Works out what the "d" field of a verbose response holds.
+   */
+  private void startVerbose() throws IOException
+  {
+    verbose = true;
+    JsonToken t = json.nextToken();
+    if ( t == JsonToken.START_ARRAY )
+    {
+      collection = true;
+      return;
+    }
+    if ( t != JsonToken.START_OBJECT )
+      throw new IOException( "Unexpected JSON response." );
+    for ( t = json.nextToken(); t == JsonToken.FIELD_NAME; t = json.nextToken() )
+    {
+      String name = json.currentName();
+      if ( "results".equals( name ) )
+      {
+        if ( json.nextToken() != JsonToken.START_ARRAY )
+          throw new IOException( "Unexpected JSON response." );
+        collection = true;
+        return;
+      }
+      if ( !"__next".equals( name ) && !"__count".equals( name ) )
+        return;
+      json.nextToken();
+      if ( "__next".equals( name ) )
+        nextLink = json.getValueAsString();
+    }
+  }
+  
+  /**
+   * Reads what follows the array of a collection to find the link to the
+   * next page.
+   */
+  private void readTrailer() throws IOException
+  {
+    for ( JsonToken t = json.nextToken(); t != null; t = json.nextToken() )
+    {
+      if ( t == JsonToken.FIELD_NAME && isNextLink( json.currentName() ) )
+      {
+        json.nextToken();
+        nextLink = json.getValueAsString();
+      }
+      else
+        json.skipChildren();
+    }
+  }
+  
+  private static boolean isNextLink( String name )
+  {
+    return "__next".equals( name ) || "odata.nextLink".equals( name ) || "@odata.nextLink".equals( name );
+  }
+
+  /**
+   * Reads a primitive value that is the whole of the response.
+   * 
+   * @param name The property name.
+   */
+  private Property readRootProperty( String name ) throws IOException
+  {
+    JsonToken t = json.currentToken();
+    if ( t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY )
+    {
+      json.skipChildren();
+      return null;
+    }
+    String type = typeMap.getPrimitiveType( expectedClass );
+    if ( type == null )
+      type = guessType( t );
+    return typeMap.getPrimitiveProperty( type, name, t == JsonToken.VALUE_NULL ? null : json.getText() );
+  }
+  
+  /**
+   * The Edm type that best matches a JSON value. Only used if the field 
+   * that the value binds to doesn't decide the type.
+   */
+  private String guessType( JsonToken t ) throws IOException
+  {
+    switch ( t )
+    {
+      case VALUE_TRUE:
+      case VALUE_FALSE:
+        return "Edm.Boolean";
+      case VALUE_NUMBER_INT:
+        return json.getNumberType() == JsonParser.NumberType.INT ? "Edm.Int32" : "Edm.Int64";
+      case VALUE_NUMBER_FLOAT:
+        return "Edm.Double";
+      default:
+        return "Edm.String";
+    }
+  }
+  
+  /**
+   * Reads an entity. The parser is positioned on the first field of the
+   * entity's object and is left on its end.
+   * 
+   * @param hint The class expected if there is no metadata.
+   */
+  private Entity readEntity( Class<?> hint ) throws IOException, ReflectiveOperationException
+  {
+    Metadata metadata = null;
+    if ( json.currentToken() == JsonToken.FIELD_NAME && "__metadata".equals( json.currentName() ) )
+    {
+      json.nextToken();
+      metadata = readMetadata();
+      json.nextToken();
+    }
+    String type = ( metadata != null && metadata.type != null ) ? metadata.type : typeMap.getType( hint );
+    Entity entity = typeMap.newEntity( type );
+    if ( metadata != null )
+      entity.__metadata = metadata;
+    readProperties( entity );
+    return entity;
+  }
+  
+  /**
+   * Reads a complex value. The parser is positioned on the first field of
+   * the value's object and is left on its end.
+   * 
+   * @param hint The class expected if there is no metadata.
+   * @return The value or null if its type isn't mapped.
+   */
+  private Complex readComplex( Class<?> hint ) throws IOException, ReflectiveOperationException
+  {
+    String type = null;
+    if ( json.currentToken() == JsonToken.FIELD_NAME && "__metadata".equals( json.currentName() ) )
+    {
+      json.nextToken();
+      type = readMetadata().type;
+      json.nextToken();
+    }
+    if ( type == null )
+      type = typeMap.getType( hint );
+    Complex complex = typeMap.newComplex( type );
+    if ( complex == null )
+    {
+      skipToEndObject();
+      return null;
+    }
+    readProperties( complex );
+    return complex;
+  }
+  
+  /**
+   * Reads the fields of an object into an entity or complex value. Fields 
+   * that the target doesn't bind are skipped without reading their values.
+   * The parser is positioned on the first field and is left on the end of 
+   * the object.
+   */
+  private void readProperties( ValueWithProperties target ) throws IOException, ReflectiveOperationException
+  {
+    for ( JsonToken t = json.currentToken(); t == JsonToken.FIELD_NAME; t = json.nextToken() )
+    {
+      String name = json.currentName();
+      JsonToken v = json.nextToken();
+      if ( name.startsWith( "__" ) || !typeMap.hasProperty( target.getClass(), name ) )
+        json.skipChildren();
+      else if ( v == JsonToken.START_OBJECT )
+        readObjectProperty( target, name );
+      else if ( v == JsonToken.START_ARRAY )
+        setInline( target, name, readEntityArray( target, name ) );
+      else
+        typeMap.setPrimitive( target, name, guessType( v ), v == JsonToken.VALUE_NULL ? null : json.getText() );
+    }
+  }
+  
+  /**
+   * Reads a property that is an object. That can be a deferred navigation
+   * property, an expanded navigation property or a complex value.
+   */
+  private void readObjectProperty( ValueWithProperties target, String name ) throws IOException, ReflectiveOperationException
+  {
+    JsonToken t = json.nextToken();
+    String first = ( t == JsonToken.FIELD_NAME ) ? json.currentName() : null;
+    
+    if ( "__deferred".equals( first ) )
+    {
+      json.nextToken();
+      String uri = readDeferredUri();
+      json.nextToken();
+      skipToEndObject();
+      if ( target instanceof Entity )
+        typeMap.setNavigationProperty( (Entity)target, name, uri, null );
+      return;
+    }
+    
+    if ( "results".equals( first ) )
+    {
+      json.nextToken();
+      List<Entity> entities = readEntityArray( target, name );
+      json.nextToken();
+      skipToEndObject();
+      setInline( target, name, entities );
+      return;
+    }
+    
+    if ( target instanceof Entity && typeMap.isNavigationProperty( target.getClass(), name ) )
+    {
+      Entity entity = readEntity( typeMap.getNavigationEntityClass( target.getClass(), name ) );
+      setInline( target, name, List.of( entity ) );
+      return;
+    }
+    
+    Complex complex = readComplex( typeMap.getPropertyClass( target.getClass(), name ) );
+    if ( complex != null )
+      typeMap.setProperty( target, name, complex );
+  }
+  
+  /**
+   * Reads the entities of an expanded navigation property. The parser is
+   * positioned on the start of the array and is left on its end.
+   * 
+   * @return The entities or null if the target has no navigation property of that name.
+   */
+  private List<Entity> readEntityArray( ValueWithProperties target, String name ) throws IOException, ReflectiveOperationException
+  {
+    if ( json.currentToken() != JsonToken.START_ARRAY || 
+            !( target instanceof Entity ) || 
+            !typeMap.isNavigationProperty( target.getClass(), name ) )
+    {
+      json.skipChildren();
+      return null;
+    }
+    Class<? extends Entity> hint = typeMap.getNavigationEntityClass( target.getClass(), name );
+    List<Entity> entities = new ArrayList<>();
+    for ( JsonToken t = json.nextToken(); t != null && t != JsonToken.END_ARRAY; t = json.nextToken() )
+    {
+      if ( t == JsonToken.START_OBJECT )
+      {
+        json.nextToken();
+        entities.add( readEntity( hint ) );
+      }
+      else
+        json.skipChildren();
+    }
+    return entities;
+  }
+  
+  /**
+   * Sets an expanded navigation property. JSON doesn't give the link of an
+   * expanded property so it is made from the entity's URI if known.
+   */
+  private void setInline( ValueWithProperties target, String name, List<Entity> entities )
+  {
+    if ( entities == null || !( target instanceof Entity ) )
+      return;
+    Entity entity = (Entity)target;
+    String href = ( entity.__metadata != null && entity.__metadata.uri != null ) ? entity.__metadata.uri + "/" + name : null;
+    typeMap.setNavigationProperty( entity, name, href, entities );
+  }
+  
+  /**
+   * Reads a __metadata object. The parser is positioned on its start and
+   * is left on its end.
+   */
+  private Metadata readMetadata() throws IOException
+  {
+    Metadata metadata = new Metadata();
+    for ( JsonToken t = json.nextToken(); t == JsonToken.FIELD_NAME; t = json.nextToken() )
+    {
+      String name = json.currentName();
+      JsonToken v = json.nextToken();
+      String value = v.isScalarValue() ? json.getValueAsString() : null;
+      json.skipChildren();
+      switch ( name )
+      {
+        case "id":
+          metadata.id = value;
+          break;
+        case "uri":
+          metadata.uri = value;
+          break;
+        case "type":
+          metadata.type = value;
+          break;
+        case "etag":
+          metadata.etag = value;
+          break;
+        default:
+      }
+    }
+    // The id is what the Atom format provides so fall back to the URI
+    if ( metadata.id == null )
+      metadata.id = metadata.uri;
+    return metadata;
+  }
+  
+  /**
+   * Reads the object inside __deferred. The parser is positioned on its 
+   * start and is left on its end.
+   */
+  private String readDeferredUri() throws IOException
+  {
+    String uri = null;
+    for ( JsonToken t = json.nextToken(); t == JsonToken.FIELD_NAME; t = json.nextToken() )
+    {
+      String name = json.currentName();
+      JsonToken v = json.nextToken();
+      if ( "uri".equals( name ) && v.isScalarValue() )
+        uri = json.getValueAsString();
+      json.skipChildren();
+    }
+    return uri;
+  }
+  
+  /**
+   * Skips the rest of an object. The parser is positioned on a field name
+   * or the end of the object and is left on the end.
+   */
+  private void skipToEndObject() throws IOException
+  {
+    for ( JsonToken t = json.currentToken(); t != null && t != JsonToken.END_OBJECT; t = json.nextToken() )
+      json.skipChildren();
+  }
+}
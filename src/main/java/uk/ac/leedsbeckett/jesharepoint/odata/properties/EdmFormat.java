@@ -0,0 +1,359 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.properties;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Converts between the text form of OData v3 primitives and Java values.
+ * None of the methods depend on the default locale or time zone. Parsing
+ * failures are reported with IllegalArgumentException or one of its 
+ * subclasses.
+ * 
+ * @author maber01
+ */
+public final class EdmFormat
+{
+  private EdmFormat()
+  {
+  }
+  
+  /**
+   * Parse Edm.Boolean.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static boolean parseBoolean( String s )
+  {
+    if ( "true".equals( s ) || "1".equals( s ) ) return true;
+    if ( "false".equals( s ) || "0".equals( s ) ) return false;
+    if ( "true".equalsIgnoreCase( s ) ) return true;
+    if ( "false".equalsIgnoreCase( s ) ) return false;
+    throw new IllegalArgumentException( "Invalid boolean " + s );
+  }
+  
+  /**
+   * Parse Edm.Byte, which is unsigned, into a Java byte. Values over 127
+   * come out negative so mask with 0xff to get them back.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static byte parseByte( String s )
+  {
+    int i = Integer.parseInt( s );
+    if ( i < 0 || i > 255 )
+      throw new NumberFormatException( "Out of range for Edm.Byte " + s );
+    return (byte)i;
+  }
+  
+  /**
+   * Parse Edm.SByte, which is signed like a Java byte.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static byte parseSByte( String s )
+  {
+    int i = Integer.parseInt( s );
+    if ( i < Byte.MIN_VALUE || i > Byte.MAX_VALUE )
+      throw new NumberFormatException( "Out of range for Edm.SByte " + s );
+    return (byte)i;
+  }
+  
+  /**
+   * Parse Edm.Double. Accepts the special values INF, -INF and NaN.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static double parseDouble( String s )
+  {
+    switch ( s )
+    {
+      case "INF":  return Double.POSITIVE_INFINITY;
+      case "-INF": return Double.NEGATIVE_INFINITY;
+      case "NaN":  return Double.NaN;
+      default:     return Double.parseDouble( s );
+    }
+  }
+  
+  /**
+   * Format Edm.Double.
+   * 
+   * @param d The value.
+   * @return The text for a request.
+   */
+  public static String formatDouble( double d )
+  {
+    if ( d == Double.POSITIVE_INFINITY ) return "INF";
+    if ( d == Double.NEGATIVE_INFINITY ) return "-INF";
+    return Double.toString( d );
+  }
+  
+  /**
+   * Format Edm.Single.
+   * 
+   * @param f The value.
+   * @return The text for a request.
+   */
+  public static String formatSingle( float f )
+  {
+    if ( f == Float.POSITIVE_INFINITY ) return "INF";
+    if ( f == Float.NEGATIVE_INFINITY ) return "-INF";
+    return Float.toString( f );
+  }
+  
+  /**
+   * Parse Edm.Single. Accepts the special values INF, -INF and NaN.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static float parseSingle( String s )
+  {
+    return (float)parseDouble( s );
+  }
+  
+  /**
+   * Parse Edm.Decimal.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static BigDecimal parseDecimal( String s )
+  {
+    return new BigDecimal( s );
+  }
+  
+  /**
+   * Parse Edm.DateTime. The usual forms are yyyy-MM-ddTHH:mm[:ss[.fffffff]]
+   * optionally followed by Z or an offset. Without either the time is 
+   * taken to be UTC which is what Sharepoint means. The JSON verbose form
+   * /Date(millis)/ is also accepted.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static Instant parseDateTime( String s )
+  {
+    if ( s.startsWith( "/Date(" ) )
+      return parseJsonDate( s );
+    
+    // Fast path for the common fixed width forms
+    int n = s.length();
+    if ( n >= 16 && s.charAt( 4 ) == '-' && s.charAt( 7 ) == '-' && s.charAt( 10 ) == 'T' && s.charAt( 13 ) == ':' )
+    {
+      int year   = digits( s, 0, 4 );
+      int month  = digits( s, 5, 2 );
+      int day    = digits( s, 8, 2 );
+      int hour   = digits( s, 11, 2 );
+      int minute = digits( s, 14, 2 );
+      int second = 0;
+      int nanos  = 0;
+      int i = 16;
+      if ( i < n && s.charAt( i ) == ':' )
+      {
+        second = digits( s, i+1, 2 );
+        i += 3;
+        if ( i < n && s.charAt( i ) == '.' )
+        {
+          i++;
+          int scale = 100000000;
+          while ( i < n && s.charAt( i ) >= '0' && s.charAt( i ) <= '9' )
+          {
+            nanos += ( s.charAt( i++ ) - '0' ) * scale;
+            scale /= 10;
+          }
+        }
+      }
+      int offsetSeconds = 0;
+      if ( i < n )
+      {
+        char c = s.charAt( i );
+        if ( c == 'Z' && i == n-1 )
+          offsetSeconds = 0;
+        else if ( ( c == '+' || c == '-' ) && n - i == 6 && s.charAt( i+3 ) == ':' )
+        {
+          offsetSeconds = digits( s, i+1, 2 ) * 3600 + digits( s, i+4, 2 ) * 60;
+          if ( c == '-' ) offsetSeconds = -offsetSeconds;
+        }
+        else
+          return parseDateTimeSlowly( s );
+      }
+      if ( month < 1 || month > 12 || day < 1 || day > YearMonth.of( year, month ).lengthOfMonth() || 
+           hour > 23 || minute > 59 || second > 59 )
+        throw new DateTimeParseException( "Invalid date time", s, 0 );
+      long seconds = epochDay( year, month, day ) * 86400L + hour * 3600L + minute * 60L + second - offsetSeconds;
+      return Instant.ofEpochSecond( seconds, nanos );
+    }
+    return parseDateTimeSlowly( s );
+  }
+  
+  private static Instant parseDateTimeSlowly( String s )
+  {
+    try
+    {
+      return OffsetDateTime.parse( s ).toInstant();
+    }
+    catch ( DateTimeParseException ex )
+    {
+      return LocalDateTime.parse( s ).toInstant( ZoneOffset.UTC );
+    }
+  }
+  
+  private static Instant parseJsonDate( String s )
+  {
+    int end = s.indexOf( ')' );
+    if ( end < 0 )
+      throw new DateTimeParseException( "Invalid JSON date", s, 0 );
+    String inner = s.substring( 6, end );
+    // An offset may follow the millis but the millis are already UTC
+    int sign = Math.max( inner.lastIndexOf( '+' ), inner.lastIndexOf( '-' ) );
+    if ( sign > 0 )
+      inner = inner.substring( 0, sign );
+    return Instant.ofEpochMilli( Long.parseLong( inner ) );
+  }
+  
+  /**
+   * Format Edm.DateTime as UTC.
+   * 
+   * @param instant The value.
+   * @return The text for a request.
+   */
+  public static String formatDateTime( Instant instant )
+  {
+    return DateTimeFormatter.ISO_INSTANT.format( instant );
+  }
+  
+  /**
+   * Parse Edm.DateTimeOffset.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static OffsetDateTime parseDateTimeOffset( String s )
+  {
+    if ( s.startsWith( "/Date(" ) )
+      return parseJsonDate( s ).atOffset( ZoneOffset.UTC );
+    try
+    {
+      return OffsetDateTime.parse( s );
+    }
+    catch ( DateTimeParseException ex )
+    {
+      return parseDateTime( s ).atOffset( ZoneOffset.UTC );
+    }
+  }
+  
+  /**
+   * Format Edm.DateTimeOffset.
+   * 
+   * @param dt The value.
+   * @return The text for a request.
+   */
+  public static String formatDateTimeOffset( OffsetDateTime dt )
+  {
+    return DateTimeFormatter.ISO_OFFSET_DATE_TIME.format( dt );
+  }
+  
+  /**
+   * Parse Edm.Time which OData v3 defines as a duration such as PT13H20M.
+   * The time of day form 13:20:00 is also accepted.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static Duration parseTime( String s )
+  {
+    if ( s.indexOf( ':' ) >= 0 )
+      return Duration.ofNanos( LocalTime.parse( s ).toNanoOfDay() );
+    return Duration.parse( s );
+  }
+  
+  /**
+   * Parse Edm.Guid.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static UUID parseGuid( String s )
+  {
+    return UUID.fromString( s );
+  }
+  
+  /**
+   * Parse Edm.Binary which is base64 encoded.
+   * 
+   * @param s Text from the response.
+   * @return The value.
+   */
+  public static byte[] parseBinary( String s )
+  {
+    return Base64.getMimeDecoder().decode( s );
+  }
+  
+  /**
+   * Format Edm.Binary.
+   * 
+   * @param b The value.
+   * @return The text for a request.
+   */
+  public static String formatBinary( byte[] b )
+  {
+    return Base64.getEncoder().encodeToString( b );
+  }
+  
+  private static int digits( String s, int start, int length )
+  {
+    if ( start + length > s.length() )
+      throw new DateTimeParseException( "Invalid date time", s, Math.min( start, s.length() ) );
+    int v = 0;
+    for ( int i = start; i < start + length; i++ )
+    {
+      char c = s.charAt( i );
+      if ( c < '0' || c > '9' )
+        throw new DateTimeParseException( "Invalid date time", s, i );
+      v = v * 10 + ( c - '0' );
+    }
+    return v;
+  }
+  
+  /**
+   * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+   */
+  private static long epochDay( int year, int month, int day )
+  {
+    long y = month <= 2 ? year - 1 : year;
+    long era = ( y >= 0 ? y : y - 399 ) / 400;
+    long yoe = y - era * 400;
+    long doy = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5 + day - 1;
+    long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+}
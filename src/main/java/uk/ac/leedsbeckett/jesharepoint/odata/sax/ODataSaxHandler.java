@@ -15,16 +15,18 @@
  */
 package uk.ac.leedsbeckett.jesharepoint.odata.sax;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Constructor;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.reflections.Reflections;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 import uk.ac.leedsbeckett.jesharepoint.odata.TypeMap;
+import uk.ac.leedsbeckett.jesharepoint.odata.annotation.ODataRegistries;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.ODataMProperties;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.ODataProperty;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.TotallyUnknownNode;
@@ -45,16 +47,25 @@ import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.annotation.ODataMElementM
  */
 public class ODataSaxHandler extends DefaultHandler
 {
-  private static final HashMap<FQName, NodeTypeEntry> nodeTypeMap = new HashMap<>();
+  private static final Logger logger = Logger.getLogger( ODataSaxHandler.class.getName() );
+  // namespace -> local name -> factory. Replaced as a whole when nodes are
+  // registered so that parsing threads can read it without locking.
+  private static volatile Map<String,Map<String,XmlNodeFactory>> nodeFactories = scan();
 
   String contentType;
   TypeMap typeMap;
 
-  StringBuilder log = new StringBuilder();
+  // Only created when tracing so there is no cost otherwise
+  StringBuilder log = null;
   int depth = 0;
+  // Greater than zero while inside a property that is being skipped
+  int skipDepth = 0;
+  boolean retainTree = false;
+  ForkJoinPool bindingPool = null;
 
   XmlDocument documentNode;
   XmlNode currentNode;
+  TextAccumulator text;
   
   /**
    * Instantiated by OData client for each incoming XML HTTP response.
@@ -66,13 +77,25 @@ public class ODataSaxHandler extends DefaultHandler
   {
     this.contentType = contentType;
     this.typeMap = typeMap;
-    synchronized ( nodeTypeMap )
-    {
-      if ( nodeTypeMap.isEmpty() )
-      {
-        scan();
-      }
-    }
+    if ( logger.isLoggable( Level.FINEST ) )
+      log = new StringBuilder();
+  }
+  
+  /**
+   * Register a node class for an element at run time. Node classes that are
+   * annotated are found automatically and don't need this.
+   * 
+   * @param namespace The namespace of the element.
+   * @param localName The local name of the element.
+   * @param factory Usually the node class's constructor, e.g. AtomEntry::new
+   */
+  public static synchronized void registerNode( String namespace, String localName, XmlNodeFactory factory )
+  {
+    HashMap<String,Map<String,XmlNodeFactory>> copy = new HashMap<>( nodeFactories );
+    HashMap<String,XmlNodeFactory> names = new HashMap<>( copy.getOrDefault( namespace, Map.of() ) );
+    names.put( localName, factory );
+    copy.put( namespace, names );
+    nodeFactories = copy;
   }
 
   /**
@@ -86,13 +109,60 @@ public class ODataSaxHandler extends DefaultHandler
   }
 
   /**
-   * User in development process to output log in one string.
+   * Switch the trace of elements, attributes and text on or off. It is on
+   * by default only if this class's logger is loggable at FINEST, in which
+   * case the trace is logged at the end of the document. Must be set before 
+   * parsing starts.
+   * 
+   * @param enabled True to record a trace.
+   */
+  public void setTraceEnabled( boolean enabled )
+  {
+    log = enabled ? new StringBuilder() : null;
+  }
+  
+  /**
+   * Keep the nodes of every entry until the end of the document instead of
+   * releasing them as each entity is built. Only useful for inspecting the
+   * tree while developing node classes because it costs a lot of memory on
+   * large feeds. Must be set before parsing starts.
    * 
-   * @return The log contents.
+   * @param retainTree True to keep the whole tree.
+   */
+  public void setRetainTree( boolean retainTree )
+  {
+    this.retainTree = retainTree;
+  }
+  
+  /**
+   * Bind the entries of the top level feed on a pool instead of on the
+   * thread that is parsing. Must be set before parsing starts.
+   * 
+   * @param bindingPool The pool or null to bind on the parsing thread.
+   */
+  public void setBindingPool( ForkJoinPool bindingPool )
+  {
+    this.bindingPool = bindingPool;
+  }
+  
+  /**
+   * Find out if the trace is being recorded.
+   * 
+   * @return True if it is.
+   */
+  public boolean isTraceEnabled()
+  {
+    return log != null;
+  }
+  
+  /**
+   * Used in development process to output log in one string.
+   * 
+   * @return The log contents which are empty if the trace is not enabled.
    */  
   public String getLog()
   {
-    return log.toString();
+    return log == null ? "" : log.toString();
   }
 
   /**
@@ -105,6 +175,9 @@ public class ODataSaxHandler extends DefaultHandler
   {
     documentNode = new XmlDocument( null, null, null, null, null );
     documentNode.setTypeMap( typeMap );
+    documentNode.setRetainTree( retainTree );
+    documentNode.setBindingPool( bindingPool );
+    text = documentNode.getTextAccumulator();
     currentNode = documentNode;
   }
 
@@ -116,6 +189,8 @@ public class ODataSaxHandler extends DefaultHandler
   @Override
   public void endDocument() throws SAXException
   {
+    if ( log != null && logger.isLoggable( Level.FINEST ) )
+      logger.finest( log.toString() );
   }
 
   /**
@@ -130,80 +205,67 @@ public class ODataSaxHandler extends DefaultHandler
   @Override
   public void startElement( String namespace, String localName, String qName, Attributes attributes ) throws SAXException
   {
-    FQName fqname = new FQName( namespace, localName );
     XmlNode parentNode = currentNode;
-    NodeTypeEntry entry=null;
-
-    depth++;
-    logIndent();
-    log.append( "Start Element " );
-    log.append( namespace );
-    log.append( " " );
-    log.append( localName );
-    log.append( "\n" );
-    depth += 3;
-    for ( int i = 0; i < attributes.getLength(); i++ )
+    
+    // Nothing is created for properties that won't be bound or their content
+    if ( skipDepth > 0 )
     {
-      logIndent();
-      log.append( "Attribute " );
-      log.append( attributes.getURI( i ) );
-      log.append( " " );
-      log.append( attributes.getLocalName( i ) );
-      log.append( " " );
-      log.append( attributes.getValue( i ) );
-      log.append( "\n" );
+      skipDepth++;
+      return;
+    }
+    if ( NS.ODATA.equals( namespace ) && !isBound( parentNode, localName ) )
+    {
+      skipDepth = 1;
+      return;
     }
-    depth -= 3;
 
-    try
+    depth++;
+    text.clear();
+    if ( log != null )
+      logStartElement( namespace, localName, attributes );
+
+    // Two lookups so no key object is needed for each element
+    Map<String,XmlNodeFactory> names = namespace == null ? null : nodeFactories.get( namespace );
+    XmlNodeFactory factory = names == null ? null : names.get( localName );
+    if ( factory != null )
+      currentNode = factory.create( documentNode, parentNode, namespace, localName, attributes );
+    else
     {
-      entry = nodeTypeMap.get( fqname );
-      if ( entry != null )
-        currentNode = (XmlNode)entry.constructor.newInstance( documentNode, parentNode, namespace, localName, attributes );
-      else
+      if ( null == namespace )
+        currentNode = new TotallyUnknownNode( documentNode, parentNode, namespace, localName, attributes );
+      else switch ( namespace )
       {
-        if ( null == namespace )
-          currentNode = new TotallyUnknownNode( documentNode, parentNode, namespace, localName, attributes );
-        else switch ( namespace )
-        {
-          case NS.ATOM:
-            currentNode = new UnknownAtomNode( documentNode, parentNode, namespace, localName, attributes );
-            break;
-          case NS.ODATA_META:          
-            currentNode = new UnknownODataMetadataNode( documentNode, parentNode, namespace, localName, attributes );
-            break;
-          case NS.ODATA:
-            if ( parentNode instanceof ODataMProperties || parentNode instanceof ODataProperty )
+        case NS.ATOM:
+          currentNode = new UnknownAtomNode( documentNode, parentNode, namespace, localName, attributes );
+          break;
+        case NS.ODATA_META:          
+          currentNode = new UnknownODataMetadataNode( documentNode, parentNode, namespace, localName, attributes );
+          break;
+        case NS.ODATA:
+          if ( parentNode instanceof ODataMProperties || parentNode instanceof ODataProperty )
+            currentNode = new ODataProperty( documentNode, parentNode, namespace, localName, attributes );
+          else
+          {
+            String odatatype = attributes.getValue( NS.ODATA_META, "type" );
+            Class<?> dc = null;
+            if ( odatatype != null )
+              dc = typeMap.getClass( odatatype );
+            if ( dc != null || typeMap.isSupportedPrimitive( odatatype ) )
               currentNode = new ODataProperty( documentNode, parentNode, namespace, localName, attributes );
             else
             {
-              String odatatype = attributes.getValue( NS.ODATA_META, "type" );
-              Class<?> dc = null;
-              if ( odatatype != null )
-                dc = typeMap.getClass( odatatype );
-              if ( dc != null || typeMap.isSupportedPrimitive( odatatype ) )
+              String odatanull = attributes.getValue( NS.ODATA_META, "null" );
+              if ( odatanull != null )
                 currentNode = new ODataProperty( documentNode, parentNode, namespace, localName, attributes );
               else
-              {
-                String odatanull = attributes.getValue( NS.ODATA_META, "null" );
-                if ( odatanull != null )
-                  currentNode = new ODataProperty( documentNode, parentNode, namespace, localName, attributes );
-                else
-                  currentNode = new UnknownODataNode( documentNode, parentNode, namespace, localName, attributes );
-              }
+                currentNode = new UnknownODataNode( documentNode, parentNode, namespace, localName, attributes );
             }
-            break;
-          default:
-            currentNode = new TotallyUnknownNode( documentNode, parentNode, namespace, localName, attributes );
-            break;
-        }          
-      }
-    }
-    catch ( IllegalAccessException | IllegalArgumentException | InvocationTargetException | 
-            InstantiationException ex )
-    {
-      Logger.getLogger( ODataSaxHandler.class.getName() ).log( Level.SEVERE, null, ex );
-      throw new SAXException( "Fault parsing XML", ex );
+          }
+          break;
+        default:
+          currentNode = new TotallyUnknownNode( documentNode, parentNode, namespace, localName, attributes );
+          break;
+      }          
     }
   }
 
@@ -217,9 +279,15 @@ public class ODataSaxHandler extends DefaultHandler
   @Override
   public void endElement( String uri, String localName, String qName ) throws SAXException
   {
+    if ( skipDepth > 0 )
+    {
+      skipDepth--;
+      return;
+    }
     depth--;
     currentNode.end();
     currentNode=currentNode.parent;
+    text.clear();
   }
 
   /**
@@ -232,13 +300,14 @@ public class ODataSaxHandler extends DefaultHandler
   @Override
   public void characters( char[] ch, int start, int length ) throws SAXException
   {
-    String s = new String( ch, start, length );
-    if ( !s.isBlank() )
+    if ( skipDepth > 0 )
+      return;
+    if ( log != null && !isWhitespace( ch, start, length ) )
     {
       depth++;
       logIndent();
       log.append( "CHARS: " );
-      log.append( s );
+      log.append( ch, start, length );
       log.append( "\n" );
       depth--;
     }
@@ -246,6 +315,69 @@ public class ODataSaxHandler extends DefaultHandler
     currentNode.characters( ch, start, length );
   }
 
+  /**
+   * Checks whether the target class of an entry or complex property has a
+   * field for a property. 
+   * 
+   * @param parentNode The node that would contain the property.
+   * @param name The property name.
+   * @return False if the property would be ignored.
+   */
+  private static boolean isBound( XmlNode parentNode, String name )
+  {
+    if ( parentNode instanceof ODataMProperties )
+      return ((ODataMProperties)parentNode).acceptsProperty( name );
+    if ( parentNode instanceof ODataProperty )
+      return ((ODataProperty)parentNode).acceptsProperty( name );
+    return true;
+  }
+  
+  /**
+   * Check for text that is only whitespace without creating a string.
+   * 
+   * @param ch Array of chars.
+   * @param start Index in array where characters start.
+   * @param length The number of chars.
+   * @return True if all the chars are whitespace.
+   */
+  private static boolean isWhitespace( char[] ch, int start, int length )
+  {
+    for ( int i = start; i < start + length; i++ )
+      if ( !Character.isWhitespace( ch[i] ) )
+        return false;
+    return true;
+  }
+  
+  /**
+   * Add the start of an element and its attributes to the trace.
+   * 
+   * @param namespace The namespace
+   * @param localName The element name
+   * @param attributes Attributes from the element.
+   */
+  private void logStartElement( String namespace, String localName, Attributes attributes )
+  {
+    logIndent();
+    log.append( "Start Element " );
+    log.append( namespace );
+    log.append( " " );
+    log.append( localName );
+    log.append( "\n" );
+    depth += 3;
+    for ( int i = 0; i < attributes.getLength(); i++ )
+    {
+      logIndent();
+      log.append( "Attribute " );
+      log.append( attributes.getURI( i ) );
+      log.append( " " );
+      log.append( attributes.getLocalName( i ) );
+      log.append( " " );
+      log.append( attributes.getValue( i ) );
+      log.append( "\n" );
+    }
+    depth -= 3;
+  }
+
   /**
    * Indent the line of text in the log with spaces.
    */
@@ -256,38 +388,81 @@ public class ODataSaxHandler extends DefaultHandler
   }
 
   /**
-   * Scan the node classes, look at annotations and build map.
+   * Find the node classes, look at annotations and build map. The classes
+   * and factories come from the generated registry and the class path is 
+   * only scanned if there isn't one.
+   * 
+   * @return The map.
    */
-  private static void scan()
+  private static Map<String,Map<String,XmlNodeFactory>> scan()
   {
-    Reflections reflections = new Reflections( "uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes" );
-    Set<Class<?>> types;
-    types = reflections.getTypesAnnotatedWith( AtomElementMapping.class );
-    for ( Class<?> c : types ) addClass( c );
-    types = reflections.getTypesAnnotatedWith( ODataMElementMapping.class );
-    for ( Class<?> c : types ) addClass( c );
-    types = reflections.getTypesAnnotatedWith( ODataElementMapping.class );
-    for ( Class<?> c : types ) addClass( c );
+    HashMap<String,Map<String,XmlNodeFactory>> map = new HashMap<>();
+    for ( Map.Entry<Class<?>,XmlNodeFactory> e : ODataRegistries.getNodeFactories().entrySet() )
+      addClass( map, e.getKey(), e.getValue() );
+    if ( !map.isEmpty() )
+      return map;
+    Set<Class<?>> types = ODataRegistries.scan( "uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes", 
+            AtomElementMapping.class, ODataMElementMapping.class, ODataElementMapping.class );
+    for ( Class<?> c : types ) 
+    {
+      XmlNodeFactory factory = reflectiveFactory( c );
+      if ( factory != null )
+        addClass( map, c, factory );
+    }
+    return map;
   }
   
   /**
    * Add a class to the map.
    * 
+   * @param map The map to add to.
    * @param c The class to add to the maps.
+   * @param factory Creates instances of the class.
    */
-  private static void addClass( Class<?> c )
+  private static void addClass( HashMap<String,Map<String,XmlNodeFactory>> map, Class<?> c, XmlNodeFactory factory )
   {
-    if ( XmlNode.class.isAssignableFrom( c ) )
+    AtomElementMapping amapping = c.getAnnotation( AtomElementMapping.class );
+    if ( amapping != null )
+      map.computeIfAbsent( NS.ATOM, k -> new HashMap<>() ).put( amapping.value(), factory );
+    ODataMElementMapping odmmapping = c.getAnnotation( ODataMElementMapping.class );
+    if ( odmmapping != null )
+      map.computeIfAbsent( NS.ODATA_META, k -> new HashMap<>() ).put( odmmapping.value(), factory );
+    ODataElementMapping odmapping = c.getAnnotation( ODataElementMapping.class );
+    if ( odmapping != null )
+      map.computeIfAbsent( NS.ODATA, k -> new HashMap<>() ).put( odmapping.value(), factory );
+  }
+  
+  /**
+   * Make a factory for a node class that was found by scanning rather than
+   * from a registry.
+   * 
+   * @param c The node class.
+   * @return The factory or null if the class has no suitable constructor.
+   */
+  private static XmlNodeFactory reflectiveFactory( Class<?> c )
+  {
+    if ( !XmlNode.class.isAssignableFrom( c ) )
+      return null;
+    try
+    {
+      Constructor<?> con = c.getConstructor( XmlDocument.class, XmlNode.class, String.class, String.class, Attributes.class );
+      return ( document, parent, namespace, name, attributes ) -> 
+      {
+        try
+        {
+          return (XmlNode)con.newInstance( document, parent, namespace, name, attributes );
+        }
+        catch ( ReflectiveOperationException | IllegalArgumentException ex )
+        {
+          logger.log( Level.SEVERE, null, ex );
+          throw new SAXException( "Fault parsing XML", ex );
+        }
+      };
+    }
+    catch ( NoSuchMethodException | SecurityException ex )
     {
-      AtomElementMapping amapping = c.getAnnotation( AtomElementMapping.class );
-      if ( amapping != null )
-        nodeTypeMap.put( new FQName(       NS.ATOM,   amapping.value() ), new NodeTypeEntry( c ) );
-      ODataMElementMapping odmmapping = c.getAnnotation( ODataMElementMapping.class );
-      if ( odmmapping != null )
-        nodeTypeMap.put( new FQName( NS.ODATA_META, odmmapping.value() ), new NodeTypeEntry( c ) );
-      ODataElementMapping odmapping = c.getAnnotation( ODataElementMapping.class );
-      if ( odmapping != null )
-        nodeTypeMap.put( new FQName( NS.ODATA_META, odmapping.value() ), new NodeTypeEntry( c ) );
+      logger.log( Level.SEVERE, null, ex );
+      return null;
     }
   }
 
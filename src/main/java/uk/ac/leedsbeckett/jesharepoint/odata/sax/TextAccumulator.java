@@ -0,0 +1,125 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.sax;
+
+/**
+ * Collects the text of the current element. SAX parsers may deliver the
+ * text of one element in several calls to characters, for example either
+ * side of an entity reference such as &amp;amp; or at a buffer boundary, so
+ * nodes append here and only make a string when the element ends.
+ * 
+ * One instance is used for the whole of a parse so the buffer is reused for
+ * every element. Short strings, which are very often repeated in a feed,
+ * are looked up in a small cache so that equal values share one instance. 
+ * Not thread safe.
+ * 
+ * @author maber01
+ */
+public class TextAccumulator
+{
+  // Longer values are rarely repeated so aren't worth looking up
+  private static final int MAX_SHARED_LENGTH = 32;
+  private static final int CACHE_SIZE = 512;
+  
+  private char[] buffer = new char[256];
+  private int length = 0;
+  private boolean empty = true;
+  private final String[] cache = new String[CACHE_SIZE];
+
+  /**
+   * Discard the collected text. Called by the handler at the start and end
+   * of each element.
+   */
+  public void clear()
+  {
+    length = 0;
+    empty = true;
+  }
+  
+  /**
+   * Add a chunk of text.
+   * 
+   * @param ch Array of chars.
+   * @param start Index in array where characters start.
+   * @param count The number of chars.
+   */
+  public void append( char[] ch, int start, int count )
+  {
+    if ( length + count > buffer.length )
+    {
+      char[] bigger = new char[ Math.max( buffer.length * 2, length + count ) ];
+      System.arraycopy( buffer, 0, bigger, 0, length );
+      buffer = bigger;
+    }
+    System.arraycopy( ch, start, buffer, length, count );
+    length += count;
+    empty = false;
+  }
+  
+  /**
+   * Get the collected text.
+   * 
+   * @return The text or null if there were no characters at all.
+   */
+  public String getText()
+  {
+    if ( empty )
+      return null;
+    if ( length > MAX_SHARED_LENGTH )
+      return new String( buffer, 0, length );
+    
+    int hash = 0;
+    for ( int i = 0; i < length; i++ )
+      hash = 31 * hash + buffer[i];
+    int slot = ( hash ^ ( hash >>> 16 ) ) & ( CACHE_SIZE - 1 );
+    String s = cache[slot];
+    if ( s != null && matches( s ) )
+      return s;
+    s = new String( buffer, 0, length );
+    cache[slot] = s;
+    return s;
+  }
+  
+  /**
+   * Share an instance of a short string that didn't come from element text,
+   * such as an attribute value.
+   * 
+   * @param s The string.
+   * @return An equal string, possibly one seen earlier in the parse.
+   */
+  public String share( String s )
+  {
+    if ( s == null || s.length() > MAX_SHARED_LENGTH )
+      return s;
+    int hash = s.hashCode();
+    int slot = ( hash ^ ( hash >>> 16 ) ) & ( CACHE_SIZE - 1 );
+    String cached = cache[slot];
+    if ( s.equals( cached ) )
+      return cached;
+    cache[slot] = s;
+    return s;
+  }
+  
+  private boolean matches( String s )
+  {
+    if ( s.length() != length )
+      return false;
+    for ( int i = 0; i < length; i++ )
+      if ( s.charAt( i ) != buffer[i] )
+        return false;
+    return true;
+  }
+}
@@ -15,35 +15,32 @@
  */
 package uk.ac.leedsbeckett.jesharepoint.odata.sax;
 
-import java.lang.reflect.Constructor;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.XmlDocument;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.XmlNode;
 
 /**
- *
+ * Creates the node for an XML element. Node classes are registered with a
+ * constructor reference such as AtomEntry::new so that the SAX handler
+ * doesn't construct nodes reflectively.
+ * 
  * @author maber01
  */
-public class NodeTypeEntry
+@FunctionalInterface
+public interface XmlNodeFactory
 {
-  public final Class<?> c;
-  public final Constructor constructor;
-
-  public NodeTypeEntry( Class<?> c )
-  {
-    this.c = c;
-    Constructor cc = null;
-    try
-    {
-      cc = c.getConstructor( XmlDocument.class, XmlNode.class, String.class, String.class, Attributes.class );
-    }
-    catch ( NoSuchMethodException | SecurityException ex )
-    {
-      Logger.getLogger( NodeTypeEntry.class.getName() ).log( Level.SEVERE, null, ex );
-    }
-    constructor = cc;
-  }
-  
+  /**
+   * Create a node.
+   * 
+   * @param document The document node.
+   * @param parent The parent node.
+   * @param namespace The namespace of the element.
+   * @param name The local name of the element.
+   * @param attributes The element's attributes.
+   * @return The new node.
+   * @throws SAXException If the element is invalid.
+   */
+  public XmlNode create( XmlDocument document, XmlNode parent, String namespace, String name, Attributes attributes ) 
+          throws SAXException;
 }
@@ -36,6 +36,6 @@ public class AtomCategory extends AtomNode
     if ( !(parent instanceof AtomEntry) )
       throw new SAXException( "Atom category element must be inside entry element." );
     entityscheme = attributes.getValue( "scheme" );
-    entityterm   = attributes.getValue( "term" );
+    entityterm   = document.getTextAccumulator().share( attributes.getValue( "term" ) );
   } 
 }
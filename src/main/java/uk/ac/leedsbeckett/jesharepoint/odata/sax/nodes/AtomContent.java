@@ -32,6 +32,6 @@ public class AtomContent extends AtomNode
     super( document, parent, namespace, name, attributes );
     if ( !(parent instanceof AtomEntry) )
       throw new SAXException( "Atom category element must be inside entry element." );
-    contentType = attributes.getValue( "type" );
+    contentType = document.getTextAccumulator().share( attributes.getValue( "type" ) );
   } 
 }
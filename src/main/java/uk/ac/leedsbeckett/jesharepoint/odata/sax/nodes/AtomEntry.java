@@ -15,18 +15,15 @@
  */
 package uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
-import uk.ac.leedsbeckett.jesharepoint.odata.containers.Metadata;
-import uk.ac.leedsbeckett.jesharepoint.odata.containers.NavigationProperty;
+import uk.ac.leedsbeckett.jesharepoint.odata.sax.NS;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.annotation.AtomElementMapping;
 
 /**
@@ -37,30 +34,98 @@ import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.annotation.AtomElementMap
 public class AtomEntry extends AtomNode
 {
   Entity entity = null;
+  Class<? extends Entity> entityClass = null;
+  String etag;
   
   public AtomEntry( XmlDocument document, XmlNode parent, String namespace, String name, Attributes attributes ) throws SAXException
   {
     super( document, parent, namespace, name, attributes );
+    etag = attributes.getValue( NS.ODATA_META, "etag" );
+  }
+
+  /**
+   * The class that this entry will be bound to, which is known once the
+   * category has been parsed.
+   * 
+   * @return The class or null if the category hasn't been seen yet.
+   */
+  public Class<? extends Entity> getEntityClass()
+  {
+    if ( entityClass == null )
+    {
+      AtomCategory category = this.getChild( AtomCategory.class );
+      if ( category == null )
+        return null;
+      entityClass = document.getTypeMap().getEntityClass( category.entityterm );
+      if ( entityClass == null )
+        entityClass = document.getTypeMap().getUnknownEntityClass();
+    }
+    return entityClass;
   }
 
   @Override
   public void end() throws SAXException
+  {
+    ForkJoinPool pool = document.getBindingPool();
+    if ( pool != null && parent instanceof AtomFeed && parent.parent == document )
+    {
+      // Entries of the top level feed are bound on the pool and the feed
+      // collects the entities in order when it ends. Inline entries are
+      // bound here because their entry needs them.
+      if ( !document.isRetainTree() )
+        detach();
+      ((AtomFeed)parent).entryEnded( pool.submit( this::bindInPool ) );
+      return;
+    }
+    
+    bind();
+    if ( parent instanceof AtomFeed )
+      ((AtomFeed)parent).entryEnded( this );
+    if ( !document.isRetainTree() )
+    {
+      children = new ArrayList<>( 0 );
+      detach();
+    }
+  }
+  
+  private Entity bindInPool() throws SAXException
+  {
+    bind();
+    if ( !document.isRetainTree() )
+      children = new ArrayList<>( 0 );
+    return entity;
+  }
+  
+  /**
+   * Drop this node from the feed it is in. Together with dropping the nodes
+   * inside this entry once the entity is built, only the entity stays 
+   * reachable so a large feed doesn't keep every entry's nodes in memory.
+   */
+  private void detach()
+  {
+    if ( parent instanceof AtomFeed )
+    {
+      ArrayList<XmlNode> siblings = parent.children;
+      if ( !siblings.isEmpty() && siblings.get( siblings.size() - 1 ) == this )
+        siblings.remove( siblings.size() - 1 );
+      else
+        siblings.remove( this );
+    }
+  }
+  
+  private void bind() throws SAXException
   {
     AtomCategory category = this.getChild( AtomCategory.class );
     if ( category == null ) return;
     AtomId id = this.getChild( AtomId.class );
 
     // ToDo should be checking the scheme too
-    Class<? extends Entity> entityClass = document.getTypeMap().getEntityClass( category.entityterm );
-    if ( entityClass == null )
-      entityClass = document.getTypeMap().getUnknownEntityClass();
     try
     {
-      Constructor cons = entityClass.getConstructor();
-      entity = (Entity) cons.newInstance();
-      entity.__metadata = new Metadata();
+      entity = document.getTypeMap().newEntity( category.entityterm );
       if ( id != null && id.atomid != null )
         entity.__metadata.id = id.atomid;
+      entity.__metadata.etag = etag;
 
       List<AtomLink> links = this.getChildren( AtomLink.class );
       for ( AtomLink link : links )
@@ -69,26 +134,16 @@ public class AtomEntry extends AtomNode
                 ( "application/atom+xml;type=feed".equals( link.linkType ) || 
                   "application/atom+xml;type=entry".equals( link.linkType ) ) )
         {
-          try
+          List<Entity> inline = null;
+          if ( link.inline != null )
           {
-            Field f = entityClass.getField( link.title );
-            if ( !NavigationProperty.class.isAssignableFrom( f.getType() ) )
-              throw new SAXException( "Incompatible with navigation property type." );
-            Constructor pcons = f.getType().getConstructor( String.class );
-            NavigationProperty<?> p = (NavigationProperty<?>) pcons.newInstance( link.href );
-            f.set( entity, p );
-            if ( link.inline != null )
-            {
-              p.setDeferred( false );
-              Method adder = f.getType().getMethod( "addEntity", Object.class );
-              if ( link.inline.inlineEntry != null && link.inline.inlineEntry.entity != null )
-                adder.invoke( p, link.inline.inlineEntry.entity );
-              if ( link.inline.inlineFeed != null && link.inline.inlineFeed.entities != null )
-                for ( Entity e : link.inline.inlineFeed.entities )
-                  adder.invoke( p, e );
-            }
+            inline = new ArrayList<>();
+            if ( link.inline.inlineEntry != null && link.inline.inlineEntry.entity != null )
+              inline.add( link.inline.inlineEntry.entity );
+            if ( link.inline.inlineFeed != null && link.inline.inlineFeed.entities != null )
+              inline.addAll( link.inline.inlineFeed.entities );
           }
-          catch ( NoSuchFieldException ex ) {}
+          document.getTypeMap().setNavigationProperty( entity, link.title, link.href, inline );
         }
       }
 
@@ -101,11 +156,15 @@ public class AtomEntry extends AtomNode
       List<ODataProperty> props = properties.getChildren( ODataProperty.class );
       this.processProperties( entity, props );
     }
-    catch ( NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex )
+    catch ( ReflectiveOperationException | SecurityException ex )
     {
       Logger.getLogger( AtomEntry.class.getName() ).log( Level.SEVERE, null, ex );
       throw new SAXException( "Problem parsing XML to OData." );
     }
+    catch ( IllegalArgumentException ex )
+    {
+      throw new SAXException( ex.getMessage() );
+    }
   }
   
   
@@ -16,7 +16,8 @@
 package uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
@@ -30,17 +31,95 @@ import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.annotation.AtomElementMap
 public class AtomFeed extends AtomNode
 {
   ArrayList<Entity> entities = new ArrayList<>();
+  // Entries that are being bound on a pool, in feed order
+  ArrayList<Future<Entity>> pending = null;
+  String nextLink = null;
   
   public AtomFeed( XmlDocument document, XmlNode parent, String namespace, String name, Attributes attributes ) throws SAXException
   {
     super( document, parent, namespace, name, attributes );
   }
 
-  @Override
-  public void end()
+  /**
+   * Collect the entity from an entry as soon as it has been bound, so the 
+   * entry's nodes need not be kept until the end of the feed.
+   * 
+   * @param entry The entry that has just ended.
+   */
+  void entryEnded( AtomEntry entry )
   {
-    List<AtomEntry> entries = getChildren( AtomEntry.class );
-    for ( AtomEntry entry : entries )
+    if ( entry.entity != null )
       entities.add( entry.entity );
+  }
+  
+  /**
+   * Collect an entry that is being bound on a pool. The entity is added
+   * when the feed ends so that the order of the feed is kept.
+   * 
+   * @param binding The task that binds the entry.
+   */
+  void entryEnded( Future<Entity> binding )
+  {
+    if ( pending == null )
+      pending = new ArrayList<>();
+    pending.add( binding );
+  }
+  
+  @Override
+  public void end() throws SAXException
+  {
+    if ( pending != null )
+      collectPending();
+    for ( AtomLink link : getChildren( AtomLink.class ) )
+      if ( "next".equals( link.rel ) )
+        nextLink = link.href;
   }  
+
+  /**
+   * Wait for the entries being bound on a pool in turn. If one fails the 
+   * rest are cancelled and the failure is reported as if the entry had
+   * been bound by the parsing thread.
+   * 
+   * @throws SAXException If an entry couldn't be bound.
+   */
+  private void collectPending() throws SAXException
+  {
+    try
+    {
+      entities.ensureCapacity( entities.size() + pending.size() );
+      for ( Future<Entity> binding : pending )
+      {
+        Entity entity = binding.get();
+        if ( entity != null )
+          entities.add( entity );
+      }
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+      throw new SAXException( "Interrupted while binding entries." );
+    }
+    catch ( ExecutionException ex )
+    {
+      if ( ex.getCause() instanceof SAXException )
+        throw (SAXException)ex.getCause();
+      throw new SAXException( "Problem parsing XML to OData.", ex );
+    }
+    finally
+    {
+      for ( Future<Entity> binding : pending )
+        binding.cancel( false );
+      pending = null;
+    }
+  }
+
+  /**
+   * The link to the next page if the server split the collection up.
+   * 
+   * @return The URL or null if this is the last page.
+   */
+  public String getNextLink()
+  {
+    return nextLink;
+  }
 }
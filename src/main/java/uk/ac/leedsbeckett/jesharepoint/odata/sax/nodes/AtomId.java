@@ -39,6 +39,12 @@ public class AtomId extends AtomNode
   @Override
   public void characters( char[] ch, int start, int length ) throws SAXException
   {
-    atomid = new String( ch, start, length );
+    document.getTextAccumulator().append( ch, start, length );
+  }
+
+  @Override
+  public void end()
+  {
+    atomid = document.getTextAccumulator().getText();
   }
 }
@@ -17,6 +17,7 @@ package uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import uk.ac.leedsbeckett.jesharepoint.odata.sax.TextAccumulator;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.annotation.AtomElementMapping;
 
 /**
@@ -27,6 +28,7 @@ import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.annotation.AtomElementMap
 public class AtomLink extends AtomNode
 {
   public String linkType;
+  public String rel;
   public String title;
   public String href;
   public ODataMInline inline;
@@ -34,9 +36,11 @@ public class AtomLink extends AtomNode
   public AtomLink( XmlDocument document, XmlNode parent, String namespace, String name, Attributes attributes ) throws SAXException
   {
     super( document, parent, namespace, name, attributes );
-    linkType = attributes.getValue( "type"  );
-    title    = attributes.getValue( "title" );
+    TextAccumulator text = document.getTextAccumulator();
+    linkType = text.share( attributes.getValue( "type"  ) );
+    title    = text.share( attributes.getValue( "title" ) );
     href     = attributes.getValue( "href"  );
+    rel      = text.share( attributes.getValue( "rel"   ) );
   }
 
   @Override
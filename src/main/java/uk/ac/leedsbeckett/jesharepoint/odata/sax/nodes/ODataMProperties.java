@@ -31,5 +31,21 @@ public class ODataMProperties extends ODataMNode
     super( document, parent, namespace, name, attributes );
     if ( !(parent instanceof AtomContent) )
       throw new SAXException( "OData metadata properties element must be inside atom content element." );
-  } 
+  }
+  
+  /**
+   * Whether a property of the entry will be bound. Properties of an entry 
+   * whose category comes after its content are always accepted.
+   * 
+   * @param name The property name.
+   * @return False if the entity class has no field for the property.
+   */
+  public boolean acceptsProperty( String name )
+  {
+    XmlNode entry = parent.parent;
+    if ( !(entry instanceof AtomEntry) )
+      return true;
+    Class<?> c = ((AtomEntry)entry).getEntityClass();
+    return c == null || document.getTypeMap().hasProperty( c, name );
+  }
 }
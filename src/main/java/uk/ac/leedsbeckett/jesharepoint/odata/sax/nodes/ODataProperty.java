@@ -15,10 +15,6 @@
  */
 package uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -26,8 +22,6 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import uk.ac.leedsbeckett.jesharepoint.odata.Value;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Complex;
-import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
-import uk.ac.leedsbeckett.jesharepoint.odata.containers.NavigationProperty;
 import uk.ac.leedsbeckett.jesharepoint.odata.sax.NS;
 
 /**
@@ -38,48 +32,74 @@ public class ODataProperty extends ODataNode
 {
   public String type;
   public String value;
+  public boolean isNull;
   
   public Value odatavalue;
   
   public ODataProperty( XmlDocument document, XmlNode parent, String namespace, String name, Attributes attributes ) throws SAXException
   {
     super( document, parent, namespace, name, attributes );
-    type = attributes.getValue( NS.ODATA_META, "type" );
+    type = document.getTextAccumulator().share( attributes.getValue( NS.ODATA_META, "type" ) );
     if ( type == null ) type = "Edm.String";
+    isNull = "true".equals( attributes.getValue( NS.ODATA_META, "null" ) );
   }
 
   @Override
   public void characters( char[] ch, int start, int length )
   {
-    value = new String( ch, start, length );
+    document.getTextAccumulator().append( ch, start, length );
   }
 
   @Override
   public void end() throws SAXException
   {
+    value = isNull ? null : document.getTextAccumulator().getText();
     if ( document.getTypeMap().isSupportedPrimitive( type ) )
     {
-      odatavalue = document.getTypeMap().getPrimitiveProperty( type, name, value );
+      // Primitives inside an entry or complex value are bound straight from
+      // the text by the parent so only a top level value needs an object.
+      if ( !isNested() )
+        odatavalue = document.getTypeMap().getPrimitiveProperty( type, name, value );
       return;
     }
     
     // ToDo should be checking the scheme too
-    Class<? extends Complex> complexClass = document.getTypeMap().getComplexClass( type );
-    if ( complexClass == null )
-      return;
-    
     try
     {
-      Constructor cons = complexClass.getConstructor();
-      Complex complex = (Complex)cons.newInstance();
+      Complex complex = document.getTypeMap().newComplex( type );
+      if ( complex == null )
+        return;
       List<ODataProperty> props = getChildren( ODataProperty.class );
       this.processProperties( complex, props );
       odatavalue = complex;
     }
-    catch ( NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex )
+    catch ( ReflectiveOperationException | SecurityException ex )
     {
       Logger.getLogger( AtomEntry.class.getName() ).log( Level.SEVERE, null, ex );
       throw new SAXException( "Problem parsing XML to OData." );
     }
   }
+  
+  /**
+   * Whether a property nested in this complex property will be bound.
+   * 
+   * @param name The nested property name.
+   * @return False if the complex type isn't mapped or has no field for the property.
+   */
+  public boolean acceptsProperty( String name )
+  {
+    Class<?> c = document.getTypeMap().getComplexClass( type );
+    return c != null && document.getTypeMap().hasProperty( c, name );
+  }
+  
+  /**
+   * Whether this property belongs to an entry or complex value rather than
+   * being the whole of the response.
+   * 
+   * @return True if the parent will bind this property.
+   */
+  public boolean isNested()
+  {
+    return parent instanceof ODataMProperties || parent instanceof ODataProperty;
+  }
 }
@@ -16,11 +16,13 @@
 package uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import uk.ac.leedsbeckett.jesharepoint.odata.TypeMap;
 import uk.ac.leedsbeckett.jesharepoint.odata.Value;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+import uk.ac.leedsbeckett.jesharepoint.odata.sax.TextAccumulator;
 
 /**
  *
@@ -29,6 +31,9 @@ import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
 public class XmlDocument extends XmlNode
 {
   TypeMap typeMap;
+  final TextAccumulator textAccumulator = new TextAccumulator();
+  boolean retainTree = false;
+  ForkJoinPool bindingPool = null;
   
   public XmlDocument( XmlDocument document, XmlNode parent, String namespace, String name, Attributes attributes ) throws SAXException
   {
@@ -45,6 +50,54 @@ public class XmlDocument extends XmlNode
     this.typeMap = typeMap;
   }
   
+  /**
+   * Get the buffer that nodes append their text to. There is one for the
+   * whole document and it is cleared at the start and end of each element.
+   * 
+   * @return The accumulator.
+   */
+  public TextAccumulator getTextAccumulator()
+  {
+    return textAccumulator;
+  }
+  
+  /**
+   * Whether entry nodes are kept after their entities have been built.
+   * 
+   * @return True if the whole tree is kept.
+   */
+  public boolean isRetainTree()
+  {
+    return retainTree;
+  }
+
+  /**
+   * By default the nodes of each entry are released as soon as its entity
+   * is built. Set this to keep the whole tree, for example to inspect it
+   * while developing new node classes.
+   * 
+   * @param retainTree True to keep the whole tree.
+   */
+  public void setRetainTree( boolean retainTree )
+  {
+    this.retainTree = retainTree;
+  }
+  
+  /**
+   * The pool that binds the entries of the top level feed.
+   * 
+   * @return The pool or null if entries are bound on the parsing thread.
+   */
+  public ForkJoinPool getBindingPool()
+  {
+    return bindingPool;
+  }
+
+  public void setBindingPool( ForkJoinPool bindingPool )
+  {
+    this.bindingPool = bindingPool;
+  }
+  
   public boolean isCollection()
   {
     return !children.isEmpty() && children.get( 0 ) instanceof AtomFeed;
@@ -70,4 +123,13 @@ public class XmlDocument extends XmlNode
     AtomFeed feed = (AtomFeed)node;
     return feed.entities;
   }
+
+  public String getNextLink()
+  {
+    if ( children.isEmpty() ) return null;
+    XmlNode node = children.get( 0 );
+    if ( !(node instanceof AtomFeed) )
+      return null;
+    return ((AtomFeed)node).getNextLink();
+  }
 }
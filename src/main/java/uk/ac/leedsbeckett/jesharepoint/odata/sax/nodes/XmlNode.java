@@ -15,17 +15,17 @@
  */
 package uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import uk.ac.leedsbeckett.jesharepoint.odata.containers.ValueWithProperties;
-import uk.ac.leedsbeckett.jesharepoint.odata.properties.BooleanProperty;
-import uk.ac.leedsbeckett.jesharepoint.odata.properties.Int32Property;
-import uk.ac.leedsbeckett.jesharepoint.odata.properties.StringProperty;
 
 /**
+ * A node in the tree built while parsing. The SAX Attributes passed to the
+ * constructor are only valid during the startElement callback, because the
+ * parser reuses the object, so subclasses must copy the values they need
+ * into their own fields in the constructor and never keep a reference.
  *
  * @author maber01
  */
@@ -35,7 +35,6 @@ public abstract class XmlNode
   public XmlNode parent;
   public String namespace;
   public String name;
-  public Attributes attributes;
   public ArrayList<XmlNode> children = new ArrayList<>();
 
   public XmlNode( XmlDocument document, XmlNode parent, String namespace, String name, Attributes attributes )
@@ -45,7 +44,6 @@ public abstract class XmlNode
     this.parent     = parent;
     this.namespace  = namespace;
     this.name       = name;
-    this.attributes = attributes;
     if ( parent != null )
       parent.addChild( this );
   }
@@ -106,43 +104,19 @@ public abstract class XmlNode
   
   public void processProperties( ValueWithProperties value, List<ODataProperty> props ) throws SAXException
   {
-    Class c = value.getClass();
     for ( ODataProperty prop : props )
     {
-      if ( prop.odatavalue == null )
-        continue;
-      
       try
       {
-        Field f = c.getField( prop.name );
-        if ( f != null )
-        {
-          if ( f.getType().isAssignableFrom( prop.odatavalue.getClass() ) )
-          {
-            f.set( value, prop.odatavalue );
-          }
-          // if target is a String...
-          else if ( String.class.equals( f.getType() ) )
-          {
-            if ( !(prop.odatavalue instanceof StringProperty) )
-              throw new SAXException( "Incompatible property type." );
-            f.set( value, ((StringProperty)prop.odatavalue).getValue() );
-          }
-          else if ( int.class.equals( f.getType() ) )
-          {
-            if ( !(prop.odatavalue instanceof Int32Property) )
-              throw new SAXException( "Incompatible property type." );
-            f.set( value, ((Int32Property)prop.odatavalue).getValue() );
-          }
-          else if ( boolean.class.equals( f.getType() ) )
-          {
-            if ( !(prop.odatavalue instanceof BooleanProperty) )
-              throw new SAXException( "Incompatible property type." );
-            f.set( value, ((BooleanProperty)prop.odatavalue).getValue() );
-          }
-        }
+        if ( prop.odatavalue == null && document.getTypeMap().isSupportedPrimitive( prop.type ) )
+          document.getTypeMap().setPrimitive( value, prop.name, prop.type, prop.value );
+        else
+          document.getTypeMap().setProperty( value, prop.name, prop.odatavalue );
+      }
+      catch ( IllegalArgumentException ex )
+      {
+        throw new SAXException( ex.getMessage() );
       }
-      catch ( NoSuchFieldException | IllegalArgumentException | IllegalAccessException ex ) {}
     }    
   }
 }
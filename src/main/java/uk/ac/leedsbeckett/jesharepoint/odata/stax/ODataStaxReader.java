@@ -0,0 +1,512 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.stax;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataReader;
+import uk.ac.leedsbeckett.jesharepoint.odata.TypeMap;
+import uk.ac.leedsbeckett.jesharepoint.odata.Value;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Complex;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.ValueWithProperties;
+import uk.ac.leedsbeckett.jesharepoint.odata.sax.NS;
+
+/**
+ * Reads an Atom response with StAX and binds entities as the events are
+ * pulled. Nothing outside the entry that is currently being read is kept
+ * so memory use does not grow with the size of a feed.
+ * 
+ * @author maber01
+ */
+public class ODataStaxReader implements ODataReader
+{
+  private static final Logger logger = Logger.getLogger( ODataStaxReader.class.getName() );
+  
+  private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+  static
+  {
+    factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, true );
+    factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+  }
+  
+  private final XMLStreamReader xml;
+  private final TypeMap typeMap;
+  private boolean started = false;
+  private boolean collection = false;
+  private boolean finished = false;
+  private String nextLink = null;
+
+  /**
+   * Creates a reader for a response body. The input stream is not closed
+   * by this reader.
+   * 
+   * @param in The response body.
+   * @param typeMap Maps OData types to Java classes.
+   * @throws IOException If the parser cannot be created.
+   */
+  public ODataStaxReader( InputStream in, TypeMap typeMap ) throws IOException
+  {
+    this.typeMap = typeMap;
+    try
+    {
+      // The factory is not guaranteed to be thread safe
+      synchronized ( factory )
+      {
+        xml = factory.createXMLStreamReader( in );
+      }
+    }
+    catch ( XMLStreamException ex )
+    {
+      throw new IOException( "Unable to parse XML response.", ex );
+    }
+  }
+
+  @Override
+  public boolean isCollection() throws IOException
+  {
+    start();
+    return collection;
+  }
+
+  @Override
+  public Value readValue() throws IOException
+  {
+    start();
+    if ( collection )
+      throw new IOException( "Didn't expect entity collection but got one." );
+    try
+    {
+      if ( isElement( NS.ATOM, "entry" ) )
+        return readEntry();
+      if ( NS.ODATA.equals( xml.getNamespaceURI() ) )
+        return readProperty();
+      return null;
+    }
+    catch ( XMLStreamException ex )
+    {
+      throw new IOException( "Unable to parse XML response.", ex );
+    }
+  }
+
+  @Override
+  public Entity nextEntity() throws IOException
+  {
+    start();
+    if ( !collection )
+      throw new IOException( "Expected entity collection but didn't get one." );
+    try
+    {
+      while ( !finished && xml.hasNext() )
+      {
+        int event = xml.next();
+        if ( event == XMLStreamConstants.END_ELEMENT )
+        {
+          finished = true;
+          break;
+        }
+        if ( event != XMLStreamConstants.START_ELEMENT )
+          continue;
+        if ( isElement( NS.ATOM, "entry" ) )
+        {
+          Entity e = readEntry();
+          if ( e != null )
+            return e;
+          continue;
+        }
+        if ( isElement( NS.ATOM, "link" ) && "next".equals( xml.getAttributeValue( null, "rel" ) ) )
+          nextLink = xml.getAttributeValue( null, "href" );
+        skipElement();
+      }
+      return null;
+    }
+    catch ( XMLStreamException ex )
+    {
+      throw new IOException( "Unable to parse XML response.", ex );
+    }
+  }
+
+  @Override
+  public String getNextLink()
+  {
+    return nextLink;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    try
+    {
+      xml.close();
+    }
+    catch ( XMLStreamException ex )
+    {
+      throw new IOException( ex );
+    }
+  }
+  
+  /**
+   * Moves to the root element.
+   */
+  private void start() throws IOException
+  {
+    if ( started )
+      return;
+    started = true;
+    try
+    {
+      while ( xml.hasNext() && xml.next() != XMLStreamConstants.START_ELEMENT );
+      if ( !xml.isStartElement() )
+        throw new IOException( "Response contained no XML element." );
+      collection = isElement( NS.ATOM, "feed" );
+    }
+    catch ( XMLStreamException ex )
+    {
+      throw new IOException( "Unable to parse XML response.", ex );
+    }
+  }
+  
+  private boolean isElement( String namespace, String name )
+  {
+    return name.equals( xml.getLocalName() ) && namespace.equals( xml.getNamespaceURI() );
+  }
+  
+  /**
+   * Skips past the end of the current element including all its descendants.
+   */
+  private void skipElement() throws XMLStreamException
+  {
+    int depth = 1;
+    while ( depth > 0 )
+    {
+      int event = xml.next();
+      if ( event == XMLStreamConstants.START_ELEMENT )
+        depth++;
+      else if ( event == XMLStreamConstants.END_ELEMENT )
+        depth--;
+    }
+  }
+  
+  /**
+   * Reads an Atom entry. The reader is positioned on the start of the entry
+   * and is left at its end. Servers normally put the category, which gives 
+   * the type, before the content so properties are bound as they are read. 
+   * If the category comes later the properties are kept until the end.
+   */
+  private Entity readEntry() throws XMLStreamException, IOException
+  {
+    String etag = xml.getAttributeValue( NS.ODATA_META, "etag" );
+    String term = null;
+    String id = null;
+    Entity entity = null;
+    List<Link> links = new ArrayList<>();
+    List<PendingProperty> pending = new ArrayList<>();
+    
+    try
+    {
+      while ( true )
+      {
+        int event = xml.next();
+        if ( event == XMLStreamConstants.END_ELEMENT )
+          break;
+        if ( event != XMLStreamConstants.START_ELEMENT )
+          continue;
+        if ( !NS.ATOM.equals( xml.getNamespaceURI() ) )
+        {
+          skipElement();
+          continue;
+        }
+        switch ( xml.getLocalName() )
+        {
+          case "id":
+            id = xml.getElementText();
+            break;
+          case "category":
+            term = xml.getAttributeValue( null, "term" );
+            skipElement();
+            break;
+          case "link":
+            Link link = readLink();
+            if ( link != null )
+              links.add( link );
+            break;
+          case "content":
+            if ( entity == null && term != null )
+              entity = typeMap.newEntity( term );
+            readContent( entity, pending );
+            break;
+          default:
+            skipElement();
+        }
+      }
+
+      // Same as the SAX engine - no category means no entity
+      if ( term == null )
+        return null;
+    
+      if ( entity == null )
+        entity = typeMap.newEntity( term );
+      if ( id != null )
+        entity.__metadata.id = id;
+      entity.__metadata.etag = etag;
+      for ( Link link : links )
+        typeMap.setNavigationProperty( entity, link.title, link.href, link.inline );
+      for ( PendingProperty p : pending )
+        p.bind( entity );
+      return entity;
+    }
+    catch ( ReflectiveOperationException | SecurityException ex )
+    {
+      logger.log( Level.SEVERE, null, ex );
+      throw new IOException( "Problem parsing XML to OData." );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      throw new IOException( ex.getMessage() );
+    }
+  }
+  
+  /**
+   * Reads an Atom link within an entry. 
+   * 
+   * @return The link or null if it isn't a navigation property.
+   */
+  private Link readLink() throws XMLStreamException, IOException
+  {
+    String type = xml.getAttributeValue( null, "type" );
+    Link link = new Link();
+    link.title = xml.getAttributeValue( null, "title" );
+    link.href  = xml.getAttributeValue( null, "href" );
+    
+    while ( true )
+    {
+      int event = xml.next();
+      if ( event == XMLStreamConstants.END_ELEMENT )
+        break;
+      if ( event != XMLStreamConstants.START_ELEMENT )
+        continue;
+      if ( isElement( NS.ODATA_META, "inline" ) )
+        link.inline = readInline();
+      else
+        skipElement();
+    }
+    
+    if ( link.href == null || link.title == null || 
+            !( "application/atom+xml;type=feed".equals( type ) || 
+               "application/atom+xml;type=entry".equals( type ) ) )
+      return null;
+    return link;
+  }
+  
+  /**
+   * Reads the entities expanded inside an m:inline element.
+   */
+  private List<Entity> readInline() throws XMLStreamException, IOException
+  {
+    List<Entity> entities = new ArrayList<>();
+    int depth = 1;
+    while ( depth > 0 )
+    {
+      int event = xml.next();
+      if ( event == XMLStreamConstants.END_ELEMENT )
+        depth--;
+      else if ( event == XMLStreamConstants.START_ELEMENT )
+      {
+        if ( isElement( NS.ATOM, "entry" ) )
+        {
+          Entity e = readEntry();
+          if ( e != null ) entities.add( e );
+        }
+        else if ( depth == 1 && isElement( NS.ATOM, "feed" ) )
+          depth++;
+        else
+          skipElement();
+      }
+    }
+    return entities;
+  }
+  
+  /**
+   * Reads the m:properties of an Atom content element.
+   * 
+   * @param target The entity to bind to or null if its type isn't known yet.
+   * @param pending Where properties are kept when there is no target.
+   */
+  private void readContent( Entity target, List<PendingProperty> pending ) throws XMLStreamException, IOException
+  {
+    int depth = 1;
+    while ( depth > 0 )
+    {
+      int event = xml.next();
+      if ( event == XMLStreamConstants.END_ELEMENT )
+        depth--;
+      else if ( event == XMLStreamConstants.START_ELEMENT )
+      {
+        if ( isElement( NS.ODATA_META, "properties" ) )
+          depth++;
+        else if ( depth == 2 && NS.ODATA.equals( xml.getNamespaceURI() ) )
+          readProperty( target, pending );
+        else
+          skipElement();
+      }
+    }
+  }
+
+  /**
+   * Reads a property element that belongs to an entry or complex value. 
+   * Primitives are bound straight from their text so no Property object is 
+   * made unless the field is declared as one. Properties that the target
+   * has no field for are skipped.
+   * 
+   * @param target The entity or complex value or null if not known yet.
+   * @param pending Where the property is kept when there is no target.
+   */
+  private void readProperty( ValueWithProperties target, List<PendingProperty> pending ) throws XMLStreamException, IOException
+  {
+    String name = xml.getLocalName();
+    if ( target != null && !typeMap.hasProperty( target.getClass(), name ) )
+    {
+      // Would be ignored so don't read the content
+      skipElement();
+      return;
+    }
+    String type = xml.getAttributeValue( NS.ODATA_META, "type" );
+    if ( type == null ) type = "Edm.String";
+    
+    if ( typeMap.isSupportedPrimitive( type ) )
+    {
+      boolean isnull = "true".equals( xml.getAttributeValue( NS.ODATA_META, "null" ) );
+      String text = xml.getElementText();
+      if ( isnull ) text = null;
+      try
+      {
+        if ( target != null )
+          typeMap.setPrimitive( target, name, type, text );
+        else
+          pending.add( new PendingProperty( name, type, text, null ) );
+      }
+      catch ( IllegalArgumentException ex )
+      {
+        throw new IOException( ex.getMessage() );
+      }
+      return;
+    }
+
+    Value value = readProperty();
+    if ( target != null )
+      typeMap.setProperty( target, name, value );
+    else
+      pending.add( new PendingProperty( name, type, null, value ) );
+  }
+  
+  /**
+   * Reads a property element. The reader is positioned on the start of the 
+   * element and is left at its end.
+   * 
+   * @return The property or complex value or null if the type isn't mapped.
+   */
+  private Value readProperty() throws XMLStreamException, IOException
+  {
+    String name = xml.getLocalName();
+    String type = xml.getAttributeValue( NS.ODATA_META, "type" );
+    if ( type == null ) type = "Edm.String";
+    boolean isnull = "true".equals( xml.getAttributeValue( NS.ODATA_META, "null" ) );
+    
+    if ( typeMap.isSupportedPrimitive( type ) )
+    {
+      String text = xml.getElementText();
+      return typeMap.getPrimitiveProperty( type, name, isnull ? null : text );
+    }
+    
+    try
+    {
+      Complex complex = typeMap.newComplex( type );
+      if ( complex == null )
+      {
+        skipElement();
+        return null;
+      }
+      while ( true )
+      {
+        int event = xml.next();
+        if ( event == XMLStreamConstants.END_ELEMENT )
+          break;
+        if ( event != XMLStreamConstants.START_ELEMENT )
+          continue;
+        if ( NS.ODATA.equals( xml.getNamespaceURI() ) )
+          readProperty( complex, null );
+        else
+          skipElement();
+      }
+      return complex;
+    }
+    catch ( ReflectiveOperationException | SecurityException ex )
+    {
+      logger.log( Level.SEVERE, null, ex );
+      throw new IOException( "Problem parsing XML to OData." );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      throw new IOException( ex.getMessage() );
+    }
+  }
+  
+  /**
+   * A property read before the type of its entry was known.
+   */
+  private class PendingProperty
+  {
+    final String name;
+    final String type;
+    final String text;
+    final Value value;
+
+    PendingProperty( String name, String type, String text, Value value )
+    {
+      this.name = name;
+      this.type = type;
+      this.text = text;
+      this.value = value;
+    }
+    
+    void bind( Entity entity )
+    {
+      if ( value == null && typeMap.isSupportedPrimitive( type ) )
+        typeMap.setPrimitive( entity, name, type, text );
+      else
+        typeMap.setProperty( entity, name, value );
+    }
+  }
+  
+  /**
+   * A navigation link collected while reading an entry.
+   */
+  private static class Link
+  {
+    String title;
+    String href;
+    List<Entity> inline;
+  }
+}
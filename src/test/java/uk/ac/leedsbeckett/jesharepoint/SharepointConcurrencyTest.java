@@ -0,0 +1,126 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.cookie.Cookie;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.leedsbeckett.jesharepoint.odata.http.FilteredCookieStore;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpFolder;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hammers one Sharepoint instance, and so one ODataService and one 
+ * FilteredCookieStore, from many threads at once.
+ * 
+ * @author maber01
+ */
+public class SharepointConcurrencyTest
+{
+  private static final int THREADS = 64;
+  private static final int ITERATIONS = 40;
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  public void sharedInstanceSurvivesManyThreads() throws Exception
+  {
+    ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    AtomicInteger calls = new AtomicInteger();
+    try ( StandInServer server = new StandInServer();
+          Sharepoint sharepoint = new Sharepoint( server.settings( directory, "MaxConnectionsPerRoute=16" ) ) )
+    {
+      ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+      CountDownLatch start = new CountDownLatch( 1 );
+      for ( int t = 0; t < THREADS; t++ )
+      {
+        final int thread = t;
+        executor.execute( () -> 
+        {
+          try
+          {
+            start.await();
+            for ( int i = 0; i < ITERATIONS; i++ )
+            {
+              exercise( sharepoint, ( thread + i ) % 5 );
+              calls.incrementAndGet();
+            }
+          }
+          catch ( Throwable th )
+          {
+            failures.add( th );
+          }
+        } );
+      }
+      start.countDown();
+      executor.shutdown();
+      assertTrue( executor.awaitTermination( 2, TimeUnit.MINUTES ), "Threads did not finish" );
+      if ( !failures.isEmpty() )
+        throw new AssertionError( failures.size() + " threads failed", failures.peek() );
+      assertEquals( THREADS * ITERATIONS, calls.get() );
+      // The digest is shared so it was fetched once, not once per thread
+      assertEquals( 1, server.getRequestCount( "POST", "/contextinfo" ) );
+      assertTrue( server.getCookiesSet() > THREADS, "Too few cookies to test the store" );
+    }
+
+    // The cookie file must still be readable and hold one current cookie
+    FilteredCookieStore store = new FilteredCookieStore( directory.resolve( "cookies.txt" ), "127.0.0.1" );
+    List<Cookie> cookies = store.getCookies();
+    assertEquals( 1, cookies.size() );
+    assertEquals( "FedAuth", cookies.get( 0 ).getName() );
+    assertTrue( cookies.get( 0 ).getValue().matches( "v\\d+" ), cookies.get( 0 ).getValue() );
+  }
+  
+  private void exercise( Sharepoint sharepoint, int action ) throws Exception
+  {
+    switch ( action )
+    {
+      case 0:
+        SpGroup group = sharepoint.getGroup( StandInServer.GROUP_NAME );
+        assertEquals( StandInServer.GROUP_ID, group.Id );
+        assertEquals( StandInServer.GROUP_NAME, group.Title );
+        break;
+      case 1:
+        SpGroup g = sharepoint.getGroupAsync( StandInServer.GROUP_NAME ).get();
+        assertEquals( 5, sharepoint.getGroupMembers( g ).getEntities().size() );
+        break;
+      case 2:
+        SpFolder folder = sharepoint.getOrCreateFolder( StandInServer.FOLDER );
+        assertEquals( StandInServer.FOLDER, folder.ServerRelativeUrl );
+        break;
+      case 3:
+        assertNotNull( sharepoint.getRoleDefinition( "Edit" ) );
+        // Already has read access so nothing is posted
+        sharepoint.setFolderRoleAssignments( sharepoint.getOrCreateFolder( StandInServer.FOLDER ), 12, AccessRoleEnum.VIEW );
+        break;
+      default:
+        // Removes read access which needs the request digest
+        sharepoint.setFolderRoleAssignmentsAsync( sharepoint.getOrCreateFolder( StandInServer.FOLDER ), 12, AccessRoleEnum.NONE ).get();
+    }
+  }
+}
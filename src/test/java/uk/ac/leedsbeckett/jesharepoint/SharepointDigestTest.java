@@ -0,0 +1,148 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint;
+
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataBatch;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataHttpException;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataResponse;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataService;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.StringProperty;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks when writes are retried with a fresh request digest.
+ * 
+ * @author maber01
+ */
+public class SharepointDigestTest
+{
+  @TempDir
+  Path directory;
+  
+  @Test
+  public void rejectedDigestIsRefreshedAndRetried() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          Sharepoint sharepoint = new Sharepoint( server.settings( directory ) ) )
+    {
+      SpGroup group = sharepoint.getGroup( StandInServer.GROUP_NAME );
+      group.Title = "First";
+      assertTrue( sharepoint.update( group, "Title" ) );
+      assertEquals( 1, server.getRequestCount( "POST", "/contextinfo" ) );
+      
+      server.rejectWrites( 1, true );
+      group.Title = "Second";
+      assertTrue( sharepoint.update( group, "Title" ) );
+      assertEquals( "Second", server.getGroupTitle() );
+      assertEquals( 2, server.getRequestCount( "POST", "/contextinfo" ) );
+      
+      server.rejectWrites( 1, true );
+      group.Title = "Third";
+      assertTrue( sharepoint.updateAsync( group, "Title" ).get() );
+      assertEquals( "Third", server.getGroupTitle() );
+      assertEquals( 3, server.getRequestCount( "POST", "/contextinfo" ) );
+    }
+  }
+  
+  @Test
+  public void failureCarriesSentDigest() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          Sharepoint sharepoint = new Sharepoint( server.settings( directory ) ) )
+    {
+      SpGroup group = sharepoint.getGroup( StandInServer.GROUP_NAME );
+      group.Title = "Rejected";
+      // The retry with a fresh digest is rejected too
+      server.rejectWrites( 2, true );
+      ODataHttpException ex = assertThrows( ODataHttpException.class, () -> sharepoint.update( group, "Title" ) );
+      assertEquals( 403, ex.getStatusCode() );
+      assertEquals( StandInServer.DIGEST, ex.getRequest().getFirstHeader( "X-RequestDigest" ).getValue() );
+      assertEquals( 2, server.getRequestCount( "MERGE", "/sitegroups/" ) );
+      assertEquals( 2, server.getRequestCount( "POST", "/contextinfo" ) );
+      
+      server.rejectWrites( 2, true );
+      ExecutionException async = assertThrows( ExecutionException.class, () -> sharepoint.updateAsync( group, "Title" ).get() );
+      ex = (ODataHttpException)async.getCause();
+      assertEquals( StandInServer.DIGEST, ex.getRequest().getFirstHeader( "X-RequestDigest" ).getValue() );
+      // The digest of the last failure was kept so only the retry fetches one
+      assertEquals( 3, server.getRequestCount( "POST", "/contextinfo" ) );
+    }
+  }
+  
+  @Test
+  public void rejectedDigestRetriesBatch() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          Sharepoint sharepoint = new Sharepoint( server.settings( directory ) ) )
+    {
+      ODataBatch batch = sharepoint.createBatch();
+      ODataResponse<StringProperty> removed = batch.post( StringProperty.class, 
+              server.getBase() + "web/getfolderbyserverrelativeurl('" + StandInServer.FOLDER + 
+              "')/listitemallfields/roleassignments/removeroleassignment(principalid=12,roledefid=1)", null, (String)null );
+      server.rejectWrites( 1, true );
+      sharepoint.executeBatch( batch );
+      assertEquals( 200, removed.getStatusCode() );
+      assertEquals( 2, server.getRequestCount( "POST", "/$batch" ) );
+      assertEquals( 1, server.getRequestCount( "POST", "/removeroleassignment" ) );
+      assertEquals( 2, server.getRequestCount( "POST", "/contextinfo" ) );
+    }
+  }
+  
+  @Test
+  public void accessDeniedIsNotRetried() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          Sharepoint sharepoint = new Sharepoint( server.settings( directory ) ) )
+    {
+      SpGroup group = sharepoint.getGroup( StandInServer.GROUP_NAME );
+      group.Title = "Denied";
+      server.rejectWrites( 1, false );
+      ODataHttpException ex = assertThrows( ODataHttpException.class, () -> sharepoint.update( group, "Title" ) );
+      assertEquals( 403, ex.getStatusCode() );
+      assertTrue( ex.getErrorBody().contains( "Access denied" ) );
+      assertEquals( 1, server.getRequestCount( "MERGE", "/sitegroups/" ) );
+      assertEquals( 1, server.getRequestCount( "POST", "/contextinfo" ) );
+      assertEquals( StandInServer.GROUP_NAME, server.getGroupTitle() );
+    }
+  }
+  
+  @Test
+  public void blockingWritesDontStartNonBlockingClient() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          Sharepoint sharepoint = new Sharepoint( server.settings( directory ) ) )
+    {
+      SpGroup group = sharepoint.getGroup( StandInServer.GROUP_NAME );
+      group.Title = "Blocking";
+      assertTrue( sharepoint.update( group, "Title" ) );
+      
+      Field service = Sharepoint.class.getDeclaredField( "oDataService" );
+      service.setAccessible( true );
+      Field client = ODataService.class.getDeclaredField( "asyncClient" );
+      client.setAccessible( true );
+      assertNull( client.get( service.get( sharepoint ) ) );
+    }
+  }
+}
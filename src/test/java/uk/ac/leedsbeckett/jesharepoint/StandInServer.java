@@ -0,0 +1,684 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for the parts of the Sharepoint REST API that the tests
+ * use. It answers in Atom XML, or for the group, its title and its users 
+ * in either JSON format if asked to. It keeps the title of one group so 
+ * that updates can be seen by later reads, counts the requests it receives
+ * and sets a new authentication cookie on every response. $batch requests
+ * are run operation by operation, and the operations are counted too.
+ * 
+ * @author maber01
+ */
+public class StandInServer implements AutoCloseable
+{
+  public static final String GROUP_NAME = "Grp";
+  public static final int GROUP_ID = 7;
+  public static final int READ_ID = 1073741826;
+  public static final int EDIT_ID = 1073741830;
+  public static final String FOLDER = "/sites/x/Docs/a";
+  public static final String DIGEST = "0xABC,01 Jan 2024";
+  
+  private static final String NAMESPACES = 
+          " xmlns=\"http://www.w3.org/2005/Atom\"" +
+          " xmlns:d=\"http://schemas.microsoft.com/ado/2007/08/dataservices\"" +
+          " xmlns:m=\"http://schemas.microsoft.com/ado/2007/08/dataservices/metadata\"";
+  private static final Pattern TITLE = Pattern.compile( "<d:Title>([^<]*)</d:Title>" );
+  private static final Pattern SKIPTOKEN = Pattern.compile( "\\$skiptoken=(\\d+)" );
+  
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final String base;
+  private final ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+  private final AtomicInteger cookies = new AtomicInteger();
+  private volatile String groupTitle = GROUP_NAME;
+  private volatile int groupEtag = 1;
+  private volatile String lastMergeBody = null;
+  private volatile int userCount = 5;
+  private volatile int userPageSize = 0;
+  private volatile long getDelayMillis = 0L;
+  private final AtomicInteger rejectWrites = new AtomicInteger();
+  private volatile boolean rejectDigest = true;
+  private volatile String batchLineBreak = "\r\n";
+  
+  /**
+   * Starts a server on a free port of the loop back interface.
+   * 
+   * @throws IOException If the server can't be started.
+   */
+  public StandInServer() throws IOException
+  {
+    server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+    base = "http://127.0.0.1:" + server.getAddress().getPort() + "/_api/";
+    executor = Executors.newFixedThreadPool( 32 );
+    server.setExecutor( executor );
+    server.createContext( "/", this::handle );
+    server.start();
+  }
+
+  @Override
+  public void close()
+  {
+    server.stop( 0 );
+    executor.shutdownNow();
+  }
+  
+  /**
+   * Writes a settings file for a Sharepoint that talks to this server.
+   * 
+   * @param directory Where to put the settings and the cookie store.
+   * @param extra Additional lines in properties file format.
+   * @return The settings.
+   * @throws IOException If the file can't be written.
+   */
+  public SharepointSettings settings( Path directory, String... extra ) throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append( "ServiceUri=" ).append( base ).append( "web/\n" );
+    sb.append( "ContextInfoUri=" ).append( base ).append( "contextinfo\n" );
+    sb.append( "CookieStorePath=" ).append( getCookieStorePath( directory ).toString().replace( "\\", "/" ) ).append( "\n" );
+    sb.append( "CookieDomain=127.0.0.1\n" );
+    for ( String line : extra )
+      sb.append( line ).append( "\n" );
+    Path file = directory.resolve( "sharepoint.properties" );
+    Files.writeString( file, sb.toString() );
+    return new SharepointSettings( file );
+  }
+  
+  public Path getCookieStorePath( Path directory )
+  {
+    return directory.resolve( "cookies.txt" );
+  }
+  
+  public String getBase()
+  {
+    return base;
+  }
+  
+  public String getGroupTitle()
+  {
+    return groupTitle;
+  }
+
+  public void setGroupTitle( String groupTitle )
+  {
+    this.groupTitle = groupTitle;
+  }
+
+  /**
+   * The body of the last update to the group.
+   * 
+   * @return The body or null if there hasn't been one.
+   */
+  public String getLastMergeBody()
+  {
+    return lastMergeBody;
+  }
+
+  public void setUserCount( int userCount )
+  {
+    this.userCount = userCount;
+  }
+
+  /**
+   * Splits the users of the group into pages in JSON responses. The pages
+   * are linked with __next or odata.nextLink.
+   * 
+   * @param userPageSize Users per page or 0 for one page.
+   */
+  public void setUserPageSize( int userPageSize )
+  {
+    this.userPageSize = userPageSize;
+  }
+
+  public void setGetDelayMillis( long getDelayMillis )
+  {
+    this.getDelayMillis = getDelayMillis;
+  }
+
+  /**
+   * Sets the line break used in $batch responses. Sharepoint uses CRLF but
+   * clients should cope with LF.
+   * 
+   * @param batchLineBreak The line break.
+   */
+  public void setBatchLineBreak( String batchLineBreak )
+  {
+    this.batchLineBreak = batchLineBreak;
+  }
+  
+  /**
+   * Responds 403 to the next few writes.
+   * 
+   * @param count How many writes to reject.
+   * @param digest True to reject the request digest, false to deny access.
+   */
+  public void rejectWrites( int count, boolean digest )
+  {
+    rejectDigest = digest;
+    rejectWrites.set( count );
+  }
+  
+  /**
+   * Counts the requests received with a given method whose path contains 
+   * the given text.
+   * 
+   * @param method The HTTP method.
+   * @param path Text to find in the path.
+   * @return The number of requests.
+   */
+  public int getRequestCount( String method, String path )
+  {
+    int count = 0;
+    for ( String key : requests.keySet() )
+      if ( key.startsWith( method + " " ) && key.contains( path ) )
+        count += requests.get( key ).get();
+    return count;
+  }
+  
+  public int getCookiesSet()
+  {
+    return cookies.get();
+  }
+  
+  private void handle( HttpExchange exchange ) throws IOException
+  {
+    try
+    {
+      String method = exchange.getRequestMethod();
+      String path = exchange.getRequestURI().getPath().toLowerCase();
+      String xmethod = exchange.getRequestHeaders().getFirst( "X-HTTP-Method" );
+      if ( xmethod != null )
+        method = xmethod;
+      count( method, path );
+      String body = new String( exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8 );
+      exchange.getResponseHeaders().add( "Set-Cookie", "FedAuth=v" + cookies.incrementAndGet() + "; Path=/" );
+
+      Reply reply;
+      if ( !"GET".equals( method ) && !path.endsWith( "/contextinfo" ) && 
+           rejectWrites.getAndUpdate( n -> Math.max( 0, n - 1 ) ) > 0 )
+        reply = new Reply( 403, "application/xml;charset=utf-8", error( rejectDigest ) );
+      else if ( "POST".equals( method ) && path.endsWith( "/$batch" ) )
+        reply = batch( exchange.getRequestHeaders().getFirst( "Content-Type" ), body );
+      else
+        reply = route( method, path, exchange.getRequestURI().getQuery(), 
+                       exchange.getRequestHeaders().getFirst( "Accept" ), body );
+      send( exchange, reply );
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+    }
+    finally
+    {
+      exchange.close();
+    }
+  }
+  
+  private void count( String method, String path )
+  {
+    requests.computeIfAbsent( method + " " + path, k -> new AtomicInteger() ).incrementAndGet();
+  }
+  
+  /**
+   * Answers one request, which may be an operation in a batch.
+   * 
+   * @param method The HTTP method.
+   * @param path The lower case path.
+   * @param query The decoded query or null.
+   * @param accept The Accept header or null.
+   * @param body The request body.
+   * @return The reply.
+   */
+  private Reply route( String method, String path, String query, String accept, String body )
+  {
+    String json = ( accept == null || !accept.contains( "json" ) ) ? null : 
+                  accept.contains( "verbose" ) ? "application/json;odata=verbose;charset=utf-8" : 
+                                                 "application/json;odata=nometadata;charset=utf-8";
+    if ( path.endsWith( "/contextinfo" ) )
+      return new Reply( 200, "application/xml;charset=utf-8", contextInfo() );
+    if ( ( "MERGE".equals( method ) || "POST".equals( method ) ) && path.endsWith( "/sitegroups/getbyid(" + GROUP_ID + ")" ) )
+      return merge( body );
+    if ( path.endsWith( "/sitegroups/getbyname('" + GROUP_NAME.toLowerCase() + "')/title" ) )
+      return json == null
+              ? new Reply( 200, "application/xml;charset=utf-8", "<?xml version=\"1.0\" encoding=\"utf-8\"?><d:Title" + NAMESPACES + ">" + escape( groupTitle ) + "</d:Title>" )
+              : new Reply( 200, json, json.contains( "verbose" ) ? "{\"d\":{\"Title\":" + quote( groupTitle ) + "}}" : "{\"value\":" + quote( groupTitle ) + "}" );
+    if ( path.contains( "/sitegroups/getbyname('" + GROUP_NAME.toLowerCase() + "')" ) )
+      return json == null
+              ? new Reply( 200, "application/atom+xml;type=entry;charset=utf-8", "<?xml version=\"1.0\" encoding=\"utf-8\"?>" + group() )
+              : new Reply( 200, json, jsonGroup( json.contains( "verbose" ), query != null && query.contains( "$expand=Users" ) ) );
+    if ( path.endsWith( "/sitegroups/getbyid(" + GROUP_ID + ")/users" ) )
+      return json == null
+              ? new Reply( 200, "application/atom+xml;type=feed;charset=utf-8", users( userCount ) )
+              : new Reply( 200, json, jsonUsers( json.contains( "verbose" ), query ) );
+    if ( path.contains( "/roledefinitions/getbyname('read')" ) )
+      return new Reply( 200, "application/atom+xml;type=entry;charset=utf-8", "<?xml version=\"1.0\" encoding=\"utf-8\"?>" + roleDefinition( READ_ID, "Read", true ) );
+    if ( path.contains( "/roledefinitions/getbyname('edit')" ) )
+      return new Reply( 200, "application/atom+xml;type=entry;charset=utf-8", "<?xml version=\"1.0\" encoding=\"utf-8\"?>" + roleDefinition( EDIT_ID, "Edit", true ) );
+    if ( path.endsWith( "/roledefinitionbindings" ) )
+      return new Reply( 200, "application/atom+xml;type=feed;charset=utf-8", 
+              "<?xml version=\"1.0\" encoding=\"utf-8\"?><feed xml:base=\"" + base + "\"" + NAMESPACES + "><id>b</id>" + 
+              roleDefinition( READ_ID, "Read", false ) + "</feed>" );
+    if ( path.contains( "/roleassignments/" ) && "POST".equals( method ) )
+      return new Reply( 200, "application/xml;charset=utf-8", 
+              "<?xml version=\"1.0\" encoding=\"utf-8\"?><d:RemoveRoleAssignment" + NAMESPACES + " m:null=\"true\" />" );
+    if ( path.contains( "/getfolderbyserverrelativeurl('" + FOLDER.toLowerCase() + "')" ) )
+      return new Reply( 200, "application/atom+xml;type=entry;charset=utf-8", "<?xml version=\"1.0\" encoding=\"utf-8\"?>" + folder() );
+    if ( "POST".equals( method ) )
+      return new Reply( 400, "application/xml;charset=utf-8", 
+              error( "-1, Microsoft.SharePoint.Client.InvalidClientQueryException", "The expression is not valid." ) );
+    return new Reply( 404, null, null );
+  }
+  
+  private Reply merge( String body )
+  {
+    Matcher m = TITLE.matcher( body );
+    synchronized ( this )
+    {
+      lastMergeBody = body;
+      if ( m.find() )
+        groupTitle = m.group( 1 );
+      groupEtag++;
+      Reply reply = new Reply( 204, null, null );
+      reply.etag = "\"" + groupEtag + "\"";
+      return reply;
+    }
+  }
+  
+  /**
+   * Runs the operations of a $batch request the way Sharepoint does. Each
+   * operation gets a part of the response, with POSTs in change sets, and 
+   * the batch stops at the first operation that fails.
+   * 
+   * @param contentType The content type of the request.
+   * @param body The multipart body of the request.
+   * @return The multipart reply.
+   */
+  private Reply batch( String contentType, String body )
+  {
+    String eol = batchLineBreak;
+    String boundary = "batchresponse_" + UUID.randomUUID();
+    StringBuilder sb = new StringBuilder();
+    for ( String part : parts( body, boundary( contentType ) ) )
+    {
+      String[] mime = splitHead( part );
+      String partType = header( mime[0], "Content-Type" );
+      sb.append( "--" ).append( boundary ).append( eol );
+      Reply reply;
+      if ( partType != null && partType.startsWith( "multipart/mixed" ) )
+      {
+        // Each POST is sent in a change set of its own
+        String changeset = "changesetresponse_" + UUID.randomUUID();
+        reply = operation( parts( mime[1], boundary( partType ) ).get( 0 ) );
+        sb.append( "Content-Type: multipart/mixed; boundary=" ).append( changeset ).append( eol ).append( eol );
+        sb.append( "--" ).append( changeset ).append( eol );
+        encode( sb, reply, eol );
+        sb.append( "--" ).append( changeset ).append( "--" ).append( eol );
+      }
+      else
+      {
+        reply = operation( part );
+        encode( sb, reply, eol );
+      }
+      if ( reply.status >= 400 )
+        break;
+    }
+    sb.append( "--" ).append( boundary ).append( "--" ).append( eol );
+    return new Reply( 200, "multipart/mixed; boundary=" + boundary, sb.toString() );
+  }
+  
+  private Reply operation( String part )
+  {
+    String[] mime = splitHead( part );
+    String[] http = splitHead( mime[1] );
+    String[] requestLine = http[0].split( "\r?\n", 2 )[0].split( " " );
+    String path = URI.create( requestLine[1] ).getPath().toLowerCase();
+    count( requestLine[0], path );
+    return route( requestLine[0], path, URI.create( requestLine[1] ).getQuery(), header( http[0], "Accept" ), http[1] );
+  }
+  
+  private static void encode( StringBuilder sb, Reply reply, String eol )
+  {
+    sb.append( "Content-Type: application/http" ).append( eol );
+    sb.append( "Content-Transfer-Encoding: binary" ).append( eol ).append( eol );
+    sb.append( "HTTP/1.1 " ).append( reply.status ).append( ' ' ).append( reason( reply.status ) ).append( eol );
+    if ( reply.contentType != null )
+      sb.append( "Content-Type: " ).append( reply.contentType ).append( eol );
+    if ( reply.etag != null )
+      sb.append( "ETag: " ).append( reply.etag ).append( eol );
+    sb.append( eol );
+    if ( reply.body != null )
+      sb.append( reply.body ).append( eol );
+  }
+  
+  private static String reason( int status )
+  {
+    switch ( status )
+    {
+      case 200: return "OK";
+      case 204: return "No Content";
+      case 400: return "Bad Request";
+      case 403: return "Forbidden";
+      default: return "Not Found";
+    }
+  }
+  
+  private static String boundary( String contentType )
+  {
+    Matcher m = Pattern.compile( "boundary=([^;\\s]+)" ).matcher( contentType );
+    return m.find() ? m.group( 1 ) : null;
+  }
+  
+  /**
+   * Splits a multipart body into its parts.
+   * 
+   * @param body The body.
+   * @param boundary The boundary.
+   * @return The parts without their delimiter lines.
+   */
+  private static List<String> parts( String body, String boundary )
+  {
+    List<String> parts = new ArrayList<>();
+    String[] bits = body.split( Pattern.quote( "--" + boundary ) );
+    for ( int i = 1; i < bits.length && !bits[i].startsWith( "--" ); i++ )
+      parts.add( bits[i].replaceFirst( "^\r?\n", "" ) );
+    return parts;
+  }
+  
+  /**
+   * Splits a message at the first blank line.
+   * 
+   * @param message The message.
+   * @return The headers and the rest, without the blank line.
+   */
+  private static String[] splitHead( String message )
+  {
+    Matcher m = Pattern.compile( "\r?\n\r?\n" ).matcher( message );
+    if ( !m.find() )
+      return new String[] { message, "" };
+    return new String[] { message.substring( 0, m.start() ), message.substring( m.end() ).strip() };
+  }
+  
+  private static String header( String head, String name )
+  {
+    for ( String line : head.split( "\r?\n" ) )
+      if ( line.regionMatches( true, 0, name + ":", 0, name.length() + 1 ) )
+        return line.substring( name.length() + 1 ).trim();
+    return null;
+  }
+  
+  private void send( HttpExchange exchange, Reply reply ) throws IOException, InterruptedException
+  {
+    // GET responses are delayed after they are rendered, like a slow network
+    if ( "GET".equals( exchange.getRequestMethod() ) && getDelayMillis > 0L )
+      Thread.sleep( getDelayMillis );
+    if ( reply.etag != null )
+      exchange.getResponseHeaders().add( "ETag", reply.etag );
+    if ( reply.body == null )
+    {
+      exchange.sendResponseHeaders( reply.status, -1 );
+      return;
+    }
+    byte[] bytes = reply.body.getBytes( StandardCharsets.UTF_8 );
+    exchange.getResponseHeaders().add( "Content-Type", reply.contentType );
+    exchange.sendResponseHeaders( reply.status, bytes.length );
+    try ( OutputStream out = exchange.getResponseBody() )
+    {
+      out.write( bytes );
+    }
+  }
+  
+  private String contextInfo()
+  {
+    return "<?xml version=\"1.0\" encoding=\"utf-8\"?><d:GetContextWebInformation" + NAMESPACES + 
+           " m:type=\"SP.ContextWebInformation\">" +
+           "<d:FormDigestTimeoutSeconds m:type=\"Edm.Int32\">1800</d:FormDigestTimeoutSeconds>" +
+           "<d:FormDigestValue>" + DIGEST + "</d:FormDigestValue>" +
+           "<d:LibraryVersion>16.0</d:LibraryVersion>" +
+           "<d:SiteFullUrl>" + base + "</d:SiteFullUrl>" +
+           "<d:WebFullUrl>" + base + "</d:WebFullUrl>" +
+           "</d:GetContextWebInformation>";
+  }
+  
+  private static String error( boolean digest )
+  {
+    return digest
+            ? error( "-2130575251, Microsoft.SharePoint.SPException", 
+                     "The security validation for this page is invalid and might be corrupted." )
+            : error( "-2147024891, System.UnauthorizedAccessException",
+                     "Access denied. You do not have permission to perform this action or access this resource." );
+  }
+  
+  private static String error( String code, String message )
+  {
+    return "<?xml version=\"1.0\" encoding=\"utf-8\"?><m:error" + NAMESPACES + ">" + 
+           "<m:code>" + code + "</m:code><m:message xml:lang=\"en-US\">" + message + "</m:message></m:error>";
+  }
+  
+  private static String escape( String s )
+  {
+    return s.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" );
+  }
+  
+  /**
+   * Builds an Atom entry.
+   * 
+   * @param type The OData type name.
+   * @param uri The URI of the entity.
+   * @param etag The entity tag.
+   * @param properties The d: property elements.
+   * @param links Any extra link elements.
+   * @param root True if this is the root element of the document.
+   * @return The entry.
+   */
+  private String entry( String type, String uri, int etag, String properties, String links, boolean root )
+  {
+    return "<entry" + ( root ? " xml:base=\"" + base + "\"" + NAMESPACES : "" ) + 
+           " m:etag=\"&quot;" + etag + "&quot;\"><id>" + uri + "</id>" +
+           "<category term=\"" + type + "\" scheme=\"http://schemas.microsoft.com/ado/2007/08/dataservices/scheme\" />" +
+           "<link rel=\"edit\" href=\"" + uri + "\" />" + links +
+           "<title /><updated>2024-01-01T00:00:00Z</updated><author><name /></author>" +
+           "<content type=\"application/xml\"><m:properties>" + properties + "</m:properties></content></entry>";
+  }
+  
+  private String group()
+  {
+    String uri = base + "Web/SiteGroups/GetById(" + GROUP_ID + ")";
+    synchronized ( this )
+    {
+      return entry( "SP.Group", uri, groupEtag,
+              "<d:Id m:type=\"Edm.Int32\">" + GROUP_ID + "</d:Id>" +
+              "<d:LoginName>" + GROUP_NAME + "</d:LoginName>" +
+              "<d:Title>" + escape( groupTitle ) + "</d:Title>",
+              "<link rel=\"http://schemas.microsoft.com/ado/2007/08/dataservices/related/Users\"" + 
+              " type=\"application/atom+xml;type=feed\" title=\"Users\" href=\"Web/SiteGroups/GetById(" + GROUP_ID + ")/Users\" />",
+              true );
+    }
+  }
+  
+  /**
+   * Builds an Atom entry for a user.
+   * 
+   * @param i Used to make the user's properties unique.
+   * @return The entry.
+   */
+  public String user( int i )
+  {
+    return entry( "SP.User", base + "Web/GetUserById(" + i + ")", 1,
+            "<d:Id m:type=\"Edm.Int32\">" + i + "</d:Id>" +
+            "<d:LoginName>i:0#.f|membership|user" + i + "@x.ac.uk</d:LoginName>" +
+            "<d:Title>User &amp; " + i + "</d:Title>" +
+            "<d:Email>user" + i + "@x.ac.uk</d:Email>" +
+            "<d:IsSiteAdmin m:type=\"Edm.Boolean\">false</d:IsSiteAdmin>" +
+            "<d:UserPrincipalName>user" + i + "@x.ac.uk</d:UserPrincipalName>",
+            "<link rel=\"http://schemas.microsoft.com/ado/2007/08/dataservices/related/Groups\"" +
+            " type=\"application/atom+xml;type=feed\" title=\"Groups\" href=\"Web/GetUserById(" + i + ")/Groups\" />",
+            false );
+  }
+  
+  /**
+   * Builds an Atom feed of users.
+   * 
+   * @param count How many users.
+   * @return The feed.
+   */
+  public String users( int count )
+  {
+    StringBuilder sb = new StringBuilder( 256 + count * 1024 );
+    sb.append( "<?xml version=\"1.0\" encoding=\"utf-8\"?><feed xml:base=\"" ).append( base ).append( "\"" );
+    sb.append( NAMESPACES ).append( "><id>u</id><title /><updated>2024-01-01T00:00:00Z</updated>" );
+    for ( int i = 0; i < count; i++ )
+      sb.append( user( i ) );
+    sb.append( "</feed>" );
+    return sb.toString();
+  }
+  
+  private String roleDefinition( int id, String name, boolean root )
+  {
+    return entry( "SP.RoleDefinition", base + "Web/RoleDefinitions(" + id + ")", 1,
+            "<d:Id m:type=\"Edm.Int32\">" + id + "</d:Id><d:Name>" + name + "</d:Name>", "", root );
+  }
+  
+  private String folder()
+  {
+    return entry( "SP.Folder", base + "Web/GetFolderByServerRelativePath(decodedurl='" + FOLDER + "')", 1,
+            "<d:Exists m:type=\"Edm.Boolean\">true</d:Exists>" +
+            "<d:ItemCount m:type=\"Edm.Int32\">0</d:ItemCount>" +
+            "<d:Name>a</d:Name>" +
+            "<d:ServerRelativeUrl>" + FOLDER + "</d:ServerRelativeUrl>", "", true );
+  }
+  
+  private static String quote( String s )
+  {
+    StringBuilder sb = new StringBuilder( "\"" );
+    for ( char c : s.toCharArray() )
+    {
+      if ( c == '"' || c == '\\' )
+        sb.append( '\\' ).append( c );
+      else if ( c < ' ' )
+        sb.append( String.format( "\\u%04x", (int)c ) );
+      else
+        sb.append( c );
+    }
+    return sb.append( '"' ).toString();
+  }
+  
+  /**
+   * Builds a JSON entity.
+   * 
+   * @param verbose True for the verbose format, which has __metadata.
+   * @param type The OData type name.
+   * @param uri The URI of the entity.
+   * @param etag The entity tag.
+   * @param properties The fields of the entity.
+   * @return The entity.
+   */
+  private static String jsonEntity( boolean verbose, String type, String uri, int etag, String properties )
+  {
+    if ( !verbose )
+      return "{" + properties + "}";
+    return "{\"__metadata\":{\"id\":" + quote( uri ) + ",\"uri\":" + quote( uri ) + 
+           ",\"etag\":\"\\\"" + etag + "\\\"\",\"type\":" + quote( type ) + "}," + properties + "}";
+  }
+  
+  private synchronized String jsonGroup( boolean verbose, boolean expand )
+  {
+    String uri = base + "Web/SiteGroups/GetById(" + GROUP_ID + ")";
+    String users = "";
+    if ( expand )
+    {
+      StringBuilder sb = new StringBuilder();
+      for ( int i = 0; i < userCount; i++ )
+        sb.append( i == 0 ? "" : "," ).append( jsonUser( verbose, i ) );
+      users = verbose ? ",\"Users\":{\"results\":[" + sb + "]}" : ",\"Users\":[" + sb + "]";
+    }
+    else if ( verbose )
+      users = ",\"Users\":{\"__deferred\":{\"uri\":" + quote( uri + "/Users" ) + "}}";
+    String group = jsonEntity( verbose, "SP.Group", uri, groupEtag,
+            "\"Id\":" + GROUP_ID + ",\"LoginName\":" + quote( GROUP_NAME ) + ",\"Title\":" + quote( groupTitle ) + users );
+    return verbose ? "{\"d\":" + group + "}" : group;
+  }
+  
+  private String jsonUser( boolean verbose, int i )
+  {
+    String uri = base + "Web/GetUserById(" + i + ")";
+    return jsonEntity( verbose, "SP.User", uri, 1,
+            ( verbose ? "\"Groups\":{\"__deferred\":{\"uri\":" + quote( uri + "/Groups" ) + "}}," : "" ) +
+            "\"Id\":" + i + ",\"LoginName\":" + quote( "i:0#.f|membership|user" + i + "@x.ac.uk" ) + 
+            ",\"Title\":" + quote( "User & " + i ) + ",\"Email\":" + quote( "user" + i + "@x.ac.uk" ) + 
+            ",\"IsSiteAdmin\":false,\"UserPrincipalName\":" + quote( "user" + i + "@x.ac.uk" ) );
+  }
+  
+  /**
+   * Builds a page of the group's users in JSON.
+   * 
+   * @param verbose True for the verbose format.
+   * @param query The query, which may have a $skiptoken from an earlier page.
+   * @return The page.
+   */
+  private String jsonUsers( boolean verbose, String query )
+  {
+    Matcher m = SKIPTOKEN.matcher( query == null ? "" : query );
+    int start = m.find() ? Integer.parseInt( m.group( 1 ) ) : 0;
+    int end = userPageSize > 0 ? Math.min( userCount, start + userPageSize ) : userCount;
+    StringBuilder sb = new StringBuilder();
+    for ( int i = start; i < end; i++ )
+      sb.append( i == start ? "" : "," ).append( jsonUser( verbose, i ) );
+    String next = end < userCount ? quote( base + "Web/SiteGroups/GetById(" + GROUP_ID + ")/Users?$skiptoken=" + end ) : null;
+    if ( verbose )
+      return "{\"d\":{\"results\":[" + sb + "]" + ( next == null ? "" : ",\"__next\":" + next ) + "}}";
+    return "{\"value\":[" + sb + "]" + ( next == null ? "" : ",\"odata.nextLink\":" + next ) + "}";
+  }
+  
+  /**
+   * A reply to one request.
+   */
+  private static class Reply
+  {
+    final int status;
+    final String contentType;
+    final String body;
+    String etag;
+
+    Reply( int status, String contentType, String body )
+    {
+      this.status = status;
+      this.contentType = contentType;
+      this.body = body;
+    }
+  }
+}
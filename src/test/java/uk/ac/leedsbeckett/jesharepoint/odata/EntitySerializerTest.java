@@ -0,0 +1,125 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that entities are written with their text escaped and that
+ * unmapped classes are refused.
+ * 
+ * @author maber01
+ */
+public class EntitySerializerTest
+{
+  private static final String TITLE = "a & b < c > \"d\" \r\n\t\u00fc \uD83D\uDE00";
+  private static final String[] PROPERTIES = { "Title" };
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  public void atomTextRoundTrips() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory ) ) )
+    {
+      String payload = service.entityToPayload( group(), PROPERTIES );
+      assertTrue( payload.contains( "a &amp; b &lt; c" ) );
+      // A raw CR would be turned into LF by the XML parser on the server
+      assertTrue( payload.contains( "&#13;" ) );
+      assertTrue( payload.contains( "\uD83D\uDE00" ) );
+      
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware( true );
+      Document doc = factory.newDocumentBuilder().parse( new ByteArrayInputStream( payload.getBytes( StandardCharsets.UTF_8 ) ) );
+      String d = "http://schemas.microsoft.com/ado/2007/08/dataservices";
+      assertEquals( TITLE, doc.getElementsByTagNameNS( d, "Title" ).item( 0 ).getTextContent() );
+    }
+  }
+  
+  @Test
+  public void jsonTextRoundTrips() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "ResponseFormat=JSON_VERBOSE" ) ) )
+    {
+      byte[] payload = EntityUtils.toByteArray( service.entityToHttpEntity( group(), PROPERTIES ) );
+      String text = new String( payload, StandardCharsets.UTF_8 );
+      assertTrue( text.contains( "\\r\\n\\t" ) );
+      assertTrue( text.contains( "\uD83D\uDE00" ) );
+      
+      String title = null;
+      try ( JsonParser json = new JsonFactory().createParser( payload ) )
+      {
+        for ( JsonToken t = json.nextToken(); t != null; t = json.nextToken() )
+          if ( t == JsonToken.FIELD_NAME && "Title".equals( json.currentName() ) )
+          {
+            json.nextToken();
+            title = json.getText();
+          }
+      }
+      assertEquals( TITLE, title );
+    }
+  }
+  
+  @Test
+  public void unmappedClassIsRefused() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory ) ) )
+    {
+      Unmapped entity = new Unmapped();
+      String target = server.getBase() + "web/lists";
+      assertThrows( IllegalArgumentException.class, () -> service.entityToPayload( entity, PROPERTIES ) );
+      assertThrows( IllegalArgumentException.class, () -> service.entityToHttpEntity( entity, PROPERTIES ) );
+      assertThrows( IllegalArgumentException.class, () -> service.post( Entity.class, target, null, entity, PROPERTIES ) );
+      assertThrows( IllegalArgumentException.class, () -> service.createBatch().post( Entity.class, target, null, entity, PROPERTIES ) );
+      assertEquals( 0, server.getRequestCount( "POST", "/lists" ) );
+    }
+  }
+  
+  private static SpGroup group()
+  {
+    SpGroup group = new SpGroup();
+    group.Title = TITLE;
+    return group;
+  }
+  
+  /**
+   * A class without an ODataMapping annotation.
+   */
+  public static class Unmapped extends Entity
+  {
+    public String Title;
+  }
+}
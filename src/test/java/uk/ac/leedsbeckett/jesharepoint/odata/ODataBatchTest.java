@@ -0,0 +1,129 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.EntityCollection;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.StringProperty;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpFolder;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpUser;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sends $batch requests to the stand-in server and checks that each 
+ * operation gets the right part of the multipart response.
+ * 
+ * @author maber01
+ */
+public class ODataBatchTest
+{
+  @TempDir
+  Path directory;
+  
+  @ParameterizedTest
+  @ValueSource( strings = { "\r\n", "\n" } )
+  public void mixedOperationsGetTheirOwnParts( String lineBreak ) throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory ) ) )
+    {
+      String web = server.getBase() + "web/";
+      server.setBatchLineBreak( lineBreak );
+      // Non-ASCII text must survive being split out of the multipart body
+      server.setGroupTitle( "Gr\u00fc\u00dfe & \uD83D\uDE00" );
+      
+      ODataBatch batch = service.createBatch();
+      ODataResponse<SpGroup> group = batch.get( SpGroup.class, web + "sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')", null );
+      ODataResponse<StringProperty> removed = batch.post( StringProperty.class, 
+              web + "getfolderbyserverrelativeurl('" + StandInServer.FOLDER + "')/listitemallfields/roleassignments/removeroleassignment(principalid=12,roledefid=1)", 
+              null, (String)null );
+      ODataResponse<EntityCollection<SpUser>> users = batch.getEC( SpUser.class, web + "sitegroups/getbyid(" + StandInServer.GROUP_ID + ")/users", null );
+      ODataResponse<SpFolder> folder = batch.get( SpFolder.class, web + "getfolderbyserverrelativeurl('" + StandInServer.FOLDER + "')", null );
+      batch.execute();
+      
+      assertEquals( 0, batch.size() );
+      assertEquals( "Gr\u00fc\u00dfe & \uD83D\uDE00", group.getD().Title );
+      assertEquals( 200, removed.getStatusCode() );
+      assertEquals( 5, users.getD().getEntities().size() );
+      assertEquals( StandInServer.FOLDER, folder.getD().ServerRelativeUrl );
+      assertEquals( 1, server.getRequestCount( "POST", "/$batch" ) );
+      assertEquals( 1, server.getRequestCount( "POST", "/removeroleassignment" ) );
+    }
+  }
+  
+  @Test
+  public void failingOperationStopsBatch() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "CacheMaxEntries=16" ) ) )
+    {
+      String web = server.getBase() + "web/";
+      String group = web + "sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      service.get( SpGroup.class, group, null );
+      
+      ODataBatch batch = service.createBatch();
+      ODataResponse<SpGroup> renamed = batch.post( SpGroup.class, web + "sitegroups/getbyid(" + StandInServer.GROUP_ID + ")", null,
+              "<entry><content><m:properties><d:Title>Batched</d:Title></m:properties></content></entry>" );
+      ODataResponse<StringProperty> bad = batch.post( StringProperty.class, web + "nosuchmethod()", null, (String)null );
+      ODataResponse<SpFolder> folder = batch.get( SpFolder.class, web + "getfolderbyserverrelativeurl('" + StandInServer.FOLDER + "')", null );
+      
+      ODataHttpException ex = assertThrows( ODataHttpException.class, batch::execute );
+      assertEquals( 400, ex.getStatusCode() );
+      assertTrue( ex.getErrorBody().contains( "The expression is not valid." ) );
+      assertEquals( 0, batch.size() );
+      assertEquals( 204, renamed.getStatusCode() );
+      assertEquals( 0, bad.getStatusCode() );
+      assertEquals( 0, folder.getStatusCode() );
+      assertNull( folder.getD() );
+      assertEquals( 0, server.getRequestCount( "GET", "/getfolderbyserverrelativeurl" ) );
+      
+      // The write that ran before the failure has invalidated the cached group
+      assertEquals( "Batched", service.get( SpGroup.class, group, null ).getD().Title );
+      assertEquals( 2, server.getRequestCount( "GET", "/sitegroups/getbyname" ) );
+    }
+  }
+  
+  @Test
+  public void refusedBatchStaysQueued() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory ) ) )
+    {
+      String web = server.getBase() + "web/";
+      ODataBatch batch = service.createBatch();
+      ODataResponse<SpFolder> folder = batch.get( SpFolder.class, web + "getfolderbyserverrelativeurl('" + StandInServer.FOLDER + "')", null );
+      
+      server.rejectWrites( 1, false );
+      ODataHttpException ex = assertThrows( ODataHttpException.class, batch::execute );
+      assertEquals( 403, ex.getStatusCode() );
+      assertTrue( ex.getErrorBody().contains( "Access denied" ) );
+      assertEquals( 1, batch.size() );
+      
+      batch.execute();
+      assertEquals( StandInServer.FOLDER, folder.getD().ServerRelativeUrl );
+      assertEquals( 0, batch.size() );
+    }
+  }
+}
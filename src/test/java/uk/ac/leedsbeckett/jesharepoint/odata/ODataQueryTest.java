@@ -0,0 +1,38 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the literals written into query options.
+ * 
+ * @author maber01
+ */
+public class ODataQueryTest
+{
+  @Test
+  public void floatingPointLiteralsUseEdmSpecialValues()
+  {
+    assertEquals( "1.5f", ODataQuery.literal( 1.5f ) );
+    assertEquals( "INFf", ODataQuery.literal( Float.POSITIVE_INFINITY ) );
+    assertEquals( "-INFf", ODataQuery.literal( Float.NEGATIVE_INFINITY ) );
+    assertEquals( "NaNf", ODataQuery.literal( Float.NaN ) );
+    assertEquals( "INFd", ODataQuery.literal( Double.POSITIVE_INFINITY ) );
+    assertEquals( "-INFd", ODataQuery.literal( Double.NEGATIVE_INFINITY ) );
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that non-blocking requests always complete and give back their
+ * concurrency permit.
+ * 
+ * @author maber01
+ */
+public class ODataServiceAsyncTest
+{
+  @TempDir
+  Path directory;
+  
+  @Test
+  public void rejectedHandlerFailsFutureAndKeepsPermit() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "MaxConcurrentRequests=1", "MinConcurrentRequests=1" ) ) )
+    {
+      String group = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      service.setAsyncExecutor( r -> { throw new RejectedExecutionException( "shut down" ); } );
+      ExecutionException ex = assertThrows( ExecutionException.class, 
+              () -> service.getAsync( SpGroup.class, group, null, false ).get( 10, TimeUnit.SECONDS ) );
+      assertInstanceOf( RejectedExecutionException.class, ex.getCause() );
+      
+      // The only permit must have been given back
+      service.setAsyncExecutor( Runnable::run );
+      assertEquals( StandInServer.GROUP_ID, service.getAsync( SpGroup.class, group, null, false ).get( 10, TimeUnit.SECONDS ).getD().Id );
+      assertEquals( StandInServer.GROUP_ID, service.get( SpGroup.class, group, null, false ).getD().Id );
+      assertEquals( 0, service.getConcurrencyLimiter().getInFlight() );
+    }
+  }
+}
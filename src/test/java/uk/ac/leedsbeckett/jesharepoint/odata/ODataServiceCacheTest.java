@@ -0,0 +1,77 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that cached responses don't outlive writes to the entities in them.
+ * 
+ * @author maber01
+ */
+public class ODataServiceCacheTest
+{
+  @TempDir
+  Path directory;
+  
+  @Test
+  public void readAfterWriteSeesChange() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "CacheMaxEntries=16" ) ) )
+    {
+      String group = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      SpGroup g = service.get( SpGroup.class, group, null ).getD();
+      service.get( SpGroup.class, group, null );
+      assertEquals( 1, server.getRequestCount( "GET", "/sitegroups/getbyname" ) );
+      
+      g.Title = "Changed";
+      assertTrue( service.update( g, "Title" ) );
+      assertEquals( "Changed", service.get( SpGroup.class, group, null ).getD().Title );
+      assertEquals( 2, server.getRequestCount( "GET", "/sitegroups/getbyname" ) );
+    }
+  }
+  
+  @Test
+  public void readOverlappingWriteIsntCached() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "CacheMaxEntries=16" ) ) )
+    {
+      String group = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      SpGroup g = service.get( SpGroup.class, group, null ).getD();
+      
+      // The read skips the cached copy and gets the old title but its 
+      // response arrives after the write
+      server.setGetDelayMillis( 1000L );
+      CompletableFuture<ODataResponse<SpGroup>> before = service.getAsync( SpGroup.class, group, null, false );
+      Thread.sleep( 200L );
+      g.Title = "Changed";
+      assertTrue( service.update( g, "Title" ) );
+      assertEquals( StandInServer.GROUP_NAME, before.get().getD().Title );
+      
+      server.setGetDelayMillis( 0L );
+      assertEquals( "Changed", service.get( SpGroup.class, group, null ).getD().Title );
+    }
+  }
+}
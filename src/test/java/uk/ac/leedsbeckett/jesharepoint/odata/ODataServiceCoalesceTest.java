@@ -0,0 +1,94 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpContextWebInformation;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the sharing of identical GET requests that are in flight at the
+ * same time.
+ * 
+ * @author maber01
+ */
+public class ODataServiceCoalesceTest
+{
+  @TempDir
+  Path directory;
+  
+  @Test
+  public void identicalGetsShareOneExchange() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory ) ) )
+    {
+      String group = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      server.setGetDelayMillis( 500L );
+      CompletableFuture<ODataResponse<SpGroup>> first = service.getAsync( SpGroup.class, group, null );
+      CompletableFuture<ODataResponse<SpGroup>> second = service.getAsync( SpGroup.class, group, null );
+      assertTrue( first.get().getD() != second.get().getD() );
+      assertEquals( 1, server.getRequestCount( "GET", "/sitegroups/getbyname" ) );
+    }
+  }
+  
+  @Test
+  public void contextInfoIsNotAWrite() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory ) ) )
+    {
+      String group = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      server.setGetDelayMillis( 1000L );
+      CompletableFuture<ODataResponse<SpGroup>> first = service.getAsync( SpGroup.class, group, null );
+      Thread.sleep( 200L );
+      // Fetched like the request digest is, while the GET is in flight
+      service.post( SpContextWebInformation.class, server.getBase() + "contextinfo", null, (String)null );
+      CompletableFuture<ODataResponse<SpGroup>> second = service.getAsync( SpGroup.class, group, null );
+      first.get();
+      second.get();
+      assertEquals( 1, server.getRequestCount( "GET", "/sitegroups/getbyname" ) );
+    }
+  }
+  
+  @Test
+  public void getAfterWriteDoesntJoinEarlierExchange() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory ) ) )
+    {
+      String group = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      SpGroup g = service.get( SpGroup.class, group, null ).getD();
+      
+      // A read that is still in flight when the write is made
+      server.setGetDelayMillis( 1000L );
+      CompletableFuture<ODataResponse<SpGroup>> before = service.getAsync( SpGroup.class, group, null );
+      Thread.sleep( 200L );
+      g.Title = "Changed";
+      assertTrue( service.update( g, "Title" ) );
+      
+      assertEquals( "Changed", service.get( SpGroup.class, group, null ).getD().Title );
+      before.get();
+      assertEquals( 3, server.getRequestCount( "GET", "/sitegroups/getbyname" ) );
+    }
+  }
+}
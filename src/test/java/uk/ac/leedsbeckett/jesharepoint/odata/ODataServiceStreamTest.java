@@ -0,0 +1,69 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpUser;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Checks that open streams don't hold on to concurrency permits.
+ * 
+ * @author maber01
+ */
+public class ODataServiceStreamTest
+{
+  @TempDir
+  Path directory;
+  
+  @Test
+  public void requestsWhileStreamingDontDeadlock() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "MaxConcurrentRequests=1", "MinConcurrentRequests=1" ) ) )
+    {
+      String users = server.getBase() + "web/sitegroups/getbyid(" + StandInServer.GROUP_ID + ")/users";
+      String group = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      assertTimeoutPreemptively( Duration.ofSeconds( 20 ), () -> 
+      {
+        int count = 0;
+        try ( Stream<SpUser> stream = service.stream( SpUser.class, users, null ) )
+        {
+          for ( Iterator<SpUser> i = stream.iterator(); i.hasNext(); count++ )
+          {
+            i.next();
+            assertEquals( StandInServer.GROUP_ID, service.get( SpGroup.class, group, null, false ).getD().Id );
+            assertEquals( StandInServer.GROUP_ID, service.getAsync( SpGroup.class, group, null, false ).get().getD().Id );
+          }
+        }
+        assertEquals( 5, count );
+        
+        // A stream that is abandoned without being closed doesn't keep a permit
+        service.stream( SpUser.class, users, null ).findFirst();
+        assertEquals( StandInServer.GROUP_ID, service.get( SpGroup.class, group, null, false ).getD().Id );
+      } );
+      assertEquals( 0, service.getConcurrencyLimiter().getInFlight() );
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that updates only send the properties that have changed.
+ * 
+ * @author maber01
+ */
+public class ODataServiceUpdateTest
+{
+  @TempDir
+  Path directory;
+  
+  @Test
+  public void trackedUpdateSendsOnlyChanges() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "TrackChanges=true" ) ) )
+    {
+      String url = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      SpGroup group = service.get( SpGroup.class, url, null ).getD();
+      
+      assertFalse( service.update( group ) );
+      assertEquals( 0, server.getRequestCount( "MERGE", "/sitegroups" ) );
+      
+      group.Title = "Changed";
+      assertTrue( service.update( group ) );
+      assertEquals( 1, server.getRequestCount( "MERGE", "/sitegroups" ) );
+      String body = server.getLastMergeBody();
+      assertTrue( body.contains( "<d:Title>Changed</d:Title>" ), body );
+      assertFalse( body.contains( "LoginName" ), body );
+      assertFalse( body.contains( "<d:Id" ), body );
+      assertEquals( "\"2\"", group.__metadata.etag );
+      
+      // The sent value is now the original so there is nothing more to send
+      assertFalse( service.update( group ) );
+      assertEquals( 1, server.getRequestCount( "MERGE", "/sitegroups" ) );
+    }
+  }
+  
+  @Test
+  public void trackingIsOffByDefault() throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory ) ) )
+    {
+      String url = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      SpGroup group = service.get( SpGroup.class, url, null ).getD();
+      assertNull( group.getOriginalValues() );
+      
+      // Without a record the changes can't be found so they must be named
+      assertThrows( IllegalStateException.class, () -> service.update( group ) );
+      assertTrue( service.update( group, "Title" ) );
+      assertTrue( server.getLastMergeBody().contains( "<d:Title>" + StandInServer.GROUP_NAME + "</d:Title>" ) );
+      assertEquals( 1, server.getRequestCount( "MERGE", "/sitegroups" ) );
+    }
+  }
+}
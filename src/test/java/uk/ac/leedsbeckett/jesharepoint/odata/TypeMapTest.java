@@ -0,0 +1,61 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.StringProperty;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpTestItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks how parsed properties are bound to the fields of mapped classes.
+ * 
+ * @author maber01
+ */
+public class TypeMapTest
+{
+  private final TypeMap typeMap = new TypeMap( "uk.ac.leedsbeckett.jesharepoint.sptypes" );
+  
+  @Test
+  public void registeredPackageIsNotScanned()
+  {
+    assertEquals( "SP.Group", typeMap.getType( SpGroup.class ) );
+    // The test classes are not in the registry
+    assertNull( typeMap.getType( SpTestItem.class ) );
+    
+    typeMap.addMappedClass( SpTestItem.class );
+    assertEquals( "SP.Data.TestItem", typeMap.getType( SpTestItem.class ) );
+    assertEquals( SpTestItem.class, typeMap.getEntityClass( "SP.Data.TestItem" ) );
+  }
+  
+  @Test
+  public void propertyOfWrongTypeIsRejected()
+  {
+    SpGroup group = new SpGroup();
+    StringProperty p = new StringProperty();
+    p.setValue( "Grp" );
+    
+    typeMap.setProperty( group, "Title", p );
+    assertEquals( "Grp", group.Title );
+    
+    // A navigation property field can't hold a string
+    assertThrows( IllegalArgumentException.class, () -> typeMap.setProperty( group, "Users", p ) );
+    assertNull( group.Users );
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.json;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.odata.ODataService;
+import uk.ac.leedsbeckett.jesharepoint.odata.ResponseFormat;
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.EntityCollection;
+import uk.ac.leedsbeckett.jesharepoint.odata.properties.StringProperty;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpGroup;
+import uk.ac.leedsbeckett.jesharepoint.sptypes.SpUser;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the reading of both JSON formats from the stand-in server.
+ * 
+ * @author maber01
+ */
+public class ODataJsonReaderTest
+{
+  private static final String TITLE = "\"Gr\u00fc\u00dfe\" & <\\ \r\n \uD83D\uDE00";
+  
+  @TempDir
+  Path directory;
+  
+  @ParameterizedTest
+  @EnumSource( value = ResponseFormat.class, names = { "JSON_VERBOSE", "JSON_NOMETADATA" } )
+  public void readsEntityAndNavigation( ResponseFormat format ) throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "ResponseFormat=" + format.name() ) ) )
+    {
+      server.setGroupTitle( TITLE );
+      String group = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')";
+      
+      SpGroup g = service.get( SpGroup.class, group, null ).getD();
+      assertEquals( StandInServer.GROUP_ID, g.Id );
+      assertEquals( TITLE, g.Title );
+      if ( format == ResponseFormat.JSON_VERBOSE )
+      {
+        assertEquals( "\"1\"", g.__metadata.etag );
+        assertTrue( g.Users.isDeferred() );
+        assertEquals( server.getBase() + "Web/SiteGroups/GetById(" + StandInServer.GROUP_ID + ")/Users", g.Users.getDeferredUri() );
+      }
+      else
+        assertNull( g.Users );
+      
+      // Expanded in "results" when verbose and as a bare array otherwise
+      g = service.get( SpGroup.class, group, "$expand=Users" ).getD();
+      assertEquals( 5, g.Users.size() );
+      assertEquals( "User & 4", g.Users.getEntity( 4 ).Title );
+      assertEquals( "user4@x.ac.uk", g.Users.getEntity( 4 ).Email );
+    }
+  }
+  
+  @ParameterizedTest
+  @EnumSource( value = ResponseFormat.class, names = { "JSON_VERBOSE", "JSON_NOMETADATA" } )
+  public void followsNextLinks( ResponseFormat format ) throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "ResponseFormat=" + format.name() ) ) )
+    {
+      server.setUserPageSize( 2 );
+      String users = server.getBase() + "web/sitegroups/getbyid(" + StandInServer.GROUP_ID + ")/users";
+      
+      EntityCollection<SpUser> ec = service.getEC( SpUser.class, users, null ).getD();
+      assertEquals( 5, ec.getEntities().size() );
+      assertEquals( "User & 4", ec.getEntities().get( 4 ).Title );
+      assertNull( ec.getNextLink() );
+      assertEquals( 3, server.getRequestCount( "GET", "/users" ) );
+      
+      List<Integer> ids = service.stream( SpUser.class, users, null ).map( u -> u.Id ).collect( Collectors.toList() );
+      assertEquals( List.of( 0, 1, 2, 3, 4 ), ids );
+      assertEquals( 6, server.getRequestCount( "GET", "/users" ) );
+    }
+  }
+  
+  @ParameterizedTest
+  @EnumSource( value = ResponseFormat.class, names = { "JSON_VERBOSE", "JSON_NOMETADATA" } )
+  public void readsPrimitiveValue( ResponseFormat format ) throws Exception
+  {
+    try ( StandInServer server = new StandInServer();
+          ODataService service = new ODataService( server.settings( directory, "ResponseFormat=" + format.name() ) ) )
+    {
+      server.setGroupTitle( TITLE );
+      String title = server.getBase() + "web/sitegroups/getbyname('" + StandInServer.GROUP_NAME + "')/Title";
+      
+      // The verbose format names the property and the other uses "value"
+      StringProperty p = service.get( StringProperty.class, title, null ).getD();
+      assertEquals( TITLE, p.getValue() );
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.properties;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the parsing of Edm.DateTime and Edm.Byte values.
+ * 
+ * @author maber01
+ */
+public class EdmFormatTest
+{
+  @Test
+  public void parsesUsualForms()
+  {
+    assertEquals( Instant.parse( "2024-02-29T04:05:06Z" ), EdmFormat.parseDateTime( "2024-02-29T04:05:06Z" ) );
+    assertEquals( Instant.parse( "2024-02-03T04:05:00Z" ), EdmFormat.parseDateTime( "2024-02-03T04:05" ) );
+    assertEquals( Instant.parse( "2024-02-03T04:05:06.123Z" ), EdmFormat.parseDateTime( "2024-02-03T04:05:06.1230000" ) );
+    assertEquals( Instant.parse( "2024-02-03T03:05:06Z" ), EdmFormat.parseDateTime( "2024-02-03T04:05:06+01:00" ) );
+    assertEquals( Instant.ofEpochMilli( 1706933106000L ), EdmFormat.parseDateTime( "/Date(1706933106000)/" ) );
+  }
+  
+  @Test
+  public void rejectsDaysBeyondEndOfMonth()
+  {
+    assertThrows( DateTimeParseException.class, () -> EdmFormat.parseDateTime( "2024-02-30T00:00:00Z" ) );
+    assertThrows( DateTimeParseException.class, () -> EdmFormat.parseDateTime( "2023-02-29T00:00:00Z" ) );
+    assertThrows( DateTimeParseException.class, () -> EdmFormat.parseDateTime( "2024-04-31T00:00:00Z" ) );
+  }
+  
+  @Test
+  public void rejectsTruncatedText()
+  {
+    assertThrows( DateTimeParseException.class, () -> EdmFormat.parseDateTime( "2024-02-03T04:05:" ) );
+    assertThrows( DateTimeParseException.class, () -> EdmFormat.parseDateTime( "2024-02-03T04:05:0" ) );
+    assertThrows( DateTimeParseException.class, () -> EdmFormat.parseDateTime( "2024-02-03T04:" ) );
+  }
+  
+  @Test
+  public void fractionStopsAtNonAsciiDigit()
+  {
+    // An Arabic-Indic digit is a digit to Character.isDigit but not here
+    assertThrows( DateTimeParseException.class, () -> EdmFormat.parseDateTime( "2024-02-03T04:05:06.1\u0662" ) );
+  }
+  
+  @Test
+  public void bytesUseTheirOwnRange()
+  {
+    assertEquals( (byte)200, EdmFormat.parseByte( "200" ) );
+    assertEquals( 0, EdmFormat.parseByte( "0" ) );
+    assertThrows( NumberFormatException.class, () -> EdmFormat.parseByte( "-1" ) );
+    assertThrows( NumberFormatException.class, () -> EdmFormat.parseByte( "256" ) );
+    
+    assertEquals( -128, EdmFormat.parseSByte( "-128" ) );
+    assertEquals( 127, EdmFormat.parseSByte( "127" ) );
+    assertThrows( NumberFormatException.class, () -> EdmFormat.parseSByte( "128" ) );
+    assertThrows( NumberFormatException.class, () -> EdmFormat.parseSByte( "-129" ) );
+    
+    ByteProperty b = new ByteProperty();
+    b.setFromXmlRepresentation( "255" );
+    assertEquals( 255, b.getValue() );
+    assertThrows( NumberFormatException.class, () -> new SByteProperty().setFromXmlRepresentation( "255" ) );
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2025 maber01.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leedsbeckett.jesharepoint.odata.sax;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import uk.ac.leedsbeckett.jesharepoint.StandInServer;
+import uk.ac.leedsbeckett.jesharepoint.odata.TypeMap;
+import uk.ac.leedsbeckett.jesharepoint.odata.annotation.ODataRegistries;
+import uk.ac.leedsbeckett.jesharepoint.odata.sax.nodes.XmlDocument;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Keeps the memory retained by parsed nodes from growing again. The limit
+ * per entry has some head room over what was measured when nodes stopped
+ * keeping the SAX attributes, about 2.1KB with the whole tree retained.
+ * 
+ * @author maber01
+ */
+public class XmlNodeFootprintTest
+{
+  private static final int ENTRIES = 20000;
+  private static final long MAX_BYTES_PER_ENTRY = 2800L;
+  
+  @Test
+  public void nodesDontKeepSaxAttributes()
+  {
+    assertFalse( ODataRegistries.getNodeFactories().isEmpty() );
+    for ( Class<?> c : ODataRegistries.getNodeFactories().keySet() )
+      for ( Class<?> k = c; k != null; k = k.getSuperclass() )
+        for ( Field f : k.getDeclaredFields() )
+          assertFalse( Attributes.class.isAssignableFrom( f.getType() ), k.getName() + "." + f.getName() );
+  }
+  
+  @Test
+  public void retainedHeapPerEntry() throws Exception
+  {
+    byte[] feed;
+    try ( StandInServer server = new StandInServer() )
+    {
+      feed = server.users( ENTRIES ).getBytes( StandardCharsets.UTF_8 );
+    }
+    TypeMap typeMap = new TypeMap( "uk.ac.leedsbeckett.jesharepoint.sptypes" );
+    SAXParserFactory spf = SAXParserFactory.newInstance();
+    spf.setNamespaceAware( true );
+    SAXParser parser = spf.newSAXParser();
+    // Warm up so that class loading isn't counted
+    parse( parser, typeMap, feed );
+    
+    long before = usedHeap();
+    XmlDocument doc = parse( parser, typeMap, feed );
+    long after = usedHeap();
+    assertEquals( ENTRIES, doc.getODataValues().size() );
+    Reference.reachabilityFence( doc );
+    
+    long perEntry = ( after - before ) / ENTRIES;
+    assertTrue( perEntry < MAX_BYTES_PER_ENTRY, "Retained " + perEntry + " bytes per entry" );
+  }
+  
+  /**
+   * Parses a feed keeping the whole node tree, which is what the limit 
+   * is meant to keep an eye on.
+   */
+  private static XmlDocument parse( SAXParser parser, TypeMap typeMap, byte[] feed ) throws Exception
+  {
+    ODataSaxHandler handler = new ODataSaxHandler( "application/atom+xml;type=feed;charset=utf-8", typeMap );
+    handler.setRetainTree( true );
+    parser.reset();
+    XMLReader reader = parser.getXMLReader();
+    reader.setContentHandler( handler );
+    reader.parse( new InputSource( new ByteArrayInputStream( feed ) ) );
+    // Otherwise the parser keeps the handler and so the previous document
+    reader.setContentHandler( new DefaultHandler() );
+    return handler.getXmlDocument();
+  }
+  
+  private static long usedHeap() throws InterruptedException
+  {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // Collect until the figure settles
+    for ( int i = 0; i < 10; i++ )
+    {
+      System.gc();
+      Thread.sleep( 50 );
+      long now = runtime.totalMemory() - runtime.freeMemory();
+      if ( now >= used - 1024 && now <= used + 1024 )
+        return now;
+      used = now;
+    }
+    return used;
+  }
+}
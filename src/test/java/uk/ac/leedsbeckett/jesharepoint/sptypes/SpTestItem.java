@@ -13,41 +13,20 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package uk.ac.leedsbeckett.jesharepoint.odata.sax;
+package uk.ac.leedsbeckett.jesharepoint.sptypes;
+
+import uk.ac.leedsbeckett.jesharepoint.odata.containers.Entity;
+import uk.ac.leedsbeckett.jesharepoint.odata.annotation.ODataMapping;
 
 /**
- *
+ * A mapped class that is compiled without the annotation processor so it
+ * is not in the generated registry.
+ * 
  * @author maber01
  */
-public class FQName
+@ODataMapping( "SP.Data.TestItem" )
+public class SpTestItem extends Entity
 {
-  String ns;
-  String name;
-
-  public FQName( String ns, String name )
-  {
-    this.ns = ns;
-    this.name = name;
-  }
-
-  @Override
-  public int hashCode()
-  {
-    return ns.hashCode() ^ name.hashCode();
-  }
-
-  @Override
-  public String toString()
-  {
-    return ns + " " + name;
-  }
-
-  @Override
-  public boolean equals( Object obj )
-  {
-    if ( !(this.getClass().equals( obj.getClass() ) ) )
-      return false;
-    FQName other = (FQName)obj;
-    return name.equals( other.name ) && ns.equals( other.ns );
-  }  
+  public int Id;
+  public String Title;
 }